@@ -8,7 +8,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
@@ -61,8 +64,11 @@ public abstract class AbstractDb<T extends DbData<?>> {
     /**
      * The internal data structure of the database that resides in memory.  The beating heart
      * of the database while it runs.
+     * <br>
+     * It is kept sorted by index, so that the data can be read in order
+     * a page at a time.  See {@link #scanFrom(long, int)}
      */
-    protected final Map<Long, T> data;
+    protected final ConcurrentNavigableMap<Long, T> data;
 
     /**
      * The current index, used when creating new data items.  Each item has its own
@@ -87,14 +93,49 @@ public abstract class AbstractDb<T extends DbData<?>> {
      */
     protected final Map<String, Function<T, String>> partitioningMap;
 
+    /**
+     * The full-text indexes.  The outer map is between the name of the index and the inner map.
+     * <br>
+     * The inner map is between each lower-cased word and the set of indexes of the
+     * data whose text contains that word (a "posting list").  It is kept sorted,
+     * so that all the words with a given prefix sit next to each other.
+     * <br>
+     * See {@link #registerFullTextIndex(String, Function)}
+     */
+    protected final Map<String, NavigableMap<String, Set<Long>>> fullTextIndexes;
+
+    /**
+     * The functions registered to the full-text indexes, which obtain
+     * the text to be searched from each item in the database.
+     */
+    protected final Map<String, Function<T, String>> fullTextFunctions;
+
+    /**
+     * The unique indexes.  The outer map is between the name of the index and the inner map,
+     * which is between each key and the one item having it.
+     * <br>
+     * See {@link #registerUniqueIndex(String, Function)}
+     */
+    protected final Map<String, Map<String, T>> uniqueIndexes;
+
+    /**
+     * The functions registered to the unique indexes, which obtain
+     * the key from each item in the database.
+     */
+    protected final Map<String, Function<T, String>> uniqueIndexFunctions;
+
     protected AbstractDb(Path dbDirectory, Context context, T instance) {
         this.dbDirectory = dbDirectory;
         this.context = context;
         this.emptyInstance = instance;
-        this.data = new ConcurrentHashMap<>();
+        this.data = new ConcurrentSkipListMap<>();
         this.logger = context.getLogger();
         this.registeredIndexes = new HashMap<>();
         this.partitioningMap = new HashMap<>();
+        this.fullTextIndexes = new HashMap<>();
+        this.fullTextFunctions = new HashMap<>();
+        this.uniqueIndexes = new HashMap<>();
+        this.uniqueIndexFunctions = new HashMap<>();
         this.fileUtils = new FileUtils(logger, context.getConstants());
     }
 
@@ -152,6 +193,25 @@ public abstract class AbstractDb<T extends DbData<?>> {
      */
     public abstract T write(T newData);
 
+    /**
+     * Write data to the database, returning a future that completes once the
+     * data has reached the configured durability point (see {@link DurabilityLevel}
+     * and DATABASE_DURABILITY in minum.config).
+     * <p>
+     *     The data is in memory, readable by others, by the time this method returns.
+     *     This is useful when making several changes: send them all, then wait once.
+     * </p>
+     * <p><em>Example:</em></p>
+     * {@snippet :
+     *     var futures = photos.stream().map(photoDb::writeAsync).toList();
+     *     CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+     * }
+     * @param newData the data we are writing
+     * @return a future of the data with its new index assigned.  If the write
+     * fails, the future completes exceptionally with a {@link DbException}
+     */
+    public abstract CompletableFuture<T> writeAsync(T newData);
+
     /**
      * Write database data into memory
      * @param newData the new data may be totally new or an update
@@ -163,11 +223,23 @@ public abstract class AbstractDb<T extends DbData<?>> {
         T oldData = data.put(newData.getIndex(), newData);
 
         // handle the indexes differently depending on whether this is a create or delete
-        if (newElementCreated) {
-            addToIndexes(newData);
-        } else {
-            removeFromIndexes(oldData);
-            addToIndexes(newData);
+        try {
+            if (newElementCreated) {
+                addToIndexes(newData);
+            } else {
+                removeFromIndexes(oldData);
+                addToIndexes(newData);
+            }
+        } catch (DbException ex) {
+            // put things back as they were, so a failed write leaves nothing behind
+            removeFromIndexes(newData);
+            if (oldData == null) {
+                data.remove(newData.getIndex());
+            } else {
+                data.put(oldData.getIndex(), oldData);
+                addToIndexes(oldData);
+            }
+            throw ex;
         }
     }
 
@@ -179,6 +251,7 @@ public abstract class AbstractDb<T extends DbData<?>> {
      * @return true if a create, false if an update
      */
     protected boolean processDataIndex(T newData) {
+        checkUniqueIndexes(newData);
         // *** deal with the in-memory portion ***
         boolean newElementCreated = false;
         // create a new index for the data, if needed
@@ -188,8 +261,7 @@ public abstract class AbstractDb<T extends DbData<?>> {
         } else {
             // if the data does not exist, and a positive non-zero
             // index was provided, throw an exception.
-            boolean dataEntryExists = data.values().stream().anyMatch(x -> x.getIndex() == newData.getIndex());
-            if (!dataEntryExists) {
+            if (!data.containsKey(newData.getIndex())) {
                 throw new DbException(
                         String.format("Positive indexes are only allowed when updating existing data. Index: %d",
                                 newData.getIndex()));
@@ -209,6 +281,15 @@ public abstract class AbstractDb<T extends DbData<?>> {
      */
     public abstract void delete(T dataToDelete);
 
+    /**
+     * Delete data, returning a future that completes once the deletion has
+     * reached the configured durability point.  See {@link #writeAsync(DbData)}
+     * @param dataToDelete the data we are deleting
+     * @return a future of the deleted data.  If the delete fails, the future
+     * completes exceptionally with a {@link DbException}
+     */
+    public abstract CompletableFuture<T> deleteAsync(T dataToDelete);
+
 
     /**
      * Remove a particular item from the internal data structure in memory
@@ -229,12 +310,35 @@ public abstract class AbstractDb<T extends DbData<?>> {
         // if all the data was just now deleted, we need to
         // reset the index back to 1
 
-        if (data.isEmpty()) {
+        if (hasNoData()) {
             index.set(1);
         }
     }
 
 
+    /**
+     * Throw an exception if writing this data would give two items
+     * the same key in a unique index.
+     */
+    private void checkUniqueIndexes(T newData) {
+        for (var entry : uniqueIndexFunctions.entrySet()) {
+            String key = entry.getValue().apply(newData);
+            if (key == null) continue;
+            T existingData = uniqueIndexes.get(entry.getKey()).get(key);
+            if (existingData != null && existingData.getIndex() != newData.getIndex()) {
+                throw new DbException("Unique index \"%s\" already has an item with key %s. Existing item's index: %d"
+                        .formatted(entry.getKey(), key, existingData.getIndex()));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the database holds no data at all
+     */
+    protected boolean hasNoData() {
+        return data.isEmpty();
+    }
+
     /**
      *  add the data to registered indexes.
      *  <br>
@@ -260,12 +364,31 @@ public abstract class AbstractDb<T extends DbData<?>> {
             Set<T> dataSet = stringIndexMap.get(propertyAsString);
             dataSet.add(dbData);
         }
+
+        for (var entry : uniqueIndexFunctions.entrySet()) {
+            String key = entry.getValue().apply(dbData);
+            if (key == null) continue;
+            T existingData = uniqueIndexes.get(entry.getKey()).putIfAbsent(key, dbData);
+            if (existingData != null && existingData.getIndex() != dbData.getIndex()) {
+                throw new DbException("Unique index \"%s\" already has an item with key %s. Existing item's index: %d. New item's index: %d"
+                        .formatted(entry.getKey(), key, existingData.getIndex(), dbData.getIndex()));
+            }
+        }
+
+        for (var entry : fullTextFunctions.entrySet()) {
+            NavigableMap<String, Set<Long>> postings = fullTextIndexes.get(entry.getKey());
+            for (String word : tokenize(entry.getValue().apply(dbData))) {
+                synchronized (this) {
+                    postings.computeIfAbsent(word, k -> ConcurrentHashMap.newKeySet()).add(dbData.getIndex());
+                }
+            }
+        }
     }
 
     /**
      * Run when an item is deleted from the database
      */
-    private void removeFromIndexes(T dbData) {
+    protected void removeFromIndexes(T dbData) {
         for (var entry : partitioningMap.entrySet()) {
             // a function provided by the user to obtain an index-key: a unique or semi-unique
             // value to help partition / index the data
@@ -273,15 +396,71 @@ public abstract class AbstractDb<T extends DbData<?>> {
             String propertyAsString = indexStringFunction.apply(dbData);
             Map<String, Set<T>> stringIndexMap = registeredIndexes.get(entry.getKey());
             synchronized (this) {
-                stringIndexMap.get(propertyAsString).removeIf(x -> x.getIndex() == dbData.getIndex());
+                Set<T> dataSet = stringIndexMap.get(propertyAsString);
+                if (dataSet == null) continue;
+                dataSet.removeIf(x -> x.getIndex() == dbData.getIndex());
 
                 // in certain cases, we're removing one of the items that is indexed but
                 // there are more left.  If there's nothing left though, we'll remove the mapping.
-                if (stringIndexMap.get(propertyAsString).isEmpty()) {
+                if (dataSet.isEmpty()) {
                     stringIndexMap.remove(propertyAsString);
                 }
             }
         }
+
+        for (var entry : uniqueIndexFunctions.entrySet()) {
+            String key = entry.getValue().apply(dbData);
+            if (key == null) continue;
+            uniqueIndexes.get(entry.getKey()).computeIfPresent(key, (k, v) -> v.getIndex() == dbData.getIndex() ? null : v);
+        }
+
+        for (var entry : fullTextFunctions.entrySet()) {
+            NavigableMap<String, Set<Long>> postings = fullTextIndexes.get(entry.getKey());
+            for (String word : tokenize(entry.getValue().apply(dbData))) {
+                synchronized (this) {
+                    Set<Long> dataIndexes = postings.get(word);
+                    if (dataIndexes != null) {
+                        dataIndexes.remove(dbData.getIndex());
+                        if (dataIndexes.isEmpty()) {
+                            postings.remove(word);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Split text into lower-cased words, for the full-text indexes.  A word
+     * is a run of letters and digits - everything else separates words.
+     * <br>
+     * Example: "Hello, World! 123" becomes ["hello", "world", "123"]
+     * @return the distinct words in the text, in order of appearance.  Empty if the text is null.
+     */
+    static Set<String> tokenize(String text) {
+        return tokenize(text, false);
+    }
+
+    /**
+     * See {@link #tokenize(String)}
+     * @param keepAsterisks if true, an asterisk is treated as part of a word. Used
+     *                      when reading a search query, where it marks a prefix search.
+     */
+    private static Set<String> tokenize(String text, boolean keepAsterisks) {
+        Set<String> words = new LinkedHashSet<>();
+        if (text == null) return words;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isWordCharacter = i < text.length() &&
+                    (Character.isLetterOrDigit(text.charAt(i)) || (keepAsterisks && text.charAt(i) == '*'));
+            if (isWordCharacter && start == -1) {
+                start = i;
+            } else if (!isWordCharacter && start != -1) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
     }
 
 
@@ -305,6 +484,63 @@ public abstract class AbstractDb<T extends DbData<?>> {
      */
     public abstract Collection<T> values();
 
+    /**
+     * Read a page of data, in order of index, starting just after the given index.
+     * <p>
+     *     The index of the last item on a page serves as the cursor for the next
+     *     page.  The cost of a page depends only on its size, not on the size of
+     *     the database.  Writes and deletes happening in the meantime do not cause
+     *     items to be skipped or repeated across pages - each item is read by its index,
+     *     not by its position.
+     * </p>
+     * <p><em>Example:</em></p>
+     * {@snippet :
+     *     List<Photograph> page = photoDb.scanFrom(0, 20);
+     *     while (!page.isEmpty()) {
+     *         // ... use the page ...
+     *         page = photoDb.scanFrom(page.getLast().getIndex(), 20);
+     *     }
+     * }
+     * @param afterIndex only items with an index greater than this are returned.  Use 0
+     *                   to start from the beginning.
+     * @param limit the most items to return
+     * @return up to limit items, in ascending order of index
+     * @throws DbException if the limit is negative
+     */
+    public List<T> scanFrom(long afterIndex, int limit) {
+        return scan(afterIndex, limit, false);
+    }
+
+    /**
+     * Like {@link #scanFrom(long, int)}, but in descending order of index - newest first.
+     * @param beforeIndex only items with an index less than this are returned.  Use
+     *                    {@link Long#MAX_VALUE} to start from the newest item.
+     * @param limit the most items to return
+     * @return up to limit items, in descending order of index
+     * @throws DbException if the limit is negative
+     */
+    public List<T> scanFromDescending(long beforeIndex, int limit) {
+        return scan(beforeIndex, limit, true);
+    }
+
+    /**
+     * The code behind {@link #scanFrom(long, int)} and {@link #scanFromDescending(long, int)}
+     */
+    protected List<T> scan(long startIndex, int limit, boolean isDescending) {
+        if (limit < 0) {
+            throw new DbException("The limit when scanning data must not be negative. Limit: " + limit);
+        }
+        Collection<T> view = isDescending ?
+                data.headMap(startIndex, false).descendingMap().values() :
+                data.tailMap(startIndex, false).values();
+        List<T> page = new ArrayList<>(Math.min(limit, 1000));
+        Iterator<T> iterator = view.iterator();
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
     /**
      * Register an index in the database for higher performance data access.
      * <p>
@@ -339,7 +575,7 @@ public abstract class AbstractDb<T extends DbData<?>> {
         if (indexName == null || indexName.isBlank()) {
             throw new DbException("When registering an index, value must be a non-empty string");
         }
-        if (registeredIndexes.containsKey(indexName)) {
+        if (registeredIndexes.containsKey(indexName) || uniqueIndexes.containsKey(indexName) || fullTextIndexes.containsKey(indexName)) {
             throw new DbException("It is forbidden to register the same index more than once.  Duplicate index: \""+indexName+"\"");
         }
         HashMap<String, Set<T>> stringCollectionHashMap = new HashMap<>();
@@ -357,6 +593,11 @@ public abstract class AbstractDb<T extends DbData<?>> {
      * @return a collection of data, an empty collection if nothing found
      */
     public Collection<T> getIndexedData(String indexName, String key) {
+        Map<String, T> uniqueIndex = uniqueIndexes.get(indexName);
+        if (uniqueIndex != null) {
+            T value = key == null ? null : uniqueIndex.get(key);
+            return value == null ? Set.of() : Set.of(value);
+        }
         if (!registeredIndexes.containsKey(indexName)) {
             throw new DbException("There is no index registered on the database Db<"+this.emptyInstance.getClass().getSimpleName()+"> with a name of \""+indexName+"\"");
         }
@@ -373,6 +614,183 @@ public abstract class AbstractDb<T extends DbData<?>> {
         return partitioningMap.keySet();
     }
 
+    /**
+     * Register a unique index, for finding an item by a key that no other
+     * item has - a username, a session id, an email address.
+     * <p>
+     *     Compared with {@link #registerIndex(String, Function)}, each key maps
+     *     straight to its item, rather than to a set holding one item, which uses
+     *     less memory.  Look up items with {@link #findUnique(String, String)},
+     *     which returns the item itself.  {@link #findExactlyOne(String, String)} and
+     *     {@link #getIndexedData(String, String)} work with unique indexes as well.
+     * </p>
+     * <p>
+     *     Writing an item whose key is already held by a different item throws a
+     *     {@link DbException}, and nothing is written.  Items whose key is null are not indexed.
+     * </p>
+     * <p>
+     *     As with {@link #registerIndex(String, Function)}, this must be run immediately
+     *     after database declaration, before any data is loaded.  If the data already on
+     *     disk has duplicate keys, loading it will throw an exception.
+     * </p>
+     * <br>
+     * Example:
+     *  {@snippet :
+     *           final var userDb = context.getDb2("users", User.EMPTY);
+     *           userDb.registerUniqueIndex("username", User::getUsername);
+     *           ...
+     *           User user = userDb.findUnique("username", "alice");
+     *  }
+     * @param indexName a string used to distinguish this index
+     * @param keyObtainingFunction a function which obtains the unique key from an item
+     * @return true if the registration succeeded
+     * @throws DbException if the parameters are not entered properly, or if an
+     * index has already been registered with this name
+     */
+    public boolean registerUniqueIndex(String indexName, Function<T, String> keyObtainingFunction) {
+        if (keyObtainingFunction == null) {
+            throw new DbException("When registering a unique index, the key-obtaining function must not be null");
+        }
+        if (indexName == null || indexName.isBlank()) {
+            throw new DbException("When registering a unique index, value must be a non-empty string");
+        }
+        if (uniqueIndexes.containsKey(indexName) || registeredIndexes.containsKey(indexName) || fullTextIndexes.containsKey(indexName)) {
+            throw new DbException("It is forbidden to register the same index more than once.  Duplicate index: \""+indexName+"\"");
+        }
+        uniqueIndexes.put(indexName, new ConcurrentHashMap<>());
+        uniqueIndexFunctions.put(indexName, keyObtainingFunction);
+        return true;
+    }
+
+    /**
+     * Find the item with the given key in a unique index.  See {@link #registerUniqueIndex(String, Function)}
+     * @param indexName the name of a unique index
+     * @param key the key, like a username
+     * @return the item, or null if no item has this key
+     */
+    public T findUnique(String indexName, String key) {
+        Map<String, T> uniqueIndex = uniqueIndexes.get(indexName);
+        if (uniqueIndex == null) {
+            throw new DbException("There is no unique index registered on the database Db<"+this.emptyInstance.getClass().getSimpleName()+"> with a name of \""+indexName+"\"");
+        }
+        return key == null ? null : uniqueIndex.get(key);
+    }
+
+    /**
+     * Register a full-text index, for searching the words of some text in
+     * each item of the database.
+     * <p>
+     *     The text is split into lower-cased words (see {@link #tokenize(String)}),
+     *     and each word is mapped to the items containing it.  The mapping is kept
+     *     up to date on each write and delete.  Searching is then a matter of
+     *     looking up the words, with no need to examine every item in the database.
+     * </p>
+     * <p>
+     *     As with {@link #registerIndex(String, Function)}, this must be run immediately
+     *     after database declaration, before any data is loaded.
+     * </p>
+     * <br>
+     * Example:
+     *  {@snippet :
+     *           final var myDatabase = context.getDb2("photos", Photograph.EMPTY);
+     *           myDatabase.registerFullTextIndex("description", photo -> photo.getDescription());
+     *           ...
+     *           Collection<Photograph> sunsets = myDatabase.searchAllWords("description", "beach sun*");
+     *  }
+     * @param indexName a string used to distinguish this index, used again
+     *                  in {@link #searchAllWords(String, String)} and {@link #searchAnyWords(String, String)}
+     * @param textObtainingFunction a function which obtains the text to be searched from an item
+     * @return true if the registration succeeded
+     * @throws DbException if the parameters are not entered properly, or if an
+     * index has already been registered with this name
+     */
+    public boolean registerFullTextIndex(String indexName, Function<T, String> textObtainingFunction) {
+        if (textObtainingFunction == null) {
+            throw new DbException("When registering a full-text index, the text-obtaining function must not be null");
+        }
+        if (indexName == null || indexName.isBlank()) {
+            throw new DbException("When registering a full-text index, value must be a non-empty string");
+        }
+        if (fullTextIndexes.containsKey(indexName) || registeredIndexes.containsKey(indexName) || uniqueIndexes.containsKey(indexName)) {
+            throw new DbException("It is forbidden to register the same index more than once.  Duplicate index: \""+indexName+"\"");
+        }
+        fullTextIndexes.put(indexName, new ConcurrentSkipListMap<>());
+        fullTextFunctions.put(indexName, textObtainingFunction);
+        return true;
+    }
+
+    /**
+     * Search a full-text index for the items containing every word of the query.
+     * A word ending in an asterisk matches by prefix - for example, "sun*" matches
+     * "sun", "sunset", and "sunny".  Case does not matter.
+     * <br>
+     * See {@link #registerFullTextIndex(String, Function)}
+     * @param indexName the name of a full-text index
+     * @param query one or more words
+     * @return the matching items, in no particular order.  Empty if nothing matched,
+     * or if the query has no words.
+     */
+    public Collection<T> searchAllWords(String indexName, String query) {
+        return searchFullText(indexName, query, true);
+    }
+
+    /**
+     * Search a full-text index for the items containing at least one word of the query.
+     * Like {@link #searchAllWords(String, String)}, a word ending in an asterisk matches by prefix.
+     * @param indexName the name of a full-text index
+     * @param query one or more words
+     * @return the matching items, in no particular order.  Empty if nothing matched,
+     * or if the query has no words.
+     */
+    public Collection<T> searchAnyWords(String indexName, String query) {
+        return searchFullText(indexName, query, false);
+    }
+
+    /**
+     * The code behind {@link #searchAllWords(String, String)} and {@link #searchAnyWords(String, String)}
+     * @param matchAllWords if true, an item must contain every word of the query.  If false, any one.
+     */
+    protected Collection<T> searchFullText(String indexName, String query, boolean matchAllWords) {
+        NavigableMap<String, Set<Long>> postings = fullTextIndexes.get(indexName);
+        if (postings == null) {
+            throw new DbException("There is no full-text index registered on the database Db<"+this.emptyInstance.getClass().getSimpleName()+"> with a name of \""+indexName+"\"");
+        }
+        List<Set<Long>> matchesPerWord = new ArrayList<>();
+        for (String word : tokenize(query, true)) {
+            if (word.endsWith("*")) {
+                String prefix = word.replace("*", "");
+                Set<Long> prefixMatches = new HashSet<>();
+                for (Set<Long> dataIndexes : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                    prefixMatches.addAll(dataIndexes);
+                }
+                matchesPerWord.add(prefixMatches);
+            } else {
+                matchesPerWord.add(postings.getOrDefault(word.replace("*", ""), Set.of()));
+            }
+        }
+        if (matchesPerWord.isEmpty()) return List.of();
+
+        Set<Long> result;
+        if (matchAllWords) {
+            // start from the smallest set, so the work done is bounded by the rarest word
+            matchesPerWord.sort(Comparator.comparingInt(Set::size));
+            result = new HashSet<>(matchesPerWord.getFirst());
+            for (int i = 1; i < matchesPerWord.size() && !result.isEmpty(); i++) {
+                result.retainAll(matchesPerWord.get(i));
+            }
+        } else {
+            result = new HashSet<>();
+            matchesPerWord.forEach(result::addAll);
+        }
+
+        List<T> items = new ArrayList<>(result.size());
+        for (long dataIndex : result) {
+            T item = data.get(dataIndex);
+            if (item != null) items.add(item);
+        }
+        return items;
+    }
+
     /**
      * A utility to find exactly one item from the database.
      * <br>
@@ -413,6 +831,15 @@ public abstract class AbstractDb<T extends DbData<?>> {
      * @see #findExactlyOne(String, String)
      */
     public T findExactlyOne(String indexName, String indexKey, Callable<T> alternate) {
+        if (uniqueIndexes.containsKey(indexName)) {
+            T value = findUnique(indexName, indexKey);
+            if (value != null) return value;
+            try {
+                return alternate.call();
+            } catch (Exception ex) {
+                throw new DbException(ex);
+            }
+        }
         Collection<T> indexedData = getIndexedData(indexName, indexKey);
         if (indexedData.isEmpty()) {
             try {
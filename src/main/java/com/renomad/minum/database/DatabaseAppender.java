@@ -11,12 +11,17 @@ import com.renomad.minum.utils.StacktraceUtils;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -31,17 +36,44 @@ final class DatabaseAppender {
      * This can be used to parse the file names to {@link java.util.Date} so we can process the oldest
      * file first.
      */
-    static final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS");
+    private static final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS");
+
+    /**
+     * Convert a date to the name of an append log.  {@link SimpleDateFormat} is not
+     * safe to share between threads, and the appender and consolidator run on
+     * different threads, so all use of it goes through here.
+     */
+    static String formatAppendLogName(Date date) {
+        synchronized (simpleDateFormat) {
+            return simpleDateFormat.format(date);
+        }
+    }
+
+    /**
+     * The reverse of {@link #formatAppendLogName(Date)}
+     */
+    static Date parseAppendLogName(String filename) throws ParseException {
+        synchronized (simpleDateFormat) {
+            return simpleDateFormat.parse(filename);
+        }
+    }
 
     private final Path persistenceDirectory;
 
     Writer bufferedWriter;
 
+    /**
+     * The channel underneath {@link #bufferedWriter}, kept so we can
+     * fsync the current append log.  Only used while holding {@link #moveFileLock},
+     * so that a flush never forces a channel which is being closed by rotation.
+     */
+    private FileChannel appendLogChannel;
+
     /**
      * if true, there is data in the buffered writer that needs to be
      * written to disk using {@link BufferedWriter#flush()}
      */
-    private boolean bufferedWriterHasUnwrittenData;
+    private volatile boolean bufferedWriterHasUnwrittenData;
 
     /**
      * This class field tracks the status of the loop which runs
@@ -49,6 +81,23 @@ final class DatabaseAppender {
      */
     private boolean flushLoopRunning;
 
+    /**
+     * Completed by the next flush.  Everyone waiting on a flush shares
+     * this one future, so one flush serves many writes.
+     * See {@link #whenDurable(DurabilityLevel, Object)}
+     */
+    private CompletableFuture<Void> nextFlush;
+
+    /**
+     * Completed by the next flush that also forces the data to
+     * the storage device.
+     */
+    private CompletableFuture<Void> nextFsync;
+
+    private boolean hasFlushWaiters;
+    private boolean hasFsyncWaiters;
+    private final Object durabilityLock = new Object();
+
     /**
      * The directory for this database
      */
@@ -62,6 +111,10 @@ final class DatabaseAppender {
 
     private final ILogger logger;
 
+    /**
+     * Held while moving on to a new append log, and while flushing, so the two
+     * never overlap.  It is reentrant, since moving on to a new file flushes first.
+     */
     private final ReentrantLock moveFileLock;
 
     /**
@@ -81,7 +134,7 @@ final class DatabaseAppender {
     /**
      * This is the count of bytes that have been appended
      */
-    private long appendBytes;
+    private volatile long appendBytes;
 
     DatabaseAppender(Path persistenceDirectory, Context context) throws IOException {
         this.persistenceDirectory = persistenceDirectory;
@@ -93,6 +146,8 @@ final class DatabaseAppender {
         this.maxAppendCount = constants.maxAppendCount;
         fileUtils.makeDirectory(this.appendLogDirectory);
         moveFileLock = new ReentrantLock();
+        nextFlush = new CompletableFuture<>();
+        nextFsync = new CompletableFuture<>();
         createNewAppendFile();
     }
 
@@ -111,6 +166,7 @@ final class DatabaseAppender {
         if (Files.exists(currentAppendFile)) {
             List<String> lines = Files.readAllLines(currentAppendFile);
             appendCount = lines.size();
+            appendBytes = Files.size(currentAppendFile);
         } else {
             // reset the count to zero, we're starting a new file.
             logger.logDebug(() -> "Creating a new database append file. Previous file: %,d lines, %.2f megabytes".formatted(appendCount, (appendBytes / 1_048_576.0)));
@@ -118,7 +174,8 @@ final class DatabaseAppender {
             appendBytes = 0;
         }
 
-        bufferedWriter = Files.newBufferedWriter(currentAppendFile, StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        appendLogChannel = FileChannel.open(currentAppendFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        bufferedWriter = new BufferedWriter(Channels.newWriter(appendLogChannel, StandardCharsets.US_ASCII));
     }
 
     /**
@@ -143,13 +200,44 @@ final class DatabaseAppender {
         return newlyCreatedFileName;
     }
 
-    private void setBufferedWriterHasUnwrittenData() {
+    /**
+     * The count of bytes appended to the current append log
+     */
+    long getAppendBytes() {
+        return appendBytes;
+    }
+
+    private synchronized void setBufferedWriterHasUnwrittenData() {
         bufferedWriterHasUnwrittenData = true;
         if (!flushLoopRunning) {
+            flushLoopRunning = true;
             initializeTimedFlusher();
         }
     }
 
+    /**
+     * Returns a future that completes with the given value once everything appended
+     * so far has reached the durability level.  The timed flusher completes
+     * all the waiting futures at once, each time it runs.
+     */
+    <R> CompletableFuture<R> whenDurable(DurabilityLevel durabilityLevel, R value) {
+        if (durabilityLevel == DurabilityLevel.BUFFERED) {
+            return CompletableFuture.completedFuture(value);
+        }
+        CompletableFuture<Void> batch;
+        synchronized (durabilityLock) {
+            if (durabilityLevel == DurabilityLevel.FLUSHED) {
+                hasFlushWaiters = true;
+                batch = nextFlush;
+            } else {
+                hasFsyncWaiters = true;
+                batch = nextFsync;
+            }
+        }
+        setBufferedWriterHasUnwrittenData();
+        return batch.thenApply(x -> value);
+    }
+
     /**
      * This method is kicked off when there is new data added to
      * the {@link BufferedWriter}.  While there is data to write, it
@@ -157,20 +245,43 @@ final class DatabaseAppender {
      * no more data, it will end.
      */
     private void initializeTimedFlusher() {
-        Runnable timedFlusherLoop = () -> {
-            flushLoopRunning = true;
-            Thread.currentThread().setName("database_timed_flusher");
-            while (bufferedWriterHasUnwrittenData) {
-                flush();
+        executorService.submit(this::runTimedFlusherLoop);
+    }
+
+    private void runTimedFlusherLoop() {
+        Thread.currentThread().setName("database_timed_flusher");
+        boolean hasStoppedNormally = false;
+        try {
+            while (true) {
+                try {
+                    flush();
+                } catch (DbException ex) {
+                    // those waiting on this flush have been told of the failure.  We carry
+                    // on, so that later writes are not left waiting on a loop that has died.
+                    logger.logAsyncError(() -> "Error in database_timed_flusher: " + StacktraceUtils.stackTraceToString(ex));
+                }
 
                 // this code only runs when there is data to add, so no need to take a
                 // lot of waiting time.  But, if the data is coming fast and furious,
                 // at least a small wait will allow greater efficiency.
                 MyThread.sleep(50);
+
+                synchronized (this) {
+                    if (!bufferedWriterHasUnwrittenData) {
+                        flushLoopRunning = false;
+                        hasStoppedNormally = true;
+                        return;
+                    }
+                }
+            }
+        } finally {
+            // if something unexpected ended the loop, let the next write start it again
+            if (!hasStoppedNormally) {
+                synchronized (this) {
+                    flushLoopRunning = false;
+                }
             }
-            flushLoopRunning = false;
-        };
-        executorService.submit(timedFlusherLoop);
+        }
     }
 
     /**
@@ -192,10 +303,19 @@ final class DatabaseAppender {
      * @return the name of the newly-created file
      */
     String saveOffCurrentDataToReadyFolder() throws IOException {
-        flush();
-        String newFileName = moveToReadyFolder();
-        createNewAppendFile();
-        return newFileName;
+        moveFileLock.lock();
+        try {
+            flush();
+            // someone may yet be waiting for an fsync of the data in this file, so
+            // force it to the storage device before we move on to a new file.
+            appendLogChannel.force(false);
+            appendLogChannel.close();
+            String newFileName = moveToReadyFolder();
+            createNewAppendFile();
+            return newFileName;
+        } finally {
+            moveFileLock.unlock();
+        }
     }
 
     /**
@@ -204,14 +324,55 @@ final class DatabaseAppender {
      * @return the name of the new file
      */
     private String moveToReadyFolder() throws IOException {
-        String appendFile = simpleDateFormat.format(new java.util.Date());
+        Date date = new Date();
+        String appendFile = formatAppendLogName(date);
+        // if a file was moved here in this same millisecond, step forward until the name is free
+        while (Files.exists(this.appendLogDirectory.resolve(appendFile))) {
+            date = new Date(date.getTime() + 1);
+            appendFile = formatAppendLogName(date);
+        }
         Files.move(persistenceDirectory.resolve("currentAppendLog"), this.appendLogDirectory.resolve(appendFile));
         return appendFile;
     }
 
+    /**
+     * Write the buffered data to disk, and complete the futures of those
+     * waiting for it.  See {@link #whenDurable(DurabilityLevel, Object)}
+     */
     void flush() {
-        flush(this.bufferedWriter, this.logger);
+        CompletableFuture<Void> flushed = null;
+        CompletableFuture<Void> fsynced = null;
+        synchronized (durabilityLock) {
+            if (hasFlushWaiters) {
+                flushed = nextFlush;
+                nextFlush = new CompletableFuture<>();
+                hasFlushWaiters = false;
+            }
+            if (hasFsyncWaiters) {
+                fsynced = nextFsync;
+                nextFsync = new CompletableFuture<>();
+                hasFsyncWaiters = false;
+            }
+        }
+        // cleared before flushing, so that data appended while we
+        // flush will be caught by the next flush
         this.bufferedWriterHasUnwrittenData = false;
+        moveFileLock.lock();
+        try {
+            flush(this.bufferedWriter, this.logger);
+            if (fsynced != null) {
+                appendLogChannel.force(false);
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (flushed != null) flushed.completeExceptionally(ex);
+            if (fsynced != null) fsynced.completeExceptionally(ex);
+            if (ex instanceof DbException dbException) throw dbException;
+            throw new DbException(ex);
+        } finally {
+            moveFileLock.unlock();
+        }
+        if (flushed != null) flushed.complete(null);
+        if (fsynced != null) fsynced.complete(null);
     }
 
     static void flush(Writer writer, ILogger logger) {
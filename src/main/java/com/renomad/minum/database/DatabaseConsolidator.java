@@ -8,11 +8,14 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
-import static com.renomad.minum.database.DatabaseAppender.simpleDateFormat;
+import static com.renomad.minum.database.DatabaseAppender.formatAppendLogName;
+import static com.renomad.minum.database.DatabaseAppender.parseAppendLogName;
 
 /**
  * Consolidates the database append logs.
@@ -37,10 +40,40 @@ final class DatabaseConsolidator {
      */
     private final Path consolidatedDataDirectory;
 
+    /**
+     * Consolidated files are first written here in full, and then moved
+     * over their destination in one step.  That way, a consolidated file
+     * on disk is never seen half-written, and a file that was hard-linked
+     * elsewhere (see {@link DbEngine2#backup(Path)}) is never changed in place.
+     */
+    private final Path consolidationTempFile;
+
+    /**
+     * Held while consolidation is running.  Other code may hold
+     * this lock to keep the files on disk steady, such as while
+     * taking a backup.
+     */
+    final ReentrantLock consolidationLock;
+
     private final ILogger logger;
 
     private final int maxLinesPerFile;
 
+    // statistics, reported by DbEngine2#getStats().  They are only
+    // changed while holding the consolidationLock.
+
+    /**
+     * The number of consolidations which had append logs to process
+     */
+    volatile long consolidationCount;
+    volatile long lastConsolidationMillis;
+    volatile long totalConsolidationMillis;
+
+    /**
+     * The total size of the consolidated files written
+     */
+    volatile long bytesRewritten;
+
     /**
      * This represents an instruction for how to change the overall consolidated
      * database files on disk.  Instructions are either to UPDATE or DELETE. This
@@ -51,6 +84,8 @@ final class DatabaseConsolidator {
     DatabaseConsolidator(Path persistenceDirectory, Context context) {
         this.appendLogDirectory = persistenceDirectory.resolve("append_logs");
         this.consolidatedDataDirectory = persistenceDirectory.resolve("consolidated_data");
+        this.consolidationTempFile = persistenceDirectory.resolve("consolidation_in_progress");
+        this.consolidationLock = new ReentrantLock();
         var constants = context.getConstants();
         this.logger = context.getLogger();
         FileUtils fileUtils = new FileUtils(logger, constants);
@@ -62,13 +97,62 @@ final class DatabaseConsolidator {
      * Loop through all the append-only files
      */
     void consolidate() throws IOException {
+        consolidationLock.lock();
+        try {
+            consolidateInner();
+        } finally {
+            consolidationLock.unlock();
+        }
+    }
+
+    /**
+     * Replace all the consolidated data with the given data, writing the
+     * consolidated files directly rather than going through the append logs.
+     * Any append logs still waiting are consolidated first, so that none
+     * of their changes are later applied on top of the new data.
+     * See {@link DbEngine2#bulkImport(java.util.stream.Stream)}
+     * @param sortedData serialized data, by index
+     * @return the number of files written
+     */
+    int replaceAllData(NavigableMap<Long, String> sortedData) throws IOException {
+        consolidationLock.lock();
+        try {
+            consolidateInner();
+            logger.logDebug(() -> "Replacing all consolidated data in " + consolidatedDataDirectory);
+            long startTime = System.currentTimeMillis();
+            try (var existingFiles = Files.list(consolidatedDataDirectory)) {
+                for (Path existingFile : existingFiles.toList()) {
+                    Files.delete(existingFile);
+                }
+            }
+            int fileCount = 0;
+            while (!sortedData.isEmpty()) {
+                long partitionStart = (((sortedData.firstKey() - 1) / maxLinesPerFile) * maxLinesPerFile) + 1;
+                long partitionEnd = partitionStart + (maxLinesPerFile - 1);
+                String filename = String.format("%d_to_%d", partitionStart, partitionEnd);
+                Files.write(consolidationTempFile, sortedData.headMap(partitionEnd, true).values(), StandardCharsets.US_ASCII);
+                bytesRewritten += Files.size(consolidationTempFile);
+                Files.move(consolidationTempFile, consolidatedDataDirectory.resolve(filename), StandardCopyOption.ATOMIC_MOVE);
+                sortedData = sortedData.tailMap(partitionEnd, false);
+                fileCount += 1;
+            }
+            lastConsolidationMillis = System.currentTimeMillis() - startTime;
+            totalConsolidationMillis += lastConsolidationMillis;
+            consolidationCount += 1;
+            return fileCount;
+        } finally {
+            consolidationLock.unlock();
+        }
+    }
+
+    private void consolidateInner() throws IOException {
         logger.logDebug(() -> "Starting database consolidator");
         List<Date> sortedList = getSortedAppendLogs(appendLogDirectory);
         if (sortedList.isEmpty()) {
             logger.logDebug(() -> "No database files found to consolidate - exiting");
             return;
         } else {
-            logger.logDebug(() -> "Files to consolidate: " + sortedList.stream().map(simpleDateFormat::format).collect(Collectors.joining(";")));
+            logger.logDebug(() -> "Files to consolidate: " + sortedList.stream().map(DatabaseAppender::formatAppendLogName).collect(Collectors.joining(";")));
         }
 
         // process the files in order.  This does potentially cause
@@ -78,12 +162,16 @@ final class DatabaseConsolidator {
         // so there should only be one write to each file per loop.
         //
         // after each append-only file is fully processed, it gets deleted.
+        long startTime = System.currentTimeMillis();
         for (Date date : sortedList) {
-            String filename = simpleDateFormat.format(date);
+            String filename = formatAppendLogName(date);
             logger.logDebug(() -> "consolidator processing file " + filename + " in " + appendLogDirectory);
             processAppendLogFile(filename);
             logger.logDebug(() -> "consolidator finished with file " + filename + " in " + appendLogDirectory);
         }
+        lastConsolidationMillis = System.currentTimeMillis() - startTime;
+        totalConsolidationMillis += lastConsolidationMillis;
+        consolidationCount += 1;
         logger.logDebug(() -> "Database consolidation finished");
     }
 
@@ -151,8 +239,10 @@ final class DatabaseConsolidator {
             // update the data in memory per the instructions
             Collection<String> updatedData = updateData(filename, data, instructions.getValue());
 
-            // write the data to disk
-            Files.write(fullPathToConsolidatedFile, updatedData, StandardCharsets.US_ASCII);
+            // write the data to disk, replacing the previous file in one step
+            Files.write(consolidationTempFile, updatedData, StandardCharsets.US_ASCII);
+            bytesRewritten += Files.size(consolidationTempFile);
+            Files.move(consolidationTempFile, fullPathToConsolidatedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
     }
 
@@ -291,7 +381,7 @@ final class DatabaseConsolidator {
         for (String file : listOfFiles) {
             Date date;
             try {
-                date = simpleDateFormat.parse(file);
+                date = parseAppendLogName(file);
             } catch (ParseException e) {
                 throw new DbException(e);
             }
@@ -12,6 +12,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -32,6 +34,13 @@ public class Db<T extends DbData<?>> extends AbstractDb<T> {
     private final AbstractActionQueue actionQueue;
     private final ReentrantLock loadDataLock = new ReentrantLock();
 
+    /**
+     * Held while changing the data in memory, so that the check for a clash in a
+     * unique index and the write which follows it happen as one step.  Otherwise,
+     * two writes with the same key could both pass the check.
+     */
+    private final ReentrantLock memoryLock = new ReentrantLock();
+
     /**
      * The full path to the file that contains the most-recent index
      * for this data.  As we add new files, each gets its own index
@@ -121,12 +130,7 @@ public class Db<T extends DbData<?>> extends AbstractDb<T> {
      */
     @Override
     public T write(T newData) {
-        if (newData.getIndex() < 0) throw new DbException("Negative indexes are disallowed");
-        // load data if needed
-        if (!hasLoadedData) loadData();
-
-        boolean newElementCreated = processDataIndex(newData);
-        writeToMemory(newData, newElementCreated);
+        prepareWrite(newData);
 
         // *** now handle the disk portion ***
         actionQueue.enqueue("persist data to disk", () -> writeToDisk(newData));
@@ -136,6 +140,66 @@ public class Db<T extends DbData<?>> extends AbstractDb<T> {
         return newData;
     }
 
+    /**
+     * Write data to the database, returning a future that completes once
+     * the data has been written to its file.  For this database, that
+     * happens on the action queue, after the call to {@link #write(DbData)} returns.
+     * See {@link AbstractDb#writeAsync(DbData)}
+     */
+    @Override
+    public CompletableFuture<T> writeAsync(T newData) {
+        var future = new CompletableFuture<T>();
+        try {
+            prepareWrite(newData);
+
+            actionQueue.enqueue("persist data to disk", () -> {
+                try {
+                    writeToDisk(newData);
+                    future.complete(newData);
+                } catch (Exception ex) {
+                    future.completeExceptionally(new DbException(ex));
+                }
+            });
+        } catch (Exception ex) {
+            future.completeExceptionally(ex instanceof DbException ? ex : new DbException(ex));
+        }
+        return future;
+    }
+
+    /**
+     * The in-memory portion of a write, shared by {@link #write(DbData)}
+     * and {@link #writeAsync(DbData)}
+     */
+    private void prepareWrite(T newData) {
+        if (newData.getIndex() < 0) throw new DbException("Negative indexes are disallowed");
+        // load data if needed
+        if (!hasLoadedData) loadData();
+
+        memoryLock.lock();
+        try {
+            boolean newElementCreated = processDataIndex(newData);
+            writeToMemory(newData, newElementCreated);
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    /**
+     * The in-memory portion of a delete, shared by {@link #delete(DbData)}
+     * and {@link #deleteAsync(DbData)}
+     */
+    private void prepareDelete(T dataToDelete) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+
+        memoryLock.lock();
+        try {
+            deleteFromMemory(dataToDelete);
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
     private void writeToDisk(T newData) {
         final Path fullPath = dbDirectory.resolve(newData.getIndex() + DATABASE_FILE_SUFFIX);
         logger.logTrace(() -> String.format("writing data to %s", fullPath));
@@ -160,34 +224,64 @@ public class Db<T extends DbData<?>> extends AbstractDb<T> {
      */
     @Override
     public void delete(T dataToDelete) {
-        // load data if needed
-        if (!hasLoadedData) loadData();
-
         // deal with the in-memory portion
-        deleteFromMemory(dataToDelete);
+        prepareDelete(dataToDelete);
 
         // now handle the disk portion
         actionQueue.enqueue("delete data from disk", () -> deleteFromDisk(dataToDelete));
     }
 
-    private void deleteFromDisk(T dataToDelete) {
-        final Path fullPath = dbDirectory.resolve(dataToDelete.getIndex() + DATABASE_FILE_SUFFIX);
-        logger.logTrace(() -> String.format("deleting data at %s", fullPath));
+    /**
+     * Delete data, returning a future that completes once its file has
+     * been deleted on the action queue.
+     * See {@link AbstractDb#deleteAsync(DbData)}
+     */
+    @Override
+    public CompletableFuture<T> deleteAsync(T dataToDelete) {
+        var future = new CompletableFuture<T>();
         try {
-            if (!fullPath.toFile().exists()) {
-                throw new DbException(fullPath + " must already exist before deletion");
-            }
-            Files.delete(fullPath);
-            if (maxIndexOnDisk > index.get()) {
-                maxIndexOnDisk = index.get();
-                fileUtils.writeString(fullPathForIndexFile, String.valueOf(maxIndexOnDisk));
+            prepareDelete(dataToDelete);
+
+            actionQueue.enqueue("delete data from disk", () -> {
+                try {
+                    deleteFile(dataToDelete);
+                    future.complete(dataToDelete);
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex instanceof DbException ? ex : new DbException(ex));
+                }
+            });
+        } catch (Exception ex) {
+            future.completeExceptionally(ex instanceof DbException ? ex : new DbException(ex));
+        }
+        return future;
+    }
 
-            }
+    private void deleteFromDisk(T dataToDelete) {
+        try {
+            deleteFile(dataToDelete);
         } catch (Exception ex) {
+            final Path fullPath = dbDirectory.resolve(dataToDelete.getIndex() + DATABASE_FILE_SUFFIX);
             logger.logAsyncError(() -> "failed to delete file " + fullPath + " during deleteOnDisk. Exception: " + ex);
         }
     }
 
+    /**
+     * Delete the file for some data, throwing if that fails.  See {@link #deleteFromDisk(DbData)}
+     * for the version which only logs the failure.
+     */
+    private void deleteFile(T dataToDelete) throws IOException {
+        final Path fullPath = dbDirectory.resolve(dataToDelete.getIndex() + DATABASE_FILE_SUFFIX);
+        logger.logTrace(() -> String.format("deleting data at %s", fullPath));
+        if (!fullPath.toFile().exists()) {
+            throw new DbException(fullPath + " must already exist before deletion");
+        }
+        Files.delete(fullPath);
+        if (maxIndexOnDisk > index.get()) {
+            maxIndexOnDisk = index.get();
+            fileUtils.writeString(fullPathForIndexFile, String.valueOf(maxIndexOnDisk));
+        }
+    }
+
     /**
      * Grabs all the data from disk and returns it as a list.  This
      * method is run by various programs when the system first loads.
@@ -326,6 +420,45 @@ public class Db<T extends DbData<?>> extends AbstractDb<T> {
         return super.registerIndex(indexName, keyObtainingFunction);
     }
 
+    @Override
+    public boolean registerUniqueIndex(String indexName, Function<T, String> keyObtainingFunction) {
+        if (hasLoadedData) {
+            throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
+                    "it should be run immediately after the database is created.  See this method's documentation");
+        }
+        return super.registerUniqueIndex(indexName, keyObtainingFunction);
+    }
+
+    @Override
+    public T findUnique(String indexName, String key) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        return super.findUnique(indexName, key);
+    }
+
+    @Override
+    public boolean registerFullTextIndex(String indexName, Function<T, String> textObtainingFunction) {
+        if (hasLoadedData) {
+            throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
+                    "it should be run immediately after the database is created.  See this method's documentation");
+        }
+        return super.registerFullTextIndex(indexName, textObtainingFunction);
+    }
+
+    @Override
+    protected List<T> scan(long startIndex, int limit, boolean isDescending) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        return super.scan(startIndex, limit, isDescending);
+    }
+
+    @Override
+    protected Collection<T> searchFullText(String indexName, String query, boolean matchAllWords) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        return super.searchFullText(indexName, query, matchAllWords);
+    }
+
     /**
      * Given the name of a registered index (see {@link #registerIndex(String, Function)}),
      * use the key to find the collection of data that matches it.
@@ -50,7 +50,8 @@ public abstract class DbData<T>{
     /**
      * deserializes the text back into an object.  See helper
      * method {@link com.renomad.minum.utils.SerializationUtils#deserializeHelper(String)} to split a serialized
-     * string into tokens for rebuilding the object.  See
+     * string into tokens for rebuilding the object, or {@link com.renomad.minum.utils.FieldReader}
+     * to read the fields one at a time with less overhead.  See
      * also {@link #serialize()}
      *
      * <p>
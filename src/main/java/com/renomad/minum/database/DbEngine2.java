@@ -1,14 +1,19 @@
 package com.renomad.minum.database;
 
 import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.SerializationUtils;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -108,6 +113,43 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
      */
     boolean consolidationIsRunning;
 
+    /**
+     * If this database is the primary in a replication setup, this
+     * sends each change to the followers.  See {@link ReplicationPrimary}
+     */
+    volatile ReplicationPrimary<T> replicationPrimary;
+
+    /**
+     * If true, this database is a follower in a replication setup, and
+     * only the primary may change its data.  See {@link ReplicationFollower}
+     */
+    volatile boolean isReplica;
+
+    /**
+     * If true, items are kept in their serialized form when loaded from disk,
+     * and only deserialized when first needed.  See {@link #useLazyLoading()}
+     */
+    private boolean isLazyLoading;
+
+    /**
+     * When lazy loading, the items which have not yet been deserialized,
+     * held as the ASCII bytes of their serialized form, by index.
+     */
+    final ConcurrentSkipListMap<Long, byte[]> unmaterializedData = new ConcurrentSkipListMap<>();
+    private final ReentrantLock materializeLock = new ReentrantLock();
+
+    /**
+     * If not null, repeated string values are shared between items
+     * as they are deserialized.  See {@link #useStringInterning()}
+     */
+    private Map<String, String> stringPool;
+
+    // statistics, reported by getStats()
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder deleteCount = new LongAdder();
+    private volatile long lastLoadMillis;
+
     /**
      * Constructs an in-memory disk-persisted database.
      * Loading of data from disk happens at the first invocation of any command
@@ -168,19 +210,27 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
     @Override
     public T write(T newData) {
         if (newData.getIndex() < 0) throw new DbException("Negative indexes are disallowed");
+        if (isReplica) throw new DbException("This database is a read replica. Writes must go to the primary");
         // load data if needed
         if (!hasLoadedData) loadData();
 
+        long startTime = System.nanoTime();
         writeLock.lock();
         try {
+            if (newData.getIndex() > 0) materialize(List.of(newData.getIndex()));
             boolean newElementCreated = processDataIndex(newData);
-            writeToDisk(newData);
+            String serializedData = writeToDisk(newData);
             writeToMemory(newData, newElementCreated);
+            if (replicationPrimary != null) {
+                replicationPrimary.ship(DatabaseChangeAction.UPDATE, serializedData);
+            }
         } catch (IOException ex) {
            throw new DbException("failed to write data " + newData, ex);
         } finally {
             writeLock.unlock();
         }
+        writeLatency.record(System.nanoTime() - startTime);
+        writeCount.increment();
 
         // returning the data at this point is the most convenient
         // way users will have access to the new index of the data.
@@ -188,7 +238,25 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
     }
 
 
-    private void writeToDisk(T newData) throws IOException {
+    /**
+     * Write data to the database, returning a future that completes once the
+     * data has reached the configured durability point.  Waiting writes
+     * share flushes (and fsyncs), so sending many writes and then waiting
+     * once costs little more than a single write.
+     * See {@link AbstractDb#writeAsync(DbData)}
+     */
+    @Override
+    public CompletableFuture<T> writeAsync(T newData) {
+        try {
+            return databaseAppender.whenDurable(context.getConstants().databaseDurability, write(newData));
+        } catch (RuntimeException ex) {
+            // as with Db, any failure - including from the data's own serialize() or
+            // an index function - is reported through the future
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private String writeToDisk(T newData) throws IOException {
         logger.logTrace(() -> String.format("writing data to disk: %s", newData));
         String serializedData = newData.serialize();
         mustBeFalse(serializedData == null || serializedData.isBlank(),
@@ -197,6 +265,7 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         databaseAppender.appendToDatabase(DatabaseChangeAction.UPDATE, serializedData);
         appendCount.incrementAndGet();
         consolidateIfNecessary();
+        return serializedData;
     }
 
     /**
@@ -248,25 +317,48 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
      */
     @Override
     public void delete(T dataToDelete) {
+        if (isReplica) throw new DbException("This database is a read replica. Deletes must go to the primary");
         // load data if needed
         if (!hasLoadedData) loadData();
 
         writeLock.lock();
         try {
-            deleteFromDisk(dataToDelete);
+            if (dataToDelete != null) materialize(List.of(dataToDelete.getIndex()));
+            String serializedData = deleteFromDisk(dataToDelete);
             deleteFromMemory(dataToDelete);
+            if (replicationPrimary != null) {
+                replicationPrimary.ship(DatabaseChangeAction.DELETE, serializedData);
+            }
         } catch (IOException ex) {
             throw new DbException("failed to delete data " + dataToDelete, ex);
         } finally {
             writeLock.unlock();
         }
+        deleteCount.increment();
+    }
+
+    /**
+     * Delete data, returning a future that completes once the deletion
+     * has reached the configured durability point.
+     * See {@link AbstractDb#deleteAsync(DbData)}
+     */
+    @Override
+    public CompletableFuture<T> deleteAsync(T dataToDelete) {
+        try {
+            delete(dataToDelete);
+            return databaseAppender.whenDurable(context.getConstants().databaseDurability, dataToDelete);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
     }
 
-    private void deleteFromDisk(T dataToDelete) throws IOException {
+    private String deleteFromDisk(T dataToDelete) throws IOException {
         logger.logTrace(() -> String.format("deleting data from disk: %s", dataToDelete));
-        databaseAppender.appendToDatabase(DatabaseChangeAction.DELETE, dataToDelete.serialize());
+        String serializedData = dataToDelete.serialize();
+        databaseAppender.appendToDatabase(DatabaseChangeAction.DELETE, serializedData);
         appendCount.incrementAndGet();
         consolidateIfNecessary();
+        return serializedData;
     }
 
 
@@ -299,11 +391,13 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         // load the data into memory
         walkAndLoad(dbDirectory);
 
-        if (data.isEmpty()) {
+        if (hasNoData()) {
             this.index = new AtomicLong(1);
         } else {
-            var initialIndex = Collections.max(data.keySet()) + 1L;
-            this.index = new AtomicLong(initialIndex);
+            long lastIndex = Math.max(
+                    data.isEmpty() ? 0 : data.lastKey(),
+                    unmaterializedData.isEmpty() ? 0 : unmaterializedData.lastKey());
+            this.index = new AtomicLong(lastIndex + 1L);
         }
     }
 
@@ -350,14 +444,19 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
 
     /**
      * Converts a serialized string to a strongly-typed data structure
-     * and adds it to the database.
+     * and adds it to the database.  If lazy loading, only the index is
+     * read, and the rest is kept as bytes until it is needed.
      */
     void readAndDeserialize(String lineOfData, String fileName) {
         try {
-            @SuppressWarnings("unchecked")
-            T deserializedData = (T) emptyInstance.deserialize(lineOfData);
-            mustBeTrue(deserializedData != null, "deserialization of " + emptyInstance +
-                    " resulted in a null value. Was the serialization method implemented properly?");
+            if (isLazyLoading) {
+                // the index is always the first field
+                int endOfIndex = lineOfData.indexOf('|');
+                long dataIndex = Long.parseLong(lineOfData, 0, endOfIndex == -1 ? lineOfData.length() : endOfIndex, 10);
+                unmaterializedData.put(dataIndex, lineOfData.getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            T deserializedData = deserialize(lineOfData);
 
             // put the data into the in-memory data structure
             data.put(deserializedData.getIndex(), deserializedData);
@@ -369,6 +468,102 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
     }
 
 
+    /**
+     * Deserialize one item, sharing its string values with
+     * other items if string interning is on.
+     */
+    T deserialize(String serializedData) {
+        @SuppressWarnings("unchecked")
+        T deserializedData = stringPool == null ?
+                (T) emptyInstance.deserialize(serializedData) :
+                SerializationUtils.withStringPool(stringPool, () -> (T) emptyInstance.deserialize(serializedData));
+        mustBeTrue(deserializedData != null, "deserialization of " + emptyInstance +
+                " resulted in a null value. Was the serialization method implemented properly?");
+        return deserializedData;
+    }
+
+    /**
+     * When lazy loading, deserialize the items at these indexes (if they
+     * have not been already) and move them into the in-memory data.
+     */
+    private void materialize(Collection<Long> indexes) {
+        if (unmaterializedData.isEmpty()) return;
+        materializeLock.lock();
+        try {
+            for (long dataIndex : indexes) {
+                byte[] serializedData = unmaterializedData.get(dataIndex);
+                if (serializedData == null) continue;
+                // put it in the data before removing the bytes, so
+                // readers always find it in one place or the other
+                data.put(dataIndex, deserialize(new String(serializedData, StandardCharsets.US_ASCII)));
+                unmaterializedData.remove(dataIndex);
+            }
+        } finally {
+            materializeLock.unlock();
+        }
+    }
+
+    /**
+     * Keeps each item in its serialized form when it is loaded from disk,
+     * deserializing it only when it is first needed.
+     * <p>
+     *     A large database whose code only ever reads a small part of its data,
+     *     or reads it page-by-page with {@link #scanFrom(long, int)}, will
+     *     start faster and use less memory this way.  Calling {@link #values()}
+     *     deserializes everything.
+     * </p>
+     * <p>
+     *     Indexes need every item deserialized, so this cannot be used
+     *     along with {@link #registerIndex(String, Function)},
+     *     {@link #registerUniqueIndex(String, Function)}, or
+     *     {@link #registerFullTextIndex(String, Function)}.
+     * </p>
+     * <p>
+     *     Like registering an index, this must be called before the data is loaded,
+     *     typically immediately after the database is created.
+     * </p>
+     * @throws DbException if the data is already loaded, or if indexes are registered
+     */
+    public void useLazyLoading() {
+        if (hasLoadedData) {
+            throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
+                    "it should be run immediately after the database is created.  See this method's documentation");
+        }
+        if (!partitioningMap.isEmpty() || !fullTextFunctions.isEmpty() || !uniqueIndexFunctions.isEmpty()) {
+            throw new DbException("Lazy loading cannot be used with indexes");
+        }
+        isLazyLoading = true;
+    }
+
+    /**
+     * Shares repeated string values between items as they are deserialized.
+     * <p>
+     *     If many items hold the same values - a status, a country, a category -
+     *     each would otherwise keep its own copy of the string.  With this on,
+     *     they all point at one.  Values longer than 64 characters are not shared.
+     * </p>
+     * <p>
+     *     The pool of shared values lasts as long as the database, and is never pruned,
+     *     so it may keep values which no item holds anymore.  To bound that, it stops
+     *     taking new values once it holds 100,000 of them - after that, only the values
+     *     already pooled are shared.  This suits data with a modest set of repeated
+     *     values; for data whose values are mostly unique, leave this off.
+     * </p>
+     * <p>
+     *     This only applies to items deserialized with {@link SerializationUtils#deserializeHelper(String)}
+     *     or {@link com.renomad.minum.utils.FieldReader}.  It must be called before the data is loaded,
+     *     typically immediately after the database is created.
+     * </p>
+     * @throws DbException if the data is already loaded
+     */
+    public void useStringInterning() {
+        if (hasLoadedData) {
+            throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
+                    "it should be run immediately after the database is created.  See this method's documentation");
+        }
+        stringPool = new ConcurrentHashMap<>();
+    }
+
     /**
      * This is what loads the data from disk the
      * first time someone needs it.  Because it is
@@ -381,7 +576,9 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         loadDataLock.lock(); // block threads here if multiple are trying to get in - only one gets in at a time
         try {
             if (!hasLoadedData) {
+                long startTime = System.currentTimeMillis();
                 loadDataFromDisk();
+                lastLoadMillis = System.currentTimeMillis() - startTime;
             }
             hasLoadedData = true;
         } catch (Exception ex) {
@@ -407,6 +604,7 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
     public Collection<T> values() {
         // load data if needed
         if (!hasLoadedData) loadData();
+        materialize(List.copyOf(unmaterializedData.keySet()));
 
         return Collections.unmodifiableCollection(data.values());
     }
@@ -417,10 +615,64 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
             throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
                     "it should be run immediately after the database is created.  See this method's documentation");
         }
+        if (isLazyLoading) {
+            throw new DbException("Lazy loading cannot be used with indexes");
+        }
         return super.registerIndex(indexName, keyObtainingFunction);
     }
 
 
+    @Override
+    public boolean registerUniqueIndex(String indexName, Function<T, String> keyObtainingFunction) {
+        if (hasLoadedData) {
+            throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
+                    "it should be run immediately after the database is created.  See this method's documentation");
+        }
+        if (isLazyLoading) {
+            throw new DbException("Lazy loading cannot be used with indexes");
+        }
+        return super.registerUniqueIndex(indexName, keyObtainingFunction);
+    }
+
+    @Override
+    public T findUnique(String indexName, String key) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        return super.findUnique(indexName, key);
+    }
+
+    @Override
+    public boolean registerFullTextIndex(String indexName, Function<T, String> textObtainingFunction) {
+        if (hasLoadedData) {
+            throw new DbException("This method must be run before the database loads data from disk.  Typically, " +
+                    "it should be run immediately after the database is created.  See this method's documentation");
+        }
+        if (isLazyLoading) {
+            throw new DbException("Lazy loading cannot be used with indexes");
+        }
+        return super.registerFullTextIndex(indexName, textObtainingFunction);
+    }
+
+    @Override
+    protected List<T> scan(long startIndex, int limit, boolean isDescending) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        if (!unmaterializedData.isEmpty() && limit > 0) {
+            var upcomingIndexes = isDescending ?
+                    unmaterializedData.headMap(startIndex, false).descendingKeySet() :
+                    unmaterializedData.tailMap(startIndex, false).keySet();
+            materialize(upcomingIndexes.stream().limit(limit).toList());
+        }
+        return super.scan(startIndex, limit, isDescending);
+    }
+
+    @Override
+    protected Collection<T> searchFullText(String indexName, String query, boolean matchAllWords) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        return super.searchFullText(indexName, query, matchAllWords);
+    }
+
     @Override
     public Collection<T> getIndexedData(String indexName, String key) {
         // load data if needed
@@ -428,6 +680,235 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         return super.getIndexedData(indexName, key);
     }
 
+    @Override
+    protected boolean hasNoData() {
+        return data.isEmpty() && unmaterializedData.isEmpty();
+    }
+
+    /**
+     * Fills an empty database with a large amount of data, much faster
+     * than calling {@link #write(DbData)} for each item.
+     * <p>
+     *     The items are sorted by index and written straight to the consolidated
+     *     data files, skipping the append logs, and are then put in memory and in
+     *     the indexes in one parallel pass.  Other writes wait until the import
+     *     is finished.
+     * </p>
+     * <p>
+     *     Items keep their index, if they have one.  Those with an index of 0 are
+     *     given new indexes, following the highest index among the others.  If
+     *     two items have the same index, the later one is kept.
+     * </p>
+     * <p><em>Example:</em></p>
+     * {@snippet :
+     *      photoDb.bulkImport(oldPhotos.stream().map(x -> new Photograph(0L, x.name(), x.description())));
+     * }
+     * @param items the data to import
+     * @throws DbException if the database already has data, or if an item has a negative index
+     */
+    public void bulkImport(Stream<T> items) {
+        // checked before the items are touched, so a refused import leaves them as they were
+        checkBulkImportAllowed();
+        NavigableMap<Long, T> sortedItems = new TreeMap<>();
+        List<T> itemsNeedingIndex = new ArrayList<>();
+        items.forEach(item -> {
+            if (item.getIndex() < 0) throw new DbException("Negative indexes are disallowed");
+            if (item.getIndex() == 0) {
+                itemsNeedingIndex.add(item);
+            } else {
+                sortedItems.put(item.getIndex(), item);
+            }
+        });
+        long nextIndex = sortedItems.isEmpty() ? 1 : sortedItems.lastKey() + 1;
+        for (T item : itemsNeedingIndex) {
+            item.setIndex(nextIndex++);
+            sortedItems.put(item.getIndex(), item);
+        }
+        NavigableMap<Long, String> serializedItems = new ConcurrentSkipListMap<>();
+        sortedItems.values().parallelStream().forEach(item -> {
+            String serializedData = item.serialize();
+            mustBeFalse(serializedData == null || serializedData.isBlank(),
+                    "the serialized form of data must not be blank. " +
+                            "Is the serialization code written properly? Our datatype: " + emptyInstance);
+            serializedItems.put(item.getIndex(), serializedData);
+        });
+        importSortedData(serializedItems, sortedItems);
+    }
+
+    /**
+     * Fills an empty database from a file of serialized data, one item per line -
+     * the same form as the database's consolidated data files, or as a
+     * file of lines from {@link DbData#serialize()}.  This is the fastest way
+     * to restore a large table.
+     * See {@link #bulkImport(Stream)}
+     * @param file the file of serialized data
+     * @throws DbException if the database already has data, or if the file cannot be read or has invalid lines
+     */
+    public void bulkImport(Path file) {
+        checkBulkImportAllowed();
+        NavigableMap<Long, String> serializedItems = new TreeMap<>();
+        try (Stream<String> fileStream = Files.lines(file, StandardCharsets.US_ASCII)) {
+            fileStream.forEach(line -> {
+                if (line.isBlank()) return;
+                // the index is always the first field
+                int endOfIndex = line.indexOf('|');
+                long dataIndex;
+                try {
+                    dataIndex = Long.parseLong(line, 0, endOfIndex == -1 ? line.length() : endOfIndex, 10);
+                } catch (NumberFormatException ex) {
+                    throw new DbException(String.format("Failed to parse index from line in file. File: %s line: %s", file, line), ex);
+                }
+                if (dataIndex <= 0) {
+                    throw new DbException(String.format("Indexes must be positive. File: %s line: %s", file, line));
+                }
+                serializedItems.put(dataIndex, line);
+            });
+        } catch (IOException ex) {
+            throw new DbException("Failed to read bulk import file " + file, ex);
+        }
+        importSortedData(serializedItems, null);
+    }
+
+    /**
+     * Refuses a bulk import into a read replica or a database which already
+     * has data.  This is checked again once the write lock is held.
+     */
+    private void checkBulkImportAllowed() {
+        if (isReplica) throw new DbException("This database is a read replica. Writes must go to the primary");
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        if (!hasNoData()) {
+            throw new DbException("Bulk import is only allowed into an empty database");
+        }
+    }
+
+    /**
+     * Writes the data to the consolidated files, then puts it in memory.
+     * @param serializedItems the serialized data, by index
+     * @param items the same data, deserialized, if available.  If null, the
+     *              serialized data will be deserialized (unless lazy loading).
+     */
+    private void importSortedData(NavigableMap<Long, String> serializedItems, Map<Long, T> items) {
+        // deserialize before anything is written, so bad data is rejected
+        // while the files on disk are still untouched
+        Map<Long, T> deserializedItems = items;
+        if (deserializedItems == null && !isLazyLoading) {
+            Map<Long, T> newlyDeserializedItems = new ConcurrentHashMap<>();
+            serializedItems.entrySet().parallelStream().forEach(entry -> {
+                T item;
+                try {
+                    item = deserialize(entry.getValue());
+                } catch (Exception ex) {
+                    throw new DbException("Failed to deserialize " + entry.getValue(), ex);
+                }
+                if (item.getIndex() != entry.getKey()) {
+                    throw new DbException("The index of the deserialized data (%d) did not match its line: %s"
+                            .formatted(item.getIndex(), entry.getValue()));
+                }
+                newlyDeserializedItems.put(entry.getKey(), item);
+            });
+            deserializedItems = newlyDeserializedItems;
+        }
+        if (deserializedItems != null) {
+            for (var uniqueIndex : uniqueIndexFunctions.entrySet()) {
+                Set<String> keys = new HashSet<>();
+                for (T item : deserializedItems.values()) {
+                    String key = uniqueIndex.getValue().apply(item);
+                    if (key != null && !keys.add(key)) {
+                        throw new DbException("Unique index \"%s\" would have more than one item with key %s"
+                                .formatted(uniqueIndex.getKey(), key));
+                    }
+                }
+            }
+        }
+
+        writeLock.lock();
+        try {
+            if (!hasNoData()) {
+                throw new DbException("Bulk import is only allowed into an empty database");
+            }
+            logger.logDebug(() -> "Bulk importing %,d items into %s".formatted(serializedItems.size(), dbDirectory));
+            // pending changes in the current append log must be consolidated
+            // before the new files are written, not after
+            if (databaseAppender.appendCount > 0) {
+                databaseAppender.saveOffCurrentDataToReadyFolder();
+            }
+            int fileCount = databaseConsolidator.replaceAllData(serializedItems);
+
+            if (isLazyLoading) {
+                serializedItems.forEach((dataIndex, serializedData) ->
+                        unmaterializedData.put(dataIndex, serializedData.getBytes(StandardCharsets.US_ASCII)));
+            } else {
+                deserializedItems.values().parallelStream().forEach(item -> {
+                    data.put(item.getIndex(), item);
+                    addToIndexes(item);
+                });
+            }
+            index.set(serializedItems.isEmpty() ? 1 : serializedItems.lastKey() + 1);
+
+            if (replicationPrimary != null) {
+                serializedItems.values().forEach(x -> replicationPrimary.ship(DatabaseChangeAction.UPDATE, x));
+            }
+            logger.logDebug(() -> "Bulk import into %s finished. Consolidated files written: %d".formatted(dbDirectory, fileCount));
+        } catch (IOException ex) {
+            throw new DbException("Failed to bulk import into " + dbDirectory, ex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reports on the inner workings of the database - how much data it holds,
+     * how far behind consolidation is, how long writes take, and so on.
+     * <p>
+     *     The counters behind these are cheap to maintain, but building the
+     *     report is not free: the items are counted, and the data directories are
+     *     listed.  It is suited to a monitoring page or a periodic log line, not
+     *     to being called for every request.
+     * </p>
+     * <p><em>Example:</em></p>
+     * {@snippet :
+     *      DbStats stats = photoDb.getStats();
+     *      logger.logDebug(() -> "photos: %d items, p99 write %.1f micros"
+     *              .formatted(stats.recordCount(), stats.writeLatencyP99Micros()));
+     * }
+     */
+    public DbStats getStats() {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+
+        Map<String, Integer> indexCardinalities = new TreeMap<>();
+        Map<String, Integer> fullTextIndexWordCounts = new TreeMap<>();
+        synchronized (this) {
+            registeredIndexes.forEach((name, index) -> indexCardinalities.put(name, index.size()));
+            uniqueIndexes.forEach((name, index) -> indexCardinalities.put(name, index.size()));
+            fullTextIndexes.forEach((name, index) -> fullTextIndexWordCounts.put(name, index.size()));
+        }
+        return new DbStats(
+                data.size() + (long) unmaterializedData.size(),
+                Collections.unmodifiableMap(indexCardinalities),
+                Collections.unmodifiableMap(fullTextIndexWordCounts),
+                databaseAppender.appendCount,
+                databaseAppender.getAppendBytes(),
+                countFiles(dbDirectory.resolve("append_logs")),
+                countFiles(dbDirectory.resolve("consolidated_data")),
+                lastLoadMillis,
+                databaseConsolidator.consolidationCount,
+                databaseConsolidator.lastConsolidationMillis,
+                databaseConsolidator.totalConsolidationMillis,
+                databaseConsolidator.bytesRewritten,
+                writeCount.sum(),
+                deleteCount.sum(),
+                writeLatency.percentileMicros(50),
+                writeLatency.percentileMicros(99),
+                writeLatency.percentileMicros(99.9));
+    }
+
+    private static int countFiles(Path directory) {
+        String[] files = directory.toFile().list();
+        return files == null ? 0 : files.length;
+    }
+
     /**
      * This command calls {@link DatabaseAppender#flush()}, which will
      * force any in-memory-buffered data to be written to disk.  This is
@@ -439,6 +920,184 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         this.databaseAppender.flush();
     }
 
+    /**
+     * Copies the files of this database to another directory while the
+     * database keeps running.
+     * <p>
+     *     Writes are held up only for the moment it takes to move the current
+     *     append log over to the append_logs directory.  After that, writes go to
+     *     a new append log, and the backup continues with files that will not
+     *     change: the consolidated files and the append logs waiting to be
+     *     consolidated.  Consolidation is paused until the backup is finished.
+     * </p>
+     * <p>
+     *     Files are hard-linked into the backup directory when the file system allows
+     *     it, which is nearly instant.  Otherwise, they are copied.
+     * </p>
+     * <p>
+     *     The backup directory holds a complete database, with everything written
+     *     before this method was called.  To restore, point a new {@link DbEngine2}
+     *     at it (or copy it back to where the database lives) and start as usual.
+     * </p>
+     * <p><em>Example:</em></p>
+     * {@snippet :
+     *      photoDb.backup(Path.of("backups/photos_2025_08_30"));
+     * }
+     * @param backupDirectory where to put the backup.  It must not already contain
+     *                        a database.
+     * @throws DbException if the backup directory already has data, or if the
+     * backup fails.
+     */
+    public void backup(Path backupDirectory) {
+        if (Files.exists(backupDirectory.resolve("consolidated_data")) || Files.exists(backupDirectory.resolve("append_logs"))) {
+            throw new DbException("There is already database data at the backup directory " + backupDirectory);
+        }
+        // load data if needed
+        if (!hasLoadedData) loadData();
+
+        logger.logDebug(() -> "Starting backup of " + dbDirectory + " to " + backupDirectory);
+        // a consolidation may be running.  Waiting for it here only affects this
+        // thread, not the writers.
+        databaseConsolidator.consolidationLock.lock();
+        try {
+            // this is the only moment when writes have to wait.
+            writeLock.lock();
+            try {
+                if (databaseAppender.appendCount > 0) {
+                    databaseAppender.saveOffCurrentDataToReadyFolder();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+
+            int linkedCount = 0;
+            int copiedCount = 0;
+            for (String directory : List.of("consolidated_data", "append_logs")) {
+                Path targetDirectory = backupDirectory.resolve(directory);
+                Files.createDirectories(targetDirectory);
+                try (Stream<Path> files = Files.list(dbDirectory.resolve(directory))) {
+                    for (Path file : files.toList()) {
+                        if (linkOrCopy(file, targetDirectory.resolve(file.getFileName().toString()))) {
+                            linkedCount += 1;
+                        } else {
+                            copiedCount += 1;
+                        }
+                    }
+                }
+            }
+            int finalLinkedCount = linkedCount;
+            int finalCopiedCount = copiedCount;
+            logger.logDebug(() -> "Finished backup of %s to %s. Files linked: %d, files copied: %d"
+                    .formatted(dbDirectory, backupDirectory, finalLinkedCount, finalCopiedCount));
+        } catch (IOException ex) {
+            throw new DbException("Failed to backup " + dbDirectory + " to " + backupDirectory, ex);
+        } finally {
+            databaseConsolidator.consolidationLock.unlock();
+        }
+    }
+
+    /**
+     * Create a hard link at the target for the source file, or copy the
+     * file if a link cannot be made (for example, if the target is on a
+     * different drive).
+     * @return true if linked, false if copied
+     */
+    static boolean linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (UnsupportedOperationException | IOException ex) {
+            Files.copy(source, target);
+            return false;
+        }
+    }
+
+    /**
+     * Runs the given code while writes are held off, so that it sees the data
+     * at a single moment in time.  Used by {@link ReplicationPrimary} to
+     * send a snapshot to a new follower without missing or repeating changes.
+     */
+    void runWithWritesPaused(Runnable runnable) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        writeLock.lock();
+        try {
+            runnable.run();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Applies a change received from a replication primary to the
+     * in-memory data and indexes.  Nothing is written to disk - a follower
+     * receives a full snapshot each time it connects.
+     * @param action whether this is an update or a delete
+     * @param serializedData the data, in its serialized form
+     */
+    void applyReplicatedChange(DatabaseChangeAction action, String serializedData) {
+        T deserializedData = deserialize(serializedData);
+        long dataIndex = deserializedData.getIndex();
+        writeLock.lock();
+        try {
+            materialize(List.of(dataIndex));
+            if (action == DatabaseChangeAction.UPDATE) {
+                writeToMemory(deserializedData, !data.containsKey(dataIndex));
+                if (dataIndex >= index.get()) {
+                    index.set(dataIndex + 1);
+                }
+            } else {
+                T existingData = data.get(dataIndex);
+                if (existingData != null) {
+                    deleteFromMemory(existingData);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the in-memory data and indexes with a snapshot received from
+     * a replication primary.  Until this runs, the data from before the
+     * snapshot is still served.  While it runs, each item is either its old
+     * or new version, though indexed reads may briefly miss the changed items.
+     * @param snapshot every item on the primary, by index
+     */
+    void replaceForReplication(Map<Long, T> snapshot) {
+        // load data if needed
+        if (!hasLoadedData) loadData();
+        writeLock.lock();
+        try {
+            materialize(List.copyOf(unmaterializedData.keySet()));
+            // take the old versions out of the indexes first, so that a key moving
+            // from one item to another does not look like a unique index violation
+            List<T> changedItems = new ArrayList<>();
+            for (T existingData : List.copyOf(data.values())) {
+                T newData = snapshot.get(existingData.getIndex());
+                if (newData == null) {
+                    data.remove(existingData.getIndex());
+                    removeFromIndexes(existingData);
+                } else if (!newData.equals(existingData)) {
+                    removeFromIndexes(existingData);
+                    changedItems.add(newData);
+                }
+            }
+            for (T newData : snapshot.values()) {
+                if (!data.containsKey(newData.getIndex())) {
+                    changedItems.add(newData);
+                }
+            }
+            for (T newData : changedItems) {
+                data.put(newData.getIndex(), newData);
+                addToIndexes(newData);
+            }
+            index.set(data.isEmpty() ? 1 : data.lastKey() + 1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * This is here to match the contract of {@link Db}
      * but all it does is tell the interior file writer
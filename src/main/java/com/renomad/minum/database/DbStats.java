@@ -0,0 +1,45 @@
+package com.renomad.minum.database;
+
+import java.util.Map;
+
+/**
+ * A snapshot of the inner workings of a {@link DbEngine2}, for
+ * monitoring and troubleshooting.  See {@link DbEngine2#getStats()}
+ *
+ * @param recordCount the number of items in the database
+ * @param indexCardinalities for each registered index and unique index, the number of distinct keys
+ * @param fullTextIndexWordCounts for each full-text index, the number of distinct words
+ * @param pendingAppendCount the number of changes in the current append log
+ * @param pendingAppendBytes the size, in bytes, of the changes in the current append log
+ * @param appendLogBacklog the number of full append logs waiting to be consolidated
+ * @param consolidatedFileCount the number of consolidated data files
+ * @param lastLoadMillis how long it took to load the data from disk, or 0 if not yet loaded
+ * @param consolidationCount the number of times append logs have been consolidated
+ * @param lastConsolidationMillis how long the most recent consolidation took
+ * @param totalConsolidationMillis how long all the consolidations took, together
+ * @param consolidationBytesRewritten the total size, in bytes, of the consolidated files written
+ * @param writeCount the number of writes since the database started
+ * @param deleteCount the number of deletes since the database started
+ * @param writeLatencyP50Micros half of writes took less than this many microseconds
+ * @param writeLatencyP99Micros 99 percent of writes took less than this many microseconds
+ * @param writeLatencyP999Micros 99.9 percent of writes took less than this many microseconds
+ */
+public record DbStats(
+        long recordCount,
+        Map<String, Integer> indexCardinalities,
+        Map<String, Integer> fullTextIndexWordCounts,
+        int pendingAppendCount,
+        long pendingAppendBytes,
+        int appendLogBacklog,
+        int consolidatedFileCount,
+        long lastLoadMillis,
+        long consolidationCount,
+        long lastConsolidationMillis,
+        long totalConsolidationMillis,
+        long consolidationBytesRewritten,
+        long writeCount,
+        long deleteCount,
+        double writeLatencyP50Micros,
+        double writeLatencyP99Micros,
+        double writeLatencyP999Micros) {
+}
@@ -0,0 +1,31 @@
+package com.renomad.minum.database;
+
+/**
+ * How far a change must get towards the disk before the future
+ * returned by {@link AbstractDb#writeAsync(DbData)} or
+ * {@link AbstractDb#deleteAsync(DbData)} is completed.
+ * <p>
+ *     Configured by DATABASE_DURABILITY in minum.config.  Applies
+ *     to {@link DbEngine2}.
+ * </p>
+ */
+public enum DurabilityLevel {
+    /**
+     * The change is in the database's in-memory buffer, waiting
+     * to be written to disk.  The future completes immediately.
+     */
+    BUFFERED,
+
+    /**
+     * The change has been handed to the operating system.  It will
+     * survive the program crashing, but not necessarily the machine losing power.
+     */
+    FLUSHED,
+
+    /**
+     * The operating system has been told to write the change to the
+     * storage device (an fsync), so it survives a loss of power.  This is
+     * the slowest choice.
+     */
+    FSYNCED
+}
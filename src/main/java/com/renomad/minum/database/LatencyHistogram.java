@@ -0,0 +1,55 @@
+package com.renomad.minum.database;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations into buckets by powers of two, so that recording one
+ * is just an increment, with no locks or allocation.  Percentiles are
+ * reported as the upper edge of the bucket they fall in, so they are
+ * accurate to within a factor of two - plenty to tell a healthy
+ * database from a struggling one.
+ */
+final class LatencyHistogram {
+
+    /**
+     * Bucket n counts durations, in nanoseconds, from 2^(n-1) up to (but not including) 2^n.
+     * Bucket 0 counts durations of zero.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    /**
+     * Record a duration, in nanoseconds
+     */
+    void record(long nanos) {
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+    }
+
+    /**
+     * The number of durations recorded
+     */
+    long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * The duration, in microseconds, below which the given portion of
+     * recorded durations fall.  Returns 0 if nothing has been recorded.
+     * @param percentile between 0 and 100, like 50 or 99.9
+     */
+    double percentileMicros(double percentile) {
+        long count = count();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        int i = 0;
+        for (; i < buckets.length() - 1; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) break;
+        }
+        return i == 0 ? 0 : Math.pow(2, i) / 1000.0;
+    }
+}
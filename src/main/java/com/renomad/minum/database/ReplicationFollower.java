@@ -0,0 +1,217 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.state.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Receives the changes sent by a {@link ReplicationPrimary} and applies
+ * them, in order, to a local {@link DbEngine2}.
+ * <p>
+ *     While following, the local database is a read replica: its data and
+ *     indexes are kept up to date from the primary, and calls to write or delete
+ *     on it will throw a {@link DbException}.  Its data is held in memory only.
+ *     Each time a follower connects, it is sent a full snapshot from the primary,
+ *     which replaces the local data once it has all arrived.
+ * </p>
+ * <p>
+ *     If the connection drops, the follower stops, and {@link #isConnected()} becomes
+ *     false.  The database keeps serving the data it has, which grows more out
+ *     of date, as {@link #getLagMillis()} shows.  To follow again, build a new
+ *     follower for the database.  See {@link ReplicationPrimary} for an example.
+ * </p>
+ * <p>
+ *     Once a database has followed a primary, it stays a read replica, even
+ *     after the follower is closed.  The data it holds in memory came from the
+ *     primary, while its files on disk still hold what it had before, so writing
+ *     to it would add to files which no longer match.  To use it as an ordinary
+ *     database again, stop it and build a new {@link DbEngine2} for its directory,
+ *     which will load its own data from disk.
+ * </p>
+ * @param <T> the type of data in the database
+ */
+public final class ReplicationFollower<T extends DbData<?>> implements AutoCloseable {
+
+    private final DbEngine2<T> db;
+    private final String host;
+    private final int port;
+    private final ILogger logger;
+    private final ExecutorService es;
+    private Socket socket;
+    private Future<?> receiveLoopFuture;
+    private volatile long lastAppliedSequence;
+    private volatile long lagMillis;
+    private volatile boolean isConnected;
+
+    /**
+     * When the connection to the primary ended, by {@link System#currentTimeMillis()}, or
+     * 0 if it has not.  Used to keep the lag growing while disconnected.
+     */
+    private volatile long disconnectedAtMillis;
+
+    /**
+     * The snapshot being received from the primary, or null if none is.  It
+     * is collected here and swapped in once complete, so the database keeps
+     * serving its old data in the meantime.
+     */
+    private Map<Long, T> snapshot;
+
+    /**
+     * Build a follower for a database.  Nothing happens until {@link #start()} is called.
+     * @param db the local database, which will become a read replica
+     * @param host the host of the {@link ReplicationPrimary}
+     * @param port the port of the {@link ReplicationPrimary}
+     * @param context the context, used for its logger and executor service
+     */
+    public ReplicationFollower(DbEngine2<T> db, String host, int port, Context context) {
+        this.db = db;
+        this.host = host;
+        this.port = port;
+        this.logger = context.getLogger();
+        this.es = context.getExecutorService();
+    }
+
+    /**
+     * Connect to the primary and begin applying its changes.
+     * @throws DbException if the connection to the primary fails
+     */
+    public void start() {
+        db.loadData();
+        db.isReplica = true;
+        try {
+            socket = new Socket(host, port);
+        } catch (IOException ex) {
+            db.isReplica = false;
+            throw new DbException("Failed to connect to replication primary at %s:%d".formatted(host, port), ex);
+        }
+        isConnected = true;
+        receiveLoopFuture = es.submit(this::receiveLoop);
+    }
+
+    private void receiveLoop() {
+        Thread.currentThread().setName("replication follower of %s:%d".formatted(host, port));
+        try {
+            var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            var writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                applyRecord(line);
+                // acknowledge in batches when changes are arriving quickly
+                if (!reader.ready()) {
+                    writer.write(Long.toString(lastAppliedSequence));
+                    writer.write('\n');
+                    writer.flush();
+                }
+            }
+        } catch (Exception ex) {
+            if (isConnected) {
+                logger.logAsyncError(() -> "Replication from %s:%d failed: %s".formatted(host, port, ex));
+            }
+        }
+        disconnect();
+        logger.logDebug(() -> "Replication follower of %s:%d has stopped".formatted(host, port));
+    }
+
+    /**
+     * Apply one line sent by the primary. See {@link ReplicationPrimary#formatRecord}
+     */
+    void applyRecord(String record) {
+        if (record.equals(ReplicationPrimary.RESET)) {
+            snapshot = new HashMap<>();
+            return;
+        }
+        if (record.startsWith(ReplicationPrimary.SNAPSHOT_DONE)) {
+            if (snapshot == null) {
+                throw new DbException("Received the end of a snapshot which had not begun: " + record);
+            }
+            db.replaceForReplication(snapshot);
+            snapshot = null;
+            lastAppliedSequence = Long.parseLong(record, ReplicationPrimary.SNAPSHOT_DONE.length() + 1, record.length(), 10);
+            return;
+        }
+        int firstSpace = record.indexOf(' ');
+        int secondSpace = record.indexOf(' ', firstSpace + 1);
+        int thirdSpace = record.indexOf(' ', secondSpace + 1);
+        if (firstSpace == -1 || secondSpace == -1 || thirdSpace == -1) {
+            throw new DbException("Invalid replication record: " + record);
+        }
+        long sequence = Long.parseLong(record, 0, firstSpace, 10);
+        long primaryTimeMillis = Long.parseLong(record, firstSpace + 1, secondSpace, 10);
+        var action = DatabaseChangeAction.valueOf(record.substring(secondSpace + 1, thirdSpace));
+        if (snapshot != null) {
+            T item = db.deserialize(record.substring(thirdSpace + 1));
+            snapshot.put(item.getIndex(), item);
+            return;
+        }
+        db.applyReplicatedChange(action, record.substring(thirdSpace + 1));
+        lastAppliedSequence = sequence;
+        lagMillis = Math.max(0, System.currentTimeMillis() - primaryTimeMillis);
+    }
+
+    /**
+     * The sequence number of the last change applied from the primary.  Compare
+     * this with {@link ReplicationPrimary#getSequence()} to see how far behind this follower is.
+     */
+    public long getLastAppliedSequence() {
+        return lastAppliedSequence;
+    }
+
+    /**
+     * The time, in milliseconds, between the primary making its most recent
+     * change and this follower applying it.  This relies on the clocks
+     * of the two machines being reasonably in agreement.
+     * <p>
+     *     Once disconnected, no more changes arrive, so the time since
+     *     the disconnection is added - the data is that much more out of date.
+     * </p>
+     */
+    public long getLagMillis() {
+        long disconnectedAt = disconnectedAtMillis;
+        if (disconnectedAt == 0) {
+            return lagMillis;
+        }
+        return lagMillis + Math.max(0, System.currentTimeMillis() - disconnectedAt);
+    }
+
+    /**
+     * True while connected to the primary
+     */
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    private synchronized void disconnect() {
+        if (disconnectedAtMillis == 0) {
+            disconnectedAtMillis = System.currentTimeMillis();
+        }
+        isConnected = false;
+    }
+
+    /**
+     * Disconnect from the primary.  The local database keeps the data
+     * it has, and stays a read replica - see the notes on this class.
+     */
+    @Override
+    public void close() {
+        disconnect();
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ex) {
+            logger.logDebug(() -> "Error while closing replication follower: " + ex);
+        }
+        if (receiveLoopFuture != null) {
+            receiveLoopFuture.cancel(true);
+        }
+    }
+}
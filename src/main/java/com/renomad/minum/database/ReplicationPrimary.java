@@ -0,0 +1,364 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.StacktraceUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the changes of a {@link DbEngine2} over a socket to any
+ * number of {@link ReplicationFollower} instances, which may be running
+ * in other processes or on other machines.
+ * <p>
+ *     This is log-shipping: every write and delete on the primary is given a
+ *     sequence number and sent, in order, to each follower as the same kind
+ *     of line that is written to the append log.  When a follower connects, it first
+ *     receives a snapshot of all the current data, and then the changes that
+ *     follow it.  Writes are only paused for a moment while the follower is registered,
+ *     not while the snapshot is sent.  Followers hold their
+ *     data in memory, so they can serve reads (including indexed reads) while
+ *     the primary handles all the writes.
+ * </p>
+ * <p>
+ *     Each follower acknowledges the sequence numbers it has applied, which
+ *     lets the primary report how far behind its followers are, in {@link #getLag()}.
+ * </p>
+ * <p>
+ *     Changes wait in a queue for each follower, so a slow follower does not hold
+ *     up writes.  The queue is bounded, though - a follower which falls more than
+ *     a set number of changes behind is disconnected, rather than letting its
+ *     queue fill the primary's memory.  It may connect again, and will be sent a
+ *     new snapshot.
+ * </p>
+ * <p><em>Example:</em></p>
+ * {@snippet :
+ *      // on the primary
+ *      DbEngine2<Photograph> photoDb = context.getDb2("photos", Photograph.EMPTY);
+ *      var primary = new ReplicationPrimary<>(photoDb, 9099, context);
+ *      primary.start();
+ *
+ *      // on each follower
+ *      DbEngine2<Photograph> photoDb = context.getDb2("photos", Photograph.EMPTY);
+ *      var follower = new ReplicationFollower<>(photoDb, "primary.example.com", 9099, context);
+ *      follower.start();
+ * }
+ * <p>
+ *     The connection is not encrypted, so it should only be used on a trusted network.
+ * </p>
+ * @param <T> the type of data in the database
+ */
+public final class ReplicationPrimary<T extends DbData<?>> implements AutoCloseable {
+
+    /**
+     * The first line sent to a newly-connected follower, telling it
+     * that a snapshot follows, which will replace its data
+     */
+    static final String RESET = "RESET";
+
+    /**
+     * Sent after the last line of the snapshot, with the sequence
+     * number of the last change it is sure to include
+     */
+    static final String SNAPSHOT_DONE = "SNAPSHOT_DONE";
+
+    private final DbEngine2<T> db;
+    private final ServerSocket serverSocket;
+    private final ILogger logger;
+    private final ExecutorService es;
+
+    /**
+     * Incremented for each change.  A follower that has acknowledged this
+     * number has applied every change so far.
+     */
+    private final AtomicLong sequence;
+    private final List<FollowerConnection> followers;
+
+    /**
+     * The most changes that may wait to be sent to one follower.  See
+     * {@link #ReplicationPrimary(DbEngine2, int, int, Context)}
+     */
+    private final int maxQueuedChanges;
+
+    /**
+     * The default for {@link #maxQueuedChanges}
+     */
+    static final int DEFAULT_MAX_QUEUED_CHANGES = 100_000;
+    private Future<?> acceptLoopFuture;
+
+    /**
+     * Build a replication primary for a database.  Nothing is sent
+     * until {@link #start()} is called.
+     * @param db the database whose changes will be sent to followers
+     * @param port the port on which to listen for followers.  If 0, a free port will
+     *             be chosen, which can be found with {@link #getPort()}
+     * @param context the context, used for its logger and executor service
+     * @throws DbException if the port cannot be opened
+     */
+    public ReplicationPrimary(DbEngine2<T> db, int port, Context context) {
+        this(db, port, DEFAULT_MAX_QUEUED_CHANGES, context);
+    }
+
+    /**
+     * Build a replication primary for a database, choosing how far behind
+     * a follower may fall before it is disconnected.
+     * See {@link #ReplicationPrimary(DbEngine2, int, Context)}
+     * @param maxQueuedChanges the most changes that may wait to be sent to one follower
+     */
+    public ReplicationPrimary(DbEngine2<T> db, int port, int maxQueuedChanges, Context context) {
+        if (maxQueuedChanges <= 0) {
+            throw new DbException("The maximum queued changes must be positive.  Was: " + maxQueuedChanges);
+        }
+        this.maxQueuedChanges = maxQueuedChanges;
+        this.db = db;
+        this.logger = context.getLogger();
+        this.es = context.getExecutorService();
+        this.sequence = new AtomicLong(0);
+        this.followers = new CopyOnWriteArrayList<>();
+        try {
+            this.serverSocket = new ServerSocket(port);
+        } catch (IOException ex) {
+            throw new DbException("Failed to open replication port " + port, ex);
+        }
+    }
+
+    /**
+     * Start listening for followers and sending them changes.
+     * @throws DbException if the database already has a replication primary
+     */
+    public void start() {
+        if (db.replicationPrimary != null) {
+            throw new DbException("This database already has a replication primary");
+        }
+        db.replicationPrimary = this;
+        acceptLoopFuture = es.submit(this::acceptLoop);
+    }
+
+    private void acceptLoop() {
+        Thread.currentThread().setName("replication primary on port " + getPort());
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                try {
+                    addFollower(socket);
+                } catch (RuntimeException ex) {
+                    // a failure with one follower must not stop us accepting others
+                    logger.logAsyncError(() -> "Failed to add replication follower from %s: %s"
+                            .formatted(socket.getRemoteSocketAddress(), StacktraceUtils.stackTraceToString(ex)));
+                    closeQuietly(socket);
+                }
+            }
+        } catch (IOException ex) {
+            if (!serverSocket.isClosed()) {
+                logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+            }
+        }
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            logger.logDebug(() -> "Error while closing replication follower socket: " + ex);
+        }
+    }
+
+    /**
+     * Register the new follower to receive changes, noting the sequence number
+     * at that moment.  Only this happens while writes are paused - the snapshot
+     * itself is read and sent by the follower's own thread, see {@link FollowerConnection#sendSnapshot}.
+     */
+    private void addFollower(Socket socket) {
+        logger.logDebug(() -> "Replication follower connected from " + socket.getRemoteSocketAddress());
+        var follower = new FollowerConnection(socket, maxQueuedChanges);
+        db.runWithWritesPaused(() -> {
+            follower.snapshotSequence = sequence.get();
+            followers.add(follower);
+        });
+        follower.start();
+    }
+
+    /**
+     * Called by the database, while holding its write lock, for each change.
+     * The change is only queued here - a slow follower will not slow
+     * down writes.  A follower whose queue is full is disconnected.
+     */
+    void ship(DatabaseChangeAction action, String serializedData) {
+        String record = formatRecord(sequence.incrementAndGet(), System.currentTimeMillis(), action, serializedData);
+        for (FollowerConnection follower : followers) {
+            if (!follower.queue.offer(record)) {
+                logger.logAsyncError(() -> "Replication follower at %s fell more than %,d changes behind, disconnecting it"
+                        .formatted(follower.socket.getRemoteSocketAddress(), maxQueuedChanges));
+                follower.close();
+            }
+        }
+    }
+
+    /**
+     * A replicated change, as one line: sequence number, the time on
+     * the primary, the action, and the serialized data.
+     */
+    static String formatRecord(long sequence, long timeMillis, DatabaseChangeAction action, String serializedData) {
+        return sequence + " " + timeMillis + " " + action + " " + serializedData;
+    }
+
+    /**
+     * The sequence number of the most recent change
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * The number of followers currently connected
+     */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * How many changes the slowest follower has yet to acknowledge.
+     * Returns 0 if there are no followers.
+     */
+    public long getLag() {
+        long currentSequence = sequence.get();
+        long lag = 0;
+        for (FollowerConnection follower : followers) {
+            lag = Math.max(lag, currentSequence - follower.acknowledgedSequence);
+        }
+        return lag;
+    }
+
+    /**
+     * The port on which this primary listens for followers
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop listening for followers, and disconnect those
+     * that are connected.  The database continues to work as usual.
+     */
+    @Override
+    public void close() {
+        if (db.replicationPrimary == this) {
+            db.replicationPrimary = null;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            logger.logDebug(() -> "Error while closing replication primary: " + ex);
+        }
+        if (acceptLoopFuture != null) {
+            acceptLoopFuture.cancel(true);
+        }
+        for (FollowerConnection follower : followers) {
+            follower.close();
+        }
+    }
+
+    /**
+     * The primary's side of a connection to one follower.  One thread
+     * sends queued changes, another reads the acknowledgements.
+     */
+    private final class FollowerConnection {
+        private final Socket socket;
+        private final BlockingQueue<String> queue;
+        private volatile long acknowledgedSequence;
+
+        /**
+         * The sequence number when this follower was registered.  Every change
+         * after it is in the queue.
+         */
+        private long snapshotSequence;
+        private Future<?> sendFuture;
+        private Future<?> acknowledgeFuture;
+
+        FollowerConnection(Socket socket, int capacity) {
+            this.socket = socket;
+            this.queue = new LinkedBlockingQueue<>(capacity);
+        }
+
+        void start() {
+            sendFuture = es.submit(this::sendLoop);
+            acknowledgeFuture = es.submit(this::acknowledgeLoop);
+        }
+
+        private void sendLoop() {
+            try {
+                var writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                sendSnapshot(writer);
+                while (true) {
+                    writer.write(queue.take());
+                    writer.write('\n');
+                    // send in batches when changes are arriving quickly
+                    if (queue.isEmpty()) {
+                        writer.flush();
+                    }
+                }
+            } catch (IOException ex) {
+                logger.logDebug(() -> "Replication follower disconnected: " + ex);
+                close();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Send every item in the database, followed by the queued changes.
+         * <p>
+         *     Writes go on while the snapshot is read, so it may already hold
+         *     some of the queued changes.  Applying them again is harmless: an
+         *     update overwrites the item with the same data, and deleting an
+         *     item that is already gone does nothing.
+         * </p>
+         */
+        private void sendSnapshot(BufferedWriter writer) throws IOException {
+            long now = System.currentTimeMillis();
+            writer.write(RESET);
+            writer.write('\n');
+            for (T item : db.values()) {
+                writer.write(formatRecord(snapshotSequence, now, DatabaseChangeAction.UPDATE, item.serialize()));
+                writer.write('\n');
+            }
+            writer.write(SNAPSHOT_DONE + " " + snapshotSequence);
+            writer.write('\n');
+            writer.flush();
+        }
+
+        private void acknowledgeLoop() {
+            try {
+                var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    acknowledgedSequence = Long.parseLong(line);
+                }
+            } catch (IOException | NumberFormatException ex) {
+                logger.logDebug(() -> "Replication follower acknowledgement failed: " + ex);
+            }
+            close();
+        }
+
+        void close() {
+            followers.remove(this);
+            closeQuietly(socket);
+            if (sendFuture != null) sendFuture.cancel(true);
+            if (acknowledgeFuture != null) acknowledgeFuture.cancel(true);
+        }
+    }
+}
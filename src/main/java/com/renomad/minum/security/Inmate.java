@@ -2,10 +2,10 @@ package com.renomad.minum.security;
 
 
 import com.renomad.minum.database.DbData;
+import com.renomad.minum.utils.FieldReader;
 
 import java.util.Objects;
 
-import static com.renomad.minum.utils.SerializationUtils.deserializeHelper;
 import static com.renomad.minum.utils.SerializationUtils.serializeHelper;
 
 /**
@@ -52,12 +52,12 @@ public final class Inmate extends DbData<Inmate> {
 
     @Override
     public Inmate deserialize(String serializedText) {
-        final var tokens = deserializeHelper(serializedText);
+        final var fields = new FieldReader(serializedText);
 
         return new Inmate(
-                Long.parseLong(tokens.get(0)),
-                tokens.get(1),
-                Long.parseLong(tokens.get(2)));
+                fields.nextLong(),
+                fields.nextString(),
+                fields.nextLong());
     }
 
     public String getClientId() {
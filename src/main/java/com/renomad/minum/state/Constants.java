@@ -1,7 +1,9 @@
 package com.renomad.minum.state;
 
+import com.renomad.minum.database.DurabilityLevel;
 import com.renomad.minum.logging.LoggingLevel;
 import com.renomad.minum.utils.TimeUtils;
+import com.renomad.minum.web.HttpServerEngine;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -34,6 +36,8 @@ public final class Constants {
         maxReadLineSizeBytes = getProp("MAX_READ_LINE_SIZE_BYTES",  1024);
         socketTimeoutMillis = getProp("SOCKET_TIMEOUT_MILLIS", 7 * 1000);
         keepAliveTimeoutSeconds = getProp("KEEP_ALIVE_TIMEOUT_SECONDS", 3);
+        acceptorThreads = getProp("ACCEPTOR_THREADS", 1);
+        httpServerEngine = HttpServerEngine.valueOf(properties.getProperty("HTTP_SERVER_ENGINE", "THREAD_PER_CONNECTION").trim().toUpperCase(Locale.ROOT));
         vulnSeekingJailDuration = getProp("VULN_SEEKING_JAIL_DURATION", 10 * 1000);
         isTheBrigEnabled = getProp("IS_THE_BRIG_ENABLED", true);
         suspiciousErrors = new HashSet<>(getProp("SUSPICIOUS_ERRORS", ""));
@@ -43,9 +47,13 @@ public final class Constants {
         staticFileCacheTime = getProp("STATIC_FILE_CACHE_TIME", 60 * 5);
         useCacheForStaticFiles = getProp("USE_CACHE_FOR_STATIC_FILES", true);
         maxElementsLruCacheStaticFiles = getProp("MAX_ELEMENTS_LRU_CACHE_STATIC_FILES", 1000);
+        gzipCompressionLevel = getProp("GZIP_COMPRESSION_LEVEL", 6);
+        multipartMemoryThresholdBytes = getProp("MULTIPART_MEMORY_THRESHOLD_BYTES", 1024 * 1024);
+        useETagsForDynamicResponses = getProp("USE_ETAGS_FOR_DYNAMIC_RESPONSES", false);
         maxAppendCount = getProp("MAX_DATABASE_APPEND_COUNT", 100_000);
         maxLinesPerConsolidatedDatabaseFile = getProp("MAX_DATABASE_CONSOLIDATED_FILE_LINES", 100_000);
         enableSystemRunningMarker = getProp("ENABLE_SYSTEM_RUNNING_MARKER", true);
+        databaseDurability = DurabilityLevel.valueOf(properties.getProperty("DATABASE_DURABILITY", "FLUSHED").trim().toUpperCase(Locale.ROOT));
     }
 
     /**
@@ -106,6 +114,20 @@ public final class Constants {
      */
     public final int socketTimeoutMillis;
 
+    /**
+     * The number of threads accepting new connections for each server.  Where the
+     * operating system supports it (SO_REUSEPORT, on Linux), each thread gets its own
+     * server socket on the same port, and the operating system spreads incoming
+     * connections between them.
+     */
+    public final int acceptorThreads;
+
+    /**
+     * How the plain-text server handles its connections.
+     * See {@link HttpServerEngine}.  Default is THREAD_PER_CONNECTION.
+     */
+    public final HttpServerEngine httpServerEngine;
+
     /**
      * We include this value in the keep-alive header. It lets the
      * browser know how long to hold the socket open, in seconds,
@@ -204,6 +226,26 @@ public final class Constants {
      */
     public final int maxElementsLruCacheStaticFiles;
 
+    /**
+     * How hard to work at compressing response bodies with gzip, from 1 (fastest)
+     * to 9 (smallest).  0 sends the data in gzip format, but uncompressed.  Default is 6.
+     */
+    public final int gzipCompressionLevel;
+
+    /**
+     * When the body of a multipart request is read, partitions larger than this
+     * are written to temporary files rather than held in memory, and deleted
+     * once the response is sent.  Default is one megabyte.
+     */
+    public final int multipartMemoryThresholdBytes;
+
+    /**
+     * If true, a successful GET whose body was built in memory gets an ETag made from
+     * a hash of the body, and a client sending that back in If-None-Match is
+     * answered with a 304 (Not Modified) instead of the body.  Default is false.
+     */
+    public final boolean useETagsForDynamicResponses;
+
     /**
      * This flag controls whether the system will write a file to disk
      * indicating that the program is running, and delete that file
@@ -211,6 +253,13 @@ public final class Constants {
      */
     public final boolean enableSystemRunningMarker;
 
+    /**
+     * How far a change must get towards the disk before the future returned
+     * by the database's writeAsync and deleteAsync methods completes.
+     * See {@link DurabilityLevel}.  Default is FLUSHED.
+     */
+    public final DurabilityLevel databaseDurability;
+
 
     /* ************************ **
             HELPER METHODS
@@ -317,12 +366,12 @@ public final class Constants {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         Constants constants = (Constants) o;
-        return serverPort == constants.serverPort && secureServerPort == constants.secureServerPort && maxReadSizeBytes == constants.maxReadSizeBytes && maxReadLineSizeBytes == constants.maxReadLineSizeBytes && socketTimeoutMillis == constants.socketTimeoutMillis && keepAliveTimeoutSeconds == constants.keepAliveTimeoutSeconds && vulnSeekingJailDuration == constants.vulnSeekingJailDuration && isTheBrigEnabled == constants.isTheBrigEnabled && startTime == constants.startTime && staticFileCacheTime == constants.staticFileCacheTime && useCacheForStaticFiles == constants.useCacheForStaticFiles && maxAppendCount == constants.maxAppendCount && maxLinesPerConsolidatedDatabaseFile == constants.maxLinesPerConsolidatedDatabaseFile && maxElementsLruCacheStaticFiles == constants.maxElementsLruCacheStaticFiles && enableSystemRunningMarker == constants.enableSystemRunningMarker && Objects.equals(properties, constants.properties) && Objects.equals(hostName, constants.hostName) && Objects.equals(dbDirectory, constants.dbDirectory) && Objects.equals(staticFilesDirectory, constants.staticFilesDirectory) && Objects.equals(logLevels, constants.logLevels) && Objects.equals(keystorePath, constants.keystorePath) && Objects.equals(keystorePassword, constants.keystorePassword) && Objects.equals(suspiciousErrors, constants.suspiciousErrors) && Objects.equals(suspiciousPaths, constants.suspiciousPaths) && Objects.equals(extraMimeMappings, constants.extraMimeMappings);
+        return serverPort == constants.serverPort && secureServerPort == constants.secureServerPort && maxReadSizeBytes == constants.maxReadSizeBytes && maxReadLineSizeBytes == constants.maxReadLineSizeBytes && socketTimeoutMillis == constants.socketTimeoutMillis && keepAliveTimeoutSeconds == constants.keepAliveTimeoutSeconds && acceptorThreads == constants.acceptorThreads && httpServerEngine == constants.httpServerEngine && vulnSeekingJailDuration == constants.vulnSeekingJailDuration && isTheBrigEnabled == constants.isTheBrigEnabled && startTime == constants.startTime && staticFileCacheTime == constants.staticFileCacheTime && useCacheForStaticFiles == constants.useCacheForStaticFiles && maxAppendCount == constants.maxAppendCount && maxLinesPerConsolidatedDatabaseFile == constants.maxLinesPerConsolidatedDatabaseFile && maxElementsLruCacheStaticFiles == constants.maxElementsLruCacheStaticFiles && gzipCompressionLevel == constants.gzipCompressionLevel && multipartMemoryThresholdBytes == constants.multipartMemoryThresholdBytes && useETagsForDynamicResponses == constants.useETagsForDynamicResponses && enableSystemRunningMarker == constants.enableSystemRunningMarker && databaseDurability == constants.databaseDurability && Objects.equals(properties, constants.properties) && Objects.equals(hostName, constants.hostName) && Objects.equals(dbDirectory, constants.dbDirectory) && Objects.equals(staticFilesDirectory, constants.staticFilesDirectory) && Objects.equals(logLevels, constants.logLevels) && Objects.equals(keystorePath, constants.keystorePath) && Objects.equals(keystorePassword, constants.keystorePassword) && Objects.equals(suspiciousErrors, constants.suspiciousErrors) && Objects.equals(suspiciousPaths, constants.suspiciousPaths) && Objects.equals(extraMimeMappings, constants.extraMimeMappings);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(properties, serverPort, secureServerPort, hostName, dbDirectory, staticFilesDirectory, logLevels, keystorePath, keystorePassword, maxReadSizeBytes, maxReadLineSizeBytes, socketTimeoutMillis, keepAliveTimeoutSeconds, vulnSeekingJailDuration, isTheBrigEnabled, suspiciousErrors, suspiciousPaths, startTime, extraMimeMappings, staticFileCacheTime, useCacheForStaticFiles, maxAppendCount, maxLinesPerConsolidatedDatabaseFile, maxElementsLruCacheStaticFiles, enableSystemRunningMarker);
+        return Objects.hash(properties, serverPort, secureServerPort, hostName, dbDirectory, staticFilesDirectory, logLevels, keystorePath, keystorePassword, maxReadSizeBytes, maxReadLineSizeBytes, socketTimeoutMillis, keepAliveTimeoutSeconds, acceptorThreads, httpServerEngine, vulnSeekingJailDuration, isTheBrigEnabled, suspiciousErrors, suspiciousPaths, startTime, extraMimeMappings, staticFileCacheTime, useCacheForStaticFiles, maxAppendCount, maxLinesPerConsolidatedDatabaseFile, maxElementsLruCacheStaticFiles, gzipCompressionLevel, multipartMemoryThresholdBytes, useETagsForDynamicResponses, enableSystemRunningMarker, databaseDurability);
     }
 }
 
@@ -0,0 +1,110 @@
+package com.renomad.minum.utils;
+
+import com.renomad.minum.security.ForbiddenUseException;
+
+/**
+ * Reads the fields of text made by {@link SerializationUtils#serializeHelper(Object...)},
+ * one at a time, in order.
+ * <p>
+ *     This does the same job as {@link SerializationUtils#deserializeHelper(String)}
+ *     in a single pass over the text, without building a list.  Numbers
+ *     are parsed straight from the text, without creating a string for each.
+ *     It is worth using in {@link com.renomad.minum.database.DbData#deserialize(String)}
+ *     for data that is read in large quantities.
+ * </p>
+ * <p><em>Example:</em></p>
+ * {@snippet :
+ *         public Foo deserialize(String serializedText) {
+ *             var fields = new FieldReader(serializedText);
+ *             return new Foo(
+ *                     fields.nextLong(),
+ *                     fields.nextInt(),
+ *                     fields.nextString()
+ *                     );
+ *         }
+ * }
+ */
+public final class FieldReader {
+
+    /**
+     * As a general precaution, loops throughout the system have
+     * safety limits in place.  In this case, it would be unexpected
+     * to have databases of type {@link com.renomad.minum.database.DbData} that
+     * have this many fields.
+     */
+    static final int MAXIMUM_FIELDS = 200;
+
+    private final String serializedText;
+
+    /**
+     * The position of the start of the next field.  Past the end
+     * of the text once all fields have been read.
+     */
+    private int position;
+    private int fieldCount;
+
+    /**
+     * The start and end of the field most recently found by {@link #findNextField()}
+     */
+    private int fieldStart;
+    private int fieldEnd;
+
+    public FieldReader(String serializedText) {
+        this.serializedText = serializedText;
+    }
+
+    /**
+     * Returns true if there are more fields to read
+     */
+    public boolean hasNext() {
+        return position <= serializedText.length();
+    }
+
+    /**
+     * Returns the next field, decoded, or null if it was stored as null.
+     */
+    public String nextString() {
+        findNextField();
+        return SerializationUtils.decodeField(serializedText, fieldStart, fieldEnd);
+    }
+
+    /**
+     * Returns the next field as a long
+     * @throws NumberFormatException if the field is not a long
+     */
+    public long nextLong() {
+        findNextField();
+        return Long.parseLong(serializedText, fieldStart, fieldEnd, 10);
+    }
+
+    /**
+     * Returns the next field as an int
+     * @throws NumberFormatException if the field is not an int
+     */
+    public int nextInt() {
+        findNextField();
+        return Integer.parseInt(serializedText, fieldStart, fieldEnd, 10);
+    }
+
+    /**
+     * Returns the next field as a boolean, by the rules of {@link Boolean#parseBoolean(String)}
+     */
+    public boolean nextBoolean() {
+        findNextField();
+        return fieldEnd - fieldStart == 4 && serializedText.regionMatches(true, fieldStart, "true", 0, 4);
+    }
+
+    private void findNextField() {
+        if (!hasNext()) {
+            throw new UtilsException("There are no more fields to read in: " + serializedText);
+        }
+        if (fieldCount >= MAXIMUM_FIELDS) {
+            throw new ForbiddenUseException("Asked to split content into too many partitions in the tokenizer.  Current max: " + MAXIMUM_FIELDS);
+        }
+        fieldCount += 1;
+        int delimiterIndex = serializedText.indexOf('|', position);
+        fieldStart = position;
+        fieldEnd = delimiterIndex == -1 ? serializedText.length() : delimiterIndex;
+        position = fieldEnd + 1;
+    }
+}
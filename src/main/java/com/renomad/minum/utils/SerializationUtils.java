@@ -3,8 +3,14 @@ package com.renomad.minum.utils;
 import com.renomad.minum.security.ForbiddenUseException;
 import com.renomad.minum.security.Inmate;
 
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public final class SerializationUtils {
 
@@ -12,6 +18,72 @@ public final class SerializationUtils {
         // not meant to be constructed.
     }
 
+    /**
+     * Values longer than this are not put in a string pool, since long
+     * values (like descriptions) are rarely repeated.  See {@link #withStringPool(Map, Supplier)}
+     */
+    static final int MAXIMUM_POOLED_STRING_LENGTH = 64;
+
+    /**
+     * A string pool stops taking new values once it holds this many, so that a
+     * long-lived pool cannot grow without limit.  Values already pooled are
+     * still shared.  See {@link #withStringPool(Map, Supplier)}
+     */
+    static final int MAXIMUM_POOLED_STRINGS = 100_000;
+
+    /**
+     * The string pool in use by this thread, if any.  See {@link #withStringPool(Map, Supplier)}
+     */
+    private static final ThreadLocal<Map<String, String>> stringPool = new ThreadLocal<>();
+
+    /**
+     * Runs the supplier with a pool of strings in place, so that while it runs, each
+     * value decoded by {@link #deserializeHelper(String)} or {@link FieldReader#nextString()}
+     * that is equal to a value already in the pool is replaced by the pooled instance.
+     * <p>
+     *     When many items share the same values - statuses, country codes, usernames - this
+     *     lets them share one string instead of each holding its own copy.
+     * </p>
+     * <p>
+     *     Pooled values are never removed, so once the pool holds {@link #MAXIMUM_POOLED_STRINGS}
+     *     values, new ones are left unshared.  Values which were common early on stay pooled
+     *     even after nothing else holds them.
+     * </p>
+     * @param pool a map from each string to its pooled instance.  It should be safe for
+     *             use by multiple threads, like {@link java.util.concurrent.ConcurrentHashMap}
+     * @param supplier code that deserializes data
+     * @return the result of the supplier
+     */
+    public static <R> R withStringPool(Map<String, String> pool, Supplier<R> supplier) {
+        Map<String, String> previousPool = stringPool.get();
+        stringPool.set(pool);
+        try {
+            return supplier.get();
+        } finally {
+            stringPool.set(previousPool);
+        }
+    }
+
+    /**
+     * If a string pool is in place (see {@link #withStringPool(Map, Supplier)}),
+     * return the pooled instance of the value.  Otherwise, return the value.
+     */
+    private static String pooled(String value) {
+        Map<String, String> pool = stringPool.get();
+        if (pool == null || value == null || value.length() > MAXIMUM_POOLED_STRING_LENGTH) {
+            return value;
+        }
+        String existing = pool.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (pool.size() >= MAXIMUM_POOLED_STRINGS) {
+            return value;
+        }
+        existing = pool.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
     /**
      * This is a helper that will encode the values you give it
      * in preparation for storage in a database file.
@@ -24,41 +96,90 @@ public final class SerializationUtils {
      *     and making sure all the values are accounted for.
      * </p>
      * <p>
+     *     Values which only contain characters that URL-encoding leaves
+     *     alone (letters, digits, and <code>.-*_</code>) are appended as-is,
+     *     which is the common case for numbers and identifiers.
+     * </p>
+     * <p>
      *     For example, see how this is used in {@link Inmate#serialize()}
      * </p>
      */
     public static String serializeHelper(Object... values) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < values.length-1; i++) {
-            String value = values[i] == null ? null : values[i].toString();
-            sb.append(StringUtils.encode(value)).append("|");
+        StringBuilder sb = new StringBuilder(values.length * 16);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append('|');
+            }
+            appendEncoded(sb, values[i] == null ? null : values[i].toString());
         }
-        // append the last value with no pipe symbol afterwards
-        String lastValue = values[values.length - 1] == null ? null : values[values.length - 1].toString();
-        sb.append(StringUtils.encode(lastValue));
         return sb.toString();
     }
 
     /**
-     * Splits up a string based on a pipe character.  See {@link #tokenizer(String, char, int)}
+     * Appends a value to the builder, URL-encoded, with null as %NULL%.
+     * The output is identical to {@link StringUtils#encode(String)}, but
+     * values which need no encoding are not copied.
+     */
+    static void appendEncoded(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("%NULL%");
+        } else if (needsEncoding(value)) {
+            sb.append(URLEncoder.encode(value, UTF_8));
+        } else {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Returns true if URL-encoding would change this value.  See {@link URLEncoder}
+     * for the characters it leaves unchanged.
+     */
+    static boolean needsEncoding(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean isUnchanged = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    c == '.' || c == '-' || c == '*' || c == '_';
+            if (!isUnchanged) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes one field of serialized text, from start (inclusive) to end (exclusive).
+     * The output is identical to {@link StringUtils#decode(String)}, but fields
+     * without any encoded characters skip the decoder.
+     */
+    static String decodeField(String serializedText, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = serializedText.charAt(i);
+            if (c == '%' || c == '+') {
+                return pooled(StringUtils.decode(serializedText.substring(start, end)));
+            }
+        }
+        return pooled(serializedText.substring(start, end));
+    }
+
+    /**
+     * Splits up a string based on a pipe character, decoding each value.
      * <p>
      *     This method is intended to be used as part of the database.  See
      *     the package "com.renomad.minum.database"
      * </p>
      * <p>
-     *     For an example, see how this is used in {@link Inmate#deserialize(String)}
+     *     To avoid building a list, and to parse numbers without creating
+     *     strings for them, see {@link FieldReader}, which is used by {@link Inmate#deserialize(String)}
      * </p>
      * @param serializedText the string we are splitting into tokens
      */
     public static List<String> deserializeHelper(String serializedText) {
-        /*
-         * As a general precaution, loops throughout the system have
-         * safety limits in place.  In this case, it would be unexpected
-         * to have databases of type {@link com.renomad.minum.database.DbData} that
-         * have this many fields.
-         */
-        int maximumDatabasePartitionsAllowed = 200;
-        return tokenizer(serializedText, '|', maximumDatabasePartitionsAllowed).stream().map(StringUtils::decode).toList();
+        var fieldReader = new FieldReader(serializedText);
+        List<String> result = new ArrayList<>();
+        while (fieldReader.hasNext()) {
+            result.add(fieldReader.nextString());
+        }
+        return Collections.unmodifiableList(result);
     }
 
     /**
@@ -2,6 +2,7 @@ package com.renomad.minum.web;
 
 import com.renomad.minum.utils.StringUtils;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -212,6 +213,29 @@ public final class Body {
         return bodyMap.keySet();
     }
 
+    /**
+     * Delete the temporary files of any partitions which were too large
+     * to hold in memory.  See {@link Partition#getPath()}
+     */
+    void deleteTemporaryFiles() throws IOException {
+        IOException failure = null;
+        for (Partition partition : partitions) {
+            try {
+                partition.deleteTemporaryFile();
+            } catch (IOException ex) {
+                // keep going, so one stuck file doesn't leave the rest behind
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
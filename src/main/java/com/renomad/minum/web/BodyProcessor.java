@@ -9,7 +9,11 @@ import com.renomad.minum.utils.StringUtils;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,22 +38,36 @@ final class BodyProcessor implements IBodyProcessor {
     public Body extractData(InputStream is, Headers h) {
         final var contentType = h.contentType();
 
+        // if both are sent, chunked takes precedence over the content-length, and
+        // the connection is closed afterwards (see WebFramework.determineIfKeepAlive).
+        // See https://www.rfc-editor.org/rfc/rfc9112#section-6.3
+        if (h.hasChunkedTransferEncoding()) {
+            return extractBodyFromInputStream(UNKNOWN_LENGTH, contentType, decodeTransferCoding(is, h));
+        }
+
         if (h.contentLength() >= 0) {
             if (h.contentLength() >= constants.maxReadSizeBytes) {
                 throw new ForbiddenUseException("It is disallowed to process a body with a length more than " + constants.maxReadSizeBytes + " bytes");
             }
         } else {
-            // we don't process chunked transfer encodings.  just bail.
-            List<String> transferEncodingHeaders = h.valueByKey("transfer-encoding");
-            if (List.of("chunked").equals(transferEncodingHeaders)) {
-                logger.logDebug(() -> "client sent chunked transfer-encoding.  Minum does not automatically read bodies of this type.");
-            }
             return Body.EMPTY;
         }
 
         return extractBodyFromInputStream(h.contentLength(), contentType, is);
     }
 
+    /**
+     * Bodies sent in chunks are read through a {@link ChunkedInputStream}, which
+     * keeps to the same limit on size (MAX_READ_SIZE_BYTES) as a content-length does.
+     */
+    @Override
+    public InputStream decodeTransferCoding(InputStream inputStream, Headers headers) {
+        if (headers.hasChunkedTransferEncoding()) {
+            return new ChunkedInputStream(inputStream, inputStreamUtils, constants.maxReadSizeBytes);
+        }
+        return inputStream;
+    }
+
     /**
      * Handles the parsing of the body data for either form-urlencoded or
      * multipart/form-data
@@ -75,7 +93,17 @@ final class BodyProcessor implements IBodyProcessor {
         } else {
             logger.logDebug(() -> "did not recognize a key-value pattern content-type, returning the raw bytes for the body.  Content-Type was: " + contentType);
             // we can return the whole byte array here because we never read from it
-            return new Body(Map.of(), inputStreamUtils.read(contentLength, is), List.of(), BodyType.UNRECOGNIZED);
+            byte[] bytes;
+            if (contentLength == UNKNOWN_LENGTH) {
+                try {
+                    bytes = is.readAllBytes();
+                } catch (IOException ex) {
+                    throw new WebServerException(ex);
+                }
+            } else {
+                bytes = inputStreamUtils.read(contentLength, is);
+            }
+            return new Body(Map.of(), bytes, List.of(), BodyType.UNRECOGNIZED);
         }
     }
 
@@ -102,15 +130,25 @@ final class BodyProcessor implements IBodyProcessor {
                 if (countOfPartitions >= MAX_BODY_KEYS_URL_ENCODED) {
                     throw new WebServerException("Error: body had excessive number of partitions (" + countOfPartitions + ").  Maximum allowed: " + MAX_BODY_KEYS_URL_ENCODED);
                 }
-                partitions.add(new Partition(p.getHeaders(), p.readAllBytes(), p.getContentDisposition()));
+                partitions.add(readPartition(p));
             }
 
 
         } catch (Exception ex) {
             logger.logDebug(() -> "Unable to parse this body. returning what we have so far.  Exception message: " + ex.getMessage());
+            // the partitions spooled to temporary files would otherwise outlive this failed
+            // request, so delete them now and return only what we kept in memory.
+            List<Partition> inMemoryPartitions = new ArrayList<>();
+            for (Partition partition : partitions) {
+                if (partition.getPath() == null) {
+                    inMemoryPartitions.add(partition);
+                } else {
+                    deleteQuietly(partition.getPath());
+                }
+            }
             // we have to return nothing for the raw bytes, because at this point we are halfway through
             // reading the inputstream and don't want to return broken data
-            return new Body(Map.of(), new byte[0], partitions, BodyType.MULTIPART);
+            return new Body(Map.of(), new byte[0], inMemoryPartitions, BodyType.MULTIPART);
         }
         if (partitions.isEmpty()) {
             return new Body(Map.of(), new byte[0], List.of(), BodyType.UNRECOGNIZED);
@@ -119,6 +157,46 @@ final class BodyProcessor implements IBodyProcessor {
         }
     }
 
+    /**
+     * Read the content of a partition into memory, or if it is larger than
+     * MULTIPART_MEMORY_THRESHOLD_BYTES, into a temporary file.  Either way, no more than
+     * that many bytes are held in memory at once.
+     */
+    private Partition readPartition(StreamingMultipartPartition p) {
+        int threshold = constants.multipartMemoryThresholdBytes;
+        Path temporaryFile = null;
+        try {
+            byte[] firstBytes = p.readNBytes(threshold == Integer.MAX_VALUE ? threshold : threshold + 1);
+            if (firstBytes.length <= threshold) {
+                return new Partition(p.getHeaders(), firstBytes, p.getContentDisposition());
+            }
+
+            temporaryFile = Files.createTempFile("minum_upload_", ".tmp");
+            try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                outputStream.write(firstBytes);
+                long size = firstBytes.length + p.transferTo(outputStream);
+                Path finalTemporaryFile = temporaryFile;
+                logger.logTrace(() -> "wrote a multipart partition of %d bytes to %s".formatted(size, finalTemporaryFile));
+                return new Partition(p.getHeaders(), temporaryFile, size, p.getContentDisposition());
+            }
+        } catch (IOException ex) {
+            deleteQuietly(temporaryFile);
+            throw new WebServerException(ex);
+        } catch (RuntimeException ex) {
+            deleteQuietly(temporaryFile);
+            throw ex;
+        }
+    }
+
+    private void deleteQuietly(Path temporaryFile) {
+        if (temporaryFile == null) return;
+        try {
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException ex) {
+            logger.logDebug(() -> "Unable to delete temporary file " + temporaryFile + ": " + ex.getMessage());
+        }
+    }
+
     /**
      * Given the "content-type" header, determine the boundary value.  A typical
      * multipart content-type header might look like this: <pre>Content-Type: multipart/form-data; boundary=i_am_a_boundary</pre>
@@ -199,13 +277,25 @@ final class BodyProcessor implements IBodyProcessor {
     private static final Pattern multiformFilenameRegex = Pattern.compile("\\bfilename\\b=\"(?<namevalue>.*?)\"");
 
     @Override
-    public Iterable<UrlEncodedKeyValue> getUrlEncodedDataIterable(InputStream inputStream, long contentLength) {
+    public Iterable<UrlEncodedKeyValue> getUrlEncodedDataIterable(InputStream rawInputStream, long contentLength) {
+        // with an unknown length, we peek ahead to see whether the stream has ended
+        final InputStream inputStream = contentLength == UNKNOWN_LENGTH ? new PushbackInputStream(rawInputStream) : rawInputStream;
         return () -> new Iterator<>() {
 
             final CountBytesRead countBytesRead = new CountBytesRead();
 
             @Override
             public boolean hasNext() {
+                if (contentLength == UNKNOWN_LENGTH) {
+                    try {
+                        int nextByte = inputStream.read();
+                        if (nextByte == -1) return false;
+                        ((PushbackInputStream) inputStream).unread(nextByte);
+                        return true;
+                    } catch (IOException e) {
+                        throw new WebServerException(e);
+                    }
+                }
                 return countBytesRead.getCount() < contentLength;
             }
 
@@ -260,9 +350,26 @@ final class BodyProcessor implements IBodyProcessor {
 
             final CountBytesRead countBytesRead = new CountBytesRead();
             boolean hasReadFirstPartition = false;
+            StreamingMultipartPartition previousPartition;
 
             @Override
             public boolean hasNext() {
+                if (contentLength == UNKNOWN_LENGTH) {
+                    // without a length, we go by the boundary after the previous partition,
+                    // which has two dashes after it if it is the last.
+                    if (previousPartition == null) return true;
+                    try {
+                        previousPartition.close();
+                        if (previousPartition.isLastPartition()) {
+                            // read what follows the last boundary, to the end of the body
+                            inputStream.transferTo(OutputStream.nullOutputStream());
+                            return false;
+                        }
+                    } catch (IOException e) {
+                        throw new WebServerException(e);
+                    }
+                    return true;
+                }
                 // determining if we have more to read is a little tricky because we have a buffer
                 // filled by reading ahead, looking for the boundary value
                 return (contentLength - countBytesRead.getCount()) > boundaryValue.length();
@@ -323,7 +430,8 @@ final class BodyProcessor implements IBodyProcessor {
                 // at this point our inputstream pointer is at the beginning of the
                 // body data.  From here until the end it's pure data.
 
-                return new StreamingMultipartPartition(headers, inputStream, new ContentDisposition(name, filename), boundaryValue, countBytesRead, contentLength);
+                previousPartition = new StreamingMultipartPartition(headers, inputStream, new ContentDisposition(name, filename), boundaryValue, countBytesRead, contentLength);
+                return previousPartition;
             }
 
 
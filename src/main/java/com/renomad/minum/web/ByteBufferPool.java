@@ -0,0 +1,58 @@
+package com.renomad.minum.web;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of same-sized buffers, so that a connection only holds a buffer
+ * while it is reading a request, and a busy server is not allocating
+ * a fresh one for each.
+ */
+final class ByteBufferPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    /**
+     * @param bufferSize the size, in bytes, of each buffer
+     * @param maxPooled the most buffers to keep for reuse.  Buffers given back
+     *                  beyond this are left to the garbage collector.
+     */
+    ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Get a cleared buffer, from the pool if there is one, or else newly allocated
+     */
+    ByteBuffer borrow() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        pooledCount.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Give a buffer back for reuse.  The caller must not use it afterwards.
+     */
+    void release(ByteBuffer buffer) {
+        if (pooledCount.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * The count of buffers waiting in the pool
+     */
+    int size() {
+        return pooledCount.get();
+    }
+}
@@ -0,0 +1,119 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.security.ForbiddenUseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a request body sent with chunked transfer-coding, taking off
+ * the chunk framing as it goes, so that what is read is just the body.
+ * See <a href="https://www.rfc-editor.org/rfc/rfc9112#name-chunked-transfer-coding">Chunked Transfer Coding</a>
+ * <p>
+ *     Nothing is buffered here beyond what the underlying stream does, so a
+ *     body of any size is read in constant memory.  The stream ends (returns -1)
+ *     after the last chunk, at which point the trailer section has been read
+ *     as well, leaving the underlying stream at the start of the next request.
+ * </p>
+ */
+final class ChunkedInputStream extends InputStream {
+
+    private final InputStream inputStream;
+    private final IInputStreamUtils inputStreamUtils;
+    private final long maxBodySize;
+    private long remainingInChunk;
+    private long bodySize;
+    private boolean isFinished;
+
+    /**
+     * @param maxBodySize the most bytes allowed in the body, altogether.  Going past
+     *                    this causes a {@link ForbiddenUseException}, just as a
+     *                    content-length of this size would.
+     */
+    ChunkedInputStream(InputStream inputStream, IInputStreamUtils inputStreamUtils, long maxBodySize) {
+        this.inputStream = inputStream;
+        this.inputStreamUtils = inputStreamUtils;
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!prepareChunk()) return -1;
+        int result = inputStream.read();
+        if (result == -1) {
+            throw new IOException("Error: The inputstream has closed unexpectedly while reading a chunk");
+        }
+        remainingInChunk--;
+        if (remainingInChunk == 0) readEndOfChunk();
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!prepareChunk()) return -1;
+        int count = inputStream.read(b, off, (int) Math.min(len, remainingInChunk));
+        if (count == -1) {
+            throw new IOException("Error: The inputstream has closed unexpectedly while reading a chunk");
+        }
+        remainingInChunk -= count;
+        if (remainingInChunk == 0) readEndOfChunk();
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return isFinished ? 0 : (int) Math.min(remainingInChunk, inputStream.available());
+    }
+
+    /**
+     * If the current chunk has been read, read the size of the next one.
+     * @return false if the body has ended
+     */
+    private boolean prepareChunk() throws IOException {
+        if (isFinished) return false;
+        if (remainingInChunk > 0) return true;
+
+        String sizeLine = inputStreamUtils.readLine(inputStream);
+        if (sizeLine == null) {
+            throw new IOException("Error: The inputstream has closed before the last chunk");
+        }
+        // the size may be followed by extensions, which we ignore
+        int semicolonIndex = sizeLine.indexOf(';');
+        String sizeText = (semicolonIndex >= 0 ? sizeLine.substring(0, semicolonIndex) : sizeLine).trim();
+        long size;
+        try {
+            size = Long.parseLong(sizeText, 16);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Error: invalid chunk size: " + sizeText);
+        }
+        if (size < 0) {
+            throw new IOException("Error: invalid chunk size: " + sizeText);
+        }
+
+        if (size == 0) {
+            // the last chunk.  Read past any trailer fields, to the blank line ending the body
+            Headers.getAllHeaders(inputStream, inputStreamUtils);
+            isFinished = true;
+            return false;
+        }
+
+        // compared this way round, so a huge chunk size cannot wrap the total past the check
+        if (size >= maxBodySize - bodySize) {
+            throw new ForbiddenUseException("It is disallowed to process a body with a length more than " + maxBodySize + " bytes");
+        }
+        bodySize += size;
+        remainingInChunk = size;
+        return true;
+    }
+
+    /**
+     * Every chunk's data is followed by CRLF
+     */
+    private void readEndOfChunk() throws IOException {
+        String line = inputStreamUtils.readLine(inputStream);
+        if (line == null || !line.isEmpty()) {
+            throw new IOException("Error: chunk data was not followed by CRLF");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.renomad.minum.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wraps the {@link ISocketWrapper} given to a response of unknown length,
+ * framing what it sends with chunked transfer-coding.
+ * See <a href="https://www.rfc-editor.org/rfc/rfc9112#name-chunked-transfer-coding">Chunked Transfer Coding</a>
+ * <p>
+ *     Bytes sent are gathered until there are enough for a chunk, so that
+ *     many small sends do not become many tiny chunks.  A flush sends what
+ *     has gathered so far as a chunk, and {@link #finish()} sends the last,
+ *     empty, chunk that tells the client the body is complete.
+ * </p>
+ */
+final class ChunkedSocketWrapper implements ISocketWrapper {
+
+    private static final byte[] CRLF = WebEngine.HTTP_CRLF.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = ("0" + WebEngine.HTTP_CRLF + WebEngine.HTTP_CRLF).getBytes(StandardCharsets.US_ASCII);
+
+    private final ISocketWrapper socketWrapper;
+    private final byte[] buffer;
+    private int count;
+
+    ChunkedSocketWrapper(ISocketWrapper socketWrapper, int chunkSize) {
+        this.socketWrapper = socketWrapper;
+        this.buffer = new byte[chunkSize];
+    }
+
+    ChunkedSocketWrapper(ISocketWrapper socketWrapper) {
+        this(socketWrapper, 8 * 1024);
+    }
+
+    @Override
+    public void send(String msg) throws IOException {
+        send(msg.getBytes(Charset.defaultCharset()));
+    }
+
+    @Override
+    public void send(byte[] bodyContents) throws IOException {
+        send(bodyContents, 0, bodyContents.length);
+    }
+
+    @Override
+    public void send(byte[] bodyContents, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // too big to gather - send what we have, then this as a chunk of its own
+            sendBufferedChunk();
+            sendChunk(bodyContents, off, len);
+            return;
+        }
+        if (count + len > buffer.length) {
+            sendBufferedChunk();
+        }
+        System.arraycopy(bodyContents, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void send(int b) throws IOException {
+        if (count == buffer.length) {
+            sendBufferedChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void sendHttpLine(String msg) throws IOException {
+        send(msg + WebEngine.HTTP_CRLF);
+    }
+
+    /**
+     * Send any gathered bytes as a chunk, then flush the socket
+     */
+    @Override
+    public void flush() throws IOException {
+        sendBufferedChunk();
+        socketWrapper.flush();
+    }
+
+    /**
+     * Send any gathered bytes, and then the last chunk, ending the body
+     */
+    void finish() throws IOException {
+        sendBufferedChunk();
+        socketWrapper.send(LAST_CHUNK);
+    }
+
+    private void sendBufferedChunk() throws IOException {
+        if (count > 0) {
+            sendChunk(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void sendChunk(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) {
+            // an empty chunk would mean the end of the body
+            return;
+        }
+        socketWrapper.send(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+        socketWrapper.send(CRLF);
+        socketWrapper.send(bytes, off, len);
+        socketWrapper.send(CRLF);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socketWrapper.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddrWithPort() {
+        return socketWrapper.getRemoteAddrWithPort();
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return socketWrapper.getRemoteAddr();
+    }
+
+    @Override
+    public HttpServerType getServerType() {
+        return socketWrapper.getServerType();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socketWrapper.close();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return socketWrapper.getInputStream();
+    }
+
+    @Override
+    public String getHostName() {
+        return socketWrapper.getHostName();
+    }
+
+    @Override
+    public String toString() {
+        return "(chunked) " + socketWrapper;
+    }
+}
@@ -0,0 +1,69 @@
+package com.renomad.minum.web;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@link Deflater}, all set to the same compression level, for
+ * gzipping response bodies.
+ * <p>
+ *     Each deflater holds a fair amount of native memory, which is only given
+ *     back when it is ended, so rather than making one for every compressed
+ *     response, they are reset and handed out again.
+ * </p>
+ */
+final class DeflaterPool {
+
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    private final int level;
+    private final int maxPooled;
+
+    /**
+     * @param level the compression level, from 0 (none) to 9 (smallest, but slowest).  See
+     *              {@link Deflater#setLevel(int)}
+     * @param maxPooled the most deflaters to keep for reuse.  Deflaters given back
+     *                  beyond this are ended.
+     */
+    DeflaterPool(int level, int maxPooled) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new WebServerException("The gzip compression level must be between 0 and 9.  Was: " + level);
+        }
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Get a deflater ready for new input, from the pool if there is one.  It
+     * produces raw deflate data, without the zlib wrapper, for putting inside gzip.
+     */
+    Deflater borrow() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        pooledCount.decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Give a deflater back for reuse.  The caller must not use it afterwards.
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (pooledCount.incrementAndGet() <= maxPooled) {
+            deflaters.offer(deflater);
+        } else {
+            pooledCount.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * The count of deflaters waiting in the pool
+     */
+    int size() {
+        return pooledCount.get();
+    }
+}
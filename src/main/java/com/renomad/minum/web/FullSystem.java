@@ -14,6 +14,7 @@ import java.nio.file.Path;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -46,6 +47,14 @@ public final class FullSystem {
      */
     private boolean hasShutdown;
 
+    /**
+     * Set when {@link #shutdown()} begins.  The servers stop partway through
+     * shutting down, so {@link #block()} uses this to know it should also wait
+     * for the rest of the shutdown to finish.
+     */
+    private volatile boolean isShuttingDown;
+    private final CountDownLatch shutdownFinished = new CountDownLatch(1);
+
     private final Context context;
 
     /**
@@ -207,9 +216,14 @@ public final class FullSystem {
     public void shutdown() {
 
         if (!hasShutdown) {
+            isShuttingDown = true;
             logger.logTrace(() -> "close called on " + this);
-            closeCore(logger, context, server, sslServer, this.toString());
-            hasShutdown = true;
+            try {
+                closeCore(logger, context, server, sslServer, this.toString());
+            } finally {
+                hasShutdown = true;
+                shutdownFinished.countDown();
+            }
         }
     }
 
@@ -277,6 +291,14 @@ public final class FullSystem {
      */
     public void block() {
         blockCore(this.server, this.sslServer, this.logger);
+        if (isShuttingDown) {
+            try {
+                shutdownFinished.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new WebServerException(ex);
+            }
+        }
     }
 
     static void blockCore(IServer server, IServer sslServer, ILogger logger) {
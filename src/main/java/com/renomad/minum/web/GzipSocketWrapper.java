@@ -0,0 +1,114 @@
+package com.renomad.minum.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+
+/**
+ * Wraps the {@link ISocketWrapper} given to a response body, compressing
+ * what it sends with gzip on the way through (see {@link PooledGzipOutputStream}).
+ * This is how streaming and large-file responses are compressed, since
+ * their bodies are never held in memory all at once.
+ * <p>
+ *     The compressed length is not known until the end, so the
+ *     body is sent either chunked or to the end of the connection.
+ * </p>
+ */
+final class GzipSocketWrapper implements ISocketWrapper {
+
+    private final ISocketWrapper socketWrapper;
+    private final PooledGzipOutputStream gzipOutputStream;
+
+    GzipSocketWrapper(ISocketWrapper socketWrapper, DeflaterPool deflaterPool) {
+        this.socketWrapper = socketWrapper;
+        this.gzipOutputStream = new PooledGzipOutputStream(Response.outputStreamOf(socketWrapper), deflaterPool);
+    }
+
+    @Override
+    public void send(String msg) throws IOException {
+        send(msg.getBytes(Charset.defaultCharset()));
+    }
+
+    @Override
+    public void send(byte[] bodyContents) throws IOException {
+        gzipOutputStream.write(bodyContents, 0, bodyContents.length);
+    }
+
+    @Override
+    public void send(byte[] bodyContents, int off, int len) throws IOException {
+        gzipOutputStream.write(bodyContents, off, len);
+    }
+
+    @Override
+    public void send(int b) throws IOException {
+        gzipOutputStream.write(b);
+    }
+
+    @Override
+    public void sendHttpLine(String msg) throws IOException {
+        send(msg + WebEngine.HTTP_CRLF);
+    }
+
+    /**
+     * Send everything compressed so far, then flush the socket
+     */
+    @Override
+    public void flush() throws IOException {
+        gzipOutputStream.flush();
+    }
+
+    /**
+     * Send the end of the compressed data
+     */
+    void finish() throws IOException {
+        gzipOutputStream.finish();
+    }
+
+    /**
+     * Give back the pooled deflater, if {@link #finish()} did not already
+     */
+    void release() {
+        gzipOutputStream.release();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socketWrapper.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddrWithPort() {
+        return socketWrapper.getRemoteAddrWithPort();
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return socketWrapper.getRemoteAddr();
+    }
+
+    @Override
+    public HttpServerType getServerType() {
+        return socketWrapper.getServerType();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socketWrapper.close();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return socketWrapper.getInputStream();
+    }
+
+    @Override
+    public String getHostName() {
+        return socketWrapper.getHostName();
+    }
+
+    @Override
+    public String toString() {
+        return "(gzip) " + socketWrapper;
+    }
+}
@@ -50,6 +50,20 @@ public final class Headers{
         return new ArrayList<>(headerStrings);
     }
 
+    /**
+     * The names of headers browsers commonly send, in lowercase.  When
+     * one of these is found, this string is used as the key rather than
+     * building a new one.
+     */
+    private static final String[] COMMON_HEADER_NAMES = {
+            "host", "connection", "user-agent", "accept", "accept-encoding", "accept-language",
+            "cookie", "referer", "origin", "cache-control", "pragma", "content-type", "content-length",
+            "upgrade-insecure-requests", "if-none-match", "if-modified-since", "range", "priority",
+            "dnt", "te", "keep-alive", "authorization", "transfer-encoding",
+            "sec-fetch-dest", "sec-fetch-mode", "sec-fetch-site", "sec-fetch-user",
+            "sec-ch-ua", "sec-ch-ua-mobile", "sec-ch-ua-platform",
+    };
+
     /**
      * Obtain any desired header by looking it up in this map.  All keys
      * are made lowercase.
@@ -57,13 +71,13 @@ public final class Headers{
     static Map<String, List<String>> extractHeadersToMap(List<String> headerStrings) {
         var result = new HashMap<String, List<String>>();
         for (var h : headerStrings) {
-            var indexOfFirstColon = h.indexOf(":");
+            var indexOfFirstColon = h.indexOf(':');
 
             // if the header is malformed, just move on
             if (indexOfFirstColon <= 0) continue;
 
-            String key = h.substring(0, indexOfFirstColon).toLowerCase(Locale.ROOT);
-            String value = h.substring(indexOfFirstColon+1).trim();
+            String key = headerName(h, indexOfFirstColon);
+            String value = trimmedValue(h, indexOfFirstColon + 1);
 
             if (result.containsKey(key)) {
                 var currentValue = result.get(key);
@@ -79,6 +93,30 @@ public final class Headers{
         return result;
     }
 
+    /**
+     * The lowercase name of a header, which ends at the given index
+     */
+    private static String headerName(String header, int nameLength) {
+        for (String commonName : COMMON_HEADER_NAMES) {
+            if (commonName.length() == nameLength && header.regionMatches(true, 0, commonName, 0, nameLength)) {
+                return commonName;
+            }
+        }
+        return header.substring(0, nameLength).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The value of a header, which starts at the given index, without
+     * surrounding whitespace
+     */
+    private static String trimmedValue(String header, int valueStart) {
+        int start = valueStart;
+        int end = header.length();
+        while (start < end && header.charAt(start) <= ' ') start++;
+        while (end > start && header.charAt(end - 1) <= ' ') end--;
+        return header.substring(start, end);
+    }
+
     /**
      * Gets the one content-type header, or returns an empty string
      */
@@ -142,6 +180,27 @@ public final class Headers{
         return connectionHeader.stream().anyMatch(x -> x.toLowerCase(Locale.ROOT).contains("close"));
     }
 
+    /**
+     * Indicates whether there is a Transfer-Encoding header, with any coding
+     */
+    public boolean hasTransferEncoding() {
+        return headersMap.get("transfer-encoding") != null;
+    }
+
+    /**
+     * Indicates whether the body of this request was sent with
+     * chunked transfer-coding, that is, "Transfer-Encoding: chunked"
+     */
+    public boolean hasChunkedTransferEncoding() {
+        List<String> transferEncodingHeader = headersMap.get("transfer-encoding");
+        if (transferEncodingHeader == null) return false;
+        // chunked is always the last coding applied.  Repeated headers are held
+        // newest first, so the last coding is at the end of the first value.
+        String latestCodings = transferEncodingHeader.getFirst();
+        String lastCoding = latestCodings.substring(latestCodings.lastIndexOf(',') + 1).trim();
+        return lastCoding.equalsIgnoreCase("chunked");
+    }
+
     /**
      * Loop through the lines of header in the HTTP message
      */
@@ -0,0 +1,95 @@
+package com.renomad.minum.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The buffered input stream of a {@link SocketWrapper}, which can also read
+ * a line of text by scanning its buffer.  See {@link LineScanningInputStream}
+ * <p>
+ *     The buffer belongs to the connection, so it is reused for every
+ *     request on it, and bytes read past the end of the headers are
+ *     there for reading the body.
+ * </p>
+ */
+final class HttpInputStream extends LineScanningInputStream {
+
+    private final InputStream inputStream;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    HttpInputStream(InputStream inputStream, int bufferSize) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    HttpInputStream(InputStream inputStream) {
+        this(inputStream, 8 * 1024);
+    }
+
+    @Override
+    byte[] bufferArray() {
+        return buffer;
+    }
+
+    @Override
+    int bufferPosition() {
+        return position;
+    }
+
+    @Override
+    int bufferLimit() {
+        return limit;
+    }
+
+    @Override
+    void setBufferPosition(int position) {
+        this.position = position;
+    }
+
+    @Override
+    boolean hasBufferedBytes() throws IOException {
+        return position < limit || fill();
+    }
+
+    private boolean fill() throws IOException {
+        int count = inputStream.read(buffer, 0, buffer.length);
+        if (count <= 0) return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= limit && !fill()) return -1;
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        int buffered = limit - position;
+        if (buffered <= 0) {
+            // a big read skips the buffer
+            if (len >= buffer.length) return inputStream.read(b, off, len);
+            if (!fill()) return -1;
+            buffered = limit - position;
+        }
+        int count = Math.min(len, buffered);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + inputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
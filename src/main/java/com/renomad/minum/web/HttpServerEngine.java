@@ -0,0 +1,27 @@
+package com.renomad.minum.web;
+
+/**
+ * How the plain-text server handles its connections.
+ * <p>
+ *     Configured by HTTP_SERVER_ENGINE in minum.config.  The encrypted
+ *     server always uses {@link #THREAD_PER_CONNECTION}.
+ * </p>
+ */
+public enum HttpServerEngine {
+    /**
+     * Each connection has its own (virtual) thread for as long as it
+     * is open, including while it waits for the client's next request.
+     * This is the default.
+     */
+    THREAD_PER_CONNECTION,
+
+    /**
+     * Connections waiting for a request are watched by a single thread
+     * using a {@link java.nio.channels.Selector}.  A connection is only handed
+     * to a thread once a request has arrived, and is given back to the selector
+     * afterwards.  This keeps the memory of idle keep-alive connections low,
+     * which matters when there are many thousands of them.
+     * See {@link SelectorServer}
+     */
+    SELECTOR
+}
@@ -30,6 +30,14 @@ public interface IBodyProcessor {
      */
     int MAX_BODY_KEYS_URL_ENCODED = 1000;
 
+    /**
+     * Given as the content length to {@link #getUrlEncodedDataIterable(InputStream, long)} and
+     * {@link #getMultiPartIterable(InputStream, String, int)} when the length of the body is
+     * not known ahead of time, because it was sent with chunked transfer-coding.  The
+     * data is then read until the stream ends.  See {@link #decodeTransferCoding(InputStream, Headers)}
+     */
+    int UNKNOWN_LENGTH = Integer.MAX_VALUE;
+
     /**
      * read the body if one exists
      * <br>
@@ -40,17 +48,23 @@ public interface IBodyProcessor {
      * </ol>
      * <br>
      * <p>
-     * <em>Note:</em> we don't read chunked data.
-     * </p>
-     * <p>
      * it is absolutely critical that the client gives us
-     * a way to know ahead of time how many bytes to read, so we (the server)
-     * can stop reading at precisely the right point.  There's simply no
-     * other way to reasonably do this.
+     * a way to know how many bytes to read, so we (the server)
+     * can stop reading at precisely the right point.  With chunked
+     * data, each chunk starts with its size, and an empty chunk comes last.
      * </p>
      */
     Body extractData(InputStream is, Headers h);
 
+    /**
+     * If the body was sent with chunked transfer-coding, returns a stream of
+     * the body with the chunk framing taken off, which ends where the body
+     * does.  Otherwise, returns the stream as it is.
+     */
+    default InputStream decodeTransferCoding(InputStream inputStream, Headers headers) {
+        return inputStream;
+    }
+
     /**
      * Return an iterable for stepping through the key-value pairs of URL-encoded data.
      * <br>
@@ -60,7 +74,7 @@ public interface IBodyProcessor {
      * @param inputStream The {@link InputStream} is set at the beginning of the body in the Request.  The first
      *                    read will return the first byte of body data.
      * @param contentLength The length of data in the body.  This is obtained from the content-length
-     *                      header.
+     *                      header, or is {@link #UNKNOWN_LENGTH} for chunked data.
      */
     Iterable<UrlEncodedKeyValue> getUrlEncodedDataIterable(InputStream inputStream, long contentLength);
 
@@ -74,7 +88,7 @@ public interface IBodyProcessor {
      * @param inputStream The {@link InputStream} is set at the beginning of the body in the Request.  The first
      *                    read will return the first byte of body data.
      * @param contentLength The length of data in the body.  This is obtained from the content-length
-     *                      header.
+     *                      header, or is {@link #UNKNOWN_LENGTH} for chunked data.
      */
     Iterable<StreamingMultipartPartition> getMultiPartIterable(InputStream inputStream, String boundaryValue, int contentLength);
 }
@@ -1,5 +1,6 @@
 package com.renomad.minum.web;
 
+import java.util.Map;
 
 /**
  * An HTTP request.
@@ -145,4 +146,17 @@ public interface IRequest {
      */
     Iterable<StreamingMultipartPartition> getMultipartIterable();
 
+    /**
+     * The values of the parameters in the path this request matched, by name.
+     * For example, if the endpoint was registered as {@code users/{id}/posts}
+     * and the client requested {@code users/123/posts}, this would
+     * have "123" for "id".  The values are as the client sent them, so may
+     * be percent-encoded.
+     * <br>
+     * Empty if the endpoint has no path parameters.
+     */
+    default Map<String, String> getPathParameters() {
+        return Map.of();
+    }
+
 }
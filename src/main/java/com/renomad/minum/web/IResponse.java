@@ -35,6 +35,15 @@ public interface IResponse {
      */
     long getBodyLength();
 
+    /**
+     * Whether the length of the body is unknown ahead of time, so that
+     * it must be sent with chunked transfer-coding.
+     * See {@link Response#buildStreamingResponse(StatusLine.StatusCode, Map, ThrowingConsumer)}
+     */
+    default boolean isChunked() {
+        return false;
+    }
+
     /**
      * By calling this method with a {@link ISocketWrapper} parameter, the method
      * will send bytes on the associated socket.
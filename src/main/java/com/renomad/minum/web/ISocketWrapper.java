@@ -6,6 +6,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * This is the public interface to {@link ISocketWrapper}, whose
@@ -71,4 +73,31 @@ public interface ISocketWrapper extends Closeable {
      * Send the data in the outgoing buffer into the socket.
      */
     void flush() throws IOException;
+
+    /**
+     * Send part of a file on the socket, after anything already sent.
+     * <p>
+     *     This default copies the bytes through a buffer.  Plain-text
+     *     sockets override it so the operating system sends the bytes straight
+     *     from the file (see {@link FileChannel#transferTo}), without copying them
+     *     through the heap.
+     * </p>
+     * @param position where in the file to start
+     * @param count the number of bytes to send.  Fewer are sent if the file ends first.
+     */
+    default void sendFile(FileChannel fileChannel, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        long countBytesLeftToSend = count;
+        long filePosition = position;
+        while (countBytesLeftToSend > 0) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), countBytesLeftToSend));
+            int countBytesRead = fileChannel.read(buffer, filePosition);
+            if (countBytesRead <= 0) {
+                break;
+            }
+            send(buffer.array(), 0, countBytesRead);
+            filePosition += countBytesRead;
+            countBytesLeftToSend -= countBytesRead;
+        }
+    }
 }
@@ -20,8 +20,16 @@ final class InputStreamUtils implements IInputStreamUtils {
         this.maxReadLineSizeBytes = maxReadLineSizeBytes;
     }
 
+    /**
+     * Read a line of text.  From a {@link LineScanningInputStream}, as the sockets
+     * of both our servers provide, the line is found by scanning its buffer.  From
+     * any other stream, it is read a byte at a time.
+     */
     @Override
     public String readLine(InputStream inputStream) throws IOException  {
+        if (inputStream instanceof LineScanningInputStream lineScanningInputStream) {
+            return lineScanningInputStream.readLine(maxReadLineSizeBytes);
+        }
         final int NEWLINE_DECIMAL = 10;
         final int CARRIAGE_RETURN_DECIMAL = 13;
 
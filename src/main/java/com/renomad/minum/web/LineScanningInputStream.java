@@ -0,0 +1,119 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.security.ForbiddenUseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffered input stream which can read a line of text by scanning
+ * its buffer, rather than a byte at a time.  The request line and headers
+ * of every request are read this way (see {@link InputStreamUtils#readLine(InputStream)}).
+ * <p>
+ *     Subclasses provide the buffer: {@link HttpInputStream} for
+ *     the sockets of the {@link Server}, and the stream of a
+ *     {@link SelectorConnection} for the {@link SelectorServer}.
+ * </p>
+ */
+abstract class LineScanningInputStream extends InputStream {
+
+    /**
+     * The array holding the buffered bytes.  Only valid after
+     * a call to {@link #hasBufferedBytes()}, which may replace it.
+     */
+    abstract byte[] bufferArray();
+
+    /**
+     * The index in {@link #bufferArray()} of the next unread byte
+     */
+    abstract int bufferPosition();
+
+    /**
+     * The index in {@link #bufferArray()} just past the last unread byte
+     */
+    abstract int bufferLimit();
+
+    /**
+     * Mark the bytes before this index as read
+     */
+    abstract void setBufferPosition(int position);
+
+    /**
+     * Make sure there are unread bytes in the buffer, reading more
+     * from the underlying stream if needed.
+     * @return false if the stream has ended
+     */
+    abstract boolean hasBufferedBytes() throws IOException;
+
+    /**
+     * Read up to the next newline, returning the text without it.  Carriage
+     * returns are dropped.
+     * @param maxLength the most bytes allowed in the line, counting the carriage return and newline
+     * @return the line, or null if the stream ended before any text was read
+     * @throws ForbiddenUseException if the line is longer than allowed.  The stream is closed.
+     */
+    String readLine(int maxLength) throws IOException {
+        ByteArrayOutputStream lineSoFar = null;
+        int bytesConsumed = 0;
+        while (true) {
+            if (!hasBufferedBytes()) {
+                // the stream has ended
+                return lineSoFar == null || lineSoFar.size() == 0 ? null : lineSoFar.toString(StandardCharsets.UTF_8);
+            }
+            byte[] buffer = bufferArray();
+            int start = bufferPosition();
+            int scanEnd = Math.min(bufferLimit(), start + (maxLength - bytesConsumed));
+            int index = start;
+            while (index < scanEnd && buffer[index] != '\n') index++;
+
+            if (index < scanEnd) {
+                setBufferPosition(index + 1);
+                if (lineSoFar == null) {
+                    return decodeLine(buffer, start, index);
+                }
+                writeWithoutCarriageReturns(lineSoFar, buffer, start, index);
+                return lineSoFar.toString(StandardCharsets.UTF_8);
+            }
+
+            // no newline yet.  Keep what we have, and read more.
+            if (lineSoFar == null) lineSoFar = new ByteArrayOutputStream();
+            writeWithoutCarriageReturns(lineSoFar, buffer, start, index);
+            bytesConsumed += index - start;
+            setBufferPosition(index);
+            if (bytesConsumed >= maxLength) {
+                close();
+                throw new ForbiddenUseException("client sent more bytes than allowed for a single line.  max: " + maxLength);
+            }
+        }
+    }
+
+    /**
+     * Convert a line to a string, leaving out carriage returns.  Usually
+     * there is just the one, at the end.
+     */
+    static String decodeLine(byte[] bytes, int from, int to) {
+        int end = to;
+        if (end > from && bytes[end - 1] == '\r') end--;
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == '\r') {
+                var result = new ByteArrayOutputStream(end - from);
+                writeWithoutCarriageReturns(result, bytes, from, end);
+                return result.toString(StandardCharsets.UTF_8);
+            }
+        }
+        return new String(bytes, from, end - from, StandardCharsets.UTF_8);
+    }
+
+    private static void writeWithoutCarriageReturns(ByteArrayOutputStream output, byte[] bytes, int from, int to) {
+        int runStart = from;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\r') {
+                output.write(bytes, runStart, i - runStart);
+                runStart = i + 1;
+            }
+        }
+        output.write(bytes, runStart, to - runStart);
+    }
+}
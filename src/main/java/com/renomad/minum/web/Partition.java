@@ -2,21 +2,49 @@ package com.renomad.minum.web;
 
 import com.renomad.minum.utils.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * Represents a single partition in a multipart/form-data body response
+ * <p>
+ *     Partitions larger than MULTIPART_MEMORY_THRESHOLD_BYTES are not held in
+ *     memory, but written to a temporary file as they are read (see {@link #getPath()}).
+ *     That file is deleted once the response to the request has been sent, so
+ *     to keep it, copy or move it before then.  For these, prefer {@link #getInputStream()}
+ *     to {@link #getContent()}, which reads the whole file into memory.
+ * </p>
  */
 public final class Partition {
 
     private final Headers headers;
     private final byte[] content;
+    private final Path path;
+    private final long size;
     private final ContentDisposition contentDisposition;
 
     public Partition(Headers headers, byte[] content, ContentDisposition contentDisposition) {
         this.headers = headers;
         this.content = content;
+        this.path = null;
+        this.size = content.length;
+        this.contentDisposition = contentDisposition;
+    }
+
+    /**
+     * A partition whose content was written to a temporary file
+     * @param size the length of the content, in bytes
+     */
+    Partition(Headers headers, Path path, long size, ContentDisposition contentDisposition) {
+        this.headers = headers;
+        this.content = null;
+        this.path = path;
+        this.size = size;
         this.contentDisposition = contentDisposition;
     }
 
@@ -28,11 +56,62 @@ public final class Partition {
         return contentDisposition;
     }
 
+    /**
+     * The content of this partition.  If it was written to a temporary
+     * file, this reads it all into memory.
+     */
     public byte[] getContent() {
+        if (path != null) {
+            try {
+                return Files.readAllBytes(path);
+            } catch (IOException ex) {
+                throw new WebServerException(ex);
+            }
+        }
         return content.clone();
     }
+
     public String getContentAsString() {
-        return StringUtils.byteArrayToString(content);
+        return StringUtils.byteArrayToString(path != null ? getContent() : content);
+    }
+
+    /**
+     * A stream of the content of this partition, read from its
+     * temporary file, if it has one.  The caller should close it.
+     */
+    public InputStream getInputStream() {
+        if (path != null) {
+            try {
+                return Files.newInputStream(path);
+            } catch (IOException ex) {
+                throw new WebServerException(ex);
+            }
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * The temporary file holding the content of this partition, or null
+     * if it was small enough to be kept in memory.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * The length of the content, in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Delete the temporary file, if there is one
+     */
+    void deleteTemporaryFile() throws IOException {
+        if (path != null) {
+            Files.deleteIfExists(path);
+        }
     }
 
     @Override
@@ -40,12 +119,12 @@ public final class Partition {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Partition partition = (Partition) o;
-        return Objects.equals(headers, partition.headers) && Arrays.equals(content, partition.content) && Objects.equals(contentDisposition, partition.contentDisposition);
+        return size == partition.size && Objects.equals(headers, partition.headers) && Arrays.equals(content, partition.content) && Objects.equals(path, partition.path) && Objects.equals(contentDisposition, partition.contentDisposition);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(headers, contentDisposition);
+        int result = Objects.hash(headers, path, size, contentDisposition);
         result = 31 * result + Arrays.hashCode(content);
         return result;
     }
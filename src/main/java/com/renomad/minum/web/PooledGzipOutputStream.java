@@ -0,0 +1,143 @@
+package com.renomad.minum.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data in gzip format, like {@link java.util.zip.GZIPOutputStream}, but
+ * with a {@link Deflater} borrowed from a {@link DeflaterPool}.
+ * See <a href="https://www.rfc-editor.org/rfc/rfc1952">GZIP file format</a>
+ * <p>
+ *     Compressed bytes are written on to the underlying stream as they are
+ *     produced, so that a body of any size is compressed in constant memory.
+ *     A flush sends everything written so far (at a small cost to the compression),
+ *     so the client is not left waiting on data held inside the deflater.
+ * </p>
+ * <p>
+ *     The deflater is given back by {@link #finish()}, or by {@link #release()} if
+ *     the body could not be finished.  Closing this stream finishes it, but does not
+ *     close the underlying stream.
+ * </p>
+ */
+final class PooledGzipOutputStream extends OutputStream {
+
+    /**
+     * The gzip header: magic number, deflate, no flags, no modification time,
+     * no extra flags, unknown operating system.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream outputStream;
+    private final DeflaterPool deflaterPool;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[8 * 1024];
+    private final byte[] singleByte = new byte[1];
+    private Deflater deflater;
+    private boolean hasWrittenHeader;
+
+    PooledGzipOutputStream(OutputStream outputStream, DeflaterPool deflaterPool) {
+        this.outputStream = outputStream;
+        this.deflaterPool = deflaterPool;
+        this.deflater = deflaterPool.borrow();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        confirmNotFinished();
+        if (len == 0) return;
+        writeHeaderIfNeeded();
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Send all that has been written so far, then flush the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        if (deflater != null && hasWrittenHeader) {
+            int count;
+            do {
+                count = deflate(Deflater.SYNC_FLUSH);
+            } while (count == buffer.length);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Write the last of the compressed data and the gzip trailer, and give
+     * the deflater back.  Does nothing if already finished.
+     */
+    void finish() throws IOException {
+        if (deflater == null) return;
+        try {
+            writeHeaderIfNeeded();
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            // the trailer: the checksum and length of the uncompressed data, little-endian
+            byte[] trailer = new byte[8];
+            writeIntLittleEndian(trailer, 0, (int) crc.getValue());
+            writeIntLittleEndian(trailer, 4, (int) deflater.getBytesRead());
+            outputStream.write(trailer);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Give the deflater back to the pool, if that has not happened already.  After
+     * this, nothing more can be written.
+     */
+    void release() {
+        if (deflater != null) {
+            deflaterPool.release(deflater);
+            deflater = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private int deflate(int flushMode) throws IOException {
+        int count = deflater.deflate(buffer, 0, buffer.length, flushMode);
+        if (count > 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        return count;
+    }
+
+    private void writeHeaderIfNeeded() throws IOException {
+        if (!hasWrittenHeader) {
+            outputStream.write(GZIP_HEADER);
+            hasWrittenHeader = true;
+        }
+    }
+
+    private void confirmNotFinished() throws IOException {
+        if (deflater == null) {
+            throw new IOException("Error: this gzip stream is already finished");
+        }
+    }
+
+    private static void writeIntLittleEndian(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -1,5 +1,7 @@
 package com.renomad.minum.web;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.regex.Matcher;
@@ -8,11 +10,29 @@ import java.util.regex.Pattern;
 final class Range {
 
     private static final Pattern rangeHeaderPattern = Pattern.compile("^bytes=(?<first>[0-9]{0,13})-(?<second>[0-9]{0,13})$");
+    private static final Pattern rangeSpecPattern = Pattern.compile("^(?<first>[0-9]{0,13})-(?<second>[0-9]{0,13})$");
+
+    /**
+     * The most ranges we will send in one response, after combining those which
+     * overlap or touch.  A request for more than this is answered as if it had
+     * no Range header - many small ranges cost far more to send than the bytes
+     * they hold, and are a known way to tie up a server.
+     */
+    static final int MAX_RANGES = 50;
+
     private final Long rangeFirstPart;
     private final Long rangeSecondPart;
     private final Long length;
     private final Long offset;
     private final boolean hasRangeHeader;
+    private final List<ByteRange> multipleRanges;
+
+    /**
+     * One range of bytes of a file
+     * @param offset where the range starts
+     * @param length the count of bytes in the range
+     */
+    record ByteRange(long offset, long length) {}
 
     public Range(Headers requestHeaders, long fullLength) {
         List<String> rangeHeaders = requestHeaders.valueByKey("range");
@@ -22,15 +42,40 @@ final class Range {
             rangeSecondPart = null;
             length = fullLength;
             offset = 0L;
+            multipleRanges = List.of();
         } else {
-            hasRangeHeader = true;
             if (rangeHeaders.size() > 1) {
                 throw new InvalidRangeException("Error: Request contained more than one Range header");
             }
-            // the "Range:" header provides a desired range, and can request multiple ranges.
-            // this server does not currently handle multiple ranges, so if that is requested we
-            // will ignore the range header and return a 200 with the entire contents.
-            Matcher matcher = rangeHeaderPattern.matcher(rangeHeaders.getFirst());
+            String rangeHeader = rangeHeaders.getFirst();
+            if (rangeHeader.startsWith("bytes=") && rangeHeader.indexOf(',') >= 0) {
+                // the "Range:" header can request multiple ranges, like bytes=0-99,500-599
+                List<ByteRange> ranges = parseMultipleRanges(rangeHeader.substring("bytes=".length()), fullLength);
+                rangeFirstPart = null;
+                rangeSecondPart = null;
+                if (ranges.size() == 1) {
+                    // what was asked for combined into one range
+                    hasRangeHeader = true;
+                    offset = ranges.getFirst().offset();
+                    length = ranges.getFirst().length();
+                    multipleRanges = List.of();
+                } else if (ranges.size() > 1 && ranges.size() <= MAX_RANGES) {
+                    hasRangeHeader = true;
+                    offset = 0L;
+                    length = fullLength;
+                    multipleRanges = ranges;
+                } else {
+                    // nothing we can satisfy, or too many - send the whole thing
+                    hasRangeHeader = false;
+                    offset = 0L;
+                    length = fullLength;
+                    multipleRanges = List.of();
+                }
+                return;
+            }
+            hasRangeHeader = true;
+            multipleRanges = List.of();
+            Matcher matcher = rangeHeaderPattern.matcher(rangeHeader);
             if (matcher.matches()) {
                 String firstPart = matcher.group("first");
                 String secondPart = matcher.group("second");
@@ -80,6 +125,61 @@ final class Range {
         }
     }
 
+    /**
+     * Read the ranges of a Range header asking for more than one, such as "0-99,500-599,-100".
+     * Ranges are put in order and combined where they overlap or touch, and any
+     * starting past the end of the file are dropped.
+     * See <a href="https://www.rfc-editor.org/rfc/rfc9110.html#name-byte-ranges">Byte ranges</a>
+     * @param rangeSet the value of the header, after "bytes="
+     * @return the ranges, or an empty list if the header could not be read
+     */
+    static List<ByteRange> parseMultipleRanges(String rangeSet, long fullLength) {
+        // each is the first and last byte of a range, inclusive
+        List<long[]> ranges = new ArrayList<>();
+        for (String rangeSpec : rangeSet.split(",")) {
+            Matcher matcher = rangeSpecPattern.matcher(rangeSpec.trim());
+            if (!matcher.matches()) return List.of();
+            String firstPart = matcher.group("first");
+            String secondPart = matcher.group("second");
+            long first;
+            long last;
+            if (!firstPart.isEmpty()) {
+                first = Long.parseLong(firstPart);
+                last = fullLength - 1;
+                if (!secondPart.isEmpty()) {
+                    long second = Long.parseLong(secondPart);
+                    if (first > second) {
+                        throw new InvalidRangeException("Error: The value of the first part of the range was larger than the second.");
+                    }
+                    last = Math.min(second, last);
+                }
+            } else if (!secondPart.isEmpty()) {
+                // the last so-many bytes
+                first = Math.max(0, fullLength - Long.parseLong(secondPart));
+                last = fullLength - 1;
+            } else {
+                return List.of();
+            }
+            if (first <= last) {
+                ranges.add(new long[]{first, last});
+            }
+        }
+
+        ranges.sort(Comparator.comparingLong(x -> x[0]));
+        List<ByteRange> combinedRanges = new ArrayList<>();
+        long[] current = null;
+        for (long[] range : ranges) {
+            if (current != null && range[0] <= current[1] + 1) {
+                current[1] = Math.max(current[1], range[1]);
+            } else {
+                if (current != null) combinedRanges.add(new ByteRange(current[0], current[1] - current[0] + 1));
+                current = range;
+            }
+        }
+        if (current != null) combinedRanges.add(new ByteRange(current[0], current[1] - current[0] + 1));
+        return combinedRanges;
+    }
+
     public Long getRangeFirstPart() {
         return rangeFirstPart;
     }
@@ -100,17 +200,32 @@ final class Range {
         return hasRangeHeader;
     }
 
+    /**
+     * True if more than one range is to be sent, as a multipart/byteranges body.  In
+     * that case, see {@link #getMultipleRanges()} rather than the offset and length.
+     */
+    public boolean hasMultipleRanges() {
+        return !multipleRanges.isEmpty();
+    }
+
+    /**
+     * The ranges to send, in order, if there are more than one.  Otherwise, an empty list.
+     */
+    public List<ByteRange> getMultipleRanges() {
+        return multipleRanges;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Range range = (Range) o;
-        return hasRangeHeader == range.hasRangeHeader && Objects.equals(rangeFirstPart, range.rangeFirstPart) && Objects.equals(rangeSecondPart, range.rangeSecondPart) && Objects.equals(length, range.length) && Objects.equals(offset, range.offset);
+        return hasRangeHeader == range.hasRangeHeader && Objects.equals(rangeFirstPart, range.rangeFirstPart) && Objects.equals(rangeSecondPart, range.rangeSecondPart) && Objects.equals(length, range.length) && Objects.equals(offset, range.offset) && Objects.equals(multipleRanges, range.multipleRanges);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(rangeFirstPart, rangeSecondPart, length, offset, hasRangeHeader);
+        return Objects.hash(rangeFirstPart, rangeSecondPart, length, offset, hasRangeHeader, multipleRanges);
     }
 
     @Override
@@ -121,6 +236,7 @@ final class Range {
                 ", length=" + length +
                 ", offset=" + offset +
                 ", hasRangeHeader=" + hasRangeHeader +
+                (multipleRanges.isEmpty() ? "" : ", multipleRanges=" + multipleRanges) +
                 '}';
     }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package com.renomad.minum.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -15,6 +18,7 @@ public final class Request implements IRequest {
     private final ISocketWrapper socketWrapper;
     private final IBodyProcessor bodyProcessor;
     private boolean hasStartedReadingBody;
+    private Map<String, String> pathParameters = Map.of();
 
     /**
      * Constructor for a HTTP request
@@ -68,17 +72,29 @@ public final class Request implements IRequest {
         return socketWrapper;
     }
 
+    @Override
+    public Map<String, String> getPathParameters() {
+        return pathParameters;
+    }
+
+    /**
+     * Set by the framework once it has found the endpoint for this request
+     */
+    void setPathParameters(Map<String, String> pathParameters) {
+        this.pathParameters = pathParameters;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Request request = (Request) o;
-        return hasStartedReadingBody == request.hasStartedReadingBody && Objects.equals(headers, request.headers) && Objects.equals(requestLine, request.requestLine) && Objects.equals(body, request.body) && Objects.equals(remoteRequester, request.remoteRequester) && Objects.equals(socketWrapper, request.socketWrapper) && Objects.equals(bodyProcessor, request.bodyProcessor);
+        return hasStartedReadingBody == request.hasStartedReadingBody && Objects.equals(headers, request.headers) && Objects.equals(requestLine, request.requestLine) && Objects.equals(body, request.body) && Objects.equals(remoteRequester, request.remoteRequester) && Objects.equals(socketWrapper, request.socketWrapper) && Objects.equals(bodyProcessor, request.bodyProcessor) && Objects.equals(pathParameters, request.pathParameters);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(headers, requestLine, body, remoteRequester, socketWrapper, bodyProcessor, hasStartedReadingBody);
+        return Objects.hash(headers, requestLine, body, remoteRequester, socketWrapper, bodyProcessor, hasStartedReadingBody, pathParameters);
     }
 
     @Override
@@ -99,7 +115,7 @@ public final class Request implements IRequest {
         if (!headers.contentType().contains("application/x-www-form-urlencoded")) {
             throw new WebServerException("This request was not sent with a content type of application/x-www-form-urlencoded.  The content type was: " + headers.contentType());
         }
-        return bodyProcessor.getUrlEncodedDataIterable(getSocketWrapper().getInputStream(), getHeaders().contentLength());
+        return bodyProcessor.getUrlEncodedDataIterable(getBodyInputStream(), getBodyLength());
     }
 
     /**
@@ -141,7 +157,32 @@ public final class Request implements IRequest {
             throw new WebServerException(parsingError);
         }
 
-        return bodyProcessor.getMultiPartIterable(getSocketWrapper().getInputStream(), boundaryValue, getHeaders().contentLength());
+        return bodyProcessor.getMultiPartIterable(getBodyInputStream(), boundaryValue, getBodyLength());
+    }
+
+    /**
+     * Clean up after this request, once its response has been sent - for now,
+     * that means deleting the temporary files of large multipart partitions.
+     */
+    void cleanup() throws IOException {
+        if (body != null) {
+            body.deleteTemporaryFiles();
+        }
+    }
+
+    /**
+     * The stream of the body, with any chunked transfer-coding taken off
+     */
+    private InputStream getBodyInputStream() {
+        return bodyProcessor.decodeTransferCoding(getSocketWrapper().getInputStream(), headers);
+    }
+
+    /**
+     * The length of the body, or {@link IBodyProcessor#UNKNOWN_LENGTH} if it
+     * was sent in chunks
+     */
+    private int getBodyLength() {
+        return headers.hasChunkedTransferEncoding() ? IBodyProcessor.UNKNOWN_LENGTH : headers.contentLength();
     }
 
     /**
@@ -4,21 +4,26 @@ import com.renomad.minum.utils.FileUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
 import java.net.URI;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.GZIPOutputStream;
 
 import static com.renomad.minum.web.StatusLine.StatusCode.CODE_200_OK;
 import static com.renomad.minum.web.StatusLine.StatusCode.CODE_206_PARTIAL_CONTENT;
+import static com.renomad.minum.web.StatusLine.StatusCode.CODE_304_NOT_MODIFIED;
+import static com.renomad.minum.web.WebEngine.HTTP_CRLF;
 
 /**
  * Represents an HTTP response. This is what will get sent back to the
@@ -78,6 +83,12 @@ public final class Response implements IResponse {
      */
     private final boolean isBodyText;
 
+    /**
+     * If true, the length of the body is not known ahead of time, so it
+     * is sent with chunked transfer-coding.  See {@link ChunkedSocketWrapper}
+     */
+    private final boolean isChunked;
+
     /**
      * This is the constructor that provides access to all fields.  It is not intended
      * to be used from outside this class.
@@ -85,29 +96,87 @@ public final class Response implements IResponse {
      * @param outputGenerator a {@link ThrowingConsumer} that will use a {@link ISocketWrapper} parameter
      *                        to send bytes on the wire back to the client.  See the static factory methods
      *                        such as {@link #buildResponse(StatusLine.StatusCode, Map, byte[])} for more details on this.
-     * @param bodyLength this is used to set the content-length header for the response.  If this is
-     *                   not provided, we set the header to "transfer-encoding: chunked", or in other words, streaming.
+     * @param bodyLength this is used to set the content-length header for the response.
+     * @param isChunked if true, the body length is unknown, and we set the header to
+     *                  "transfer-encoding: chunked", or in other words, streaming.
      */
     Response(StatusLine.StatusCode statusCode, Map<String, String> extraHeaders, byte[] body,
-             ThrowingConsumer<ISocketWrapper> outputGenerator, long bodyLength, boolean isBodyText) {
+             ThrowingConsumer<ISocketWrapper> outputGenerator, long bodyLength, boolean isBodyText, boolean isChunked) {
         this.statusCode = statusCode;
         this.extraHeaders = new HashMap<>(extraHeaders);
         this.body = body;
         this.outputGenerator = outputGenerator;
         this.bodyLength = bodyLength;
         this.isBodyText = isBodyText;
+        this.isChunked = isChunked;
+    }
+
+    Response(StatusLine.StatusCode statusCode, Map<String, String> extraHeaders, byte[] body,
+             ThrowingConsumer<ISocketWrapper> outputGenerator, long bodyLength, boolean isBodyText) {
+        this(statusCode, extraHeaders, body, outputGenerator, bodyLength, isBodyText, false);
     }
 
     /**
      * This factory method is intended for situations where the user wishes to stream data
      * but lacks the content length.  This is only for unusual situations where the developer
      * needs the extra control.  In most cases, other methods are more suitable.
+     * <p>
+     *     The body is sent to HTTP/1.1 clients with chunked transfer-coding, which the
+     *     system takes care of - whatever is sent on the {@link ISocketWrapper} is
+     *     framed as chunks, and the last chunk is sent once the outputGenerator returns.
+     *     HTTP/1.0 clients do not understand chunks, so for them the body is sent as it
+     *     is, and the connection is closed afterwards to mark its end.
+     * </p>
      * @param extraHeaders any extra headers for the response, such as the content-type
      * @param outputGenerator a function that will be given a {@link ISocketWrapper}, providing the
      *                        ability to send bytes on the socket.
      */
     public static IResponse buildStreamingResponse(StatusLine.StatusCode statusCode, Map<String, String> extraHeaders, ThrowingConsumer<ISocketWrapper> outputGenerator) {
-        return new Response(statusCode, extraHeaders, null, outputGenerator, 0, false);
+        return new Response(statusCode, extraHeaders, null, outputGenerator, 0, false, true);
+    }
+
+    /**
+     * Like {@link #buildStreamingResponse(StatusLine.StatusCode, Map, ThrowingConsumer)}, but
+     * the body is written to an {@link OutputStream}, so that it can be handed to code
+     * which writes to streams.  For example, a large CSV export could be written
+     * row by row as it is read from the database, without holding the whole body in memory:
+     * <pre>{@code
+     *     return Response.buildChunkedResponse(CODE_200_OK, Map.of("Content-Type", "text/csv"), outputStream -> {
+     *         for (var row : rows) {
+     *             outputStream.write(toCsvLine(row).getBytes(StandardCharsets.UTF_8));
+     *         }
+     *     });
+     * }</pre>
+     * Flushing the stream sends what has been written so far.  There is no
+     * need to close it.
+     * @param extraHeaders any extra headers for the response, such as the content-type
+     * @param outputGenerator a function that will be given an {@link OutputStream} for the body
+     */
+    public static IResponse buildChunkedResponse(StatusLine.StatusCode statusCode, Map<String, String> extraHeaders, ThrowingConsumer<OutputStream> outputGenerator) {
+        return buildStreamingResponse(statusCode, extraHeaders, sw -> outputGenerator.accept(outputStreamOf(sw)));
+    }
+
+    /**
+     * An {@link OutputStream} which sends what is written to it on the socket.  Closing
+     * it does not close the socket.
+     */
+    static OutputStream outputStreamOf(ISocketWrapper sw) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                sw.send(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                sw.send(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                sw.flush();
+            }
+        };
     }
 
     /**
@@ -136,6 +205,14 @@ public final class Response implements IResponse {
         return new Response(statusCode, extraHeaders, body, socketWrapper -> sendByteArrayResponse(socketWrapper, body), body.length, false);
     }
 
+    /**
+     * Build an ordinary response from bytes, saying whether they are text (and
+     * so worth compressing).  This is for rebuilding a response kept by a {@link ResponseCache}.
+     */
+    static IResponse buildResponse(StatusLine.StatusCode statusCode, Map<String, String> extraHeaders, byte[] body, boolean isBodyText) {
+        return new Response(statusCode, extraHeaders, body, socketWrapper -> sendByteArrayResponse(socketWrapper, body), body.length, isBodyText);
+    }
+
     /**
      * Build an ordinary response, with a known body
      * @param extraHeaders extra HTTP headers, like <pre>content-type: text/html</pre>
@@ -159,9 +236,13 @@ public final class Response implements IResponse {
         Map<String, String> adjustedHeaders = new HashMap<>(extraHeaders);
         long fileSize = Files.size(Path.of(filePath));
         var range = new Range(requestHeaders, fileSize);
+        boolean isEncoded = adjustedHeaders.keySet().stream().anyMatch(x -> x.equalsIgnoreCase("content-encoding"));
+        if (range.hasMultipleRanges() && !isEncoded) {
+            return buildMultipleRangeResponse(adjustedHeaders, filePath, fileSize, range.getMultipleRanges());
+        }
         StatusLine.StatusCode responseCode = CODE_200_OK;
         long length = fileSize;
-        if (range.hasRangeHeader()) {
+        if (range.hasRangeHeader() && !range.hasMultipleRanges()) {
             long offset = range.getOffset();
             length = range.getLength();
             var lastIndex = (offset + length) - 1;
@@ -170,16 +251,65 @@ public final class Response implements IResponse {
         }
 
         ThrowingConsumer<ISocketWrapper> outputGenerator = socketWrapper -> {
-            try (RandomAccessFile reader = new RandomAccessFile(filePath, "r")) {
-                reader.seek(range.getOffset());
-                var fileChannel = reader.getChannel();
-                sendFileChannelResponse(socketWrapper, fileChannel, range.getLength());
+            try (FileChannel fileChannel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+                socketWrapper.sendFile(fileChannel, range.getOffset(), range.getLength());
             }
         };
 
         return new Response(responseCode, adjustedHeaders, null, outputGenerator, length, false);
     }
 
+    /**
+     * Send several ranges of a file, as a multipart/byteranges body.  Each part
+     * has its own Content-Range header, and its bytes are sent straight from the
+     * file, like any other large file.
+     * See <a href="https://www.rfc-editor.org/rfc/rfc9110.html#name-media-type-multipart-byteran">multipart/byteranges</a>
+     * <p>
+     *     The headers of the parts are built beforehand, so the length of the whole
+     *     body is known.
+     * </p>
+     */
+    private static IResponse buildMultipleRangeResponse(Map<String, String> adjustedHeaders, String filePath, long fileSize, List<Range.ByteRange> ranges) {
+        String contentType = null;
+        for (var header : List.copyOf(adjustedHeaders.entrySet())) {
+            if (header.getKey().equalsIgnoreCase("content-type")) {
+                contentType = header.getValue();
+                adjustedHeaders.remove(header.getKey());
+            }
+        }
+        String boundary = "minum_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        adjustedHeaders.put("Content-Type", "multipart/byteranges; boundary=" + boundary);
+
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long length = 0;
+        for (Range.ByteRange range : ranges) {
+            var sb = new StringBuilder();
+            // the CRLF before each boundary after the first belongs to the boundary
+            if (!partHeaders.isEmpty()) sb.append(HTTP_CRLF);
+            sb.append("--").append(boundary).append(HTTP_CRLF);
+            if (contentType != null) sb.append("Content-Type: ").append(contentType).append(HTTP_CRLF);
+            sb.append(String.format("Content-Range: bytes %d-%d/%d", range.offset(), range.offset() + range.length() - 1, fileSize))
+                    .append(HTTP_CRLF).append(HTTP_CRLF);
+            byte[] partHeader = sb.toString().getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            length += partHeader.length + range.length();
+        }
+        byte[] closingBoundary = (HTTP_CRLF + "--" + boundary + "--" + HTTP_CRLF).getBytes(StandardCharsets.US_ASCII);
+        length += closingBoundary.length;
+
+        ThrowingConsumer<ISocketWrapper> outputGenerator = socketWrapper -> {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+                for (int i = 0; i < ranges.size(); i++) {
+                    socketWrapper.send(partHeaders.get(i));
+                    socketWrapper.sendFile(fileChannel, ranges.get(i).offset(), ranges.get(i).length());
+                }
+                socketWrapper.send(closingBoundary);
+            }
+        };
+
+        return new Response(CODE_206_PARTIAL_CONTENT, adjustedHeaders, null, outputGenerator, length, false);
+    }
+
     /**
      * This will send a large file to the client as a stream.
      * This is a safe version of the method, for when the file path is set by a user, meaning it is untrusted.
@@ -206,6 +336,31 @@ public final class Response implements IResponse {
         return new Response(statusCode, extraHeaders, null, socketWrapper -> {}, 0, false);
     }
 
+    /**
+     * For an endpoint which can tell cheaply what version of its content it would send - say,
+     * from the time its data last changed - this answers a client which already has that
+     * version with a 304 (Not Modified), before the body is built.  For example:
+     * <pre>
+     * {@code
+     * String eTag = "\"" + lastUpdated.toEpochMilli() + "\"";
+     * IResponse notModified = Response.buildNotModifiedResponse(request.getHeaders(), eTag);
+     * if (notModified != null) return notModified;
+     * return Response.htmlOk(renderPage(), Map.of("ETag", eTag));
+     * }
+     * </pre>
+     * @param eTag the entity tag of the current version, in quotes, as sent in the ETag header
+     * @return a 304 response, or null if the client does not have the current version
+     */
+    public static IResponse buildNotModifiedResponse(Headers requestHeaders, String eTag) {
+        List<String> ifNoneMatch = requestHeaders.valueByKey("if-none-match");
+        if (ifNoneMatch == null) return null;
+        List<String> acceptEncoding = requestHeaders.valueByKey("accept-encoding");
+        boolean acceptsGzip = acceptEncoding != null && String.join(";", acceptEncoding).contains("gzip");
+        String matchingETag = WebFramework.findMatchingETag(ifNoneMatch, eTag, acceptsGzip);
+        if (matchingETag == null) return null;
+        return buildLeanResponse(CODE_304_NOT_MODIFIED, Map.of("ETag", matchingETag));
+    }
+
     /**
      * Build a {@link Response} with only a status code, with no body and no extra headers.
      */
@@ -264,6 +419,11 @@ public final class Response implements IResponse {
         return isBodyText;
     }
 
+    @Override
+    public boolean isChunked() {
+        return isChunked;
+    }
+
     @Override
     public long getBodyLength() {
         if (body != null) {
@@ -282,36 +442,6 @@ public final class Response implements IResponse {
         }
     }
 
-    /**
-     * put bytes from a file into the socket, sending to the client
-     * @param fileChannel the file we are reading from, based on a {@link RandomAccessFile}
-     * @param length the number of bytes to send.  May be less than the full length of this {@link FileChannel}
-     */
-    private static void sendFileChannelResponse(ISocketWrapper sw, FileChannel fileChannel, long length) throws IOException {
-        try {
-            int bufferSize = 8 * 1024;
-            ByteBuffer buff = ByteBuffer.allocate(bufferSize);
-            long countBytesLeftToSend = length;
-            while (true) {
-                int countBytesRead = fileChannel.read(buff);
-                if (countBytesRead <= 0) {
-                    break;
-                } else {
-                    if (countBytesLeftToSend < countBytesRead) {
-                        sw.send(buff.array(), 0, (int)countBytesLeftToSend);
-                        break;
-                    } else {
-                        sw.send(buff.array(), 0, countBytesRead);
-                    }
-                    buff.clear();
-                }
-                countBytesLeftToSend -= countBytesRead;
-            }
-        } finally {
-            fileChannel.close();
-        }
-    }
-
     private static void sendByteArrayResponse(ISocketWrapper sw, byte[] body) throws IOException {
         sw.send(body);
     }
@@ -328,29 +458,57 @@ public final class Response implements IResponse {
      * creating a new Response with the compressed data.
      */
     Response compressBody() throws IOException {
+        return (Response)Response.buildResponse(
+                statusCode,
+                extraHeaders,
+                gzip(body)
+        );
+    }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        var gos = new GZIPOutputStream(out);
-        gos.write(body);
-        gos.finish();
+    /**
+     * Like {@link #compressBody()}, using a deflater from the pool
+     */
+    Response compressBody(DeflaterPool deflaterPool) throws IOException {
         return (Response)Response.buildResponse(
                 statusCode,
                 extraHeaders,
-                out.toByteArray()
+                gzip(body, deflaterPool)
         );
     }
 
+    /**
+     * Compress bytes using gzip
+     */
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (var gos = new GZIPOutputStream(out)) {
+            gos.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compress bytes using gzip, with a deflater from the pool
+     */
+    static byte[] gzip(byte[] bytes, DeflaterPool deflaterPool) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (var gos = new PooledGzipOutputStream(out, deflaterPool)) {
+            gos.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Response response = (Response) o;
-        return bodyLength == response.bodyLength && isBodyText == response.isBodyText && statusCode == response.statusCode && Objects.equals(extraHeaders, response.extraHeaders) && Arrays.equals(body, response.body);
+        return bodyLength == response.bodyLength && isBodyText == response.isBodyText && isChunked == response.isChunked && statusCode == response.statusCode && Objects.equals(extraHeaders, response.extraHeaders) && Arrays.equals(body, response.body);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(statusCode, extraHeaders, bodyLength, isBodyText);
+        int result = Objects.hash(statusCode, extraHeaders, bodyLength, isBodyText, isChunked);
         result = 31 * result + Arrays.hashCode(body);
         return result;
     }
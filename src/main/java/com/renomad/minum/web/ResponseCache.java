@@ -0,0 +1,266 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.utils.LRUCache;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.renomad.minum.web.StatusLine.StatusCode.CODE_200_OK;
+
+/**
+ * Keeps the responses of a GET endpoint in memory for a while, so that
+ * requests for the same page are answered without running the endpoint
+ * again.  This suits pages which are costly to build - rendering templates
+ * over a full scan of the database, say - and are the same for everyone.
+ * <p>
+ *     Register an endpoint with a cache like this:
+ * </p>
+ * {@snippet :
+ *      var photoListCache = new ResponseCache(Duration.ofSeconds(30), 100);
+ *      webFramework.registerPath(GET, "photos", listPhotos::getPhotosPage, photoListCache);
+ *
+ *      // and when the photos change, so the cached pages are out of date:
+ *      photoListCache.invalidate("photos");
+ * }
+ * <p>
+ *     Responses are kept by their path, query string, and the values of any
+ *     request headers given as key headers - for example, "Accept-Language", if
+ *     the page is translated.  Only successful responses whose body is in
+ *     memory are kept, and never those which set a cookie or which are marked
+ *     "Cache-Control: no-store" or "private", since those are meant for one
+ *     user alone.  Be careful not to cache pages which differ by user in
+ *     some other way.
+ * </p>
+ * <p>
+ *     Each kept response is given an ETag, if it has none, so a client can
+ *     revalidate it with If-None-Match and get a 304 (Not Modified) in return.
+ *     Text bodies large enough to be worth it may also be kept gzipped, so they
+ *     are compressed once rather than for every client which accepts gzip.
+ * </p>
+ * <p>
+ *     Requests run through {@link WebFramework#registerPreHandler(ThrowingFunction)},
+ *     if there is one, before they reach the cache.
+ * </p>
+ */
+public final class ResponseCache {
+
+    private final long timeToLiveNanos;
+    private final List<String> keyHeaders;
+    private final boolean storeGzipped;
+    private final Map<CacheKey, CachedResponse> responses;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * The gzipped versions of bodies are made with deflaters from this pool.
+     * Set when the cache is registered, see {@link WebFramework#registerPath(RequestLine.Method, String, ThrowingFunction, ResponseCache)}
+     */
+    private volatile DeflaterPool deflaterPool;
+
+    /**
+     * Bodies smaller than this are not kept gzipped, since compressing them saves little
+     */
+    private static final int MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS = 2048;
+
+    /**
+     * @param timeToLive how long a response is used before the endpoint is run again
+     * @param maxEntries the most responses to keep.  Past this, the least recently used are dropped.
+     * @param keyHeaders request headers whose values make a different response, for
+     *                   example "Accept-Language".  Requests with different values for these
+     *                   are kept apart.
+     * @param storeGzipped if true, text bodies of a worthwhile size are also kept gzipped, so
+     *                     that compressing them for clients happens only once
+     */
+    public ResponseCache(Duration timeToLive, int maxEntries, List<String> keyHeaders, boolean storeGzipped) {
+        if (timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new WebServerException("The time to live of a response cache must be positive.  Was: " + timeToLive);
+        }
+        if (maxEntries <= 0) {
+            throw new WebServerException("The maximum entries of a response cache must be positive.  Was: " + maxEntries);
+        }
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.keyHeaders = keyHeaders.stream().map(x -> x.toLowerCase(Locale.ROOT)).toList();
+        this.storeGzipped = storeGzipped;
+        this.responses = Collections.synchronizedMap(LRUCache.getLruCache(maxEntries));
+    }
+
+    /**
+     * A cache keyed only by path and query string, which keeps bodies gzipped too.
+     * See {@link #ResponseCache(Duration, int, List, boolean)}
+     */
+    public ResponseCache(Duration timeToLive, int maxEntries) {
+        this(timeToLive, maxEntries, List.of(), true);
+    }
+
+    /**
+     * The responses are kept by these values from the request
+     * @param path the path as sent.  It is not lower-cased: though paths are matched to endpoints
+     *             without regard to case, the values of path parameters (like "users/{name}") keep theirs
+     * @param headerValues the values of the key headers, in the same order
+     */
+    private record CacheKey(String path, String queryString, List<List<String>> headerValues) {}
+
+    /**
+     * A kept response
+     * @param gzippedBody the gzipped version of the body, or null if there is none
+     * @param eTag the entity tag of the (uncompressed) body
+     * @param expiresAtNanos when this should no longer be used, by {@link System#nanoTime()}
+     */
+    private record CachedResponse(
+            StatusLine.StatusCode statusCode,
+            Map<String, String> headers,
+            byte[] body,
+            boolean isBodyText,
+            byte[] gzippedBody,
+            String eTag,
+            long expiresAtNanos) {}
+
+    /**
+     * Set up for use by a {@link WebFramework}, returning a handler which
+     * answers from the cache where it can, and runs the given handler otherwise.
+     */
+    ThrowingFunction<IRequest, IResponse> wrap(ThrowingFunction<IRequest, IResponse> webHandler, DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+        return request -> respond(request, webHandler);
+    }
+
+    private IResponse respond(IRequest request, ThrowingFunction<IRequest, IResponse> webHandler) throws Exception {
+        CacheKey key = buildKey(request);
+        CachedResponse cachedResponse = responses.get(key);
+        if (cachedResponse != null && System.nanoTime() - cachedResponse.expiresAtNanos() >= 0) {
+            responses.remove(key, cachedResponse);
+            cachedResponse = null;
+        }
+
+        if (cachedResponse != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            IResponse response = webHandler.apply(request);
+            if (!isCacheable(response)) {
+                return response;
+            }
+            cachedResponse = store(response);
+            responses.put(key, cachedResponse);
+        }
+        return buildResponse(cachedResponse, request.getHeaders());
+    }
+
+    private CacheKey buildKey(IRequest request) {
+        PathDetails pathDetails = request.getRequestLine().getPathDetails();
+        List<List<String>> headerValues = new ArrayList<>(keyHeaders.size());
+        for (String keyHeader : keyHeaders) {
+            headerValues.add(request.getHeaders().valueByKey(keyHeader));
+        }
+        return new CacheKey(
+                pathDetails.getIsolatedPath(),
+                pathDetails.getRawQueryString(),
+                headerValues);
+    }
+
+    /**
+     * Whether a response is fit to be kept and handed to others.  See the
+     * notes on this class.
+     */
+    static boolean isCacheable(IResponse response) {
+        if (response.getStatusCode() != CODE_200_OK || response.getBody() == null || response.isChunked()) {
+            return false;
+        }
+        for (var header : response.getExtraHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (name.equals("set-cookie")) return false;
+            if (name.equals("cache-control")) {
+                String value = header.getValue().toLowerCase(Locale.ROOT);
+                if (value.contains("no-store") || value.contains("private")) return false;
+            }
+        }
+        return true;
+    }
+
+    private CachedResponse store(IResponse response) throws IOException {
+        byte[] body = response.getBody();
+        Map<String, String> headers = response.getExtraHeaders();
+        String eTag = null;
+        for (var header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase("etag")) eTag = header.getValue();
+        }
+        if (eTag == null) {
+            eTag = WebFramework.buildETag(body);
+            headers.put("ETag", eTag);
+        }
+
+        byte[] gzippedBody = null;
+        boolean isEncoded = headers.keySet().stream().anyMatch(x -> x.equalsIgnoreCase("content-encoding"));
+        if (storeGzipped && response.isBodyText() && !isEncoded && body.length >= MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS) {
+            gzippedBody = deflaterPool == null ? Response.gzip(body) : Response.gzip(body, deflaterPool);
+        }
+        return new CachedResponse(
+                response.getStatusCode(),
+                Map.copyOf(headers),
+                body,
+                response.isBodyText(),
+                gzippedBody,
+                eTag,
+                System.nanoTime() + timeToLiveNanos);
+    }
+
+    /**
+     * Build the response for a client from what is kept - a 304 if they
+     * already have it, and otherwise, gzipped if they accept that and we can.
+     */
+    private static IResponse buildResponse(CachedResponse cachedResponse, Headers requestHeaders) {
+        var response = Response.buildResponse(cachedResponse.statusCode(), cachedResponse.headers(), cachedResponse.body(), cachedResponse.isBodyText());
+        IResponse notModifiedResponse = WebFramework.checkNotModified(requestHeaders, response, cachedResponse.eTag());
+        if (notModifiedResponse != null) {
+            return notModifiedResponse;
+        }
+
+        List<String> acceptEncoding = requestHeaders.valueByKey("accept-encoding");
+        boolean acceptsGzip = acceptEncoding != null && String.join(";", acceptEncoding).contains("gzip");
+        if (cachedResponse.gzippedBody() != null && acceptsGzip) {
+            var headers = new HashMap<String, String>();
+            for (var header : cachedResponse.headers().entrySet()) {
+                if (!header.getKey().equalsIgnoreCase("etag")) headers.put(header.getKey(), header.getValue());
+            }
+            headers.put("ETag", WebFramework.gzipETag(cachedResponse.eTag()));
+            headers.put("Content-Encoding", "gzip");
+            headers.put("Vary", "accept-encoding");
+            return Response.buildResponse(cachedResponse.statusCode(), headers, cachedResponse.gzippedBody());
+        }
+        return response;
+    }
+
+    /**
+     * Drop the kept responses for a path, with any query string or key
+     * header values, so the next requests for it run the endpoint.  Call this
+     * when the data behind the page changes.
+     * @param path the path, for example "photos".  Responses for the path in any
+     *             mix of upper and lower case are dropped.
+     */
+    public void invalidate(String path) {
+        synchronized (responses) {
+            responses.keySet().removeIf(key -> key.path().equalsIgnoreCase(path));
+        }
+    }
+
+    /**
+     * Drop all the kept responses
+     */
+    public void invalidateAll() {
+        responses.clear();
+    }
+
+    /**
+     * How well the cache is doing - how often requests are answered from it
+     */
+    public ResponseCacheStats getStats() {
+        return new ResponseCacheStats(hitCount.sum(), missCount.sum(), responses.size());
+    }
+}
@@ -0,0 +1,20 @@
+package com.renomad.minum.web;
+
+/**
+ * A snapshot of how a {@link ResponseCache} is doing.  See {@link ResponseCache#getStats()}
+ *
+ * @param hitCount the number of requests answered from the cache
+ * @param missCount the number of requests for which the endpoint was run
+ * @param entryCount the number of responses kept right now
+ */
+public record ResponseCacheStats(long hitCount, long missCount, int entryCount) {
+
+    /**
+     * The portion of requests answered from the cache, from 0 to 1.  This
+     * is 0 if there have been no requests.
+     */
+    public double hitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+}
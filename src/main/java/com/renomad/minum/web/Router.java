@@ -0,0 +1,275 @@
+package com.renomad.minum.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the handler for a path, using a radix tree per {@link RequestLine.Method}
+ * which is built up as paths are registered.
+ * <p>
+ *     Each node of the tree holds a run of characters shared by the paths below
+ *     it, so finding a handler means walking down the tree once, comparing each
+ *     character of the requested path a single time - however many paths
+ *     are registered.
+ * </p>
+ * <p>
+ *     Three kinds of registration are supported:
+ * </p>
+ * <ul>
+ *     <li>exact - the whole path must match, e.g. {@code users/list}</li>
+ *     <li>prefix - the path must start with it, e.g. {@code .well-known/acme-challenge}.
+ *     When several prefixes match, the longest wins.  An exact match wins over any prefix.</li>
+ *     <li>path parameters - a segment written as {@code {name}} matches any
+ *     non-empty text up to the next slash, e.g. {@code users/{id}/posts}.  The
+ *     values are found in {@link Match#pathParameters()}, and where the same
+ *     place may be matched by both, plain text wins over a parameter.</li>
+ * </ul>
+ */
+final class Router {
+
+    /**
+     * The result of a successful lookup
+     * @param pathParameters the values matched by any {@code {name}} segments, by name.  These
+     *                       are as the client sent them, so may be percent-encoded.
+     */
+    record Match(ThrowingFunction<IRequest, IResponse> handler, Map<String, String> pathParameters) { }
+
+    private final Map<RequestLine.Method, Node> roots = new EnumMap<>(RequestLine.Method.class);
+    private final boolean ignoreCase;
+
+    /**
+     * @param ignoreCase if true, the requested path is lower-cased before comparing it
+     *                   to the registered paths (the values of path parameters are not)
+     */
+    Router(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Register a handler for a path, or a path prefix.
+     * @return the handler already registered for this method and path, if any, in
+     * which case nothing is changed.  Otherwise, null.
+     * @throws WebServerException if a path parameter does not take up a whole segment, or
+     * if it is given a different name than one already registered in the same place.
+     */
+    ThrowingFunction<IRequest, IResponse> add(
+            RequestLine.Method method,
+            String path,
+            boolean isPrefix,
+            ThrowingFunction<IRequest, IResponse> handler) {
+        Node node = roots.computeIfAbsent(method, x -> new Node(""));
+        int index = 0;
+        while (index < path.length()) {
+            int parameterStart = path.indexOf('{', index);
+            if (parameterStart == -1) {
+                node = node.addStatic(path.substring(index));
+                break;
+            }
+            int parameterEnd = path.indexOf('}', parameterStart);
+            boolean takesWholeSegment = (parameterStart == 0 || path.charAt(parameterStart - 1) == '/') &&
+                    parameterEnd > parameterStart + 1 &&
+                    (parameterEnd == path.length() - 1 || path.charAt(parameterEnd + 1) == '/');
+            if (!takesWholeSegment) {
+                throw new WebServerException("Path parameters must take up a whole segment, like users/{id}/posts.  Path was: " + path);
+            }
+            node = node.addStatic(path.substring(index, parameterStart));
+            node = node.addParameter(path.substring(parameterStart + 1, parameterEnd), path);
+            index = parameterEnd + 1;
+        }
+
+        ThrowingFunction<IRequest, IResponse> existing = isPrefix ? node.prefixHandler : node.handler;
+        if (existing != null) {
+            return existing;
+        }
+        if (isPrefix) {
+            node.prefixHandler = handler;
+        } else {
+            node.handler = handler;
+        }
+        return null;
+    }
+
+    /**
+     * Find the handler for a requested path, or null if nothing matches.
+     */
+    Match find(RequestLine.Method method, String path) {
+        Node root = roots.get(method);
+        if (root == null) {
+            return null;
+        }
+        var search = new Search(path);
+        if (search.visit(root, 0)) {
+            return new Match(search.exactHandler, search.exactParameters);
+        }
+        if (search.prefixHandler != null) {
+            return new Match(search.prefixHandler, search.prefixParameters);
+        }
+        return null;
+    }
+
+    private static final class Node {
+        private String label;
+        private char[] firstCharacters = new char[0];
+        private Node[] children = new Node[0];
+        private Node parameterChild;
+        private String parameterName;
+        private ThrowingFunction<IRequest, IResponse> handler;
+        private ThrowingFunction<IRequest, IResponse> prefixHandler;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node childFor(char c) {
+            for (int i = 0; i < firstCharacters.length; i++) {
+                if (firstCharacters[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        /**
+         * Walk down from here along the given text, adding or
+         * splitting nodes as needed, and return the node at its end.
+         */
+        Node addStatic(String text) {
+            Node node = this;
+            int index = 0;
+            while (index < text.length()) {
+                char c = text.charAt(index);
+                Node child = node.childFor(c);
+                if (child == null) {
+                    child = new Node(text.substring(index));
+                    node.putChild(c, child);
+                    return child;
+                }
+                int common = 0;
+                while (common < child.label.length() && index + common < text.length() &&
+                        child.label.charAt(common) == text.charAt(index + common)) {
+                    common++;
+                }
+                if (common < child.label.length()) {
+                    // the new text parts ways partway along this child's label, so split it
+                    var shared = new Node(child.label.substring(0, common));
+                    child.label = child.label.substring(common);
+                    shared.putChild(child.label.charAt(0), child);
+                    node.putChild(c, shared);
+                    child = shared;
+                }
+                node = child;
+                index += common;
+            }
+            return node;
+        }
+
+        Node addParameter(String name, String path) {
+            if (parameterChild == null) {
+                parameterChild = new Node("");
+                parameterName = name;
+            } else if (!parameterName.equals(name)) {
+                throw new WebServerException("Path parameter {%s} in %s conflicts with {%s}, registered in the same place".formatted(name, path, parameterName));
+            }
+            return parameterChild;
+        }
+
+        private void putChild(char c, Node child) {
+            for (int i = 0; i < firstCharacters.length; i++) {
+                if (firstCharacters[i] == c) {
+                    children[i] = child;
+                    return;
+                }
+            }
+            firstCharacters = Arrays.copyOf(firstCharacters, firstCharacters.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            firstCharacters[firstCharacters.length - 1] = c;
+            children[children.length - 1] = child;
+        }
+    }
+
+    /**
+     * A parameter matched during a lookup, as its name and where its value is in the path
+     */
+    private record Capture(String name, int start, int end) { }
+
+    /**
+     * The state of one lookup.  The tree is walked depth-first, trying plain
+     * text before a parameter, and only stepping back when a parameter was
+     * matched and what follows it does not.
+     */
+    private final class Search {
+        private final String path;
+        private final List<Capture> captures = new ArrayList<>();
+        private ThrowingFunction<IRequest, IResponse> exactHandler;
+        private Map<String, String> exactParameters;
+        private ThrowingFunction<IRequest, IResponse> prefixHandler;
+        private Map<String, String> prefixParameters;
+        private int prefixLength = -1;
+
+        Search(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Visit a node whose label has matched the path up to index
+         * @return true if an exact match was found
+         */
+        boolean visit(Node node, int index) {
+            if (node.prefixHandler != null && index > prefixLength) {
+                prefixHandler = node.prefixHandler;
+                prefixParameters = parameters();
+                prefixLength = index;
+            }
+            if (index == path.length()) {
+                if (node.handler != null) {
+                    exactHandler = node.handler;
+                    exactParameters = parameters();
+                    return true;
+                }
+                return false;
+            }
+
+            Node child = node.childFor(characterAt(index));
+            if (child != null && labelMatches(child.label, index) && visit(child, index + child.label.length())) {
+                return true;
+            }
+
+            if (node.parameterChild != null) {
+                int end = path.indexOf('/', index);
+                if (end == -1) end = path.length();
+                if (end > index) {
+                    captures.add(new Capture(node.parameterName, index, end));
+                    if (visit(node.parameterChild, end)) {
+                        return true;
+                    }
+                    captures.removeLast();
+                }
+            }
+            return false;
+        }
+
+        private char characterAt(int index) {
+            char c = path.charAt(index);
+            return ignoreCase ? Character.toLowerCase(c) : c;
+        }
+
+        private boolean labelMatches(String label, int index) {
+            if (index + label.length() > path.length()) return false;
+            for (int i = 0; i < label.length(); i++) {
+                if (label.charAt(i) != characterAt(index + i)) return false;
+            }
+            return true;
+        }
+
+        private Map<String, String> parameters() {
+            if (captures.isEmpty()) return Map.of();
+            var result = new HashMap<String, String>();
+            for (Capture capture : captures) {
+                result.put(capture.name(), path.substring(capture.start(), capture.end()));
+            }
+            return result;
+        }
+    }
+}
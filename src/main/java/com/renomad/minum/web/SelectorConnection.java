@@ -0,0 +1,354 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.logging.ILogger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connection of the {@link SelectorServer}.
+ * <p>
+ *     It takes turns between two modes.  While waiting for a request, its
+ *     channel is non-blocking and registered with the selector, which reads
+ *     whatever arrives into a pooled buffer until a whole request is there
+ *     (see {@link #hasCompleteRequest()}).  Then it is handed to a thread,
+ *     its channel is made blocking, and it works like a {@link SocketWrapper}:
+ *     reads are served from the buffer first, then from the channel.
+ * </p>
+ * <p>
+ *     Between requests it holds no buffers, so that idle keep-alive
+ *     connections cost very little memory.
+ * </p>
+ */
+final class SelectorConnection implements ISocketWrapper {
+
+    private static final byte[] CONTENT_LENGTH_NAME = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    private final SocketChannel channel;
+    private final IServer server;
+    private final ILogger logger;
+    private final String hostName;
+    private final ByteBufferPool bufferPool;
+    private final String remoteAddr;
+    private final SocketAddress remoteAddrWithPort;
+    private final InputStream inputStream;
+
+    /**
+     * Holds the bytes read from the client.  While the selector is reading
+     * it is in write mode, with the bytes before its position.  While a thread
+     * is handling requests it is in read mode, with the unread bytes between
+     * position and limit.  Null while the connection is idle.
+     */
+    private ByteBuffer buffer;
+    private BufferedOutputStream writer;
+    private InputStream channelInputStream;
+    private volatile long lastActiveMillis;
+
+    SelectorConnection(SocketChannel channel, IServer server, ILogger logger, int timeoutMillis, String hostName, ByteBufferPool bufferPool) throws IOException {
+        this.channel = channel;
+        this.server = server;
+        this.logger = logger;
+        this.hostName = hostName;
+        this.bufferPool = bufferPool;
+        this.remoteAddr = channel.socket().getInetAddress().getHostAddress();
+        this.remoteAddrWithPort = channel.getRemoteAddress();
+        this.inputStream = new BufferedChannelInputStream();
+        channel.configureBlocking(false);
+        channel.socket().setSoTimeout(timeoutMillis);
+        this.lastActiveMillis = System.currentTimeMillis();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    long getLastActiveMillis() {
+        return lastActiveMillis;
+    }
+
+    /**
+     * Called by the selector when the channel is readable.  Reads what is available.
+     * @return the count of bytes read, or -1 if the client has closed the connection
+     */
+    int readAvailable() throws IOException {
+        if (buffer == null) {
+            buffer = bufferPool.borrow();
+        }
+        lastActiveMillis = System.currentTimeMillis();
+        return channel.read(buffer);
+    }
+
+    /**
+     * True if the bytes read so far hold a whole request: the headers, and
+     * as much body as the content-length says.  Also true when the buffer is
+     * full, so that large requests are streamed to their handler rather than
+     * waiting on a buffer that will never hold them.
+     */
+    boolean hasCompleteRequest() {
+        if (buffer == null) return false;
+        if (!buffer.hasRemaining()) return true;
+        byte[] bytes = buffer.array();
+        int end = buffer.position();
+        int headerEnd = findEndOfHeaders(bytes, end);
+        if (headerEnd == -1) return false;
+        return end - headerEnd >= findContentLength(bytes, headerEnd);
+    }
+
+    /**
+     * Find where the headers end - after the first blank line - or -1
+     * if they are not all here yet.
+     */
+    static int findEndOfHeaders(byte[] bytes, int end) {
+        for (int i = 1; i < end; i++) {
+            if (bytes[i] == '\n' && (bytes[i - 1] == '\n' || (i >= 2 && bytes[i - 1] == '\r' && bytes[i - 2] == '\n'))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the value of the content-length header within the headers, or 0
+     * if there is none or it cannot be read (the handler will
+     * deal with a bad value)
+     */
+    static long findContentLength(byte[] bytes, int headerEnd) {
+        final byte[] name = CONTENT_LENGTH_NAME;
+        int lineStart = 0;
+        while (lineStart < headerEnd) {
+            if (lineStart + name.length <= headerEnd && regionMatchesIgnoreCase(bytes, lineStart, name)) {
+                long value = 0;
+                boolean hasDigits = false;
+                for (int i = lineStart + name.length; i < headerEnd; i++) {
+                    byte b = bytes[i];
+                    if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        hasDigits = true;
+                        if (value > Integer.MAX_VALUE) return 0;
+                    } else if (!(b == ' ' || b == '\t') || hasDigits) {
+                        break;
+                    }
+                }
+                return value;
+            }
+            int nextLine = lineStart;
+            while (nextLine < headerEnd && bytes[nextLine] != '\n') nextLine++;
+            lineStart = nextLine + 1;
+        }
+        return 0;
+    }
+
+    private static boolean regionMatchesIgnoreCase(byte[] bytes, int offset, byte[] lowerCaseName) {
+        for (int i = 0; i < lowerCaseName.length; i++) {
+            int b = bytes[offset + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != lowerCaseName[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Prepare to handle requests on a thread.  The channel must no
+     * longer be registered with the selector.
+     */
+    void beginRequests() throws IOException {
+        channel.configureBlocking(true);
+        if (channelInputStream == null) {
+            channelInputStream = channel.socket().getInputStream();
+        }
+        writer = new BufferedOutputStream(channel.socket().getOutputStream());
+        buffer.flip();
+    }
+
+    /**
+     * True if there are bytes already read but not yet handled - the
+     * client sent its next request without waiting for our response
+     */
+    boolean hasBufferedBytes() {
+        return buffer != null && buffer.hasRemaining();
+    }
+
+    /**
+     * Finish handling requests on a thread, getting ready
+     * to be registered with the selector again.
+     */
+    void endRequests() throws IOException {
+        writer.flush();
+        writer = null;
+        if (buffer != null && !buffer.hasRemaining()) {
+            bufferPool.release(buffer);
+            buffer = null;
+        } else if (buffer != null) {
+            buffer.compact();
+        }
+        lastActiveMillis = System.currentTimeMillis();
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Give the buffer back to the pool.  Only to be called by whichever
+     * thread has the connection at the moment - the selector's, or the one
+     * handling its requests - just before closing it.
+     */
+    void releaseBuffer() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    @Override
+    public void send(String msg) throws IOException {
+        writer.write(msg.getBytes(Charset.defaultCharset()));
+    }
+
+    @Override
+    public void send(byte[] bodyContents) throws IOException {
+        writer.write(bodyContents);
+    }
+
+    @Override
+    public void send(byte[] bodyContents, int off, int len) throws IOException {
+        writer.write(bodyContents, off, len);
+    }
+
+    @Override
+    public void send(int b) throws IOException {
+        writer.write(b);
+    }
+
+    @Override
+    public void sendHttpLine(String msg) throws IOException {
+        logger.logTrace(() -> String.format("%s sending: \"%s\"", this, msg));
+        send(msg + WebEngine.HTTP_CRLF);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddrWithPort() {
+        return remoteAddrWithPort;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public HttpServerType getServerType() {
+        return server.getServerType();
+    }
+
+    @Override
+    public void close() throws IOException {
+        logger.logTrace(() -> "close called on " + this);
+        channel.close();
+        server.removeMyRecord(this);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public String toString() {
+        return "(SelectorConnection for remote address: " + remoteAddrWithPort + ")";
+    }
+
+    @Override
+    public String getHostName() {
+        return hostName;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * The bytes go straight from the file to the channel.
+     * See {@link SocketWrapper#sendFile}
+     */
+    @Override
+    public void sendFile(FileChannel fileChannel, long position, long count) throws IOException {
+        writer.flush();
+        SocketWrapper.transferFully(fileChannel, position, count, channel);
+    }
+
+    /**
+     * Reads from the buffer, refilling it from the (blocking) channel
+     * when it runs out.  Refills go through the channel's socket, so
+     * that reads time out as configured.  Lines are read by scanning
+     * the buffer, as with {@link HttpInputStream}.
+     */
+    private final class BufferedChannelInputStream extends LineScanningInputStream {
+
+        @Override
+        byte[] bufferArray() {
+            return buffer.array();
+        }
+
+        @Override
+        int bufferPosition() {
+            return buffer.position();
+        }
+
+        @Override
+        int bufferLimit() {
+            return buffer.limit();
+        }
+
+        @Override
+        void setBufferPosition(int position) {
+            buffer.position(position);
+        }
+
+        @Override
+        boolean hasBufferedBytes() throws IOException {
+            return fill();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer == null) {
+                buffer = bufferPool.borrow().flip();
+            }
+            if (buffer.hasRemaining()) return true;
+            int count = channelInputStream.read(buffer.array(), 0, buffer.capacity());
+            if (count <= 0) return false;
+            buffer.position(0).limit(count);
+            return true;
+        }
+    }
+}
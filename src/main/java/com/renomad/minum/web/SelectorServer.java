@@ -0,0 +1,336 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.state.Constants;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.ConcurrentSet;
+import com.renomad.minum.utils.StacktraceUtils;
+import com.renomad.minum.utils.ThrowingRunnable;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.renomad.minum.utils.ThrowingRunnable.throwingRunnableWrapper;
+
+/**
+ * A plain-text server which watches its connections with a {@link Selector},
+ * as an alternative to {@link Server}, which gives every connection
+ * its own thread.  See {@link HttpServerEngine#SELECTOR}.
+ * <p>
+ * One thread runs the selector.  It accepts connections, and reads
+ * whatever clients send into pooled buffers.  Once a connection has
+ * a whole request (see {@link SelectorConnection#hasCompleteRequest()}),
+ * it is taken off the selector and handed to the ExecutorService, which
+ * runs the same {@link WebFramework} processing as {@link Server} does.
+ * If the client wants to keep the connection alive, it is then
+ * given back to the selector to wait for the next request.
+ * <p>
+ * Connections idle for longer than the socket timeout are closed.
+ */
+final class SelectorServer implements IServer {
+
+    /**
+     * The size of the buffer a connection reads a request into.  Requests
+     * bigger than this are handed over once the buffer is full, and the
+     * rest is read as the handler needs it.
+     */
+    static final int REQUEST_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The most buffers kept in the pool between requests
+     */
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    /**
+     * How often, in milliseconds, to look for connections which
+     * have been idle for too long
+     */
+    private static final int IDLE_CHECK_MILLIS = 1000;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ByteBufferPool bufferPool;
+    /**
+     * Connections finished with a request and waiting to be
+     * registered with the selector again, by the selector thread
+     */
+    private final Queue<SelectorConnection> connectionsToResume = new ConcurrentLinkedQueue<>();
+    private final SetOfSws setOfSWs;
+    private final ExecutorService es;
+    private final ILogger logger;
+    private final String serverName;
+    private final WebFramework webFramework;
+    private final Constants constants;
+    private Future<?> centralLoopFuture;
+    private long lastIdleCheckMillis;
+
+    /**
+     * @param serverChannel a server socket channel, already bound to its port
+     */
+    SelectorServer(ServerSocketChannel serverChannel, Context context, String serverName, WebFramework webFramework, ExecutorService es) throws IOException {
+        this.serverChannel = serverChannel;
+        this.selector = Selector.open();
+        this.bufferPool = new ByteBufferPool(REQUEST_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+        this.logger = context.getLogger();
+        this.constants = context.getConstants();
+        this.webFramework = webFramework;
+        this.serverName = serverName;
+        this.setOfSWs = new SetOfSws(new ConcurrentSet<>(), logger, serverName);
+        this.es = es;
+    }
+
+    @Override
+    public void start() {
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            throw new WebServerException("Failed to register the server channel with the selector", ex);
+        }
+        ThrowingRunnable serverCode = this::selectorLoop;
+        this.centralLoopFuture = es.submit(throwingRunnableWrapper(serverCode, logger));
+    }
+
+    /**
+     * The outermost loop of this server, accepting connections and reading
+     * requests, until the selector is closed.
+     */
+    private void selectorLoop() {
+        Thread.currentThread().setName("Main Selector Server");
+        try {
+            while (true) {
+                selector.select(IDLE_CHECK_MILLIS);
+                resumeConnections();
+                List<SelectorConnection> readyConnections = new ArrayList<>();
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        acceptConnections();
+                    } else if (key.isReadable()) {
+                        readFromConnection(key, readyConnections);
+                    }
+                }
+                if (!readyConnections.isEmpty()) {
+                    // a cancelled key is only removed from the selector on its next selection,
+                    // and until then its channel cannot be put in blocking mode.
+                    selector.selectNow();
+                    for (SelectorConnection connection : readyConnections) {
+                        submitRequests(connection);
+                    }
+                }
+                closeIdleConnections();
+            }
+        } catch (ClosedSelectorException ex) {
+            logger.logDebug(() -> serverName + " selector closed");
+        } catch (IOException ex) {
+            Server.handleServerException(ex, logger);
+        }
+    }
+
+    /**
+     * Accept the waiting connections.  This is the only thread of the
+     * selector, so a failure - with one connection, or to accept at
+     * all (for example, when out of file descriptors) - is logged, and the
+     * connections already open carry on.
+     */
+    private void acceptConnections() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException ex) {
+                if (serverChannel.isOpen()) {
+                    logger.logAsyncError(() -> serverName + " failed to accept a connection: " + StacktraceUtils.stackTraceToString(ex));
+                }
+                return;
+            }
+            if (channel == null) return;
+            SocketChannel freshChannel = channel;
+            try {
+                var connection = new SelectorConnection(freshChannel, this, logger, constants.socketTimeoutMillis, constants.hostName, bufferPool);
+                logger.logTrace(() -> String.format("client connected from %s", connection.getRemoteAddrWithPort()));
+                addToSetOfSws(connection);
+                freshChannel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (ClosedSelectorException ex) {
+                throw ex;
+            } catch (IOException | RuntimeException ex) {
+                logger.logDebug(() -> "Failed to set up connection " + freshChannel + ": " + ex);
+                try {
+                    freshChannel.close();
+                } catch (IOException closeException) {
+                    logger.logDebug(() -> "Error while closing " + freshChannel + ": " + closeException.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readFromConnection(SelectionKey key, List<SelectorConnection> readyConnections) {
+        SelectorConnection connection = (SelectorConnection) key.attachment();
+        try {
+            int count = connection.readAvailable();
+            if (count < 0) {
+                logger.logTrace(() -> connection + " closed by client");
+                connection.releaseBuffer();
+                connection.close();
+            } else if (connection.hasCompleteRequest()) {
+                key.cancel();
+                readyConnections.add(connection);
+            }
+        } catch (IOException ex) {
+            logger.logDebug(() -> ex.getMessage() + " - remote address: " + connection.getRemoteAddrWithPort());
+            closeQuietly(connection);
+        } catch (RuntimeException ex) {
+            logger.logAsyncError(() -> "Failed to read from " + connection + ": " + StacktraceUtils.stackTraceToString(ex));
+            connection.releaseBuffer();
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Hand a connection with a complete request to a thread.  If that fails,
+     * only this connection is closed.
+     */
+    private void submitRequests(SelectorConnection connection) {
+        try {
+            es.submit(() -> handleRequests(connection));
+        } catch (RuntimeException ex) {
+            logger.logAsyncError(() -> "Failed to hand off " + connection + ": " + StacktraceUtils.stackTraceToString(ex));
+            connection.releaseBuffer();
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Runs on a thread from the ExecutorService, handling the request
+     * a connection has - and any others the client sent right after
+     * it - before giving the connection back to the selector.
+     */
+    void handleRequests(SelectorConnection connection) {
+        Thread.currentThread().setName("SelectorConnection thread for " + connection.getRemoteAddr());
+        try {
+            connection.beginRequests();
+            boolean isKeepAlive;
+            do {
+                isKeepAlive = webFramework.httpProcessingOneRequest(connection);
+            } while (isKeepAlive && connection.hasBufferedBytes());
+
+            if (!isKeepAlive) {
+                connection.releaseBuffer();
+                connection.close();
+                return;
+            }
+            connection.endRequests();
+            connectionsToResume.add(connection);
+            selector.wakeup();
+        } catch (Exception ex) {
+            logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+            closeQuietly(connection);
+        }
+    }
+
+    private void resumeConnections() {
+        SelectorConnection connection;
+        while ((connection = connectionsToResume.poll()) != null) {
+            try {
+                connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+            } catch (ClosedSelectorException ex) {
+                throw ex;
+            } catch (IOException | RuntimeException ex) {
+                SelectorConnection failedConnection = connection;
+                logger.logDebug(() -> "Failed to resume " + failedConnection + ": " + ex);
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheckMillis < IDLE_CHECK_MILLIS) return;
+        lastIdleCheckMillis = now;
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof SelectorConnection connection &&
+                    now - connection.getLastActiveMillis() > constants.socketTimeoutMillis) {
+                logger.logTrace(() -> "Read timed out - remote address: " + connection.getRemoteAddrWithPort());
+                connection.releaseBuffer();
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private void closeQuietly(SelectorConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException ex) {
+            logger.logDebug(() -> "Error while closing " + connection + ": " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        logger.logTrace(() -> "close called on " + this);
+        serverChannel.close();
+        selector.close();
+        // close all the open connections
+        setOfSWs.stopAllServers();
+    }
+
+    @Override
+    public String getHost() {
+        return Server.describeHost(serverChannel.socket().getInetAddress());
+    }
+
+    @Override
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void removeMyRecord(ISocketWrapper socketWrapper) {
+        setOfSWs.remove(socketWrapper);
+    }
+
+    @Override
+    public void addToSetOfSws(ISocketWrapper sw) {
+        setOfSWs.add(sw);
+    }
+
+    /**
+     * Returns the name of this server, which is set
+     * when the server is instantiated.
+     */
+    @Override
+    public String toString() {
+        return serverName;
+    }
+
+    @Override
+    public Future<?> getCentralLoopFuture() {
+        return centralLoopFuture;
+    }
+
+    @Override
+    public HttpServerType getServerType() {
+        return HttpServerType.PLAIN_TEXT_HTTP;
+    }
+
+    /**
+     * The count of request buffers waiting in the pool, for testing
+     */
+    int getPooledBufferCount() {
+        return bufferPool.size();
+    }
+}
@@ -8,12 +8,14 @@ import com.renomad.minum.utils.StacktraceUtils;
 import com.renomad.minum.utils.ThrowingRunnable;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import static com.renomad.minum.utils.ThrowingRunnable.throwingRunnableWrapper;
 
@@ -26,16 +28,21 @@ import static com.renomad.minum.utils.ThrowingRunnable.throwingRunnableWrapper;
  * the server's socket.  This way we can easily test / control
  * the server side but also tie it in with an ExecutorService
  * for controlling lots of server threads.
+ * <p>
+ * Each server socket given has its own thread accepting connections,
+ * and each accepted connection is handed straight to the ExecutorService.
+ * The same server socket may be given more than once, to have several
+ * threads accepting on it.
  */
 final class Server implements IServer {
     private final ServerSocket serverSocket;
+    private final List<ServerSocket> acceptorSockets;
     private final SetOfSws setOfSWs;
     private final ExecutorService es;
     private final HttpServerType serverType;
     private final ILogger logger;
     private final String serverName;
     private final WebFramework webFramework;
-    private final BlockingQueue<Socket> socketQueue;
     private final Constants constants;
 
     /**
@@ -45,7 +52,16 @@ final class Server implements IServer {
     private Future<?> centralLoopFuture;
 
     Server(ServerSocket ss, Context context, String serverName, WebFramework webFramework, ExecutorService es, HttpServerType serverType) {
-        this.serverSocket = ss;
+        this(List.of(ss), context, serverName, webFramework, es, serverType);
+    }
+
+    /**
+     * Build a server with one accepting thread per server socket.  The sockets are
+     * expected to be listening on the same port (see {@link WebEngine#bindServerSockets}).
+     */
+    Server(List<ServerSocket> acceptorSockets, Context context, String serverName, WebFramework webFramework, ExecutorService es, HttpServerType serverType) {
+        this.serverSocket = acceptorSockets.getFirst();
+        this.acceptorSockets = acceptorSockets;
         this.logger = context.getLogger();
         this.constants = context.getConstants();
         this.webFramework = webFramework;
@@ -53,24 +69,27 @@ final class Server implements IServer {
         setOfSWs = new SetOfSws(new ConcurrentSet<>(), logger, serverName);
         this.es = es;
         this.serverType = serverType;
-        this.socketQueue = new LinkedBlockingQueue<>();
     }
 
     @Override
     public void start() {
-        ThrowingRunnable serverCode = this::outermostLoop;
-        this.centralLoopFuture = es.submit(throwingRunnableWrapper(serverCode, logger));
-
-        ThrowingRunnable socketHandler = this::takeOffDequeForProcessing;
-        es.submit(throwingRunnableWrapper(socketHandler, logger));
+        List<Future<?>> acceptorFutures = new ArrayList<>();
+        for (int i = 0; i < acceptorSockets.size(); i++) {
+            ServerSocket acceptorSocket = acceptorSockets.get(i);
+            String threadName = i == 0 ? "Main Server" : "Main Server acceptor " + i;
+            ThrowingRunnable serverCode = () -> outermostLoop(acceptorSocket, threadName);
+            acceptorFutures.add(es.submit(throwingRunnableWrapper(serverCode, logger)));
+        }
+        this.centralLoopFuture = acceptorFutures.getFirst();
     }
 
     /**
      * This code is the outermost loop of the server, waiting for incoming
-     * connections and then delegating their handling off to a handler.
+     * connections and then sending each straight to the executor service
+     * for handling.  There is one of these loops for each acceptor socket.
      */
-    private void outermostLoop() {
-        Thread.currentThread().setName("Main Server");
+    private void outermostLoop(ServerSocket acceptorSocket, String threadName) {
+        Thread.currentThread().setName(threadName);
         try {
             // yes, this infinite loop can only exit by an exception.  But this is
             // the beating heart of a server, and to the best of my current knowledge,
@@ -78,31 +97,14 @@ final class Server implements IServer {
             // that's just part of its life cycle
             //noinspection InfiniteLoopStatement
             while (true) {
-                Socket freshSocket = serverSocket.accept();
-                // see takeOffDeque for the code that pulls sockets out of this queue
-                // and sends them for processing
-                socketQueue.add(freshSocket);
+                Socket freshSocket = acceptorSocket.accept();
+                es.submit(() -> this.doHttpWork(freshSocket));
             }
         } catch (IOException ex) {
             handleServerException(ex, logger);
         }
     }
 
-    /**
-     * An infinite loop that pulls connected sockets out of the
-     * deque for processing
-     */
-    private void takeOffDequeForProcessing() throws InterruptedException {
-        Thread.currentThread().setName("socket queue handler");
-
-        // this is a known infinite loop, meant to keep running all during the runtime
-        //noinspection InfiniteLoopStatement
-        while(true) {
-            Socket socket = socketQueue.take();
-            es.submit(() -> this.doHttpWork(socket));
-        }
-    }
-
 
     void doHttpWork(Socket freshSocket) {
         // provide a name for this thread for easier debugging
@@ -133,13 +135,24 @@ final class Server implements IServer {
         // close all the running sockets
         setOfSWs.stopAllServers();
         logger.logTrace(() -> "close called on " + this);
-        // close the primary server socket
-        serverSocket.close();
+        // close the server sockets.  The same socket may appear more than once.
+        for (ServerSocket acceptorSocket : new LinkedHashSet<>(acceptorSockets)) {
+            acceptorSocket.close();
+        }
     }
 
     @Override
     public String getHost() {
-        return serverSocket.getInetAddress().getHostAddress();
+        return describeHost(serverSocket.getInetAddress());
+    }
+
+    /**
+     * The address as a string, with the wildcard address always shown as
+     * 0.0.0.0.  A server socket opened from a channel reports it as the IPv6
+     * wildcard, though it listens on IPv4 and IPv6 just the same.
+     */
+    static String describeHost(InetAddress address) {
+        return address.isAnyLocalAddress() ? "0.0.0.0" : address.getHostAddress();
     }
 
     @Override
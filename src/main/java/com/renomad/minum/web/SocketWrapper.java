@@ -5,6 +5,9 @@ import com.renomad.minum.logging.ILogger;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 
 /**
@@ -17,7 +20,7 @@ public final class SocketWrapper implements ISocketWrapper {
     private final BufferedOutputStream writer;
     private final ILogger logger;
     private final IServer server;
-    private final BufferedInputStream bufferedInputStream;
+    private final HttpInputStream httpInputStream;
 
     /**
      * Constructor
@@ -30,7 +33,7 @@ public final class SocketWrapper implements ISocketWrapper {
         this.hostName = hostName;
         logger.logTrace(() -> String.format("Setting timeout of %d milliseconds on socket %s", timeoutMillis, socket));
         this.socket.setSoTimeout(timeoutMillis);
-        this.bufferedInputStream = new BufferedInputStream(socket.getInputStream());
+        this.httpInputStream = new HttpInputStream(socket.getInputStream());
         writer = new BufferedOutputStream(socket.getOutputStream());
         this.logger = logger;
         this.server = server;
@@ -91,7 +94,7 @@ public final class SocketWrapper implements ISocketWrapper {
 
     @Override
     public InputStream getInputStream() {
-        return bufferedInputStream;
+        return httpInputStream;
     }
 
     /**
@@ -113,4 +116,39 @@ public final class SocketWrapper implements ISocketWrapper {
     public void flush() throws IOException {
         this.writer.flush();
     }
+
+    /**
+     * If this is a plain-text socket opened from a channel (see
+     * {@link WebEngine#startServer()}), the bytes go straight from the
+     * file to the socket.  Otherwise - for example, with TLS - they are
+     * copied through a buffer.
+     */
+    @Override
+    public void sendFile(FileChannel fileChannel, long position, long count) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            ISocketWrapper.super.sendFile(fileChannel, position, count);
+        } else {
+            writer.flush();
+            transferFully(fileChannel, position, count, channel);
+        }
+    }
+
+    /**
+     * Transfer bytes from the file to the channel until the count is
+     * sent or the file ends.  {@link FileChannel#transferTo} may send fewer
+     * bytes than asked, so this loops.
+     */
+    static void transferFully(FileChannel fileChannel, long position, long count, WritableByteChannel channel) throws IOException {
+        long countBytesLeftToSend = count;
+        long filePosition = position;
+        while (countBytesLeftToSend > 0) {
+            long countBytesSent = fileChannel.transferTo(filePosition, countBytesLeftToSend, channel);
+            if (countBytesSent <= 0 && filePosition >= fileChannel.size()) {
+                break;
+            }
+            filePosition += countBytesSent;
+            countBytesLeftToSend -= countBytesSent;
+        }
+    }
 }
@@ -1,14 +1,11 @@
 package com.renomad.minum.web;
 
 
-import com.renomad.minum.utils.RingBuffer;
-
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Arrays;
 
 /**
  * This class represents a single partition in a multipart/form
@@ -24,16 +21,21 @@ public class StreamingMultipartPartition extends InputStream {
     private final int contentLength;
     /**
      * After we hit the boundary, we will set this flag to true, and all
-     * subsequent reads will return -1.
+     * subsequent reads will return -1, once what was found before the
+     * boundary has been read.
      */
     private boolean isFinished = false;
 
     /**
-     * This buffer follows along with what we are reading, so we can
-     * easily compare against our boundary value.  There are four extra
-     * bytes included, since multipart splits the content by two
-     * dashes, followed by the boundary value, and then two dashes afterwards
-     * on the last boundary.
+     * Set when the boundary ending this partition is followed by two
+     * dashes, meaning there are no more partitions after it.
+     */
+    private boolean isLastPartition = false;
+
+    /**
+     * The bytes which end this partition.  Multipart splits the content by
+     * a carriage return and newline, two dashes, and then the boundary
+     * value, with two more dashes afterwards on the last boundary.
      * <pre>
      * That is,
      * for a typical boundary:
@@ -45,10 +47,25 @@ public class StreamingMultipartPartition extends InputStream {
      *   --boundary_value--
      *</pre>
      */
-    private final RingBuffer<Byte> recentBytesBuffer;
+    private final byte[] boundary;
+
+    /**
+     * How far along to move the search for the boundary, by the value of the last
+     * byte looked at.  See {@link #scan()}
+     */
+    private final int[] shifts;
+
+    /**
+     * Holds the bytes read from the inputstream.  Those from start to scanPosition are
+     * known to be data, and are waiting to be read.  From scanPosition to end are the
+     * bytes which might be the start of the boundary.
+     */
+    private final byte[] buffer;
+    private int start;
+    private int scanPosition;
+    private int end;
+    private final byte[] singleByte = new byte[1];
     private final CountBytesRead countBytesRead;
-    private final List<Byte> boundaryValueList;
-    private boolean hasFilledBuffer;
 
     /**
      * @param contentLength the length specified by the Content-Length header, it is
@@ -65,21 +82,27 @@ public class StreamingMultipartPartition extends InputStream {
         this.inputStream = inputStream;
         this.contentDisposition = contentDisposition;
         this.contentLength = contentLength;
-        String boundaryValue1 = "\r\n--" + boundaryValue;
-        byte[] bytes = boundaryValue1.getBytes(StandardCharsets.US_ASCII);
-        boundaryValueList = IntStream.range(0, bytes.length).mapToObj(i -> bytes[i]).toList();
-
-        /*
-         * To explain the numbers here: we add one at the beginning to represent
-         * the single character at the far left that is what we will actually return.
-         * We have to fill the cache before we start sending anything.  The number
-         * at the end represents the extra characters of the boundary - dashes,
-         * carriage return, newline.
-         */
-        recentBytesBuffer = new RingBuffer<>(boundaryValue1.length(), Byte.class);
+        this.boundary = ("\r\n--" + boundaryValue).getBytes(StandardCharsets.US_ASCII);
+        this.shifts = buildShifts(boundary);
+        this.buffer = new byte[8 * 1024 + boundary.length];
         this.countBytesRead = countBytesRead;
     }
 
+    /**
+     * The table of shifts for a Boyer-Moore-Horspool search.  Where the last byte of
+     * the text being compared does not appear in the boundary, we can move along by
+     * the whole boundary's length.  Otherwise, we move to where it lines up with
+     * its last appearance in the boundary (not counting the boundary's last byte).
+     */
+    private static int[] buildShifts(byte[] boundary) {
+        int[] shifts = new int[256];
+        Arrays.fill(shifts, boundary.length);
+        for (int i = 0; i < boundary.length - 1; i++) {
+            shifts[boundary[i] & 0xff] = boundary.length - 1 - i;
+        }
+        return shifts;
+    }
+
     public Headers getHeaders() {
         return headers;
     }
@@ -90,101 +113,149 @@ public class StreamingMultipartPartition extends InputStream {
 
 
     /**
-     * Reads from the inputstream using a buffer for checking whether we've
-     * hit the end of a multpart partition.
+     * Reads a byte of this partition.  See {@link #read(byte[], int, int)}
      * @return -1 if we're at the end of a partition
      * @throws IOException if the inputstream is closed unexpectedly while reading.
      */
     @Override
     public int read() throws IOException {
-        if (isFinished) {
+        int count = read(singleByte, 0, 1);
+        return count == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    /**
+     * Reads from the inputstream in bulk, searching for the boundary that
+     * ends this multipart partition as it goes.  Nothing past the boundary (and
+     * the two characters after it) is read, so the inputstream is left at the
+     * start of the next partition.
+     * @return -1 if we're at the end of a partition
+     * @throws IOException if the inputstream is closed unexpectedly while reading.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        int wanted = Math.min(len, buffer.length - boundary.length);
+        while (scanPosition - start < wanted && !isFinished) {
+            scan();
+        }
+        int available = scanPosition - start;
+        if (available == 0) {
             return -1;
         }
-        if (!hasFilledBuffer) {
-            fillBuffer();
-            boolean atTheEnd = recentBytesBuffer.containsAt(boundaryValueList, 0);
-            if (atTheEnd) {
-                // don't really do anything with this, it's just to collect the
-                // last characters to have a clean finish.
-                byte[] unused = inputStream.readNBytes(2);
-                isFinished = true;
-                return -1;
-            }
-        } else {
-            int result = inputStream.read();
-            countBytesRead.increment();
-            if (countBytesRead.getCount() >= contentLength) {
-                isFinished = true;
-                return -1;
+        int count = Math.min(len, available);
+        System.arraycopy(buffer, start, b, off, count);
+        start += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return scanPosition - start;
+    }
+
+    /**
+     * Take one step of the search for the boundary: read enough to compare the
+     * boundary at the scan position, and then either finish, if it is there, or
+     * move the scan position along.  Reads are only as long as needed for the
+     * comparison, so that we never read past the end of the boundary.
+     */
+    private void scan() throws IOException {
+        int needed = boundary.length - (end - scanPosition);
+        if (needed > 0) {
+            long remainingInBody = (long) contentLength - countBytesRead.getCount();
+            // if the body ends too soon for another boundary, read to its end and stop there
+            boolean isEndOfBody = needed > remainingInBody;
+            int countToRead = isEndOfBody ? (int) Math.max(0, remainingInBody) : needed;
+            if (end + countToRead > buffer.length) {
+                compact();
             }
-            if (result == -1) {
+            int count = inputStream.readNBytes(buffer, end, countToRead);
+            countBytesRead.incrementBy(count);
+            if (count < countToRead) {
                 throw new IOException("Error: The inputstream has closed unexpectedly while reading");
             }
-            byte byteValue = (byte) result;
-            boolean isAtEndOfPartition = updateRecentBytesBufferAndCheck(byteValue);
-            if (isAtEndOfPartition) {
-                // don't really do anything with this, it's just to collect the
-                // last characters to have a clean finish.
-                byte[] unused = inputStream.readNBytes(2);
+            end += count;
+            if (isEndOfBody) {
                 isFinished = true;
-                return -1;
+                return;
             }
+        }
 
+        if (isBoundaryAt(scanPosition)) {
+            readEndOfBoundary();
+            return;
         }
-        return ((int)recentBytesBuffer.atNextIndex()) & 0xff;
+        scanPosition += shifts[buffer[scanPosition + boundary.length - 1] & 0xff];
     }
 
-    private void fillBuffer() throws IOException {
-        for (int i = 0; i < recentBytesBuffer.getLimit(); i++) {
-            int result = inputStream.read();
-            countBytesRead.increment();
-            if (result == -1) {
-                throw new IOException("Error: The inputstream has closed unexpectedly while reading");
-            }
-            byte byteValue = (byte) result;
-            updateRecentBytesBufferAndCheck(byteValue);
+    private boolean isBoundaryAt(int position) {
+        for (int i = boundary.length - 1; i >= 0; i--) {
+            if (buffer[position + i] != boundary[i]) return false;
         }
-        hasFilledBuffer = true;
+        return true;
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer
+     */
+    private void compact() {
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        scanPosition -= start;
+        end -= start;
+        start = 0;
+    }
+
+    /**
+     * Read the two characters after the boundary - either two dashes, if this
+     * is the last partition, or the CRLF before the next partition's headers.
+     */
+    private void readEndOfBoundary() throws IOException {
+        // don't read past the end of the body, if the client left these off
+        int countToRead = (int) Math.max(0, Math.min(2, (long) contentLength - countBytesRead.getCount()));
+        byte[] endOfBoundary = inputStream.readNBytes(countToRead);
+        isLastPartition = endOfBoundary.length == 2 && endOfBoundary[0] == '-' && endOfBoundary[1] == '-';
+        isFinished = true;
+    }
+
+    /**
+     * True if the boundary after this partition showed it was the last.  Only
+     * known once this partition has been read to its end.
+     */
+    boolean isLastPartition() {
+        return isLastPartition;
     }
 
     @Override
     public byte[] readAllBytes()  {
         var baos = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[8 * 1024];
         while (true) {
-            int result = 0;
+            int result;
             try {
-                result = read();
+                result = read(readBuffer, 0, readBuffer.length);
             } catch (IOException e) {
                 throw new WebServerException(e);
             }
             if (result == -1) {
                 return baos.toByteArray();
             }
-            baos.write((byte)result);
+            baos.write(readBuffer, 0, result);
         }
     }
 
-    /**
-     * Updates the buffer with the last characters read, and returns
-     * true if we have encountered the end of this partition.
-     */
-    private boolean updateRecentBytesBufferAndCheck(byte newByte) {
-        recentBytesBuffer.add(newByte);
-        return recentBytesBuffer.containsAt(boundaryValueList, 0);
-    }
-
     /**
      * By "close", we will read from the {@link InputStream} until we have finished the body,
      * so that our InputStream has been read until the start of the next partition.
      */
     @Override
     public void close() throws IOException {
+        byte[] readBuffer = new byte[8 * 1024];
         while (true) {
-            int result = read();
+            int result = read(readBuffer, 0, readBuffer.length);
             if (result == -1) {
                 return;
             }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -42,6 +42,10 @@ public class UrlEncodedDataGetter extends InputStream {
 
         if (result == -1) {
             isFinished = true;
+            // a body sent in chunks has no content length - it ends when the stream does
+            if (contentLength == IBodyProcessor.UNKNOWN_LENGTH) {
+                return -1;
+            }
             // I know this is surprising, however: Because we always have the content length while reading the body,
             // we know exactly when we expect to read the last byte.  If we read and get a -1, it means
             // the stream is closed - but that should not have happened, because we should have stopped reading when
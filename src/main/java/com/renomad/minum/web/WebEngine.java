@@ -6,11 +6,19 @@ import com.renomad.minum.state.Context;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocketFactory;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
 import java.net.URL;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Path;
 import java.security.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 
 import static com.renomad.minum.web.HttpServerType.ENCRYPTED_HTTP;
@@ -54,14 +62,20 @@ final class WebEngine {
       return null;
     }
     
-    ServerSocket ss;
+    if (constants.httpServerEngine == HttpServerEngine.SELECTOR) {
+      return startSelectorServer(port);
+    }
+
+    List<ServerSocket> serverSockets;
     try {
-        ss = new ServerSocket(port);
+        // the server sockets are opened from channels, so that the sockets they accept
+        // have channels too, which lets files be sent without copying (see SocketWrapper.sendFile)
+        serverSockets = bindServerSockets(port, constants.acceptorThreads, () -> ServerSocketChannel.open().socket(), logger);
     } catch (Exception e) {
         throw new WebServerException("Failed to create serversocket on port " + port, e);
     }
-    logger.logDebug(() -> String.format("Just created a new ServerSocket: %s", ss));
-    IServer server = new Server(ss, context, "http server", webFramework, executorService, PLAIN_TEXT_HTTP);
+    logger.logDebug(() -> String.format("Just created a new ServerSocket: %s", serverSockets.getFirst()));
+    IServer server = new Server(serverSockets, context, "http server", webFramework, executorService, PLAIN_TEXT_HTTP);
     logger.logDebug(() -> String.format("Just created a new Server: %s", server));
     server.start();
     String hostname = constants.hostName;
@@ -69,6 +83,26 @@ final class WebEngine {
     return server;
   }
 
+  /**
+   * Start a plain-text server which watches its connections with a selector.
+   * See {@link SelectorServer}
+   */
+  private IServer startSelectorServer(int port) {
+    IServer server;
+    try {
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(port));
+      server = new SelectorServer(serverChannel, context, "http server", webFramework, executorService);
+    } catch (IOException e) {
+      throw new WebServerException("Failed to create server socket channel on port " + port, e);
+    }
+    logger.logDebug(() -> String.format("Just created a new selector Server: %s", server));
+    server.start();
+    String hostname = constants.hostName;
+    logger.logDebug(() -> String.format("%s started at http://%s:%s", server, hostname, server.getPort()));
+    return server;
+  }
+
   /**
    * Start an encrypted server, using TLS 1.3
    */
@@ -88,9 +122,9 @@ final class WebEngine {
     KeyStoreResult keystoreResult = getKeyStoreResult(useExternalKeystore, constants.keystorePath, constants.keystorePassword, logger);
 
 
-    ServerSocket ss = createSslSocketWithSpecificKeystore(port, keystoreResult.keystoreUrl(), keystoreResult.keystorePassword());
-    logger.logDebug(() -> String.format("Just created a new ServerSocket: %s", ss));
-    IServer server = new Server(ss, context, "https server", webFramework, executorService, ENCRYPTED_HTTP);
+    List<ServerSocket> serverSockets = createSslSocketsWithSpecificKeystore(port, constants.acceptorThreads, keystoreResult.keystoreUrl(), keystoreResult.keystorePassword());
+    logger.logDebug(() -> String.format("Just created a new ServerSocket: %s", serverSockets.getFirst()));
+    IServer server = new Server(serverSockets, context, "https server", webFramework, executorService, ENCRYPTED_HTTP);
     logger.logDebug(() -> String.format("Just created a new SSL Server: %s", server));
     server.start();
     String hostname = constants.hostName;
@@ -98,6 +132,58 @@ final class WebEngine {
     return server;
   }
 
+  /**
+   * Create the server sockets for a server, all listening on the same port,
+   * one for each thread that will accept connections.
+   * <p>
+   *     If there is more than one acceptor and the operating system supports
+   *     SO_REUSEPORT (Linux does), each gets its own socket, and the operating
+   *     system spreads the incoming connections between them.  Otherwise, the one
+   *     socket is returned several times, so that several threads accept on it.
+   * </p>
+   * @param port the port to listen on. If 0, a free port is chosen, and all the sockets use it.
+   * @param acceptorCount how many acceptor threads there will be
+   * @param unboundServerSocket builds a new server socket, not yet bound to a port
+   */
+  static List<ServerSocket> bindServerSockets(int port, int acceptorCount, Callable<ServerSocket> unboundServerSocket, ILogger logger) throws Exception {
+    if (acceptorCount < 1) {
+      throw new WebServerException("The count of acceptor threads must be at least 1. Count: " + acceptorCount);
+    }
+    List<ServerSocket> serverSockets = new ArrayList<>();
+    try {
+      ServerSocket firstServerSocket = unboundServerSocket.call();
+      serverSockets.add(firstServerSocket);
+      boolean useReusePort = acceptorCount > 1 && firstServerSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+      if (useReusePort) {
+        firstServerSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      } else if (acceptorCount > 1) {
+        logger.logDebug(() -> "SO_REUSEPORT is not supported here. %d threads will accept on one server socket".formatted(acceptorCount));
+      }
+      firstServerSocket.bind(new InetSocketAddress(port));
+
+      for (int i = 1; i < acceptorCount; i++) {
+        if (useReusePort) {
+          ServerSocket serverSocket = unboundServerSocket.call();
+          serverSockets.add(serverSocket);
+          serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+          serverSocket.bind(new InetSocketAddress(firstServerSocket.getLocalPort()));
+        } else {
+          serverSockets.add(firstServerSocket);
+        }
+      }
+      return serverSockets;
+    } catch (Exception ex) {
+      for (ServerSocket serverSocket : serverSockets) {
+        try {
+          serverSocket.close();
+        } catch (IOException closeException) {
+          logger.logDebug(() -> "Failed to close server socket after error: " + closeException);
+        }
+      }
+      throw ex;
+    }
+  }
+
   static KeyStoreResult getKeyStoreResult(
           boolean useExternalKeystore,
           String keystorePath,
@@ -164,6 +250,14 @@ final class WebEngine {
    * Create an SSL Socket using a specified keystore
    */
   ServerSocket createSslSocketWithSpecificKeystore(int sslPort, URL keystoreUrl, String keystorePassword) {
+    return createSslSocketsWithSpecificKeystore(sslPort, 1, keystoreUrl, keystorePassword).getFirst();
+  }
+
+  /**
+   * Create the SSL server sockets for a server, one per acceptor thread,
+   * using a specified keystore.  See {@link #bindServerSockets}
+   */
+  List<ServerSocket> createSslSocketsWithSpecificKeystore(int sslPort, int acceptorCount, URL keystoreUrl, String keystorePassword) {
     try (InputStream keystoreInputStream = keystoreUrl.openStream()) {
       final var keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
       char[] passwordCharArray = keystorePassword.toCharArray();
@@ -177,8 +271,8 @@ final class WebEngine {
       final var sslContext = SSLContext.getInstance("TLSv1.3");
       sslContext.init(keyManagers, null, new SecureRandom());
 
-      final var socketFactory = sslContext.getServerSocketFactory();
-      return socketFactory.createServerSocket(sslPort);
+      final SSLServerSocketFactory socketFactory = sslContext.getServerSocketFactory();
+      return bindServerSockets(sslPort, acceptorCount, socketFactory::createServerSocket, logger);
     } catch (Exception ex) {
       String extraMessage = "Exception during creation of SSL socket with port %d, keystore URL of %s.  Exception message: %s".formatted(sslPort, keystoreUrl, ex.getMessage());
       logger.logDebug(() -> extraMessage);
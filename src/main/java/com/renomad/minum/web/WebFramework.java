@@ -8,15 +8,22 @@ import com.renomad.minum.state.Context;
 import com.renomad.minum.utils.*;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.zip.CRC32C;
 
 import static com.renomad.minum.utils.FileUtils.checkFileIsWithinDirectory;
 import static com.renomad.minum.utils.FileUtils.checkForBadFilePatterns;
@@ -56,16 +63,17 @@ public final class WebFramework {
     record MethodPath(RequestLine.Method method, String path) { }
 
     /**
-     * The list of paths that our system is registered to handle.
+     * The paths that our system is registered to handle.  The requested
+     * path is lower-cased when looking here.
      */
-    private final Map<MethodPath, ThrowingFunction<IRequest, IResponse>> registeredDynamicPaths;
+    private final Router registeredDynamicPaths;
 
     /**
      * These are registrations for paths that partially match, for example,
      * if the client sends us GET /.well-known/acme-challenge/HGr8U1IeTW4kY_Z6UIyaakzOkyQgPr_7ArlLgtZE8SX
      * and we want to match ".well-known/acme-challenge"
      */
-    private final Map<MethodPath, ThrowingFunction<IRequest, IResponse>> registeredPartialPaths;
+    private final Router registeredPartialPaths;
 
     /**
      * A function that will be run instead of the ordinary business code. Has
@@ -79,6 +87,24 @@ public final class WebFramework {
     private ThrowingFunction<LastMinuteHandlerInputs, IResponse> lastMinuteHandler;
 
     private final IFileReader fileReader;
+
+    /**
+     * The contents of static files, by path, if USE_CACHE_FOR_STATIC_FILES is set.
+     * See {@link #readStaticFileContents(Path, StaticFileValidators)}
+     */
+    private final Map<String, CachedStaticFile> staticFiles;
+
+    /**
+     * Gzipped versions of static files, by path, so that each is
+     * compressed (or its sidecar read) only once.
+     * See {@link #readCompressedStaticFile(Path, String, byte[], Headers, StaticFileValidators)}
+     */
+    private final Map<String, CachedStaticFile> compressedStaticFiles;
+
+    /**
+     * Deflaters for gzipping responses, set to the configured compression level
+     */
+    private final DeflaterPool deflaterPool;
     private final Map<String, String> fileSuffixToMime;
 
     // This is just used for testing.  If it's null, we use the real time.
@@ -91,6 +117,12 @@ public final class WebFramework {
      */
     private static final int MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS = 2048;
 
+    /**
+     * The most deflaters kept for reuse.  Each holds a few hundred
+     * kilobytes of native memory, so this is kept modest.
+     */
+    private static final int MAX_POOLED_DEFLATERS = 32;
+
     void httpProcessing(ISocketWrapper sw) throws Exception {
         try (sw) {
             dumpIfAttacker(sw, fs);
@@ -99,81 +131,182 @@ public final class WebFramework {
             // By default, browsers expect the server to run in keep-alive mode.
             // We'll break out later if we find that the browser doesn't do keep-alive
             while (true) {
-                final String rawStartLine = inputStreamUtils.readLine(is);
-                long startMillis = System.currentTimeMillis();
-                if (rawStartLine == null || rawStartLine.isEmpty()) {
-                    // here, the client connected, sent nothing, and closed.
-                    // nothing to do but return.
-                    logger.logTrace(() -> "rawStartLine was empty.  Returning.");
+                if (!handleOneRequest(sw, is)) {
                     break;
                 }
-                final RequestLine requestLine = getProcessedRequestLine(sw, rawStartLine);
+            }
+        } catch (SocketException | SocketTimeoutException ex) {
+            handleReadTimedOut(sw, ex, logger);
+        } catch (ForbiddenUseException ex) {
+            handleForbiddenUse(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration);
+        } catch (IOException ex) {
+            handleIOException(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration, constants.suspiciousErrors);
+        }
+    }
 
-                if (requestLine.equals(emptyRequestLine)) {
-                    // here, the client sent something we cannot parse.
-                    // nothing to do but return.
-                    logger.logTrace(() -> "RequestLine was unparseable.  Returning.");
-                    break;
-                }
-                // check if the user is seeming to attack us.
-                checkIfSuspiciousPath(sw, requestLine);
-
-                // React to what the user requested, generate a result
-                Headers headers = getHeaders(sw);
-                IRequest request = new Request(headers, requestLine, sw.getRemoteAddr(), sw, bodyProcessor);
-                IResponse response = processRequest(request, sw, requestLine, headers);
-
-                // check that the response is non-null.  If it is null, that suggests
-                // the developer made a mistake.
-                if (response == null) {
-                    throw new WebServerException("The returned value for the endpoint \"%s\" was null.".formatted(request.getRequestLine().getPathDetails().getIsolatedPath()));
+    /**
+     * Handle a single request on a connection, for servers which manage
+     * their connections themselves between requests (see {@link SelectorServer}).
+     * Unlike {@link #httpProcessing(ISocketWrapper)}, this does not close the socket.
+     * @return true if the connection may be kept alive for another request
+     */
+    boolean httpProcessingOneRequest(ISocketWrapper sw) throws Exception {
+        try {
+            dumpIfAttacker(sw, fs);
+            return handleOneRequest(sw, sw.getInputStream());
+        } catch (SocketException | SocketTimeoutException ex) {
+            handleReadTimedOut(sw, ex, logger);
+        } catch (ForbiddenUseException ex) {
+            handleForbiddenUse(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration);
+        } catch (IOException ex) {
+            handleIOException(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration, constants.suspiciousErrors);
+        }
+        return false;
+    }
+
+    /**
+     * Read one request from the socket and send the response.
+     * @return true if the connection should be kept alive for another request
+     */
+    private boolean handleOneRequest(ISocketWrapper sw, InputStream is) throws Exception {
+        final String rawStartLine = inputStreamUtils.readLine(is);
+        long startMillis = System.currentTimeMillis();
+        if (rawStartLine == null || rawStartLine.isEmpty()) {
+            // here, the client connected, sent nothing, and closed.
+            // nothing to do but return.
+            logger.logTrace(() -> "rawStartLine was empty.  Returning.");
+            return false;
+        }
+        final RequestLine requestLine = getProcessedRequestLine(sw, rawStartLine);
+
+        if (requestLine.equals(emptyRequestLine)) {
+            // here, the client sent something we cannot parse.
+            // nothing to do but return.
+            logger.logTrace(() -> "RequestLine was unparseable.  Returning.");
+            return false;
+        }
+        // check if the user is seeming to attack us.
+        checkIfSuspiciousPath(sw, requestLine);
+
+        // React to what the user requested, generate a result
+        Headers headers = getHeaders(sw);
+        IRequest request = new Request(headers, requestLine, sw.getRemoteAddr(), sw, bodyProcessor);
+        try {
+            IResponse response;
+            if (headers.hasTransferEncoding() && !headers.hasChunkedTransferEncoding()) {
+                // we cannot tell where a body like this ends, so we must not guess.
+                // See https://www.rfc-editor.org/rfc/rfc9112#section-6.3
+                logger.logDebug(() -> "Transfer-Encoding without chunked as the last coding, from %s: %s".formatted(sw, headers.valueByKey("transfer-encoding")));
+                response = Response.buildLeanResponse(CODE_400_BAD_REQUEST);
+            } else {
+                response = processRequest(request, sw, requestLine, headers);
+            }
+
+            // check that the response is non-null.  If it is null, that suggests
+            // the developer made a mistake.
+            if (response == null) {
+                throw new WebServerException("The returned value for the endpoint \"%s\" was null.".formatted(request.getRequestLine().getPathDetails().getIsolatedPath()));
+            }
+
+            // if the client already has this body, send a 304 instead. See USE_ETAGS_FOR_DYNAMIC_RESPONSES
+            String dynamicETag = null;
+            if (constants.useETagsForDynamicResponses) {
+                String eTag = findOrBuildDynamicETag(requestLine, response);
+                IResponse notModifiedResponse = eTag == null ? null : checkNotModified(request.getHeaders(), response, eTag);
+                if (notModifiedResponse != null) {
+                    response = notModifiedResponse;
+                } else if (eTag != null && !hasHeader(response, "etag")) {
+                    dynamicETag = eTag;
                 }
+            }
+
+            boolean isKeepAlive = determineIfKeepAlive(request, logger, ((Request)request).hasAccessedBody());
+
+            // streaming and large-file text bodies are compressed on their way out, which
+            // makes their length unknown, so they are sent like a streaming response.
+            boolean isGzippedWhileSending = shouldGzipWhileSending(request.getHeaders(), response, requestLine.getVersion());
 
-                boolean isKeepAlive = determineIfKeepAlive(request, logger, ((Request)request).hasAccessedBody());
+            // a body of unknown length is sent in chunks - but HTTP/1.0 has no chunks, so
+            // for those clients we mark the end of the body by closing the connection.
+            boolean isChunked = (response.isChunked() || isGzippedWhileSending) && requestLine.getVersion() == HttpVersion.ONE_DOT_ONE;
+            if (response.isChunked() && !isChunked) {
+                isKeepAlive = false;
+            }
 
-                // calculate proper headers for the response
-                StringBuilder headerStringBuilder = addDefaultHeaders(response);
-                addOptionalExtraHeaders(response, headerStringBuilder);
-                addKeepAliveTimeout(isKeepAlive, headerStringBuilder);
+            // calculate proper headers for the response
+            StringBuilder headerStringBuilder = addDefaultHeaders(response);
+            addKeepAliveTimeout(isKeepAlive, headerStringBuilder);
 
-                // inspect the response being sent, see whether we can compress the data.
-                IResponse adjustedResponse = potentiallyCompress(request.getHeaders(), response, headerStringBuilder);
+            // inspect the response being sent, see whether we can compress the data.
+            IResponse adjustedResponse = response;
+            if (isGzippedWhileSending) {
+                headerStringBuilder.append("Content-Encoding: gzip").append(HTTP_CRLF);
+                headerStringBuilder.append("Vary: accept-encoding").append(HTTP_CRLF);
+            } else {
+                adjustedResponse = potentiallyCompress(request.getHeaders(), response, headerStringBuilder, deflaterPool);
+            }
+            boolean isCompressedHere = isGzippedWhileSending || adjustedResponse != response;
+            addOptionalExtraHeaders(response, headerStringBuilder, isCompressedHere);
+            if (dynamicETag != null) {
+                headerStringBuilder.append("ETag: ").append(isCompressedHere ? gzipETag(dynamicETag) : dynamicETag).append(HTTP_CRLF);
+            }
+            if (isChunked) {
+                headerStringBuilder.append("Transfer-Encoding: chunked").append(HTTP_CRLF);
+            } else if (!response.isChunked() && response.getStatusCode() != CODE_304_NOT_MODIFIED) {
+                // a 304 never has a body, and its content-length would describe the unsent 200 body
                 applyContentLength(headerStringBuilder, adjustedResponse.getBodyLength());
-                confirmBodyHasContentType(request, response);
-
-                // send the headers
-                sw.send(headerStringBuilder.append(HTTP_CRLF).toString().getBytes(StandardCharsets.US_ASCII));
-
-                // if the user sent a HEAD request, we send everything back except the body.
-                // even though we skip the body, this requires full processing to get the
-                // numbers right, like content-length.
-                if (request.getRequestLine().getMethod().equals(RequestLine.Method.HEAD)) {
-                    logger.logDebug(() -> "client " + request.getRemoteRequester() +
-                            " is requesting HEAD for " + request.getRequestLine().getPathDetails().getIsolatedPath() +
-                            ".  Excluding body from response");
+            }
+            confirmBodyHasContentType(request, response);
+
+            // send the headers
+            sw.send(headerStringBuilder.append(HTTP_CRLF).toString().getBytes(StandardCharsets.US_ASCII));
+
+            // if the user sent a HEAD request, we send everything back except the body.
+            // even though we skip the body, this requires full processing to get the
+            // numbers right, like content-length.
+            if (request.getRequestLine().getMethod().equals(RequestLine.Method.HEAD)) {
+                logger.logDebug(() -> "client " + request.getRemoteRequester() +
+                        " is requesting HEAD for " + request.getRequestLine().getPathDetails().getIsolatedPath() +
+                        ".  Excluding body from response");
+            } else {
+                // send the body, chunked and compressed as needed
+                ChunkedSocketWrapper chunkedSocketWrapper = isChunked ? new ChunkedSocketWrapper(sw) : null;
+                ISocketWrapper bodySocketWrapper = isChunked ? chunkedSocketWrapper : sw;
+                if (isGzippedWhileSending) {
+                    var gzipSocketWrapper = new GzipSocketWrapper(bodySocketWrapper, deflaterPool);
+                    try {
+                        adjustedResponse.sendBody(gzipSocketWrapper);
+                        gzipSocketWrapper.finish();
+                    } finally {
+                        gzipSocketWrapper.release();
+                    }
                 } else {
-                    // send the body
-                    adjustedResponse.sendBody(sw);
+                    adjustedResponse.sendBody(bodySocketWrapper);
                 }
+                if (isChunked) {
+                    chunkedSocketWrapper.finish();
+                }
+            }
 
-                sw.flush();
-
-                // print how long this processing took
-                long endMillis = System.currentTimeMillis();
-                logger.logTrace(() -> String.format("full processing (including communication time) of %s %s took %d millis", sw, requestLine, endMillis - startMillis));
+            sw.flush();
 
-                if (!isKeepAlive) {
-                    logger.logTrace(() -> "We will not keep-alive this connection - exiting loop and closing socket");
-                    break;
-                }
+            // print how long this processing took
+            long endMillis = System.currentTimeMillis();
+            logger.logTrace(() -> String.format("full processing (including communication time) of %s %s took %d millis", sw, requestLine, endMillis - startMillis));
 
+            if (!isKeepAlive) {
+                logger.logTrace(() -> "We will not keep-alive this connection - exiting loop and closing socket");
+                return false;
+            }
+            return true;
+        } finally {
+            // delete any temporary files made while reading the body.  A failure here
+            // is only logged, so it cannot replace an exception already on its way out.
+            try {
+                ((Request) request).cleanup();
+            } catch (IOException ex) {
+                logger.logAsyncError(() -> "Failed to delete temporary files of a request: " + StacktraceUtils.stackTraceToString(ex));
             }
-        } catch (SocketException | SocketTimeoutException ex) {
-            handleReadTimedOut(sw, ex, logger);
-        } catch (ForbiddenUseException ex) {
-            handleForbiddenUse(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration);
-        } catch (IOException ex) {
-            handleIOException(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration, constants.suspiciousErrors);
         }
     }
 
@@ -222,10 +355,14 @@ public final class WebFramework {
             RequestLine requestLine,
             Headers requestHeaders) throws Exception {
         IResponse response;
-        ThrowingFunction<IRequest, IResponse> endpoint = findEndpointForThisStartline(requestLine, requestHeaders);
-        if (endpoint == null) {
+        Router.Match match = findMatchForThisStartline(requestLine, requestHeaders);
+        if (match == null) {
             response = Response.buildLeanResponse(CODE_404_NOT_FOUND);
         } else {
+            ThrowingFunction<IRequest, IResponse> endpoint = match.handler();
+            if (clientRequest instanceof Request request) {
+                request.setPathParameters(match.pathParameters());
+            }
             long millisAtStart = System.currentTimeMillis();
             try {
                 if (preHandler != null) {
@@ -292,6 +429,10 @@ public final class WebFramework {
      *         <li>If the HTTP version is 1.1, then we *stop* keep-alive if there is a header telling us to</li>
      *         <li>If we are keep-alive, but there are lingering body bytes that have not been read by
      *         the handler, set keep-alive to false</li>
+     *         <li>If there is a Transfer-Encoding header alongside a Content-Length, or one
+     *         whose last coding is not chunked, set keep-alive to false.  Those are ways of
+     *         smuggling one request inside another, past a proxy which reads the body
+     *         differently.  See <a href="https://www.rfc-editor.org/rfc/rfc9112#section-6.1">Transfer-Encoding</a></li>
      *     </ul>
      * </p>
      */
@@ -303,7 +444,14 @@ public final class WebFramework {
             isKeepAlive = ! request.getHeaders().hasConnectionClose();
         }
 
-        if (isKeepAlive && request.getHeaders().contentLength() >= 0 && !hasAccessedBody) {
+        Headers headers = request.getHeaders();
+        if (isKeepAlive && headers.hasTransferEncoding() && (headers.contentLength() >= 0 || !headers.hasChunkedTransferEncoding())) {
+            logger.logDebug(() -> "Transfer-Encoding sent with a Content-Length or without chunked, in %s. Closing socket after request is finished".formatted(request.getRequestLine()));
+            isKeepAlive = false;
+        }
+
+        boolean hasBody = headers.contentLength() >= 0 || headers.hasChunkedTransferEncoding();
+        if (isKeepAlive && hasBody && !hasAccessedBody) {
             // if there was a body and the user has not read it by this point, we will log the
             // discrepancy and close the socket.
             logger.logDebug(() -> ("A body sized %d bytes was included in the request, but the endpoint (%s) did not access the body. " +
@@ -386,12 +534,19 @@ public final class WebFramework {
 
     /**
      * Add extra headers specified by the business logic (set by the developer)
+     * @param isCompressedHere if true, the body is being compressed by us, so a
+     *                         strong ETag is changed to name the gzipped version.
+     *                         See {@link #gzipETag(String)}
      */
-    private static void addOptionalExtraHeaders(IResponse response, StringBuilder stringBuilder) {
+    private static void addOptionalExtraHeaders(IResponse response, StringBuilder stringBuilder, boolean isCompressedHere) {
         for (Map.Entry<String,String> header : response.getExtraHeaders().entrySet()) {
+            String value = header.getValue();
+            if (isCompressedHere && header.getKey().equalsIgnoreCase("etag")) {
+                value = gzipETag(value);
+            }
             stringBuilder.append(header.getKey())
                     .append(": ")
-                    .append(header.getValue())
+                    .append(value)
                     .append(HTTP_CRLF);
         }
     }
@@ -437,18 +592,45 @@ public final class WebFramework {
      * This method will examine the request headers and response content-type, and
      * compress the outgoing data if necessary.
      */
-    static IResponse potentiallyCompress(Headers requestHeaders, IResponse response, StringBuilder headerStringBuilder) throws IOException {
+    static IResponse potentiallyCompress(Headers requestHeaders, IResponse response, StringBuilder headerStringBuilder, DeflaterPool deflaterPool) throws IOException {
         // we may make modifications to the response body at this point, specifically
         // we may compress the data, if the client requested it.
         // see https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Accept-encoding
         List<String> acceptEncoding = requestHeaders.valueByKey("accept-encoding");
 
         if (response.isBodyText()) {
-            return compressBodyIfRequested(response, acceptEncoding, headerStringBuilder, MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS);
+            return compressBodyIfRequested(response, acceptEncoding, headerStringBuilder, MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS, deflaterPool);
         }
         return response;
     }
 
+    /**
+     * Whether to gzip a body as it is sent, rather than all at once beforehand.  This
+     * is for bodies which are not held in memory - streaming responses, and large files - when
+     * the client accepts gzip and the content-type is text (see {@link #isCompressible(String)}).
+     * <p>
+     *     A body whose length is known is only compressed for HTTP/1.1 clients, since
+     *     it will have to be sent chunked instead.  Partial content (a range of a file), and
+     *     bodies the endpoint has already encoded, are left as they are.
+     * </p>
+     */
+    static boolean shouldGzipWhileSending(Headers requestHeaders, IResponse response, HttpVersion version) {
+        if (response.getBody() != null) return false;
+        if (!response.isChunked() && (version != HttpVersion.ONE_DOT_ONE || response.getBodyLength() < MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS)) {
+            return false;
+        }
+        List<String> acceptEncoding = requestHeaders.valueByKey("accept-encoding");
+        if (acceptEncoding == null || !String.join(";", acceptEncoding).contains("gzip")) return false;
+
+        String contentType = null;
+        for (var header : response.getExtraHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (name.equals("content-encoding") || name.equals("content-range")) return false;
+            if (name.equals("content-type")) contentType = header.getValue();
+        }
+        return contentType != null && isCompressible(contentType.toLowerCase(Locale.ROOT));
+    }
+
     /**
      * This method will examine the content-encoding headers, and if "gzip" is
      * requested by the client, we will replace the body bytes with compressed
@@ -464,46 +646,64 @@ public final class WebFramework {
      * @param minNumberBytes number of bytes must be larger than this to compress.
      */
     static IResponse compressBodyIfRequested(IResponse response, List<String> acceptEncoding, StringBuilder stringBuilder, int minNumberBytes) throws IOException {
+        return compressBodyIfRequested(response, acceptEncoding, stringBuilder, minNumberBytes, null);
+    }
+
+    /**
+     * Like {@link #compressBodyIfRequested(IResponse, List, StringBuilder, int)}, compressing
+     * with a deflater from the pool, if one is given.
+     */
+    static IResponse compressBodyIfRequested(IResponse response, List<String> acceptEncoding, StringBuilder stringBuilder, int minNumberBytes, DeflaterPool deflaterPool) throws IOException {
         String allContentEncodingHeaders = acceptEncoding != null ? String.join(";", acceptEncoding) : "";
         if (response.getBodyLength() >= minNumberBytes && allContentEncodingHeaders.contains("gzip")) {
             stringBuilder.append("Content-Encoding: gzip").append(HTTP_CRLF);
             stringBuilder.append("Vary: accept-encoding").append(HTTP_CRLF);
-            return ((Response)response).compressBody();
+            return deflaterPool == null ? ((Response)response).compressBody() : ((Response)response).compressBody(deflaterPool);
         }
         return response;
     }
 
     /**
-     * Looks through the mappings of {@link MethodPath} and path to registered endpoints
+     * Looks through the registered endpoints
      * or the static cache and returns the appropriate one (If we
      * do not find anything, return null)
      */
     ThrowingFunction<IRequest, IResponse> findEndpointForThisStartline(RequestLine sl, Headers requestHeaders) {
-        ThrowingFunction<IRequest, IResponse> handler;
+        Router.Match match = findMatchForThisStartline(sl, requestHeaders);
+        return match == null ? null : match.handler();
+    }
+
+    /**
+     * Like {@link #findEndpointForThisStartline(RequestLine, Headers)}, but
+     * also providing the values of any path parameters
+     */
+    private Router.Match findMatchForThisStartline(RequestLine sl, Headers requestHeaders) {
         logger.logTrace(() -> "Seeking a handler for " + sl);
 
         // first we check if there's a simple direct match
-        String requestedPath = sl.getPathDetails().getIsolatedPath().toLowerCase(Locale.ROOT);
+        String requestedPath = sl.getPathDetails().getIsolatedPath();
 
         // if the user is asking for a HEAD request, they want to run a GET command
         // but don't want the body.  We'll simply exclude sending the body, later on, when returning the data
         RequestLine.Method method = sl.getMethod() == RequestLine.Method.HEAD ? RequestLine.Method.GET : sl.getMethod();
 
-        MethodPath key = new MethodPath(method, requestedPath);
-        handler = registeredDynamicPaths.get(key);
+        Router.Match match = registeredDynamicPaths.find(method, requestedPath);
 
-        if (handler == null) {
+        if (match == null) {
             logger.logTrace(() -> "No direct handler found.  looking for a partial match for " + requestedPath);
-            handler = findHandlerByPartialMatch(sl);
+            match = registeredPartialPaths.find(sl.getMethod(), requestedPath);
         }
 
-        if (handler == null) {
+        if (match == null) {
             logger.logTrace(() -> "No partial match found, checking files on disk for " + requestedPath );
-            handler = findHandlerByFilesOnDisk(sl, requestHeaders);
+            ThrowingFunction<IRequest, IResponse> handler = findHandlerByFilesOnDisk(sl, requestHeaders);
+            if (handler != null) {
+                match = new Router.Match(handler, Map.of());
+            }
         }
 
         // we'll return this, and it could be a null.
-        return handler;
+        return match;
     }
 
     /**
@@ -548,7 +748,8 @@ public final class WebFramework {
 
         try {
             Path staticFilePath = Path.of(constants.staticFilesDirectory).resolve(path);
-            if (!Files.isRegularFile(staticFilePath)) {
+            BasicFileAttributes attributes = readAttributes(staticFilePath);
+            if (attributes == null || !attributes.isRegularFile()) {
                 logger.logDebug(() -> String.format("No readable regular file found at %s", path));
                 return Response.buildLeanResponse(CODE_404_NOT_FOUND);
             }
@@ -568,11 +769,29 @@ public final class WebFramework {
                 mimeType = "application/octet-stream";
             }
 
-            if (Files.size(staticFilePath) < 100_000) {
-                var fileContents = fileReader.readFile(staticFilePath.toString());
-                return createOkResponseForStaticFiles(fileContents, mimeType);
+            List<String> acceptEncoding = requestHeaders == null ? null : requestHeaders.valueByKey("accept-encoding");
+            boolean acceptsGzip = acceptEncoding != null && String.join(";", acceptEncoding).contains("gzip");
+
+            // if the client already has this version of the file, tell them so, without reading it
+            var validators = new StaticFileValidators(
+                    buildETag(attributes),
+                    formatHttpDate(attributes.lastModifiedTime().toInstant()));
+            IResponse notModifiedResponse = checkNotModified(requestHeaders, attributes, validators, acceptsGzip);
+            if (notModifiedResponse != null) return notModifiedResponse;
+
+            if (attributes.size() < 100_000) {
+                var fileContents = readStaticFileContents(staticFilePath, validators);
+                if (acceptsGzip) {
+                    IResponse compressedResponse = readCompressedStaticFile(staticFilePath, mimeType, fileContents, requestHeaders, validators);
+                    if (compressedResponse != null) return compressedResponse;
+                }
+                return createOkResponseForStaticFiles(fileContents, mimeType, validators);
             } else {
-                return createOkResponseForLargeStaticFiles(mimeType, staticFilePath, requestHeaders);
+                if (acceptsGzip) {
+                    IResponse compressedResponse = readCompressedStaticFile(staticFilePath, mimeType, null, requestHeaders, validators);
+                    if (compressedResponse != null) return compressedResponse;
+                }
+                return createOkResponseForLargeStaticFiles(mimeType, staticFilePath, requestHeaders, validators);
             }
 
         } catch (IOException e) {
@@ -581,13 +800,297 @@ public final class WebFramework {
         }
     }
 
+    /**
+     * The values by which a client can tell whether its copy of a static file
+     * is still current - see <a href="https://www.rfc-editor.org/rfc/rfc9110.html#name-validator-fields">Validator fields</a>
+     * @param eTag a strong entity tag for the file, as sent - that is, in quotes
+     * @param lastModified the modification time of the file, as an HTTP date
+     */
+    record StaticFileValidators(String eTag, String lastModified) {}
+
+    /**
+     * The bytes of a static file (or its gzipped version) kept in memory, with the
+     * entity tag of the file they were read from.  If the file has changed since,
+     * its entity tag will differ, and the bytes are read again.
+     */
+    private record CachedStaticFile(String eTag, byte[] bytes) {}
+
+    /**
+     * Read a static file, or take it from the cache if what is there was
+     * read from this same version of the file.
+     */
+    private byte[] readStaticFileContents(Path staticFilePath, StaticFileValidators validators) throws IOException {
+        String key = staticFilePath.toString();
+        CachedStaticFile cached = staticFiles.get(key);
+        if (cached != null && cached.eTag().equals(validators.eTag())) {
+            return cached.bytes();
+        }
+        byte[] fileContents = fileReader.readFile(key);
+        if (constants.useCacheForStaticFiles) {
+            staticFiles.put(key, new CachedStaticFile(validators.eTag(), fileContents));
+        }
+        return fileContents;
+    }
+
+    /**
+     * Get the size, modification time, and so on of a file, or null if
+     * it cannot be read (for example, if it does not exist)
+     */
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A strong entity tag for a file, made from its size and modification time.
+     * This needs only the file's attributes, not its contents, and changes whenever
+     * the file is replaced or edited.
+     */
+    static String buildETag(BasicFileAttributes attributes) {
+        return "\"" + Long.toHexString(attributes.size()) + "-" +
+                Long.toHexString(attributes.lastModifiedTime().toMillis()) + "\"";
+    }
+
+    /**
+     * The entity tag for the gzipped version of a body.  A strong entity tag
+     * promises byte-for-byte equality, so the compressed version needs its own.
+     * Weak entity tags (those starting with W/) are left as they are.
+     */
+    static String gzipETag(String eTag) {
+        if (eTag.startsWith("W/") || !eTag.endsWith("\"") || eTag.endsWith("-gzip\"")) {
+            return eTag;
+        }
+        return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * Format a time as an HTTP date, for example "Tue, 4 Jan 2022 09:25:00 GMT".  These only
+     * go to the second.
+     */
+    static String formatHttpDate(Instant instant) {
+        return ZonedDateTime.ofInstant(instant.truncatedTo(ChronoUnit.SECONDS), ZoneOffset.UTC).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+    }
+
+    /**
+     * Handle a conditional GET for a static file.  If the client sent the entity tag
+     * of the current file in If-None-Match - or, lacking that, sent an If-Modified-Since
+     * no earlier than the file's modification time - build a bodiless
+     * 304 (Not Modified) response.
+     * See <a href="https://www.rfc-editor.org/rfc/rfc9110.html#name-conditional-requests">Conditional requests</a>
+     * @return a 304 response, or null if the client should get the whole file.
+     */
+    IResponse checkNotModified(Headers requestHeaders, BasicFileAttributes attributes, StaticFileValidators validators, boolean acceptsGzip) {
+        if (requestHeaders == null) return null;
+        var headers = new HashMap<String, String>();
+        headers.put("cache-control", "max-age=" + constants.staticFileCacheTime);
+        headers.put("last-modified", validators.lastModified());
+
+        List<String> ifNoneMatch = requestHeaders.valueByKey("if-none-match");
+        if (ifNoneMatch != null) {
+            String matchingETag = findMatchingETag(ifNoneMatch, validators.eTag(), acceptsGzip);
+            if (matchingETag == null) return null;
+            headers.put("etag", matchingETag);
+            if (!matchingETag.equals(validators.eTag())) {
+                headers.put("vary", "accept-encoding");
+            }
+            return Response.buildLeanResponse(CODE_304_NOT_MODIFIED, headers);
+        }
+
+        List<String> ifModifiedSince = requestHeaders.valueByKey("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                Instant since = ZonedDateTime.parse(ifModifiedSince.getFirst().trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                Instant modified = attributes.lastModifiedTime().toInstant().truncatedTo(ChronoUnit.SECONDS);
+                if (!modified.isAfter(since)) {
+                    return Response.buildLeanResponse(CODE_304_NOT_MODIFIED, headers);
+                }
+            } catch (DateTimeParseException ex) {
+                // an invalid date is ignored, per the specification
+                logger.logDebug(() -> "Ignoring an invalid If-Modified-Since: " + ifModifiedSince.getFirst());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find which of the entity tags in an If-None-Match header, if any, is
+     * the given one (or, for a client accepting gzip, its gzipped
+     * version).  This uses the weak comparison, ignoring any W/ prefix.
+     * @return the matching entity tag, or null if there are none
+     */
+    static String findMatchingETag(List<String> ifNoneMatch, String eTag, boolean acceptsGzip) {
+        String opaqueTag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        for (String headerValue : ifNoneMatch) {
+            for (String candidate : headerValue.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) return eTag;
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals(opaqueTag)) return eTag;
+                if (acceptsGzip && tag.equals(gzipETag(opaqueTag))) return gzipETag(eTag);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The entity tag for a response, for {@link Constants#useETagsForDynamicResponses}.  This
+     * is only for a successful GET (or HEAD).  If the endpoint set an ETag,
+     * that is used.  Otherwise, if the body is in memory, one is made from it -
+     * see {@link #buildETag(byte[])}.
+     * @return the entity tag, or null if there is none to use
+     */
+    static String findOrBuildDynamicETag(RequestLine requestLine, IResponse response) {
+        RequestLine.Method method = requestLine.getMethod();
+        if ((method != RequestLine.Method.GET && method != RequestLine.Method.HEAD) ||
+                response.getStatusCode() != CODE_200_OK) {
+            return null;
+        }
+        for (var header : response.getExtraHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase("etag")) return header.getValue();
+        }
+        byte[] body = response.getBody();
+        return body == null ? null : buildETag(body);
+    }
+
+    /**
+     * A strong entity tag for a body, made from its length and its CRC-32C checksum.  The
+     * checksum is computed by the processor's own instructions where available, so this is
+     * far quicker than a cryptographic hash, and for telling one version of a page from
+     * the next, it is plenty.
+     */
+    static String buildETag(byte[] body) {
+        var checksum = new CRC32C();
+        checksum.update(body);
+        return "\"" + Integer.toHexString(body.length) + "-" + Long.toHexString(checksum.getValue()) + "\"";
+    }
+
+    /**
+     * If the client's If-None-Match has the entity tag of this response, build a bodiless
+     * 304 (Not Modified) to send instead.  This keeps the response's headers,
+     * other than those describing the body.
+     * @return a 304 response, or null if the client should get the whole response.
+     */
+    static IResponse checkNotModified(Headers requestHeaders, IResponse response, String eTag) {
+        List<String> ifNoneMatch = requestHeaders.valueByKey("if-none-match");
+        if (ifNoneMatch == null) return null;
+        List<String> acceptEncoding = requestHeaders.valueByKey("accept-encoding");
+        boolean acceptsGzip = acceptEncoding != null && String.join(";", acceptEncoding).contains("gzip");
+        String matchingETag = findMatchingETag(ifNoneMatch, eTag, acceptsGzip);
+        if (matchingETag == null) return null;
+
+        var headers = new HashMap<String, String>();
+        for (var header : response.getExtraHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!name.startsWith("content-") && !name.equals("etag")) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        headers.put("ETag", matchingETag);
+        if (!matchingETag.equals(eTag) && !hasHeader(response, "vary")) {
+            headers.put("Vary", "accept-encoding");
+        }
+        return Response.buildLeanResponse(CODE_304_NOT_MODIFIED, headers);
+    }
+
+    private static boolean hasHeader(IResponse response, String name) {
+        return response.getExtraHeaders().keySet().stream().anyMatch(x -> x.equalsIgnoreCase(name));
+    }
+
+    /**
+     * For a client which accepts gzip, find a gzipped version of a static file:
+     * <ul>
+     *     <li>a "sidecar" file, built ahead of time, with the same name plus ".gz" -
+     *     e.g. main.css.gz for main.css.  It is only used if it is at least as new
+     *     as the file, since it is sent with the file's ETag.</li>
+     *     <li>or, if there is no current sidecar, and the file is text of a
+     *     worthwhile size, the file compressed here</li>
+     * </ul>
+     * The compressed bytes are kept in a cache (if caching is enabled), so that
+     * the work is only done once for each version of the file.  Large sidecars
+     * are sent from disk.
+     * @param fileContents the uncompressed contents, or null for large files
+     * @return a response with the gzipped contents, or null if there
+     * is no compressed version to send
+     */
+    private IResponse readCompressedStaticFile(Path staticFilePath, String mimeType, byte[] fileContents, Headers requestHeaders, StaticFileValidators validators) throws IOException {
+        String key = staticFilePath.toString();
+        CachedStaticFile cached = compressedStaticFiles.get(key);
+        byte[] compressed = cached != null && cached.eTag().equals(validators.eTag()) ? cached.bytes() : null;
+        if (compressed == null) {
+            Path sidecarPath = Path.of(key + ".gz");
+            if (isCurrentSidecar(staticFilePath, sidecarPath)) {
+                if (Files.size(sidecarPath) >= 100_000) {
+                    return Response.buildLargeFileResponse(
+                            Map.of(
+                                    "cache-control", "max-age=" + constants.staticFileCacheTime,
+                                    "content-type", mimeType,
+                                    "content-encoding", "gzip",
+                                    "vary", "accept-encoding",
+                                    "etag", gzipETag(validators.eTag()),
+                                    "last-modified", validators.lastModified(),
+                                    "Accept-Ranges", "bytes"),
+                            sidecarPath.toString(),
+                            requestHeaders);
+                }
+                compressed = fileReader.readFile(sidecarPath.toString());
+            } else if (fileContents != null && fileContents.length >= MINIMUM_NUMBER_OF_BYTES_TO_COMPRESS && isCompressible(mimeType)) {
+                compressed = Response.gzip(fileContents, deflaterPool);
+            } else {
+                return null;
+            }
+            if (constants.useCacheForStaticFiles) {
+                compressedStaticFiles.put(key, new CachedStaticFile(validators.eTag(), compressed));
+            }
+        }
+        var headers = Map.of(
+                "cache-control", "max-age=" + constants.staticFileCacheTime,
+                "content-type", mimeType,
+                "content-encoding", "gzip",
+                "vary", "accept-encoding",
+                "etag", gzipETag(validators.eTag()),
+                "last-modified", validators.lastModified());
+        return Response.buildResponse(CODE_200_OK, headers, compressed);
+    }
+
+    /**
+     * Whether there is a sidecar file which is no older than the file it
+     * compresses.  An older one was likely not rebuilt after the file was
+     * edited, and would send out-of-date contents.
+     */
+    private boolean isCurrentSidecar(Path staticFilePath, Path sidecarPath) throws IOException {
+        if (!Files.isRegularFile(sidecarPath)) {
+            return false;
+        }
+        if (Files.getLastModifiedTime(sidecarPath).compareTo(Files.getLastModifiedTime(staticFilePath)) < 0) {
+            logger.logDebug(() -> "Ignoring " + sidecarPath + ", since it is older than " + staticFilePath);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a file of this mime type is text, and so worth compressing.  Images,
+     * video, and the like are already compressed.
+     */
+    static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") ||
+                mimeType.contains("javascript") ||
+                mimeType.contains("json") ||
+                mimeType.contains("xml");
+    }
+
     /**
      * All static responses will get a cache time of STATIC_FILE_CACHE_TIME seconds
      */
-    private IResponse createOkResponseForStaticFiles(byte[] fileContents, String mimeType) {
+    private IResponse createOkResponseForStaticFiles(byte[] fileContents, String mimeType, StaticFileValidators validators) {
         var headers = Map.of(
                 "cache-control", "max-age=" + constants.staticFileCacheTime,
-                "content-type", mimeType);
+                "content-type", mimeType,
+                "etag", validators.eTag(),
+                "last-modified", validators.lastModified());
 
         return Response.buildResponse(
                 CODE_200_OK,
@@ -598,10 +1101,12 @@ public final class WebFramework {
     /**
      * All static responses will get a cache time of STATIC_FILE_CACHE_TIME seconds
      */
-    private IResponse createOkResponseForLargeStaticFiles(String mimeType, Path filePath, Headers requestHeaders) throws IOException {
+    private IResponse createOkResponseForLargeStaticFiles(String mimeType, Path filePath, Headers requestHeaders, StaticFileValidators validators) throws IOException {
         var headers = Map.of(
                 "cache-control", "max-age=" + constants.staticFileCacheTime,
                 "content-type", mimeType,
+                "etag", validators.eTag(),
+                "last-modified", validators.lastModified(),
                 "Accept-Ranges", "bytes"
                 );
 
@@ -632,16 +1137,8 @@ public final class WebFramework {
      * let's see if we can match the registered paths against a **portion** of the startline
      */
     ThrowingFunction<IRequest, IResponse> findHandlerByPartialMatch(RequestLine sl) {
-        String requestedPath = sl.getPathDetails().getIsolatedPath();
-        var methodPathFunctionEntry = registeredPartialPaths.entrySet().stream()
-                .filter(x -> requestedPath.startsWith(x.getKey().path()) &&
-                        x.getKey().method().equals(sl.getMethod()))
-                .findFirst().orElse(null);
-        if (methodPathFunctionEntry != null) {
-            return methodPathFunctionEntry.getValue();
-        } else {
-            return null;
-        }
+        Router.Match match = registeredPartialPaths.find(sl.getMethod(), sl.getPathDetails().getIsolatedPath());
+        return match == null ? null : match.handler();
     }
 
     /**
@@ -666,8 +1163,8 @@ public final class WebFramework {
         this.logger = context.getLogger();
         this.constants = context.getConstants();
         this.overrideForDateTime = overrideForDateTime;
-        this.registeredDynamicPaths = new HashMap<>();
-        this.registeredPartialPaths = new HashMap<>();
+        this.registeredDynamicPaths = new Router(true);
+        this.registeredPartialPaths = new Router(false);
         this.inputStreamUtils = new InputStreamUtils(constants.maxReadLineSizeBytes);
         this.bodyProcessor = new BodyProcessor(context);
 
@@ -681,15 +1178,17 @@ public final class WebFramework {
                 "", logger);
         this.emptyRequestLine = RequestLine.EMPTY;
 
-        // this allows us to inject a IFileReader for deeper testing
+        // this allows us to inject a IFileReader for deeper testing.  Static files
+        // are cached here rather than by the reader, alongside their entity tags, so
+        // that a changed file is read again.
         if (fileReader != null) {
             this.fileReader = fileReader;
         } else {
-            this.fileReader = new FileReader(
-                    LRUCache.getLruCache(constants.maxElementsLruCacheStaticFiles),
-                    constants.useCacheForStaticFiles,
-                    logger);
+            this.fileReader = new FileReader(Map.of(), false, logger);
         }
+        this.staticFiles = Collections.synchronizedMap(LRUCache.getLruCache(constants.maxElementsLruCacheStaticFiles));
+        this.compressedStaticFiles = Collections.synchronizedMap(LRUCache.getLruCache(constants.maxElementsLruCacheStaticFiles));
+        this.deflaterPool = new DeflaterPool(constants.gzipCompressionLevel, MAX_POOLED_DEFLATERS);
         this.fileSuffixToMime = new HashMap<>();
         addDefaultValuesForMimeMap();
         readExtraMimeMappings(constants.extraMimeMappings);
@@ -716,7 +1215,15 @@ public final class WebFramework {
      * <br>
      * Note that the path text expected is *after* the first forward slash,
      * so for example with {@code http://foo.com/mypath}, provide "mypath" as the path.
-     * @throws WebServerException if duplicate paths are registered, or if the path is prefixed with a slash
+     * <p>
+     *     A segment of the path may be a parameter, written with curly braces.  For
+     *     example, {@code users/{id}/posts} matches a request for {@code users/123/posts},
+     *     and the handler finds "123" by {@code request.getPathParameters().get("id")}.
+     *     Plain text is preferred over a parameter, so if {@code users/new/posts} is registered
+     *     as well, it is used for that path.
+     * </p>
+     * @throws WebServerException if duplicate paths are registered, if the path is prefixed with a slash,
+     * or if a path parameter does not take up a whole segment
      */
     public void registerPath(RequestLine.Method method, String pathName, ThrowingFunction<IRequest, IResponse> webHandler) {
         if (pathName.startsWith("\\") || pathName.startsWith("/")) {
@@ -724,12 +1231,30 @@ public final class WebFramework {
                     String.format("Path should not be prefixed with a slash.  Corrected version: registerPath(%s, \"%s\", ... )", method.name(), pathName.substring(1)));
         }
 
-        var result = registeredDynamicPaths.put(new MethodPath(method, pathName), webHandler);
+        var result = registeredDynamicPaths.add(method, pathName, false, webHandler);
         if (result != null) {
             throw new WebServerException("Duplicate endpoint registered: " + new MethodPath(method, pathName));
         }
     }
 
+    /**
+     * Like {@link #registerPath(RequestLine.Method, String, ThrowingFunction)}, but keeping
+     * the endpoint's responses in a {@link ResponseCache}, so that requests for the same
+     * page are answered without running the endpoint each time.  Only GET endpoints
+     * may be cached.
+     * <p>
+     *     A cache may be shared by several endpoints.  Keep hold of it
+     *     to invalidate its responses when their data changes, and to read its
+     *     statistics.
+     * </p>
+     */
+    public void registerPath(RequestLine.Method method, String pathName, ThrowingFunction<IRequest, IResponse> webHandler, ResponseCache responseCache) {
+        if (method != RequestLine.Method.GET) {
+            throw new WebServerException("Only GET endpoints may use a response cache.  Was: " + new MethodPath(method, pathName));
+        }
+        registerPath(method, pathName, responseCache.wrap(webHandler, deflaterPool));
+    }
+
     /**
      * Similar to {@link WebFramework#registerPath(RequestLine.Method, String, ThrowingFunction)} except that the paths
      * registered here may be partially matched.
@@ -740,6 +1265,7 @@ public final class WebFramework {
      * <p>
      *     Be careful here, be thoughtful - partial paths will match a lot, and may
      *     overlap with other URL's for your app, such as endpoints and static files.
+     *     When more than one registered partial path matches a request, the longest is used.
      * </p>
      * @throws WebServerException if duplicate paths are registered, or if the path is prefixed with a slash
      */
@@ -748,7 +1274,7 @@ public final class WebFramework {
             throw new WebServerException(
                     String.format("Path should not be prefixed with a slash.  Corrected version: registerPartialPath(%s, \"%s\", ... )", method.name(), pathName.substring(1)));
         }
-        var result = registeredPartialPaths.put(new MethodPath(method, pathName), webHandler);
+        var result = registeredPartialPaths.add(method, pathName, true, webHandler);
         if (result != null) {
             throw new WebServerException("Duplicate partial-path endpoint registered: " + new MethodPath(method, pathName));
         }
@@ -8,8 +8,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.renomad.minum.testing.TestFramework.assertEquals;
 import static com.renomad.minum.testing.TestFramework.assertFalse;
 import static com.renomad.minum.testing.TestFramework.assertTrue;
 
@@ -55,4 +61,38 @@ public class DatabaseAppenderTests {
         String result3 = da.appendToDatabase(DatabaseChangeAction.UPDATE, "THIS IS A TEST");
         assertFalse(result3.isEmpty(), "Result must not be empty");
     }
+
+    /**
+     * If a flush fails, those waiting on it hear of the failure, but the
+     * timed flusher carries on, so later writes are not left waiting forever.
+     */
+    @Test
+    public void test_FlushFailure_DoesNotStopFlusher() throws Exception {
+        fileUtils.deleteDirectoryRecursivelyIfExists(foosDirectory.resolve("test_FlushFailure_DoesNotStopFlusher"));
+        fileUtils.makeDirectory(foosDirectory.resolve("test_FlushFailure_DoesNotStopFlusher"));
+        var da = new DatabaseAppender(foosDirectory.resolve("test_FlushFailure_DoesNotStopFlusher"), context);
+        var failures = new AtomicInteger(1);
+        da.bufferedWriter = new StringWriter() {
+            @Override
+            public void flush() {
+                if (failures.getAndDecrement() > 0) {
+                    throw new UncheckedIOException(new IOException("disk is on fire"));
+                }
+            }
+        };
+
+        da.appendToDatabase(DatabaseChangeAction.UPDATE, "THIS IS A TEST");
+        var firstFlush = da.whenDurable(DurabilityLevel.FLUSHED, "a");
+        try {
+            // this may or may not be the flush that failed, depending on timing
+            firstFlush.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            assertEquals(ex.getCause().getCause().getMessage(), "disk is on fire");
+        }
+        assertTrue(failures.get() <= 0, "the failing flush must have happened by now");
+
+        da.appendToDatabase(DatabaseChangeAction.UPDATE, "THIS IS ANOTHER TEST");
+        var laterFlush = da.whenDurable(DurabilityLevel.FLUSHED, "b");
+        assertEquals(laterFlush.get(5, TimeUnit.SECONDS), "b");
+    }
 }
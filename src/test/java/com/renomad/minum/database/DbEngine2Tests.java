@@ -21,10 +21,12 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static com.renomad.minum.database.DbEngine2Tests.Foo.INSTANCE;
 import static com.renomad.minum.database.DatabaseChangeAction.DELETE;
@@ -542,6 +544,592 @@ public class DbEngine2Tests {
         assertEquals(ex.getMessage(), "When registering an index, the partitioning algorithm must not be null");
     }
 
+    /**
+     * A full-text index finds items by the words in their text, kept
+     * up to date as data is written, updated, and deleted, and rebuilt
+     * when the data is loaded from disk.
+     */
+    @Test
+    public void testFullTextIndex() {
+        Path dbPathForTest = foosDirectory.resolve("testFullTextIndex");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerFullTextIndex("b", Foo::getB);
+        Foo sunset = db.write(new Foo(0, 1, "A sunset at the Beach"));
+        Foo sunny = db.write(new Foo(0, 2, "sunny beach, sunny day"));
+        Foo mountain = db.write(new Foo(0, 3, "Mountain at night"));
+        db.write(new Foo(0, 4, null));
+
+        assertEquals(sort(db.searchAllWords("b", "beach")), List.of(sunset, sunny));
+        assertEquals(sort(db.searchAllWords("b", "BEACH sunset")), List.of(sunset));
+        assertEquals(sort(db.searchAnyWords("b", "sunset night")), List.of(sunset, mountain));
+        assertEquals(sort(db.searchAllWords("b", "sun*")), List.of(sunset, sunny));
+        assertEquals(sort(db.searchAllWords("b", "sun* at")), List.of(sunset));
+        assertEquals(sort(db.searchAnyWords("b", "moun* day")), List.of(sunny, mountain));
+        assertTrue(db.searchAllWords("b", "beach night").isEmpty());
+        assertTrue(db.searchAllWords("b", "zebra").isEmpty());
+        assertTrue(db.searchAllWords("b", "  ,, ").isEmpty());
+
+        // an update removes the old words and adds the new
+        Foo updatedSunny = db.write(new Foo(sunny.getIndex(), 2, "cloudy beach"));
+        assertEquals(sort(db.searchAllWords("b", "beach")), List.of(sunset, updatedSunny));
+        assertTrue(db.searchAnyWords("b", "sunny day").isEmpty());
+
+        db.delete(mountain);
+        assertTrue(db.searchAnyWords("b", "mountain night").isEmpty());
+        assertFalse(db.fullTextIndexes.get("b").containsKey("mountain"));
+        db.stop();
+        MyThread.sleep(FINISH_TIME);
+
+        // the index is rebuilt when reading from disk
+        var db2 = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db2.registerFullTextIndex("b", Foo::getB);
+        assertEquals(sort(db2.searchAllWords("b", "Beach")), List.of(sunset, updatedSunny));
+        var ex = assertThrows(DbException.class, () -> db2.registerFullTextIndex("c", Foo::getB));
+        assertEquals(ex.getMessage(), "This method must be run before the database loads data from disk.  Typically, " +
+                "it should be run immediately after the database is created.  See this method's documentation");
+        db2.stop();
+    }
+
+    @Test
+    public void testFullTextIndex_NegativeCases() {
+        Path dbPathForTest = foosDirectory.resolve("testFullTextIndex_NegativeCases");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerIndex("index", x -> x.b);
+        db.registerFullTextIndex("text", x -> x.b);
+
+        var ex1 = assertThrows(DbException.class, () -> db.registerFullTextIndex("index", x -> x.b));
+        assertEquals(ex1.getMessage(), "It is forbidden to register the same index more than once.  Duplicate index: \"index\"");
+        var ex2 = assertThrows(DbException.class, () -> db.registerFullTextIndex("text", x -> x.b));
+        assertEquals(ex2.getMessage(), "It is forbidden to register the same index more than once.  Duplicate index: \"text\"");
+        var ex3 = assertThrows(DbException.class, () -> db.registerIndex("text", x -> x.b));
+        assertEquals(ex3.getMessage(), "It is forbidden to register the same index more than once.  Duplicate index: \"text\"");
+        var ex4 = assertThrows(DbException.class, () -> db.registerFullTextIndex(" ", x -> x.b));
+        assertEquals(ex4.getMessage(), "When registering a full-text index, value must be a non-empty string");
+        var ex5 = assertThrows(DbException.class, () -> db.registerFullTextIndex("other", null));
+        assertEquals(ex5.getMessage(), "When registering a full-text index, the text-obtaining function must not be null");
+        var ex6 = assertThrows(DbException.class, () -> db.searchAllWords("index", "foo"));
+        assertEquals(ex6.getMessage(), "There is no full-text index registered on the database Db<Foo> with a name of \"index\"");
+    }
+
+    @Test
+    public void testFullTextIndex_Tokenize() {
+        assertEquals(AbstractDb.tokenize("Hello, World! hello 123 é-Über"), Set.of("hello", "world", "123", "é", "über"));
+        assertEquals(AbstractDb.tokenize("Hello, World! hello").stream().toList(), List.of("hello", "world"));
+        assertTrue(AbstractDb.tokenize(null).isEmpty());
+        assertTrue(AbstractDb.tokenize(" .. ").isEmpty());
+    }
+
+    /**
+     * Searching by full-text index should take about the same time
+     * regardless of how much data is in the database.
+     */
+    @Test
+    public void testFullTextIndex_Performance() {
+        Path dbPathForTest = foosDirectory.resolve("testFullTextIndex_Performance");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerFullTextIndex("b", Foo::getB);
+        for (int i = 0; i < 20_000; i++) {
+            db.write(new Foo(0, i, "item number " + i + (i % 1000 == 0 ? " special" : "")));
+        }
+
+        StopwatchUtils scanStopwatch = new StopwatchUtils().startTimer();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.values().stream().filter(x -> x.getB().contains("special")).count(), 20L);
+        }
+        long scanMillis = scanStopwatch.stopTimer();
+
+        StopwatchUtils indexStopwatch = new StopwatchUtils().startTimer();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.searchAllWords("b", "special item").size(), 20);
+        }
+        long indexMillis = indexStopwatch.stopTimer();
+        System.out.printf("Full-text search of 20,000 items, 100 times: scanning took %d millis, full-text index took %d millis%n", scanMillis, indexMillis);
+        db.stop();
+    }
+
+    private static List<Foo> sort(Collection<Foo> foos) {
+        return foos.stream().sorted(Comparator.comparingLong(Foo::getIndex)).toList();
+    }
+
+    /**
+     * Data can be read in pages, in order of index, using the last index
+     * of one page as the cursor for the next.
+     */
+    @Test
+    public void testScanFrom() {
+        Path dbPathForTest = foosDirectory.resolve("testScanFrom");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        // write enough items that their order in a hash map would not match their index order
+        for (int i = 1; i <= 250; i++) {
+            db.write(new Foo(0, i, "abc" + i));
+        }
+
+        List<Long> ascending = new ArrayList<>();
+        List<Foo> page = db.scanFrom(0, 40);
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= 40);
+            page.forEach(x -> ascending.add(x.getIndex()));
+            page = db.scanFrom(page.getLast().getIndex(), 40);
+        }
+        assertEquals(ascending, range(1, 251).mapToObj(x -> (long) x).toList());
+
+        List<Long> descending = new ArrayList<>();
+        page = db.scanFromDescending(Long.MAX_VALUE, 40);
+        while (!page.isEmpty()) {
+            page.forEach(x -> descending.add(x.getIndex()));
+            page = db.scanFromDescending(page.getLast().getIndex(), 40);
+        }
+        assertEquals(descending, ascending.reversed());
+
+        // a cursor stays valid when the data around it changes
+        List<Foo> firstPage = db.scanFrom(0, 10);
+        db.delete(firstPage.getLast());
+        db.delete(db.scanFrom(10, 1).getFirst());
+        db.write(new Foo(0, 999, "new item"));
+        List<Foo> secondPage = db.scanFrom(firstPage.getLast().getIndex(), 3);
+        assertEquals(secondPage.stream().map(Foo::getIndex).toList(), List.of(12L, 13L, 14L));
+
+        assertEquals(db.scanFrom(250, 10).stream().map(Foo::getIndex).toList(), List.of(251L));
+        assertTrue(db.scanFrom(0, 0).isEmpty());
+        assertTrue(db.scanFromDescending(1, 10).isEmpty());
+        var ex = assertThrows(DbException.class, () -> db.scanFrom(0, -1));
+        assertEquals(ex.getMessage(), "The limit when scanning data must not be negative. Limit: -1");
+        db.stop();
+    }
+
+    /**
+     * With lazy loading, items stay serialized after loading from disk
+     * until something needs them.
+     */
+    @Test
+    public void testLazyLoading() {
+        Path dbPathForTest = foosDirectory.resolve("testLazyLoading");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        for (int i = 1; i <= 100; i++) {
+            db.write(new Foo(0, i, "abc" + i));
+        }
+        db.stop();
+
+        var lazyDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        lazyDb.useLazyLoading();
+        lazyDb.loadData();
+        assertEquals(lazyDb.unmaterializedData.size(), 100);
+        assertTrue(lazyDb.data.isEmpty());
+
+        // a page only deserializes the items on that page
+        assertEquals(lazyDb.scanFrom(10, 5).stream().map(Foo::getIndex).toList(), List.of(11L, 12L, 13L, 14L, 15L));
+        assertEquals(lazyDb.scanFromDescending(Long.MAX_VALUE, 2).stream().map(Foo::getIndex).toList(), List.of(100L, 99L));
+        assertEquals(lazyDb.unmaterializedData.size(), 93);
+
+        // updates and deletes work on items not yet deserialized
+        lazyDb.write(new Foo(50, 500, "updated"));
+        lazyDb.delete(new Foo(60, 60, "abc60"));
+        assertEquals(lazyDb.write(new Foo(0, 101, "abc101")).getIndex(), 101L);
+
+        // asking for all the values deserializes everything
+        assertEquals(lazyDb.values().size(), 100);
+        assertTrue(lazyDb.unmaterializedData.isEmpty());
+        assertEquals(lazyDb.scanFrom(49, 1).getFirst(), new Foo(50, 500, "updated"));
+        assertTrue(lazyDb.values().stream().noneMatch(x -> x.getIndex() == 60));
+        lazyDb.stop();
+
+        // lazy loading cannot be combined with indexes
+        var indexedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        indexedDb.registerIndex("b", Foo::getB);
+        var ex = assertThrows(DbException.class, indexedDb::useLazyLoading);
+        assertEquals(ex.getMessage(), "Lazy loading cannot be used with indexes");
+        var lazyDb2 = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        lazyDb2.useLazyLoading();
+        var ex2 = assertThrows(DbException.class, () -> lazyDb2.registerFullTextIndex("b", Foo::getB));
+        assertEquals(ex2.getMessage(), "Lazy loading cannot be used with indexes");
+        lazyDb2.loadData();
+        assertThrows(DbException.class, lazyDb2::useLazyLoading);
+        assertThrows(DbException.class, lazyDb2::useStringInterning);
+    }
+
+    /**
+     * Deleting the last items while others are still serialized must
+     * not reset the index back to 1
+     */
+    @Test
+    public void testLazyLoading_DeleteKeepsIndex() {
+        Path dbPathForTest = foosDirectory.resolve("testLazyLoading_DeleteKeepsIndex");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.write(new Foo(0, 1, "a"));
+        db.write(new Foo(0, 2, "b"));
+        db.stop();
+
+        var lazyDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        lazyDb.useLazyLoading();
+        lazyDb.delete(new Foo(2, 2, "b"));
+        assertEquals(lazyDb.write(new Foo(0, 3, "c")).getIndex(), 3L);
+        lazyDb.stop();
+    }
+
+    /**
+     * With string interning, equal values in different items are the same string
+     */
+    @Test
+    public void testStringInterning() {
+        Path dbPathForTest = foosDirectory.resolve("testStringInterning");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.write(new Foo(0, 1, "active"));
+        db.write(new Foo(0, 2, "active"));
+        db.write(new Foo(0, 3, "a".repeat(100)));
+        db.write(new Foo(0, 4, "a".repeat(100)));
+        db.stop();
+
+        var plainDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        List<Foo> plain = plainDb.scanFrom(0, 4);
+        assertFalse(plain.get(0).getB() == plain.get(1).getB());
+
+        var internedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        internedDb.useStringInterning();
+        List<Foo> interned = internedDb.scanFrom(0, 4);
+        assertTrue(interned.get(0).getB() == interned.get(1).getB());
+        // long values are not shared
+        assertFalse(interned.get(2).getB() == interned.get(3).getB());
+        assertEquals(interned, plain);
+
+        // the same goes for items deserialized lazily
+        var lazyInternedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        lazyInternedDb.useLazyLoading();
+        lazyInternedDb.useStringInterning();
+        Foo first = lazyInternedDb.scanFrom(0, 1).getFirst();
+        Foo second = lazyInternedDb.scanFrom(1, 1).getFirst();
+        assertTrue(first.getB() == second.getB());
+    }
+
+    @Test
+    public void testGetStats() {
+        Path dbPathForTest = foosDirectory.resolve("testGetStats");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        for (int i = 1; i <= 20; i++) {
+            db.write(new Foo(0, i, "abc" + (i % 4)));
+        }
+        db.stop();
+
+        // loading the data consolidates the append log from before
+        var db2 = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db2.registerIndex("b", Foo::getB);
+        db2.registerFullTextIndex("words", Foo::getB);
+        db2.delete(db2.getIndexedData("b", "abc1").iterator().next());
+        db2.write(new Foo(0, 21, "abc5"));
+
+        DbStats stats = db2.getStats();
+        assertEquals(stats.recordCount(), 20L);
+        assertEquals(stats.indexCardinalities(), Map.of("b", 5));
+        assertEquals(stats.fullTextIndexWordCounts(), Map.of("words", 5));
+        assertEquals(stats.pendingAppendCount(), 2);
+        assertTrue(stats.pendingAppendBytes() > 0);
+        assertEquals(stats.appendLogBacklog(), 0);
+        assertEquals(stats.consolidatedFileCount(), 1);
+        assertEquals(stats.consolidationCount(), 1L);
+        assertTrue(stats.consolidationBytesRewritten() > 0);
+        assertEquals(stats.writeCount(), 1L);
+        assertEquals(stats.deleteCount(), 1L);
+        assertTrue(stats.writeLatencyP50Micros() > 0);
+        assertTrue(stats.writeLatencyP50Micros() <= stats.writeLatencyP99Micros());
+        assertTrue(stats.writeLatencyP99Micros() <= stats.writeLatencyP999Micros());
+        db2.stop();
+    }
+
+    /**
+     * Bulk import writes consolidated files directly, and the data
+     * is there, with indexes, both right away and after a restart.
+     */
+    @Test
+    public void testBulkImport() throws IOException {
+        var properties = new Properties();
+        properties.setProperty("MAX_DATABASE_CONSOLIDATED_FILE_LINES", "5");
+        var customContext = TestFramework.buildTestingContext("testBulkImport", properties);
+        Path dbPathForTest = foosDirectory.resolve("testBulkImport");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+
+        // changes still sitting in the append log must not be applied on top of the import
+        var db = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+        db.registerIndex("b", Foo::getB);
+        Foo toDelete = db.write(new Foo(0, 1, "to be deleted"));
+        db.delete(toDelete);
+
+        // out of order, with a duplicate, and some needing an index
+        var items = new ArrayList<Foo>();
+        for (int i = 12; i >= 2; i--) {
+            items.add(new Foo(i, i, "abc" + i));
+        }
+        items.add(new Foo(7, 700, "replaced"));
+        items.add(new Foo(0, 13, "new1"));
+        items.add(new Foo(0, 14, "new2"));
+        db.bulkImport(items.stream());
+
+        assertEquals(db.values().size(), 13);
+        assertEquals(db.findExactlyOne("b", "replaced"), new Foo(7, 700, "replaced"));
+        assertEquals(db.findExactlyOne("b", "new2").getIndex(), 14L);
+        assertEquals(db.write(new Foo(0, 15, "after")).getIndex(), 15L);
+        assertEquals(db.getStats().consolidatedFileCount(), 3);
+        // a refused import doesn't give the caller's items an index
+        var refused = new Foo(0, 1, "a");
+        var ex = assertThrows(DbException.class, () -> db.bulkImport(Stream.of(refused)));
+        assertEquals(ex.getMessage(), "Bulk import is only allowed into an empty database");
+        assertEquals(refused.getIndex(), 0L);
+        db.stop();
+
+        var restarted = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+        restarted.registerIndex("b", Foo::getB);
+        assertEquals(restarted.values().size(), 14);
+        assertTrue(restarted.findExactlyOne("b", "to be deleted") == null);
+        assertEquals(restarted.findExactlyOne("b", "abc2"), new Foo(2, 2, "abc2"));
+        restarted.stop();
+
+        // the consolidated files can themselves be imported into another database
+        Path copyPath = foosDirectory.resolve("testBulkImport_copy");
+        fileUtils.deleteDirectoryRecursivelyIfExists(copyPath);
+        Path importFile = foosDirectory.resolve("testBulkImport_file");
+        try (var files = Files.list(dbPathForTest.resolve("consolidated_data"))) {
+            List<String> lines = new ArrayList<>();
+            for (Path file : files.toList()) lines.addAll(Files.readAllLines(file));
+            Files.write(importFile, lines);
+        }
+        var copy = new DbEngine2<>(copyPath, customContext, INSTANCE);
+        copy.bulkImport(importFile);
+        assertEquals(copy.values().stream().sorted().toList(), restarted.values().stream().sorted().toList());
+        copy.stop();
+        shutdownTestingContext(customContext);
+    }
+
+    @Test
+    public void testBulkImport_NegativeCases() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("testBulkImport_NegativeCases");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+
+        var ex = assertThrows(DbException.class, () -> db.bulkImport(Stream.of(new Foo(-1, 1, "a"))));
+        assertEquals(ex.getMessage(), "Negative indexes are disallowed");
+
+        Path importFile = foosDirectory.resolve("testBulkImport_NegativeCases_file");
+        Files.write(importFile, List.of("1|1|a", "abc|1|b"));
+        var ex2 = assertThrows(DbException.class, () -> db.bulkImport(importFile));
+        assertEquals(ex2.getMessage(), "Failed to parse index from line in file. File: %s line: abc|1|b".formatted(importFile));
+
+        Files.write(importFile, List.of("1|1|a", "2|notanumber|b"));
+        var ex3 = assertThrows(DbException.class, () -> db.bulkImport(importFile));
+        assertEquals(ex3.getMessage(), "Failed to deserialize 2|notanumber|b");
+
+        Files.write(importFile, List.of("1|1|a", "3|2|b"));
+        db.bulkImport(importFile);
+        assertEquals(db.values().size(), 2);
+
+        assertThrows(DbException.class, () -> db.bulkImport(foosDirectory.resolve("does_not_exist")));
+        db.stop();
+    }
+
+    /**
+     * Compares calling write() for each item with a bulk import
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void testBulkImport_Performance() {
+        int itemCount = 1_000_000;
+        Path writePath = foosDirectory.resolve("testBulkImport_Performance_write");
+        Path importPath = foosDirectory.resolve("testBulkImport_Performance_import");
+        fileUtils.deleteDirectoryRecursivelyIfExists(writePath);
+        fileUtils.deleteDirectoryRecursivelyIfExists(importPath);
+
+        var writeDb = new DbEngine2<>(writePath, context, INSTANCE);
+        StopwatchUtils writeStopwatch = new StopwatchUtils().startTimer();
+        range(0, itemCount).forEach(i -> writeDb.write(new Foo(0, i, "abc" + i)));
+        writeDb.stop();
+        System.out.println("write() for each item took millis: " + writeStopwatch.stopTimer());
+
+        var importDb = new DbEngine2<>(importPath, context, INSTANCE);
+        StopwatchUtils importStopwatch = new StopwatchUtils().startTimer();
+        importDb.bulkImport(range(0, itemCount).mapToObj(i -> new Foo(0, i, "abc" + i)));
+        importDb.stop();
+        System.out.println("bulk import took millis: " + importStopwatch.stopTimer());
+    }
+
+    @Test
+    public void testUniqueIndex() {
+        Path dbPathForTest = foosDirectory.resolve("testUniqueIndex");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerUniqueIndex("b", Foo::getB);
+        Foo alice = db.write(new Foo(0, 1, "alice"));
+        Foo bob = db.write(new Foo(0, 2, "bob"));
+        db.write(new Foo(0, 3, null));
+        db.write(new Foo(0, 4, null));
+
+        assertTrue(db.findUnique("b", "alice") == alice);
+        assertTrue(db.findUnique("b", "carol") == null);
+        assertTrue(db.findUnique("b", null) == null);
+        assertEquals(db.findExactlyOne("b", "bob"), bob);
+        assertEquals(db.findExactlyOne("b", "carol", () -> alice), alice);
+        assertEquals(List.copyOf(db.getIndexedData("b", "bob")), List.of(bob));
+        assertTrue(db.getIndexedData("b", "carol").isEmpty());
+
+        // a duplicate key is rejected, and nothing is written
+        var ex = assertThrows(DbException.class, () -> db.write(new Foo(0, 5, "alice")));
+        assertEquals(ex.getMessage(), "Unique index \"b\" already has an item with key alice. Existing item's index: 1");
+        var ex2 = assertThrows(DbException.class, () -> db.write(new Foo(bob.getIndex(), 2, "alice")));
+        assertEquals(ex2.getMessage(), "Unique index \"b\" already has an item with key alice. Existing item's index: 1");
+        assertEquals(db.values().size(), 4);
+        assertEquals(db.findUnique("b", "bob"), bob);
+
+        // updating an item may keep its key, or change it
+        db.write(new Foo(alice.getIndex(), 10, "alice"));
+        assertEquals(db.findUnique("b", "alice").getA(), 10);
+        db.write(new Foo(alice.getIndex(), 10, "alicia"));
+        assertTrue(db.findUnique("b", "alice") == null);
+        assertEquals(db.findUnique("b", "alicia").getIndex(), alice.getIndex());
+        db.write(new Foo(0, 6, "alice"));
+        db.delete(bob);
+        assertTrue(db.findUnique("b", "bob") == null);
+        assertEquals(db.getStats().indexCardinalities(), Map.of("b", 2));
+        db.stop();
+
+        // the index is rebuilt on load
+        var db2 = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db2.registerUniqueIndex("b", Foo::getB);
+        assertEquals(db2.findUnique("b", "alice").getA(), 6);
+        assertThrows(DbException.class, () -> db2.registerUniqueIndex("c", Foo::getB));
+        var ex3 = assertThrows(DbException.class, () -> db2.findUnique("c", "alice"));
+        assertEquals(ex3.getMessage(), "There is no unique index registered on the database Db<Foo> with a name of \"c\"");
+        db2.stop();
+
+        // data on disk with duplicate keys cannot be loaded with a unique index
+        var db3 = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db3.registerUniqueIndex("a", x -> String.valueOf(x.getA() > 0));
+        assertThrows(DbException.class, db3::loadData);
+    }
+
+    @Test
+    public void testUniqueIndex_Registration() {
+        var db = new DbEngine2<>(foosDirectory.resolve("testUniqueIndex_Registration"), context, INSTANCE);
+        db.registerIndex("a", x -> String.valueOf(x.getA()));
+        db.registerFullTextIndex("words", Foo::getB);
+        var ex = assertThrows(DbException.class, () -> db.registerUniqueIndex("a", Foo::getB));
+        assertEquals(ex.getMessage(), "It is forbidden to register the same index more than once.  Duplicate index: \"a\"");
+        assertThrows(DbException.class, () -> db.registerUniqueIndex("words", Foo::getB));
+        db.registerUniqueIndex("b", Foo::getB);
+        assertThrows(DbException.class, () -> db.registerUniqueIndex("b", Foo::getB));
+        assertThrows(DbException.class, () -> db.registerIndex("b", Foo::getB));
+        assertThrows(DbException.class, () -> db.registerFullTextIndex("b", Foo::getB));
+        var ex2 = assertThrows(DbException.class, () -> db.registerUniqueIndex("c", null));
+        assertEquals(ex2.getMessage(), "When registering a unique index, the key-obtaining function must not be null");
+        var ex3 = assertThrows(DbException.class, () -> db.registerUniqueIndex(" ", Foo::getB));
+        assertEquals(ex3.getMessage(), "When registering a unique index, value must be a non-empty string");
+
+        var lazyDb = new DbEngine2<>(foosDirectory.resolve("testUniqueIndex_Registration"), context, INSTANCE);
+        lazyDb.useLazyLoading();
+        assertThrows(DbException.class, () -> lazyDb.registerUniqueIndex("b", Foo::getB));
+
+        fileUtils.deleteDirectoryRecursivelyIfExists(foosDirectory.resolve("testUniqueIndex_Registration_import"));
+        var uniqueDb = new DbEngine2<>(foosDirectory.resolve("testUniqueIndex_Registration_import"), context, INSTANCE);
+        uniqueDb.registerUniqueIndex("b", Foo::getB);
+        var ex5 = assertThrows(DbException.class, () -> uniqueDb.bulkImport(Stream.of(new Foo(0, 1, "a"), new Foo(0, 2, "a"))));
+        assertEquals(ex5.getMessage(), "Unique index \"b\" would have more than one item with key a");
+        assertTrue(uniqueDb.values().isEmpty());
+    }
+
+    /**
+     * Compares the heap used per key, and the time to look up an item, between
+     * a registered index and a unique index.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void testUniqueIndex_Performance() {
+        int itemCount = 500_000;
+        for (boolean useUniqueIndex : List.of(false, true)) {
+            Path dbPathForTest = foosDirectory.resolve("testUniqueIndex_Performance");
+            fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+            var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+            long before = usedHeap();
+            if (useUniqueIndex) {
+                db.registerUniqueIndex("b", Foo::getB);
+            } else {
+                db.registerIndex("b", Foo::getB);
+            }
+            db.bulkImport(range(0, itemCount).mapToObj(i -> new Foo(0, i, "key" + i)));
+            long after = usedHeap();
+
+            StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+            for (int i = 0; i < 5_000_000; i++) {
+                assertTrue(db.findExactlyOne("b", "key" + (i % itemCount)) != null);
+            }
+            System.out.printf("%s: %d bytes per item (including the item itself), 5 million lookups took %d millis%n",
+                    useUniqueIndex ? "unique index" : "registered index", (after - before) / itemCount, stopwatchUtils.stopTimer());
+            db.stop();
+        }
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        var histogram = new LatencyHistogram();
+        assertEquals(histogram.percentileMicros(50), 0.0);
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1_500);
+        }
+        histogram.record(0);
+        histogram.record(1_000_000);
+        assertEquals(histogram.count(), 100L);
+        // 1,500 nanoseconds falls in the bucket up to 2,048
+        assertEquals(histogram.percentileMicros(1), 0.0);
+        assertEquals(histogram.percentileMicros(50), 2.048);
+        assertEquals(histogram.percentileMicros(99), 2.048);
+        assertEquals(histogram.percentileMicros(100), 1048.576);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        assertEquals(histogram.count(), 102L);
+    }
+
+    /**
+     * Compares the heap used per item when loading eagerly, lazily, and with
+     * string interning.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void testLazyLoading_HeapPerItem() {
+        Path dbPathForTest = foosDirectory.resolve("testLazyLoading_HeapPerItem");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        int itemCount = 200_000;
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        String[] statuses = {"active", "suspended", "pending review", "closed"};
+        for (int i = 0; i < itemCount; i++) {
+            db.write(new Foo(0, i, statuses[i % statuses.length]));
+        }
+        db.stop();
+
+        for (String mode : List.of("eager", "lazy", "interned")) {
+            var loadedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+            if (mode.equals("lazy")) loadedDb.useLazyLoading();
+            if (mode.equals("interned")) loadedDb.useStringInterning();
+            long before = usedHeap();
+            StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+            loadedDb.loadData();
+            long loadMillis = stopwatchUtils.stopTimer();
+            long after = usedHeap();
+            System.out.printf("%s: %d bytes per item, loaded in %d millis%n", mode, (after - before) / itemCount, loadMillis);
+            // keep the database reachable until measured
+            assertTrue(loadedDb.hasLoadedData);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            MyThread.sleep(50);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
     /**
      * When the partitioning algorithm is applied, if an error occurs, make
      * clear to the user.
@@ -1365,6 +1953,161 @@ public class DbEngine2Tests {
 //        assertEquals(ex.getMessage(), "java.nio.file.AccessDeniedException: out\\simple_db_for_engine2_tests\\engine2\\foos\\test_WalkAndLoad_NegativeCase\\consolidated_data\\1_to_100");
     }
 
+    /**
+     * A backup taken while the database is running should contain
+     * everything written before the backup, and nothing written after.
+     * It should be possible to start a new database from the backup.
+     */
+    @Test
+    public void test_Backup() {
+        var properties = new Properties();
+        properties.setProperty("MAX_DATABASE_APPEND_COUNT", "7");
+        properties.setProperty("MAX_DATABASE_CONSOLIDATED_FILE_LINES", "5");
+        var customContext = TestFramework.buildTestingContext("test_Backup", properties);
+        Path dbPathForTest = foosDirectory.resolve("test_Backup");
+        Path backupPath = foosDirectory.resolve("test_Backup_backup");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        fileUtils.deleteDirectoryRecursivelyIfExists(backupPath);
+
+        var db = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+        for (int i = 1; i <= 40; i++) {
+            db.write(new Foo(0, i, "before backup " + i));
+        }
+        // some updates and deletes, so there is more than plain adding to replay
+        db.write(new Foo(3, 3, "updated before backup"));
+        db.delete(db.values().stream().filter(x -> x.getIndex() == 4).findFirst().orElseThrow());
+        List<String> expected = db.values().stream().map(Foo::toString).toList();
+
+        db.backup(backupPath);
+
+        // writes continue on the original database after the backup
+        for (int i = 41; i <= 50; i++) {
+            db.write(new Foo(0, i, "after backup " + i));
+        }
+        db.stop();
+
+        var restoredDb = new DbEngine2<>(backupPath, customContext, INSTANCE);
+        assertEqualsDisregardOrder(restoredDb.values().stream().map(Foo::toString).toList(), expected);
+        restoredDb.stop();
+
+        // the original is unaffected by having been backed up
+        var reloadedDb = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+        assertEquals(reloadedDb.values().size(), 49);
+        reloadedDb.stop();
+        MyThread.sleep(FINISH_TIME);
+        TestFramework.shutdownTestingContext(customContext);
+    }
+
+    /**
+     * If there is already a database in the backup directory,
+     * we won't mix another into it.
+     */
+    @Test
+    public void test_Backup_NegativeCase_ExistingData() {
+        Path dbPathForTest = foosDirectory.resolve("test_Backup_NegativeCase_ExistingData");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.write(new Foo(0, 1, "a"));
+
+        var ex = assertThrows(DbException.class, () -> db.backup(dbPathForTest));
+        assertEquals(ex.getMessage(), "There is already database data at the backup directory " + dbPathForTest);
+        db.stop();
+    }
+
+    /**
+     * When a hard link can't be made, the file is copied instead.
+     */
+    @Test
+    public void test_Backup_LinkOrCopy() throws IOException {
+        Path dir = foosDirectory.resolve("test_Backup_LinkOrCopy");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dir);
+        fileUtils.makeDirectory(dir);
+        Path source = dir.resolve("source");
+        Files.writeString(source, "hello");
+
+        assertTrue(DbEngine2.linkOrCopy(source, dir.resolve("linked")));
+        assertEquals(Files.readString(dir.resolve("linked")), "hello");
+
+        // linking to a directory which does not exist fails, and so does the copy
+        assertThrows(NoSuchFileException.class, () -> DbEngine2.linkOrCopy(source, dir.resolve("nope/target")));
+    }
+
+
+    /**
+     * The futures returned by writeAsync and deleteAsync complete once the
+     * change has reached the configured durability point.  By then, the
+     * data must be readable in the append log on disk.
+     */
+    @Test
+    public void test_WriteAsync() throws Exception {
+        for (String durability : List.of("BUFFERED", "FLUSHED", "FSYNCED")) {
+            var properties = new Properties();
+            properties.setProperty("DATABASE_DURABILITY", durability);
+            var customContext = TestFramework.buildTestingContext("test_WriteAsync", properties);
+            Path dbPathForTest = foosDirectory.resolve("test_WriteAsync_" + durability);
+            fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+            var db = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+            db.registerIndex("b", x -> {
+                if (x.getB().equals("cannot be indexed")) throw new IllegalStateException("the index function failed");
+                return x.getB();
+            });
+
+            // send many writes, then wait once
+            List<CompletableFuture<Foo>> futures = range(1, 101).mapToObj(x -> db.writeAsync(new Foo(0, x, "abc" + x))).toList();
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            assertEquals(futures.get(99).get().getIndex(), 100L);
+            Foo deleted = db.deleteAsync(futures.get(0).get()).get(5, TimeUnit.SECONDS);
+            assertEquals(deleted.getIndex(), 1L);
+
+            if (!durability.equals("BUFFERED")) {
+                List<String> lines = Files.readAllLines(dbPathForTest.resolve("currentAppendLog"));
+                assertEquals(lines.size(), 101);
+                assertEquals(lines.get(100), "DELETE 1|1|abc1");
+            }
+
+            // failures are reported through the future
+            var failedFuture = db.writeAsync(new Foo(-1, 1, "a"));
+            var ex = assertThrows(ExecutionException.class, failedFuture::get);
+            assertEquals(ex.getCause().getMessage(), "Negative indexes are disallowed");
+            var failedDelete = db.deleteAsync(new Foo(1234, 1, "a"));
+            var ex2 = assertThrows(ExecutionException.class, failedDelete::get);
+            assertEquals(ex2.getCause().getMessage(), "no data was found with index of 1234");
+            // not only database exceptions
+            var failedIndexing = db.writeAsync(new Foo(0, 1, "cannot be indexed"));
+            var ex3 = assertThrows(ExecutionException.class, failedIndexing::get);
+            assertTrue(ex3.getCause() instanceof IllegalStateException);
+            assertEquals(ex3.getCause().getMessage(), "the index function failed");
+
+            db.stop();
+            TestFramework.shutdownTestingContext(customContext);
+        }
+    }
+
+    /**
+     * When the append log is moved aside for consolidation, those
+     * waiting on its data must still have their futures completed.
+     */
+    @Test
+    public void test_WriteAsync_AcrossAppendLogs() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("DATABASE_DURABILITY", "FSYNCED");
+        properties.setProperty("MAX_DATABASE_APPEND_COUNT", "7");
+        var customContext = TestFramework.buildTestingContext("test_WriteAsync_AcrossAppendLogs", properties);
+        Path dbPathForTest = foosDirectory.resolve("test_WriteAsync_AcrossAppendLogs");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+
+        List<CompletableFuture<Foo>> futures = range(1, 51).mapToObj(x -> db.writeAsync(new Foo(0, x, "abc" + x))).toList();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        db.stop();
+        MyThread.sleep(FINISH_TIME);
+
+        var db2 = new DbEngine2<>(dbPathForTest, customContext, INSTANCE);
+        assertEquals(db2.values().size(), 50);
+        db2.stop();
+        TestFramework.shutdownTestingContext(customContext);
+    }
+
 
     private static class BrokenBufferedWriter extends BufferedWriter {
 
@@ -22,10 +22,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
 import static com.renomad.minum.database.DbTests.Foo.INSTANCE;
@@ -93,6 +95,137 @@ public class DbTests {
     /**
      * Wide-ranging capabilities of the database
      */
+    /**
+     * The classic database can be read in ordered pages too
+     */
+    @Test
+    public void test_ScanFrom() {
+        Path dbPathForTest = foosDirectory.resolve("test_ScanFrom");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        final var db = new Db<>(dbPathForTest, context, INSTANCE);
+        for (int i = 1; i <= 30; i++) {
+            db.write(new Foo(0, i, "abc" + i));
+        }
+        assertEquals(db.scanFrom(5, 3).stream().map(x -> x.getIndex()).toList(), List.of(6L, 7L, 8L));
+        assertEquals(db.scanFromDescending(5, 10).stream().map(x -> x.getIndex()).toList(), List.of(4L, 3L, 2L, 1L));
+        db.stop();
+    }
+
+    /**
+     * The classic database supports full-text indexes too, rebuilt from
+     * its files on load.
+     */
+    @Test
+    public void test_UniqueIndex() {
+        Path dbPathForTest = foosDirectory.resolve("test_UniqueIndex");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        final var db = new Db<>(dbPathForTest, context, INSTANCE);
+        db.registerUniqueIndex("b", x -> x.b);
+        Foo alice = db.write(new Foo(0, 1, "alice"));
+        assertTrue(db.findUnique("b", "alice") == alice);
+        assertEquals(db.findExactlyOne("b", "alice"), alice);
+        var ex = assertThrows(DbException.class, () -> db.write(new Foo(0, 2, "alice")));
+        assertEquals(ex.getMessage(), "Unique index \"b\" already has an item with key alice. Existing item's index: 1");
+        db.delete(alice);
+        assertTrue(db.findUnique("b", "alice") == null);
+        assertThrows(DbException.class, () -> db.registerUniqueIndex("c", x -> x.b));
+        db.stop(10, 20);
+    }
+
+    /**
+     * Writes racing with the same unique key: exactly one wins, and the
+     * losers leave nothing behind - no extra data, no stray index entries.
+     */
+    @Test
+    public void test_UniqueIndex_ConcurrentDuplicates() throws Exception {
+        Path dbPathForTest = foosDirectory.resolve("test_UniqueIndex_ConcurrentDuplicates");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        final var db = new Db<>(dbPathForTest, context, INSTANCE);
+        db.registerUniqueIndex("b", x -> x.b);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 100; round++) {
+                String key = "key" + round;
+                var barrier = new CyclicBarrier(8);
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    int a = i;
+                    results.add(executor.submit(() -> {
+                        barrier.await();
+                        try {
+                            db.write(new Foo(0, a, key));
+                            return true;
+                        } catch (DbException ex) {
+                            return false;
+                        }
+                    }));
+                }
+                int successes = 0;
+                for (Future<Boolean> result : results) {
+                    if (result.get()) successes++;
+                }
+                assertEquals(successes, 1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(db.values().size(), 100);
+        for (Foo foo : db.values()) {
+            assertTrue(db.findUnique("b", foo.b) == foo);
+        }
+        db.stop(10, 20);
+    }
+
+    @Test
+    public void test_FullTextIndex() {
+        Path dbPathForTest = foosDirectory.resolve("test_FullTextIndex");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        final var db = new Db<>(dbPathForTest, context, INSTANCE);
+        db.registerFullTextIndex("b", x -> x.b);
+        Foo foo1 = db.write(new Foo(0, 1, "the quick brown fox"));
+        db.write(new Foo(0, 2, "the lazy dog"));
+        assertEquals(db.searchAllWords("b", "QUICK fox").stream().toList(), List.of(foo1));
+        assertEquals(db.searchAnyWords("b", "fox dog").size(), 2);
+        db.stop();
+        MyThread.sleep(FINISH_TIME);
+
+        final var db2 = new Db<>(dbPathForTest, context, INSTANCE);
+        db2.registerFullTextIndex("b", x -> x.b);
+        assertEquals(db2.searchAllWords("b", "qui* the").stream().toList(), List.of(foo1));
+        db2.stop();
+    }
+
+    /**
+     * With the classic database, the future from writeAsync completes
+     * once the data's file has been written by the action queue.
+     */
+    @Test
+    public void test_WriteAsync() throws Exception {
+        Path dbPathForTest = foosDirectory.resolve("test_WriteAsync");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        final var db = new Db<>(dbPathForTest, context, INSTANCE);
+
+        Foo foo = db.writeAsync(new Foo(0, 1, "a")).get(5, TimeUnit.SECONDS);
+        Path fooFile = dbPathForTest.resolve(foo.getIndex() + Db.DATABASE_FILE_SUFFIX);
+        assertEquals(Files.readString(fooFile), foo.serialize());
+
+        db.deleteAsync(foo).get(5, TimeUnit.SECONDS);
+        assertFalse(Files.exists(fooFile));
+
+        var ex = assertThrows(ExecutionException.class, () -> db.writeAsync(new Foo(-1, 1, "a")).get());
+        assertEquals(ex.getCause().getMessage(), "Negative indexes are disallowed");
+        var ex2 = assertThrows(ExecutionException.class, () -> db.deleteAsync(new Foo(1234, 1, "a")).get());
+        assertEquals(ex2.getCause().getMessage(), "no data was found with index of 1234");
+
+        // if the file cannot be deleted, the future says so
+        Foo foo2 = db.writeAsync(new Foo(0, 2, "b")).get(5, TimeUnit.SECONDS);
+        Path foo2File = dbPathForTest.resolve(foo2.getIndex() + Db.DATABASE_FILE_SUFFIX);
+        Files.delete(foo2File);
+        var ex3 = assertThrows(ExecutionException.class, () -> db.deleteAsync(foo2).get(5, TimeUnit.SECONDS));
+        assertEquals(ex3.getCause().getMessage(), foo2File + " must already exist before deletion");
+        db.stop();
+    }
+
     @Test
     public void test_GeneralCapability() {
         Path dbPathForTest = foosDirectory.resolve("test_GeneralCapability");
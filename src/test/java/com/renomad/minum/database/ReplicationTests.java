@@ -0,0 +1,274 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.FileUtils;
+import com.renomad.minum.utils.MyThread;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static com.renomad.minum.database.DbEngine2Tests.Foo;
+import static com.renomad.minum.database.DbEngine2Tests.Foo.INSTANCE;
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class ReplicationTests {
+
+    private Context context;
+    private FileUtils fileUtils;
+    static Path replicationDirectory = Path.of("out/simple_db_for_replication_tests");
+
+    @Before
+    public void init() {
+        context = buildTestingContext("unit_tests");
+        fileUtils = new FileUtils(context.getLogger(), context.getConstants());
+    }
+
+    @After
+    public void cleanup() {
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * A follower connecting to a primary that already has data should
+     * receive a snapshot, and then each change afterwards, in order, with
+     * its indexes kept up to date.
+     */
+    @Test
+    public void test_Replication_HappyPath() {
+        Path primaryPath = replicationDirectory.resolve("test_Replication_HappyPath_primary");
+        Path followerPath = replicationDirectory.resolve("test_Replication_HappyPath_follower");
+        fileUtils.deleteDirectoryRecursivelyIfExists(primaryPath);
+        fileUtils.deleteDirectoryRecursivelyIfExists(followerPath);
+
+        var primaryDb = new DbEngine2<>(primaryPath, context, INSTANCE);
+        primaryDb.registerIndex("b", Foo::getB);
+        for (int i = 0; i < 10; i++) {
+            primaryDb.write(new Foo(0, i, "abc" + i));
+        }
+        var followerDb = new DbEngine2<>(followerPath, context, INSTANCE);
+        followerDb.registerIndex("b", Foo::getB);
+
+        try (var primary = new ReplicationPrimary<>(primaryDb, 0, context);
+             var follower = new ReplicationFollower<>(followerDb, "localhost", primary.getPort(), context)) {
+            primary.start();
+            follower.start();
+
+            // changes after the follower has connected
+            for (int i = 10; i < 15; i++) {
+                primaryDb.write(new Foo(0, i, "abc" + i));
+            }
+            primaryDb.write(new Foo(3, 300, "updated"));
+            primaryDb.delete(primaryDb.findExactlyOne("b", "abc5"));
+
+            waitUntil(() -> follower.getLastAppliedSequence() == primary.getSequence() && primary.getLag() == 0);
+
+            assertEquals(primary.getSequence(), 7L);
+            assertEquals(primary.getFollowerCount(), 1);
+            assertTrue(follower.isConnected());
+            assertEquals(followerDb.values().stream().sorted().toList(), primaryDb.values().stream().sorted().toList());
+            assertEquals(followerDb.findExactlyOne("b", "updated"), new Foo(3, 300, "updated"));
+            assertTrue(followerDb.findExactlyOne("b", "abc5") == null);
+            assertTrue(followerDb.findExactlyOne("b", "abc4") != null);
+
+            // the follower is a read replica
+            var ex = assertThrows(DbException.class, () -> followerDb.write(new Foo(0, 1, "a")));
+            assertEquals(ex.getMessage(), "This database is a read replica. Writes must go to the primary");
+            var ex2 = assertThrows(DbException.class, () -> followerDb.delete(followerDb.findExactlyOne("b", "abc4")));
+            assertEquals(ex2.getMessage(), "This database is a read replica. Deletes must go to the primary");
+
+            // once disconnected, it stays a read replica, and its lag keeps growing
+            follower.close();
+            assertFalse(follower.isConnected());
+            long lagAtClose = follower.getLagMillis();
+            MyThread.sleep(20);
+            assertTrue(follower.getLagMillis() >= lagAtClose + 20);
+            assertThrows(DbException.class, () -> followerDb.write(new Foo(0, 1, "a")));
+        }
+
+        // reloaded from its own disk, the follower's database is an ordinary one again
+        followerDb.stop();
+        var reloadedFollowerDb = new DbEngine2<>(followerPath, context, INSTANCE);
+        assertEquals(reloadedFollowerDb.values().size(), 0);
+        assertEquals(reloadedFollowerDb.write(new Foo(0, 1, "a")).getIndex(), 1L);
+        reloadedFollowerDb.stop();
+
+        // after closing, the primary is an ordinary database again
+        assertTrue(primaryDb.replicationPrimary == null);
+        primaryDb.write(new Foo(0, 1, "a"));
+        primaryDb.stop();
+    }
+
+    /**
+     * If a follower connects while a primary is busy with writes, it
+     * must end up with exactly the same data - nothing missed or repeated.
+     */
+    @Test
+    public void test_Replication_ConnectDuringWrites() throws Exception {
+        Path primaryPath = replicationDirectory.resolve("test_Replication_ConnectDuringWrites_primary");
+        Path followerPath = replicationDirectory.resolve("test_Replication_ConnectDuringWrites_follower");
+        fileUtils.deleteDirectoryRecursivelyIfExists(primaryPath);
+        fileUtils.deleteDirectoryRecursivelyIfExists(followerPath);
+
+        var primaryDb = new DbEngine2<>(primaryPath, context, INSTANCE);
+        var followerDb = new DbEngine2<>(followerPath, context, INSTANCE);
+
+        try (var primary = new ReplicationPrimary<>(primaryDb, 0, context);
+             var follower = new ReplicationFollower<>(followerDb, "localhost", primary.getPort(), context)) {
+            primary.start();
+            var writer = context.getExecutorService().submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    primaryDb.write(new Foo(0, i, "abc"));
+                    if (i % 3 == 0) primaryDb.delete(primaryDb.values().iterator().next());
+                }
+            });
+            MyThread.sleep(5);
+            follower.start();
+            writer.get();
+
+            waitUntil(() -> follower.getLastAppliedSequence() == primary.getSequence());
+            assertEquals(followerDb.values().stream().sorted().toList(), primaryDb.values().stream().sorted().toList());
+        }
+        primaryDb.stop();
+        followerDb.stop();
+    }
+
+    /**
+     * A follower which stops reading is disconnected once it falls too far
+     * behind, rather than its queue growing without end.
+     */
+    @Test
+    public void test_Replication_SlowFollowerDisconnected() throws Exception {
+        Path primaryPath = replicationDirectory.resolve("test_Replication_SlowFollowerDisconnected_primary");
+        fileUtils.deleteDirectoryRecursivelyIfExists(primaryPath);
+        var primaryDb = new DbEngine2<>(primaryPath, context, INSTANCE);
+
+        try (var primary = new ReplicationPrimary<>(primaryDb, 0, 10, context);
+             var stalledFollower = new Socket()) {
+            primary.start();
+            stalledFollower.setReceiveBufferSize(1024);
+            stalledFollower.connect(new InetSocketAddress("localhost", primary.getPort()));
+            waitUntil(() -> primary.getFollowerCount() == 1);
+
+            // enough to fill the socket buffers, and then the queue
+            String largeValue = "a".repeat(10_000);
+            for (int i = 0; i < 5_000 && primary.getFollowerCount() > 0; i++) {
+                primaryDb.write(new Foo(0, i, largeValue));
+            }
+            assertEquals(primary.getFollowerCount(), 0);
+        }
+        primaryDb.stop();
+
+        var ex = assertThrows(DbException.class, () -> new ReplicationPrimary<>(primaryDb, 0, 0, context));
+        assertEquals(ex.getMessage(), "The maximum queued changes must be positive.  Was: 0");
+    }
+
+    /**
+     * While a new snapshot arrives, the follower keeps serving its old
+     * data, and swaps in the snapshot only once it is complete - even when
+     * a unique key has moved from one item to another.
+     */
+    @Test
+    public void test_Replication_SnapshotSwappedInWhenComplete() {
+        Path followerPath = replicationDirectory.resolve("test_Replication_SnapshotSwappedInWhenComplete_follower");
+        fileUtils.deleteDirectoryRecursivelyIfExists(followerPath);
+        var followerDb = new DbEngine2<>(followerPath, context, INSTANCE);
+        followerDb.registerUniqueIndex("b", Foo::getB);
+        var follower = new ReplicationFollower<>(followerDb, "localhost", 1, context);
+
+        follower.applyRecord(ReplicationPrimary.RESET);
+        follower.applyRecord(ReplicationPrimary.formatRecord(0, 0, DatabaseChangeAction.UPDATE, new Foo(1, 1, "first").serialize()));
+        follower.applyRecord(ReplicationPrimary.formatRecord(0, 0, DatabaseChangeAction.UPDATE, new Foo(2, 2, "second").serialize()));
+        follower.applyRecord(ReplicationPrimary.formatRecord(0, 0, DatabaseChangeAction.UPDATE, new Foo(3, 3, "third").serialize()));
+        follower.applyRecord(ReplicationPrimary.SNAPSHOT_DONE + " 5");
+        assertEquals(followerDb.values().size(), 3);
+        assertEquals(follower.getLastAppliedSequence(), 5L);
+
+        // a reconnection: until the snapshot is done, the old data is served
+        follower.applyRecord(ReplicationPrimary.RESET);
+        follower.applyRecord(ReplicationPrimary.formatRecord(9, 0, DatabaseChangeAction.UPDATE, new Foo(1, 1, "second").serialize()));
+        follower.applyRecord(ReplicationPrimary.formatRecord(9, 0, DatabaseChangeAction.UPDATE, new Foo(2, 2, "moved").serialize()));
+        follower.applyRecord(ReplicationPrimary.formatRecord(9, 0, DatabaseChangeAction.UPDATE, new Foo(4, 4, "fourth").serialize()));
+        assertEquals(followerDb.values().size(), 3);
+        assertEquals(followerDb.findExactlyOne("b", "second"), new Foo(2, 2, "second"));
+        assertEquals(follower.getLastAppliedSequence(), 5L);
+
+        follower.applyRecord(ReplicationPrimary.SNAPSHOT_DONE + " 9");
+        assertEquals(followerDb.values().stream().sorted(Comparator.comparingLong(Foo::getIndex)).toList(),
+                List.of(new Foo(1, 1, "second"), new Foo(2, 2, "moved"), new Foo(4, 4, "fourth")));
+        assertEquals(followerDb.findExactlyOne("b", "second"), new Foo(1, 1, "second"));
+        assertTrue(followerDb.findExactlyOne("b", "third") == null);
+        assertEquals(follower.getLastAppliedSequence(), 9L);
+
+        // changes after the snapshot apply as usual, and a delete of a missing item does nothing
+        follower.applyRecord(ReplicationPrimary.formatRecord(10, 0, DatabaseChangeAction.DELETE, new Foo(3, 3, "third").serialize()));
+        follower.applyRecord(ReplicationPrimary.formatRecord(11, 0, DatabaseChangeAction.UPDATE, new Foo(5, 5, "fifth").serialize()));
+        assertEquals(followerDb.values().size(), 4);
+        assertEquals(followerDb.write(new Foo(0, 6, "sixth")).getIndex(), 6L);
+        followerDb.stop();
+    }
+
+    /**
+     * If adding a follower fails - here, because the primary's data cannot
+     * be loaded - that follower is disconnected, and others may still connect.
+     */
+    @Test
+    public void test_Replication_AddFollowerFails() throws Exception {
+        Path primaryPath = replicationDirectory.resolve("test_Replication_AddFollowerFails_primary");
+        fileUtils.deleteDirectoryRecursivelyIfExists(primaryPath);
+        Files.createDirectories(primaryPath);
+        Files.writeString(primaryPath.resolve("currentAppendLog"), "this is not valid data\n");
+        var primaryDb = new DbEngine2<>(primaryPath, context, INSTANCE);
+
+        try (var primary = new ReplicationPrimary<>(primaryDb, 0, context)) {
+            primary.start();
+            for (int i = 0; i < 2; i++) {
+                try (var follower = new Socket("localhost", primary.getPort())) {
+                    follower.setSoTimeout(5000);
+                    assertEquals(follower.getInputStream().read(), -1);
+                }
+            }
+            assertEquals(primary.getFollowerCount(), 0);
+        }
+    }
+
+    @Test
+    public void test_Replication_NegativeCases() {
+        Path primaryPath = replicationDirectory.resolve("test_Replication_NegativeCases_primary");
+        fileUtils.deleteDirectoryRecursivelyIfExists(primaryPath);
+        var primaryDb = new DbEngine2<>(primaryPath, context, INSTANCE);
+
+        try (var primary = new ReplicationPrimary<>(primaryDb, 0, context);
+             var primary2 = new ReplicationPrimary<>(primaryDb, 0, context)) {
+            primary.start();
+            var ex = assertThrows(DbException.class, primary2::start);
+            assertEquals(ex.getMessage(), "This database already has a replication primary");
+            assertEquals(primary.getLag(), 0L);
+
+            var follower = new ReplicationFollower<>(primaryDb, "localhost", primary.getPort(), context);
+            var ex2 = assertThrows(DbException.class, () -> follower.applyRecord("1 2 UPDATE"));
+            assertEquals(ex2.getMessage(), "Invalid replication record: 1 2 UPDATE");
+        }
+
+        // nothing is listening on the port now
+        var follower = new ReplicationFollower<>(primaryDb, "localhost", 1, context);
+        assertThrows(DbException.class, follower::start);
+        assertFalse(primaryDb.isReplica);
+        primaryDb.stop();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) {
+        for (int i = 0; i < 500; i++) {
+            if (condition.getAsBoolean()) return;
+            MyThread.sleep(10);
+        }
+        throw new AssertionError("Condition was not met in time");
+    }
+}
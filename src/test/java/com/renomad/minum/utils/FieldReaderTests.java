@@ -0,0 +1,40 @@
+package com.renomad.minum.utils;
+
+import com.renomad.minum.security.ForbiddenUseException;
+import org.junit.Test;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class FieldReaderTests {
+
+    @Test
+    public void testFieldReader() {
+        var fields = new FieldReader(SerializationUtils.serializeHelper(123L, -45, "hello world|", null, true, "FALSE", ""));
+        assertTrue(fields.hasNext());
+        assertEquals(fields.nextLong(), 123L);
+        assertEquals(fields.nextInt(), -45);
+        assertEquals(fields.nextString(), "hello world|");
+        assertTrue(fields.nextString() == null);
+        assertTrue(fields.nextBoolean());
+        assertFalse(fields.nextBoolean());
+        assertEquals(fields.nextString(), "");
+        assertFalse(fields.hasNext());
+
+        var ex = assertThrows(UtilsException.class, fields::nextString);
+        assertEquals(ex.getMessage(), "There are no more fields to read in: 123|-45|hello+world%7C|%NULL%|true|FALSE|");
+    }
+
+    @Test
+    public void testFieldReader_NegativeCases() {
+        assertThrows(NumberFormatException.class, () -> new FieldReader("abc").nextLong());
+        assertThrows(NumberFormatException.class, () -> new FieldReader("%NULL%").nextInt());
+        assertThrows(NumberFormatException.class, () -> new FieldReader("|1").nextInt());
+
+        var fields = new FieldReader("|".repeat(FieldReader.MAXIMUM_FIELDS));
+        for (int i = 0; i < FieldReader.MAXIMUM_FIELDS; i++) {
+            assertEquals(fields.nextString(), "");
+        }
+        var ex = assertThrows(ForbiddenUseException.class, fields::nextString);
+        assertEquals(ex.getMessage(), "Asked to split content into too many partitions in the tokenizer.  Current max: 200");
+    }
+}
@@ -1,9 +1,14 @@
 package com.renomad.minum.utils;
 
 import com.renomad.minum.security.ForbiddenUseException;
+import com.renomad.minum.testing.StopwatchUtils;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.renomad.minum.testing.TestFramework.*;
 
@@ -40,4 +45,105 @@ public class SerializationUtilsTests {
         assertEquals(ex.getMessage(), "Asked to split content into too many partitions in the tokenizer.  Current max: 2" );
         assertThrows(ForbiddenUseException.class, () -> SerializationUtils.tokenizer("a|b|%NULL%|%NULL%", '|', 2));
     }
+
+    @Test
+    public void testDeserializationHelper() {
+        List<String> tokens = SerializationUtils.deserializeHelper("a|b+c|%NULL%|%7C|");
+        assertEquals(tokens.size(), 5);
+        assertEquals(tokens.get(0), "a");
+        assertEquals(tokens.get(1), "b c");
+        assertTrue(tokens.get(2) == null);
+        assertEquals(tokens.get(3), "|");
+        assertEquals(tokens.get(4), "");
+        assertEquals(SerializationUtils.deserializeHelper(""), List.of(""));
+        var ex = assertThrows(ForbiddenUseException.class, () -> SerializationUtils.deserializeHelper("|".repeat(200)));
+        assertEquals(ex.getMessage(), "Asked to split content into too many partitions in the tokenizer.  Current max: 200");
+    }
+
+    /**
+     * The serialization skips encoding for values that don't need it.  The
+     * output must be exactly what URL-encoding every value would produce, since
+     * that is what is already stored in database files.
+     */
+    @Test
+    public void testSerializationHelper_MatchesUrlEncoding() {
+        var random = new Random(42);
+        String characters = "abcXYZ019.-*_ +%|&=/\\?é😀\n\t";
+        for (int i = 0; i < 1000; i++) {
+            String value = randomString(random, characters, random.nextInt(12));
+            String serialized = SerializationUtils.serializeHelper(i, value, null);
+            assertEquals(serialized, i + "|" + StringUtils.encode(value) + "|%NULL%");
+            List<String> deserialized = SerializationUtils.deserializeHelper(serialized);
+            assertEquals(deserialized.get(1), value);
+            assertEquals(deserialized.get(1), StringUtils.decode(StringUtils.encode(value)));
+        }
+    }
+
+    /**
+     * A string pool stops growing at its maximum size, but keeps sharing
+     * the values it already has.
+     */
+    @Test
+    public void testStringPool_Bounded() {
+        Map<String, String> pool = new ConcurrentHashMap<>();
+        String firstValue = SerializationUtils.withStringPool(pool, () -> {
+            for (int i = 0; i < SerializationUtils.MAXIMUM_POOLED_STRINGS + 10; i++) {
+                SerializationUtils.deserializeHelper("1|value" + i);
+            }
+            return SerializationUtils.deserializeHelper("1|value0").get(1);
+        });
+        assertEquals(pool.size(), SerializationUtils.MAXIMUM_POOLED_STRINGS);
+        assertTrue(firstValue == pool.get("value0"));
+        assertTrue(pool.get("value" + SerializationUtils.MAXIMUM_POOLED_STRINGS) == null);
+    }
+
+    private static String randomString(Random random, String characters, int length) {
+        var codePoints = characters.codePoints().toArray();
+        var sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compares the previous approach to serialization - URL-encoding each value, and
+     * splitting into a list before decoding - to the current one.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void testSerialization_Performance() {
+        List<String> serializedItems = new java.util.ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            serializedItems.add(SerializationUtils.serializeHelper(i, 1_000_000L + i, "client_" + i, i % 2 == 0 ? "some text" : null));
+        }
+        for (int round = 0; round < 5; round++) {
+            StopwatchUtils previousStopwatch = new StopwatchUtils().startTimer();
+            long previousTotal = 0;
+            for (String item : serializedItems) {
+                List<String> tokens = SerializationUtils.tokenizer(item, '|', 200).stream().map(StringUtils::decode).toList();
+                previousTotal += Long.parseLong(tokens.get(1));
+                String reserialized = StringUtils.encode(tokens.get(0)) + "|" + StringUtils.encode(tokens.get(1)) + "|" +
+                        StringUtils.encode(tokens.get(2)) + "|" + StringUtils.encode(tokens.get(3));
+                previousTotal += reserialized.length();
+            }
+            long previousMillis = previousStopwatch.stopTimer();
+
+            StopwatchUtils currentStopwatch = new StopwatchUtils().startTimer();
+            long currentTotal = 0;
+            for (String item : serializedItems) {
+                var fields = new FieldReader(item);
+                int index = fields.nextInt();
+                long value = fields.nextLong();
+                String clientId = fields.nextString();
+                String text = fields.nextString();
+                currentTotal += value;
+                currentTotal += SerializationUtils.serializeHelper(index, value, clientId, text).length();
+            }
+            long currentMillis = currentStopwatch.stopTimer();
+
+            assertEquals(previousTotal, currentTotal);
+            System.out.printf("100,000 records, deserialize and serialize. previous: %d millis, current: %d millis%n", previousMillis, currentMillis);
+        }
+    }
 }
@@ -1,19 +1,25 @@
 package com.renomad.minum.web;
 
 import com.renomad.minum.logging.TestLogger;
+import com.renomad.minum.security.ForbiddenUseException;
 import com.renomad.minum.state.Context;
 import com.renomad.minum.testing.StopwatchUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.renomad.minum.testing.TestFramework.*;
 import static com.renomad.minum.web.StatusLine.StatusCode.CODE_200_OK;
@@ -314,18 +320,296 @@ public class BodyProcessorTests {
 
 
     /**
-     * Current design decision is to log that we
-     * don't handle this and return an empty body.
+     * Partitions larger than MULTIPART_MEMORY_THRESHOLD_BYTES are written to a
+     * temporary file, which is deleted along with the body.
      */
     @Test
-    public void test_ChunkedTransfer_NegativeCase() {
+    public void test_MultiPart_SpooledToFile() throws IOException {
+        var properties = new Properties();
+        properties.setProperty("MULTIPART_MEMORY_THRESHOLD_BYTES", "10");
+        var customContext = buildTestingContext("test_MultiPart_SpooledToFile", properties);
+        String largeValue = "abcdefghij".repeat(100);
+        String multipartBody = """
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="small"\r
+                \r
+                0123456789\r
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="large"; filename="large.txt"\r
+                \r
+                %s\r
+                --i_am_a_boundary--\r
+                """.formatted(largeValue).stripLeading();
+        var bodyProcessor = new BodyProcessor(customContext);
+
+        Body body = bodyProcessor.extractBodyFromInputStream(
+                multipartBody.length(),
+                "content-type: multipart/form-data; boundary=i_am_a_boundary",
+                new ByteArrayInputStream(multipartBody.getBytes(StandardCharsets.US_ASCII)));
+
+        Partition small = body.getPartitionByName("small").getFirst();
+        assertTrue(small.getPath() == null);
+        assertEquals(small.getContentAsString(), "0123456789");
+        assertEquals(small.getSize(), 10L);
+
+        Partition large = body.getPartitionByName("large").getFirst();
+        Path path = large.getPath();
+        assertTrue(Files.exists(path));
+        assertEquals(large.getSize(), 1000L);
+        assertEquals(large.getContentAsString(), largeValue);
+        try (InputStream inputStream = large.getInputStream()) {
+            assertEquals(new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII), largeValue);
+        }
+
+        body.deleteTemporaryFiles();
+        assertFalse(Files.exists(path));
+        shutdownTestingContext(customContext);
+    }
+
+    /**
+     * If reading a later partition fails, the partitions already spooled to
+     * temporary files are deleted rather than left behind.
+     */
+    @Test
+    public void test_MultiPart_SpooledToFile_LaterFailure() throws IOException {
+        var properties = new Properties();
+        properties.setProperty("MULTIPART_MEMORY_THRESHOLD_BYTES", "10");
+        var customContext = buildTestingContext("test_MultiPart_SpooledToFile_LaterFailure", properties);
+        String largeValue = "abcdefghij".repeat(100);
+        String multipartBody = """
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="small"\r
+                \r
+                0123456789\r
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="large"; filename="large.txt"\r
+                \r
+                %s\r
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="broken"\r
+                \r
+                """.formatted(largeValue).stripLeading();
+        // the socket fails partway through the third partition
+        InputStream failingStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        var inputStream = new SequenceInputStream(new ByteArrayInputStream(multipartBody.getBytes(StandardCharsets.US_ASCII)), failingStream);
+        var bodyProcessor = new BodyProcessor(customContext);
+        Set<Path> uploadsBefore = findUploadTempFiles();
+
+        Body body = bodyProcessor.extractBodyFromInputStream(
+                multipartBody.length() + 100,
+                "content-type: multipart/form-data; boundary=i_am_a_boundary",
+                inputStream);
+
+        assertEquals(body.getPartitionByName("small").getFirst().getContentAsString(), "0123456789");
+        assertTrue(body.getPartitionByName("large").isEmpty());
+        assertEquals(findUploadTempFiles(), uploadsBefore);
+        shutdownTestingContext(customContext);
+    }
+
+    private static Set<Path> findUploadTempFiles() throws IOException {
+        try (var files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(x -> x.getFileName().toString().startsWith("minum_upload_")).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * The boundary is searched for several bytes at a time, so this checks
+     * data which nearly matches it, and data larger than the partition's buffer,
+     * read both in bulk and a byte at a time.
+     */
+    @Test
+    public void test_MultiPart_NearlyBoundary() throws IOException {
+        String lookalikes = "\r\n--i_am_a_boundar\r\n-i_am_a_boundary\r\n--i_am_a_boundarx--\r\n";
+        String largeValue = lookalikes + "abcdefghij".repeat(2_000) + lookalikes;
+        String multipartBody = """
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="text1"\r
+                \r
+                %s\r
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="text2"\r
+                \r
+                %s\r
+                --i_am_a_boundary--\r
+                """.formatted(largeValue, lookalikes).stripLeading();
+        byte[] bytes = multipartBody.getBytes(StandardCharsets.US_ASCII);
         var bodyProcessor = new BodyProcessor(context);
-        var inputStream = new ByteArrayInputStream("2\r\nab\r\n0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+
+        var values = new ArrayList<String>();
+        boolean readByteAtATime = false;
+        for (StreamingMultipartPartition partition : bodyProcessor.getMultiPartIterable(new ByteArrayInputStream(bytes), "i_am_a_boundary", bytes.length)) {
+            if (readByteAtATime) {
+                var baos = new ByteArrayOutputStream();
+                int b;
+                while ((b = partition.read()) != -1) baos.write(b);
+                values.add(baos.toString(StandardCharsets.US_ASCII));
+            } else {
+                values.add(new String(partition.readAllBytes(), StandardCharsets.US_ASCII));
+            }
+            readByteAtATime = !readByteAtATime;
+        }
+        assertEquals(values, List.of(largeValue, lookalikes));
+    }
+
+    /**
+     * Reads a 50 megabyte upload through the multipart iterator, to measure
+     * how quickly partitions are read looking for their boundary.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void test_MultiPart_Performance() throws IOException {
+        int fileSize = 50 * 1024 * 1024;
+        byte[] fileBytes = new byte[fileSize];
+        new Random(42).nextBytes(fileBytes);
+        String boundary = "----WebKitFormBoundaryGlzbZJMmR2xSuAaT";
+        final var baos = new ByteArrayOutputStream();
+        baos.write(("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"image_uploads\"; filename=\"photo.jpg\"\r\n" +
+                "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        baos.write(fileBytes);
+        baos.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        byte[] body = baos.toByteArray();
+        var bodyProcessor = new BodyProcessor(context);
+
+        for (int i = 0; i < 5; i++) {
+            var inputStream = new HttpInputStream(new ByteArrayInputStream(body));
+            StopwatchUtils stopwatch = new StopwatchUtils().startTimer();
+            long count = 0;
+            for (StreamingMultipartPartition partition : bodyProcessor.getMultiPartIterable(inputStream, boundary, body.length)) {
+                count += partition.transferTo(OutputStream.nullOutputStream());
+            }
+            long timeTakenMillis = stopwatch.stopTimer();
+            assertEquals(count, (long) fileSize);
+            System.out.printf("read a %d byte partition in %d millis%n", count, timeTakenMillis);
+        }
+    }
+
+    /**
+     * A body sent in chunks is decoded as it is read
+     */
+    @Test
+    public void test_ChunkedTransfer_Plain() {
+        var bodyProcessor = new BodyProcessor(context);
+        var inputStream = new ByteArrayInputStream("2\r\nab\r\n3;some=extension\r\ncde\r\n0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
         Headers headers = new Headers(List.of("Transfer-Encoding: chunked"));
 
         Body body = bodyProcessor.extractData(inputStream, headers);
-        assertEquals(body.asString(), "");
-        assertTrue(logger.doesMessageExist("client sent chunked transfer-encoding.  Minum does not automatically read bodies of this type."));
+        assertEquals(body.asString(), "abcde");
+        assertEquals(body.getBodyType(), BodyType.UNRECOGNIZED);
+    }
+
+    @Test
+    public void test_ChunkedTransfer_UrlEncoded() {
+        var bodyProcessor = new BodyProcessor(context);
+        var inputStream = new ByteArrayInputStream(chunked("a=hello&b=123&c=", 3).getBytes(StandardCharsets.UTF_8));
+        Headers headers = new Headers(List.of("Transfer-Encoding: chunked", "Content-Type: application/x-www-form-urlencoded"));
+
+        Body body = bodyProcessor.extractData(inputStream, headers);
+        assertEquals(body.getKeys(), Set.of("a","b","c"));
+        assertEquals(body.asString("a"), "hello");
+        assertEquals(body.asString("b"), "123");
+        assertEquals(body.asString("c"), "");
+        assertEquals(body.getBodyType(), BodyType.FORM_URL_ENCODED);
+    }
+
+    @Test
+    public void test_ChunkedTransfer_Multipart() {
+        String multipartBody = """
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="text1"\r
+                \r
+                I am a value that is text\r
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="text2"\r
+                \r
+                and another\r
+                --i_am_a_boundary--\r
+                """.stripLeading();
+        var bodyProcessor = new BodyProcessor(context);
+        // trailing bytes show that the whole body was read, and nothing more
+        var inputStream = new ByteArrayInputStream((chunked(multipartBody, 7) + "next").getBytes(StandardCharsets.UTF_8));
+        Headers headers = new Headers(List.of("Transfer-Encoding: chunked", "Content-Type: multipart/form-data; boundary=i_am_a_boundary"));
+
+        Body body = bodyProcessor.extractData(inputStream, headers);
+        assertEquals(body.getPartitionByName("text1").getFirst().getContentAsString(), "I am a value that is text");
+        assertEquals(body.getPartitionByName("text2").getFirst().getContentAsString(), "and another");
+        assertEquals(body.getBodyType(), BodyType.MULTIPART);
+        assertEqualByteArray(inputStream.readAllBytes(), "next".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The limit on body size applies to chunked bodies as it does to
+     * those with a content-length - they are just found out as they are read.
+     */
+    @Test
+    public void test_ChunkedTransfer_TooLarge() {
+        var chunkedInputStream = new ChunkedInputStream(
+                new ByteArrayInputStream(chunked("a".repeat(20), 5).getBytes(StandardCharsets.UTF_8)),
+                new InputStreamUtils(context.getConstants().maxReadLineSizeBytes),
+                12);
+
+        var ex = assertThrows(ForbiddenUseException.class, chunkedInputStream::readAllBytes);
+        assertEquals(ex.getMessage(), "It is disallowed to process a body with a length more than 12 bytes");
+    }
+
+    /**
+     * A chunk size big enough to wrap the running total below zero must
+     * still be caught by the limit.
+     */
+    @Test
+    public void test_ChunkedTransfer_TooLarge_Wrapping() {
+        var chunkedInputStream = new ChunkedInputStream(
+                new ByteArrayInputStream("1\r\na\r\n7fffffffffffffff\r\nabc".getBytes(StandardCharsets.UTF_8)),
+                new InputStreamUtils(context.getConstants().maxReadLineSizeBytes),
+                100);
+
+        var ex = assertThrows(ForbiddenUseException.class, chunkedInputStream::readAllBytes);
+        assertEquals(ex.getMessage(), "It is disallowed to process a body with a length more than 100 bytes");
+    }
+
+    @Test
+    public void test_ChunkedTransfer_InvalidChunkSize() {
+        var chunkedInputStream = new ChunkedInputStream(
+                new ByteArrayInputStream("zz\r\nab\r\n0\r\n\r\n".getBytes(StandardCharsets.UTF_8)),
+                new InputStreamUtils(context.getConstants().maxReadLineSizeBytes),
+                100);
+
+        var ex = assertThrows(IOException.class, chunkedInputStream::readAllBytes);
+        assertEquals(ex.getMessage(), "Error: invalid chunk size: zz");
+    }
+
+    /**
+     * Trailer fields after the last chunk are read and set aside, leaving
+     * the stream at whatever follows the body.
+     */
+    @Test
+    public void test_ChunkedTransfer_Trailers() throws IOException {
+        var inputStream = new ByteArrayInputStream("3\r\nabc\r\n0\r\nExpires: never\r\n\r\nnext".getBytes(StandardCharsets.UTF_8));
+        var chunkedInputStream = new ChunkedInputStream(
+                inputStream,
+                new InputStreamUtils(context.getConstants().maxReadLineSizeBytes),
+                100);
+
+        assertEqualByteArray(chunkedInputStream.readAllBytes(), "abc".getBytes(StandardCharsets.UTF_8));
+        assertEquals(chunkedInputStream.read(), -1);
+        assertEqualByteArray(inputStream.readAllBytes(), "next".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encode text with chunked transfer-coding, in chunks of the given size
+     */
+    static String chunked(String text, int chunkSize) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i += chunkSize) {
+            String chunk = text.substring(i, Math.min(text.length(), i + chunkSize));
+            sb.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+        }
+        return sb.append("0\r\n\r\n").toString();
     }
 
     /**
@@ -2,10 +2,11 @@ package com.renomad.minum.web;
 
 public class FakeRequest implements IRequest {
     public RequestLine requestLine;
+    public Headers headers;
 
     @Override
     public Headers getHeaders() {
-        return null;
+        return headers;
     }
 
     @Override
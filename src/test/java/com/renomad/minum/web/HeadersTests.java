@@ -154,10 +154,41 @@ public class HeadersTests {
         assertFalse(headers2.hasKeepAlive(), "should not have keep-alive on");
     }
 
+    @Test
+    public void test_HasChunkedTransferEncoding() {
+        assertTrue(new Headers(List.of("transfer-encoding: chunked")).hasChunkedTransferEncoding());
+        assertTrue(new Headers(List.of("Transfer-Encoding: gzip, Chunked")).hasChunkedTransferEncoding());
+        assertTrue(new Headers(List.of("transfer-encoding: gzip", "transfer-encoding: chunked")).hasChunkedTransferEncoding());
+        assertFalse(new Headers(List.of("transfer-encoding: chunked, gzip")).hasChunkedTransferEncoding());
+        assertFalse(new Headers(List.of("content-length: 12")).hasChunkedTransferEncoding());
+    }
+
     @Test
     public void test_HasConnectionClose() {
         Headers headers = new Headers(List.of("connection: close"));
         assertTrue(headers.hasConnectionClose());
     }
 
+
+    /**
+     * Header names are lowercased, using one shared string for the common
+     * ones, and values have the whitespace around them removed.
+     */
+    @Test
+    public void test_ExtractHeadersToMap_CommonNames() {
+        var map = Headers.extractHeadersToMap(List.of(
+                "Host: example.com",
+                "ACCEPT-Encoding:gzip \t",
+                "X-Custom-Thing:   some value  ",
+                "Cookie: a=1",
+                "cookie: b=2",
+                "Empty:"));
+        String hostKey = map.keySet().stream().filter(x -> x.equals("host")).findFirst().orElseThrow();
+        assertTrue(hostKey == Headers.extractHeadersToMap(List.of("HOST: other")).keySet().iterator().next());
+        assertEquals(map.get("host"), List.of("example.com"));
+        assertEquals(map.get("accept-encoding"), List.of("gzip"));
+        assertEquals(map.get("x-custom-thing"), List.of("some value"));
+        assertEquals(map.get("cookie"), List.of("b=2", "a=1"));
+        assertEquals(map.get("empty"), List.of(""));
+    }
 }
@@ -7,12 +7,16 @@ import com.renomad.minum.utils.UtilsException;
 import nl.jqno.equalsverifier.EqualsVerifier;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
 import java.util.stream.IntStream;
 
 import static com.renomad.minum.testing.TestFramework.*;
@@ -183,4 +187,95 @@ public class InputStreamUtilsTests {
                 \r
                 """;
     }
+
+    /**
+     * Reading lines from an {@link HttpInputStream}, which scans its buffer,
+     * gives the same results as reading them a byte at a time, including
+     * for lines split across refills of its buffer.
+     */
+    @Test
+    public void testReadLine_HttpInputStream_SameAsByteAtATime() throws IOException {
+        List<String> inputs = List.of(
+                createSampleDataForPerfTest(),
+                "a\nb\r\nc",
+                "\r\n\r\n",
+                "carriage\rreturns\r\r in\r the middle\r\n",
+                "no newline at the end",
+                "\r",
+                "",
+                "unicode: \u00e9\u4e2d\r\nnext\n");
+        for (String input : inputs) {
+            for (int bufferSize : List.of(1, 3, 7, 8192)) {
+                byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+                var byteAtATime = new ByteArrayInputStream(bytes);
+                var scanning = new HttpInputStream(new ByteArrayInputStream(bytes), bufferSize);
+                while (true) {
+                    String expected = inputStreamUtils.readLine(byteAtATime);
+                    String actual = inputStreamUtils.readLine(scanning);
+                    assertTrue(Objects.equals(expected, actual), "input: %s buffer size: %d expected: %s actual: %s".formatted(input, bufferSize, expected, actual));
+                    if (expected == null) break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes after the last line read are still there, for reading the body
+     */
+    @Test
+    public void testReadLine_HttpInputStream_ThenBody() throws IOException {
+        byte[] bytes = "POST / HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello".getBytes(StandardCharsets.UTF_8);
+        var inputStream = new HttpInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(inputStreamUtils.readLine(inputStream), "POST / HTTP/1.1");
+        assertEquals(inputStreamUtils.readLine(inputStream), "Content-Length: 5");
+        assertEquals(inputStreamUtils.readLine(inputStream), "");
+        assertEquals(new String(inputStreamUtils.read(5, inputStream), StandardCharsets.UTF_8), "hello");
+        assertEquals(inputStream.read(), -1);
+    }
+
+    /**
+     * The limit on a line's length is the same as when reading a byte
+     * at a time, counting the carriage return and newline.
+     */
+    @Test
+    public void testReadLine_HttpInputStream_TooLong() throws IOException {
+        var utils = new InputStreamUtils(10);
+        // eight characters, a carriage return and a newline is just allowed
+        var allowed = new HttpInputStream(new ByteArrayInputStream("12345678\r\n".getBytes(StandardCharsets.UTF_8)), 4);
+        assertEquals(utils.readLine(allowed), "12345678");
+
+        var tooLong = new HttpInputStream(new ByteArrayInputStream("123456789\r\n".getBytes(StandardCharsets.UTF_8)), 4);
+        var ex = assertThrows(ForbiddenUseException.class, () -> utils.readLine(tooLong));
+        assertEquals(ex.getMessage(), "client sent more bytes than allowed for a single line.  max: 10");
+        var tooLongByteAtATime = new ByteArrayInputStream("123456789\r\n".getBytes(StandardCharsets.UTF_8));
+        var ex2 = assertThrows(ForbiddenUseException.class, () -> utils.readLine(tooLongByteAtATime));
+        assertEquals(ex2.getMessage(), ex.getMessage());
+    }
+
+    /**
+     * Compares reading the request line and headers of a typical browser request
+     * a byte at a time (as before) with scanning the buffer of an {@link HttpInputStream}.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void testReadLine_Performance() throws IOException {
+        byte[] request = createSampleDataForPerfTest().getBytes(StandardCharsets.UTF_8);
+        int iterationCount = 200_000;
+        for (int round = 0; round < 3; round++) {
+            for (boolean isScanning : new boolean[]{false, true}) {
+                StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+                int headerCount = 0;
+                for (int i = 0; i < iterationCount; i++) {
+                    var bytes = new ByteArrayInputStream(request);
+                    InputStream inputStream = isScanning ? new HttpInputStream(bytes) : new BufferedInputStream(bytes);
+                    inputStreamUtils.readLine(inputStream);
+                    var headers = new Headers(Headers.getAllHeaders(inputStream, inputStreamUtils));
+                    headerCount += headers.getHeaderStrings().size();
+                }
+                long millis = stopwatchUtils.stopTimer();
+                System.out.printf("%s: %d requests' headers (%d header lines) in %d millis%n",
+                        isScanning ? "scanning the buffer" : "a byte at a time", iterationCount, headerCount, millis);
+            }
+        }
+    }
 }
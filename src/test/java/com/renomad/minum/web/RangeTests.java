@@ -187,8 +187,8 @@ public class RangeTests {
     }
 
     /**
-     * Our system does not handle multiple ranges, so if that is
-     * requested, we'll just return the whole content
+     * Without the "bytes=" unit, the range is not understood, so
+     * we'll just return the whole content
      */
     @Test
     public void test_MultipleRange() {
@@ -200,4 +200,71 @@ public class RangeTests {
         assertTrue(range.getRangeFirstPart() == null);
         assertTrue(range.getRangeSecondPart() == null);
     }
+
+    /**
+     * Several ranges are put in order, and those which overlap or
+     * touch are combined.  Suffix ranges count back from the end.
+     */
+    @Test
+    public void test_MultipleRanges_Combined() {
+        Headers headers = new Headers(List.of("Range: bytes=500-599, 0-9,10-19, 5-12, -100"));
+        Range range = new Range(headers, 1000);
+        assertTrue(range.hasRangeHeader());
+        assertTrue(range.hasMultipleRanges());
+        assertEquals(range.getMultipleRanges(), List.of(
+                new Range.ByteRange(0, 20),
+                new Range.ByteRange(500, 100),
+                new Range.ByteRange(900, 100)));
+        assertEquals(range.toString(), "Range{rangeFirstPart=null, rangeSecondPart=null, length=1000, offset=0, hasRangeHeader=true, " +
+                "multipleRanges=[ByteRange[offset=0, length=20], ByteRange[offset=500, length=100], ByteRange[offset=900, length=100]]}");
+    }
+
+    /**
+     * If the ranges combine into one, it is sent like any single range
+     */
+    @Test
+    public void test_MultipleRanges_CombinedToOne() {
+        Headers headers = new Headers(List.of("Range: bytes=0-99,100-199,50-"));
+        Range range = new Range(headers, 1000);
+        assertTrue(range.hasRangeHeader());
+        assertFalse(range.hasMultipleRanges());
+        assertEquals(range.getOffset(), 0L);
+        assertEquals(range.getLength(), 1000L);
+    }
+
+    /**
+     * Ranges past the end of the content are dropped, and if none are left,
+     * or there are more than we will send, the range header is ignored
+     */
+    @Test
+    public void test_MultipleRanges_Ignored() {
+        Range range = new Range(new Headers(List.of("Range: bytes=0-9,2000-2010")), 1000);
+        assertFalse(range.hasMultipleRanges());
+        assertEquals(range.getOffset(), 0L);
+        assertEquals(range.getLength(), 10L);
+
+        Range rangeNoneSatisfiable = new Range(new Headers(List.of("Range: bytes=1000-1010,2000-2010")), 1000);
+        assertFalse(rangeNoneSatisfiable.hasRangeHeader());
+        assertEquals(rangeNoneSatisfiable.getLength(), 1000L);
+
+        var tooMany = new StringBuilder("Range: bytes=0-0");
+        for (int i = 1; i <= Range.MAX_RANGES; i++) {
+            tooMany.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        Range rangeTooMany = new Range(new Headers(List.of(tooMany.toString())), 1000);
+        assertFalse(rangeTooMany.hasRangeHeader());
+        assertFalse(rangeTooMany.hasMultipleRanges());
+        assertEquals(rangeTooMany.getLength(), 1000L);
+
+        Range rangeInvalid = new Range(new Headers(List.of("Range: bytes=0-9,abc")), 1000);
+        assertFalse(rangeInvalid.hasRangeHeader());
+        assertEquals(rangeInvalid.getLength(), 1000L);
+    }
+
+    @Test
+    public void test_MultipleRanges_FirstLarger() {
+        Headers headers = new Headers(List.of("Range: bytes=0-9,20-10"));
+        var ex = assertThrows(InvalidRangeException.class, () -> new Range(headers, 1000));
+        assertEquals(ex.getMessage(), "Error: The value of the first part of the range was larger than the second.");
+    }
 }
@@ -0,0 +1,223 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.logging.TestLogger;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.MyThread;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static com.renomad.minum.testing.TestFramework.*;
+import static com.renomad.minum.web.StatusLine.StatusCode.*;
+
+public class ResponseCacheTests {
+
+    private Context context;
+    private TestLogger logger;
+    private AtomicInteger handlerCalls;
+    private ThrowingFunction<IRequest, IResponse> countingHandler;
+
+    @Before
+    public void init() {
+        context = buildTestingContext("response_cache_tests");
+        logger = (TestLogger) context.getLogger();
+        handlerCalls = new AtomicInteger();
+        countingHandler = request -> Response.htmlOk("page number " + handlerCalls.incrementAndGet());
+    }
+
+    @After
+    public void cleanup() {
+        shutdownTestingContext(context);
+    }
+
+    private IRequest request(String path, String queryString, String... headers) {
+        var request = new FakeRequest();
+        request.requestLine = new RequestLine(RequestLine.Method.GET, new PathDetails(path, queryString, Map.of()), HttpVersion.ONE_DOT_ONE, "", logger);
+        request.headers = new Headers(List.of(headers));
+        return request;
+    }
+
+    private static String bodyOf(IResponse response) {
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A second request for the same page is answered from the
+     * cache, without running the endpoint
+     */
+    @Test
+    public void test_Hit() throws Exception {
+        var responseCache = new ResponseCache(Duration.ofMinutes(1), 10);
+        var handler = responseCache.wrap(countingHandler, null);
+
+        IResponse first = handler.apply(request("photos", ""));
+        IResponse second = handler.apply(request("photos", ""));
+
+        assertEquals(handlerCalls.get(), 1);
+        assertEquals(bodyOf(first), "page number 1");
+        assertEquals(bodyOf(second), "page number 1");
+        assertEquals(second.getExtraHeaders().get("Content-Type"), "text/html; charset=UTF-8");
+        assertTrue(second.isBodyText());
+        assertEquals(responseCache.getStats(), new ResponseCacheStats(1, 1, 1));
+        assertEquals(responseCache.getStats().hitRatio(), 0.5);
+    }
+
+    /**
+     * Different query strings, or different values of the key headers, are kept apart
+     */
+    @Test
+    public void test_Keys() throws Exception {
+        var responseCache = new ResponseCache(Duration.ofMinutes(1), 10, List.of("Accept-Language"), false);
+        var handler = responseCache.wrap(countingHandler, null);
+
+        handler.apply(request("photos", "page=1"));
+        handler.apply(request("photos", "page=2"));
+        handler.apply(request("photos", "page=1", "Accept-Language: fr"));
+        handler.apply(request("photos", "page=1", "accept-language: fr"));
+
+        assertEquals(handlerCalls.get(), 3);
+        assertEquals(responseCache.getStats().entryCount(), 3);
+    }
+
+    /**
+     * Paths are kept as sent, since the values of path parameters keep
+     * their case - one user's page must not be served for another.
+     */
+    @Test
+    public void test_Keys_PathCase() throws Exception {
+        var responseCache = new ResponseCache(Duration.ofMinutes(1), 10);
+        var handler = responseCache.wrap(countingHandler, null);
+
+        assertEquals(bodyOf(handler.apply(request("users/Alice", ""))), "page number 1");
+        assertEquals(bodyOf(handler.apply(request("users/alice", ""))), "page number 2");
+        assertEquals(bodyOf(handler.apply(request("users/Alice", ""))), "page number 1");
+        assertEquals(responseCache.getStats().entryCount(), 2);
+
+        // invalidating drops the path in any case
+        responseCache.invalidate("USERS/ALICE");
+        assertEquals(responseCache.getStats().entryCount(), 0);
+    }
+
+    /**
+     * Responses are only used for their time to live, and are dropped
+     * when invalidated
+     */
+    @Test
+    public void test_ExpiryAndInvalidation() throws Exception {
+        var responseCache = new ResponseCache(Duration.ofMillis(50), 10);
+        var handler = responseCache.wrap(countingHandler, null);
+
+        handler.apply(request("photos", ""));
+        MyThread.sleep(100);
+        assertEquals(bodyOf(handler.apply(request("photos", ""))), "page number 2");
+
+        handler.apply(request("photos", "page=2"));
+        handler.apply(request("other", ""));
+        responseCache.invalidate("PHOTOS");
+        assertEquals(responseCache.getStats().entryCount(), 1);
+        assertEquals(bodyOf(handler.apply(request("photos", ""))), "page number 5");
+
+        responseCache.invalidateAll();
+        assertEquals(responseCache.getStats().entryCount(), 0);
+    }
+
+    /**
+     * The least recently used responses are dropped past the maximum
+     */
+    @Test
+    public void test_MaxEntries() throws Exception {
+        var responseCache = new ResponseCache(Duration.ofMinutes(1), 2);
+        var handler = responseCache.wrap(countingHandler, null);
+
+        handler.apply(request("a", ""));
+        handler.apply(request("b", ""));
+        handler.apply(request("a", ""));
+        handler.apply(request("c", ""));
+        assertEquals(responseCache.getStats().entryCount(), 2);
+
+        // "b" was least recently used, so it was dropped
+        handler.apply(request("a", ""));
+        handler.apply(request("b", ""));
+        assertEquals(handlerCalls.get(), 4);
+    }
+
+    /**
+     * Responses meant for one user, unsuccessful ones, and those not in
+     * memory, are never kept
+     */
+    @Test
+    public void test_NotCacheable() {
+        assertFalse(ResponseCache.isCacheable(Response.htmlOk("a", Map.of("Set-Cookie", "session=abc"))));
+        assertFalse(ResponseCache.isCacheable(Response.htmlOk("a", Map.of("Cache-Control", "no-store"))));
+        assertFalse(ResponseCache.isCacheable(Response.htmlOk("a", Map.of("cache-control", "Private, max-age=60"))));
+        assertFalse(ResponseCache.isCacheable(Response.buildResponse(CODE_404_NOT_FOUND, Map.of("Content-Type", "text/plain"), "a")));
+        assertFalse(ResponseCache.isCacheable(Response.buildStreamingResponse(CODE_200_OK, Map.of(), sw -> {})));
+        assertTrue(ResponseCache.isCacheable(Response.htmlOk("a", Map.of("Cache-Control", "max-age=60"))));
+    }
+
+    /**
+     * Kept responses get an ETag, and a client sending it back gets a 304.  Large
+     * text bodies are kept gzipped too, for clients which accept that.
+     */
+    @Test
+    public void test_ETagAndGzip() throws Exception {
+        String page = "<p>hello</p>".repeat(500);
+        var responseCache = new ResponseCache(Duration.ofMinutes(1), 10);
+        var handler = responseCache.wrap(request -> Response.htmlOk(page), new DeflaterPool(6, 2));
+
+        IResponse plain = handler.apply(request("page", ""));
+        String eTag = WebFramework.buildETag(page.getBytes(StandardCharsets.UTF_8));
+        assertEquals(plain.getExtraHeaders().get("ETag"), eTag);
+        assertEquals(bodyOf(plain), page);
+
+        IResponse gzipped = handler.apply(request("page", "", "Accept-Encoding: gzip"));
+        assertEquals(gzipped.getExtraHeaders().get("Content-Encoding"), "gzip");
+        assertEquals(gzipped.getExtraHeaders().get("ETag"), WebFramework.gzipETag(eTag));
+        assertFalse(gzipped.isBodyText());
+        assertEquals(new String(new GZIPInputStream(new ByteArrayInputStream(gzipped.getBody())).readAllBytes(), StandardCharsets.UTF_8), page);
+
+        IResponse notModified = handler.apply(request("page", "", "If-None-Match: " + eTag));
+        assertEquals(notModified.getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(notModified.getExtraHeaders().get("ETag"), eTag);
+        IResponse notModifiedGzip = handler.apply(request("page", "", "Accept-Encoding: gzip", "If-None-Match: " + WebFramework.gzipETag(eTag)));
+        assertEquals(notModifiedGzip.getStatusCode(), CODE_304_NOT_MODIFIED);
+    }
+
+    @Test
+    public void test_InvalidSettings() {
+        var ex1 = assertThrows(WebServerException.class, () -> new ResponseCache(Duration.ZERO, 10));
+        assertEquals(ex1.getMessage(), "The time to live of a response cache must be positive.  Was: PT0S");
+        var ex2 = assertThrows(WebServerException.class, () -> new ResponseCache(Duration.ofSeconds(1), 0));
+        assertEquals(ex2.getMessage(), "The maximum entries of a response cache must be positive.  Was: 0");
+
+        var webFramework = new WebFramework(context);
+        var responseCache = new ResponseCache(Duration.ofSeconds(1), 10);
+        var ex3 = assertThrows(WebServerException.class, () -> webFramework.registerPath(RequestLine.Method.POST, "photos", countingHandler, responseCache));
+        assertEquals(ex3.getMessage(), "Only GET endpoints may use a response cache.  Was: MethodPath[method=POST, path=photos]");
+    }
+
+    /**
+     * A cached endpoint, registered with the framework, runs once for two requests
+     */
+    @Test
+    public void test_RegisterPath() throws Exception {
+        var webFramework = new WebFramework(context);
+        var responseCache = new ResponseCache(Duration.ofMinutes(1), 10);
+        webFramework.registerPath(RequestLine.Method.GET, "photos", countingHandler, responseCache);
+
+        for (int i = 0; i < 2; i++) {
+            IRequest request = request("photos", "");
+            IResponse response = webFramework.processRequest(request, new FakeSocketWrapper(), request.getRequestLine(), request.getHeaders());
+            assertEquals(bodyOf(response), "page number 1");
+        }
+        assertEquals(responseCache.getStats(), new ResponseCacheStats(1, 1, 1));
+    }
+}
@@ -3,19 +3,28 @@ package com.renomad.minum.web;
 import com.renomad.minum.utils.InvariantException;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+import static com.renomad.minum.testing.TestFramework.assertEqualByteArray;
 import static com.renomad.minum.testing.TestFramework.assertEquals;
+import static com.renomad.minum.testing.TestFramework.assertFalse;
 import static com.renomad.minum.testing.TestFramework.assertThrows;
+import static com.renomad.minum.testing.TestFramework.assertTrue;
 import static com.renomad.minum.web.Response.buildStreamingResponse;
 import static com.renomad.minum.web.StatusLine.StatusCode.CODE_200_OK;
+import static com.renomad.minum.web.StatusLine.StatusCode.CODE_206_PARTIAL_CONTENT;
+import static com.renomad.minum.web.StatusLine.StatusCode.CODE_304_NOT_MODIFIED;
 
 public class ResponseTests {
 
@@ -96,6 +105,149 @@ public class ResponseTests {
         assertEquals(s, "hello");
     }
 
+    /**
+     * What is sent is gathered into chunks, a flush sends what has gathered
+     * so far, and finishing sends the last, empty, chunk.
+     */
+    @Test
+    public void testChunkedSocketWrapper() throws IOException {
+        FakeSocketWrapper fakeSocketWrapper = new FakeSocketWrapper();
+        var chunkedSocketWrapper = new ChunkedSocketWrapper(fakeSocketWrapper, 4);
+
+        chunkedSocketWrapper.send("ab");
+        chunkedSocketWrapper.send("cd");
+        chunkedSocketWrapper.send('e');
+        chunkedSocketWrapper.flush();
+        chunkedSocketWrapper.flush();
+        chunkedSocketWrapper.send("0123456789");
+        chunkedSocketWrapper.send(new byte[0]);
+        chunkedSocketWrapper.finish();
+
+        String s = ((ByteArrayOutputStream) fakeSocketWrapper.os).toString(StandardCharsets.UTF_8);
+        assertEquals(s, "4\r\nabcd\r\n1\r\ne\r\na\r\n0123456789\r\n0\r\n\r\n");
+    }
+
+    @Test
+    public void testResponse_Chunked() throws IOException {
+        FakeSocketWrapper fakeSocketWrapper = new FakeSocketWrapper();
+        IResponse response = Response.buildChunkedResponse(CODE_200_OK, Map.of("Content-Type", "text/csv"), outputStream -> {
+            outputStream.write("a,b\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.write('c');
+        });
+        assertTrue(response.isChunked());
+        assertTrue(buildStreamingResponse(CODE_200_OK, Map.of(), sw -> {}).isChunked());
+        assertFalse(buildStreamingResponse(CODE_200_OK, Map.of(), sw -> {}, 0).isChunked());
+        assertFalse(Response.htmlOk("foo").isChunked());
+
+        var chunkedSocketWrapper = new ChunkedSocketWrapper(fakeSocketWrapper);
+        response.sendBody(chunkedSocketWrapper);
+        chunkedSocketWrapper.finish();
+
+        String s = ((ByteArrayOutputStream) fakeSocketWrapper.os).toString(StandardCharsets.UTF_8);
+        assertEquals(s, "5\r\na,b\nc\r\n0\r\n\r\n");
+    }
+
+    /**
+     * Compressed data written through the pooled gzip stream reads back as
+     * it was, flushes partway through included, and the deflater is given back for reuse.
+     */
+    @Test
+    public void testPooledGzipOutputStream() throws IOException {
+        var deflaterPool = new DeflaterPool(6, 2);
+        var expected = new ByteArrayOutputStream();
+        var out = new ByteArrayOutputStream();
+        try (var gzipOutputStream = new PooledGzipOutputStream(out, deflaterPool)) {
+            for (int i = 0; i < 10_000; i++) {
+                byte[] line = ("line number " + i + "\n").getBytes(StandardCharsets.UTF_8);
+                gzipOutputStream.write(line);
+                expected.write(line);
+                if (i == 5) {
+                    gzipOutputStream.flush();
+                    // everything so far can be read by the client already
+                    byte[] soFar = readPartialGzip(out.toByteArray());
+                    assertEquals(new String(soFar, StandardCharsets.UTF_8), expected.toString(StandardCharsets.UTF_8));
+                }
+            }
+            gzipOutputStream.write('!');
+            expected.write('!');
+        }
+        assertTrue(out.size() < expected.size() / 4);
+        assertEqualByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).readAllBytes(), expected.toByteArray());
+        assertEquals(deflaterPool.size(), 1);
+
+        // the pooled deflater is used again, giving the same result
+        byte[] bytes = "hello world".getBytes(StandardCharsets.UTF_8);
+        assertEqualByteArray(new GZIPInputStream(new ByteArrayInputStream(Response.gzip(bytes, deflaterPool))).readAllBytes(), bytes);
+        assertEqualByteArray(new GZIPInputStream(new ByteArrayInputStream(Response.gzip(new byte[0], deflaterPool))).readAllBytes(), new byte[0]);
+        assertEquals(deflaterPool.size(), 1);
+    }
+
+    /**
+     * An endpoint can answer with a 304 before building its body, if the
+     * client already has the version it would send
+     */
+    @Test
+    public void testBuildNotModifiedResponse() {
+        IResponse notModified = Response.buildNotModifiedResponse(new Headers(List.of("If-None-Match: \"v1\"")), "\"v1\"");
+        assertEquals(notModified.getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(notModified.getExtraHeaders().get("ETag"), "\"v1\"");
+        assertEquals(notModified.getBodyLength(), 0L);
+
+        assertTrue(Response.buildNotModifiedResponse(new Headers(List.of("If-None-Match: \"v0\"")), "\"v1\"") == null);
+        assertTrue(Response.buildNotModifiedResponse(new Headers(List.of()), "\"v1\"") == null);
+    }
+
+    @Test
+    public void testDeflaterPool_InvalidLevel() {
+        var ex = assertThrows(WebServerException.class, () -> new DeflaterPool(10, 2));
+        assertEquals(ex.getMessage(), "The gzip compression level must be between 0 and 9.  Was: 10");
+    }
+
+    /**
+     * A streaming response sent through the gzip wrapper, and then in chunks
+     */
+    @Test
+    public void testGzipSocketWrapper() throws IOException {
+        FakeSocketWrapper fakeSocketWrapper = new FakeSocketWrapper();
+        var deflaterPool = new DeflaterPool(6, 2);
+        IResponse response = Response.buildChunkedResponse(CODE_200_OK, Map.of("Content-Type", "text/csv"), outputStream -> {
+            for (int i = 0; i < 1000; i++) {
+                outputStream.write("a,b\n".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        var chunkedSocketWrapper = new ChunkedSocketWrapper(fakeSocketWrapper);
+        var gzipSocketWrapper = new GzipSocketWrapper(chunkedSocketWrapper, deflaterPool);
+        response.sendBody(gzipSocketWrapper);
+        gzipSocketWrapper.finish();
+        chunkedSocketWrapper.finish();
+        gzipSocketWrapper.release();
+
+        byte[] sent = ((ByteArrayOutputStream) fakeSocketWrapper.os).toByteArray();
+        var chunkedInputStream = new ChunkedInputStream(new ByteArrayInputStream(sent), new InputStreamUtils(1024), 10_000);
+        byte[] body = new GZIPInputStream(chunkedInputStream).readAllBytes();
+        assertEquals(new String(body, StandardCharsets.UTF_8), "a,b\n".repeat(1000));
+        assertEquals(deflaterPool.size(), 1);
+    }
+
+    /**
+     * Read as much as can be read of gzip data which has been
+     * flushed, but not finished
+     */
+    private static byte[] readPartialGzip(byte[] gzipped) {
+        var result = new ByteArrayOutputStream();
+        try (var gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = gzipInputStream.read(buffer)) > 0) {
+                result.write(buffer, 0, count);
+            }
+        } catch (IOException ex) {
+            // the data is not finished, so it ends unexpectedly
+        }
+        return result.toByteArray();
+    }
+
     /**
      * Something to watch out for is users providing data with carriage-return plus
      * line-feed, meaning they can cause new headers to be added to the response.
@@ -113,4 +265,44 @@ public class ResponseTests {
         assertEquals(result2.getMessage(), "Failure in redirect to (null). Exception: java.lang.NullPointerException: Cannot invoke \"String.length()\" because \"this.input\" is null");
     }
 
+    /**
+     * When several ranges of a large file are asked for, they are sent
+     * as a multipart/byteranges body, each part with its own Content-Range.
+     */
+    @Test
+    public void testBuildLargeFileResponse_MultipleRanges() throws IOException {
+        var headers = new Headers(List.of("Range: bytes=100-109,0-9,5-14"));
+        var response = (Response) Response.buildLargeFileResponse(Map.of("Content-Type", "image/jpeg"), "src/test/resources/kitty.jpg", headers);
+        assertEquals(response.getStatusCode(), CODE_206_PARTIAL_CONTENT);
+        String contentType = response.getExtraHeaders().get("Content-Type");
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        assertFalse(response.getExtraHeaders().containsKey("Content-Range"));
+        String boundary = contentType.substring("multipart/byteranges; boundary=".length());
+
+        FakeSocketWrapper fakeSocketWrapper = new FakeSocketWrapper();
+        response.sendBody(fakeSocketWrapper);
+        byte[] body = ((ByteArrayOutputStream) fakeSocketWrapper.os).toByteArray();
+
+        byte[] file = Files.readAllBytes(Path.of("src/test/resources/kitty.jpg"));
+        var expected = new ByteArrayOutputStream();
+        expected.write(("--" + boundary + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 0-14/1095\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        expected.write(file, 0, 15);
+        expected.write(("\r\n--" + boundary + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 100-109/1095\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        expected.write(file, 100, 10);
+        expected.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        assertEqualByteArray(body, expected.toByteArray());
+        assertEquals(response.getBodyLength(), (long) body.length);
+    }
+
+    /**
+     * A gzipped file is not split into parts, since its Content-Encoding
+     * would then wrongly apply to the whole multipart body.
+     */
+    @Test
+    public void testBuildLargeFileResponse_MultipleRanges_Encoded() throws IOException {
+        var headers = new Headers(List.of("Range: bytes=100-109,0-9"));
+        var response = Response.buildLargeFileResponse(Map.of("Content-Encoding", "gzip"), "src/test/resources/kitty.jpg", headers);
+        assertEquals(response.getStatusCode(), CODE_200_OK);
+        assertEquals(response.getBodyLength(), 1095L);
+    }
 }
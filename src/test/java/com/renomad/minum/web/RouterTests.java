@@ -0,0 +1,190 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.testing.StopwatchUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.renomad.minum.testing.TestFramework.*;
+import static com.renomad.minum.web.RequestLine.Method.GET;
+import static com.renomad.minum.web.RequestLine.Method.POST;
+
+public class RouterTests {
+
+    private static final ThrowingFunction<IRequest, IResponse> first = request -> Response.htmlOk("first");
+    private static final ThrowingFunction<IRequest, IResponse> second = request -> Response.htmlOk("second");
+    private static final ThrowingFunction<IRequest, IResponse> third = request -> Response.htmlOk("third");
+
+    @Test
+    public void test_Exact() {
+        var router = new Router(false);
+        router.add(GET, "hello", false, first);
+        router.add(GET, "help", false, second);
+        router.add(GET, "", false, third);
+
+        assertTrue(router.find(GET, "hello").handler() == first);
+        assertTrue(router.find(GET, "help").handler() == second);
+        assertTrue(router.find(GET, "").handler() == third);
+        assertTrue(router.find(GET, "hel") == null);
+        assertTrue(router.find(GET, "hello2") == null);
+        assertTrue(router.find(POST, "hello") == null);
+        assertEquals(router.find(GET, "hello").pathParameters(), Map.of());
+    }
+
+    /**
+     * Registering a path which is part of one already there splits its node
+     */
+    @Test
+    public void test_Exact_SplitNode() {
+        var router = new Router(false);
+        router.add(GET, "abcdef", false, first);
+        router.add(GET, "abc", false, second);
+        router.add(GET, "abxyz", false, third);
+
+        assertTrue(router.find(GET, "abcdef").handler() == first);
+        assertTrue(router.find(GET, "abc").handler() == second);
+        assertTrue(router.find(GET, "abxyz").handler() == third);
+        assertTrue(router.find(GET, "ab") == null);
+        assertTrue(router.find(GET, "abcde") == null);
+    }
+
+    @Test
+    public void test_IgnoreCase() {
+        var router = new Router(true);
+        router.add(GET, "hello/{name}", false, first);
+
+        var match = router.find(GET, "HeLLo/ByRon");
+        assertTrue(match.handler() == first);
+        assertEquals(match.pathParameters(), Map.of("name", "ByRon"));
+        assertTrue(new Router(false).find(GET, "HELLO/ByRon") == null);
+    }
+
+    @Test
+    public void test_Duplicate() {
+        var router = new Router(false);
+        assertTrue(router.add(GET, "hello", false, first) == null);
+        assertTrue(router.add(GET, "hello", false, second) == first);
+        assertTrue(router.find(GET, "hello").handler() == first);
+        // the same path as a prefix is a different registration
+        assertTrue(router.add(GET, "hello", true, second) == null);
+    }
+
+    /**
+     * Of the prefixes that match, the longest wins, and an exact match
+     * wins over them all.
+     */
+    @Test
+    public void test_Prefix_LongestMatch() {
+        var router = new Router(false);
+        router.add(GET, "m", true, first);
+        router.add(GET, "mypath", true, second);
+        router.add(GET, "mypath/exact", false, third);
+
+        assertTrue(router.find(GET, "mypath").handler() == second);
+        assertTrue(router.find(GET, "mypath/foo").handler() == second);
+        assertTrue(router.find(GET, "mypa").handler() == first);
+        assertTrue(router.find(GET, "m").handler() == first);
+        assertTrue(router.find(GET, "mypath/exact").handler() == third);
+        assertTrue(router.find(GET, "mypath/exactly").handler() == second);
+        assertTrue(router.find(GET, "x") == null);
+    }
+
+    @Test
+    public void test_Parameters() {
+        var router = new Router(false);
+        router.add(GET, "users/{id}/posts/{postId}", false, first);
+        router.add(GET, "users/{id}", false, second);
+        router.add(GET, "{section}", false, third);
+
+        var match = router.find(GET, "users/123/posts/a%20b");
+        assertTrue(match.handler() == first);
+        assertEquals(match.pathParameters(), Map.of("id", "123", "postId", "a%20b"));
+        assertEquals(router.find(GET, "users/123").pathParameters(), Map.of("id", "123"));
+        assertEquals(router.find(GET, "about").pathParameters(), Map.of("section", "about"));
+        // a parameter must match something, and only one segment
+        assertTrue(router.find(GET, "users/") == null);
+        assertTrue(router.find(GET, "users/123/posts") == null);
+        assertTrue(router.find(GET, "users/123/posts/4/5") == null);
+    }
+
+    /**
+     * Plain text is tried first, but if what follows it does
+     * not match, a parameter in the same place is tried.
+     */
+    @Test
+    public void test_Parameters_PlainTextFirst() {
+        var router = new Router(false);
+        router.add(GET, "users/new", false, first);
+        router.add(GET, "users/{id}", false, second);
+        router.add(GET, "users/{id}/edit", false, third);
+
+        assertTrue(router.find(GET, "users/new").handler() == first);
+        assertTrue(router.find(GET, "users/newer").handler() == second);
+        var match = router.find(GET, "users/new/edit");
+        assertTrue(match.handler() == third);
+        assertEquals(match.pathParameters(), Map.of("id", "new"));
+    }
+
+    @Test
+    public void test_Parameters_InPrefix() {
+        var router = new Router(false);
+        router.add(GET, "files/{owner}/", true, first);
+
+        var match = router.find(GET, "files/alice/photos/1.jpg");
+        assertTrue(match.handler() == first);
+        assertEquals(match.pathParameters(), Map.of("owner", "alice"));
+    }
+
+    @Test
+    public void test_Parameters_Invalid() {
+        var router = new Router(false);
+        var ex = assertThrows(WebServerException.class, () -> router.add(GET, "users/id{id}", false, first));
+        assertEquals(ex.getMessage(), "Path parameters must take up a whole segment, like users/{id}/posts.  Path was: users/id{id}");
+        assertThrows(WebServerException.class, () -> router.add(GET, "users/{id", false, first));
+        assertThrows(WebServerException.class, () -> router.add(GET, "users/{}", false, first));
+        assertThrows(WebServerException.class, () -> router.add(GET, "users/{id}x", false, first));
+
+        router.add(GET, "users/{id}", false, first);
+        var ex2 = assertThrows(WebServerException.class, () -> router.add(GET, "users/{userId}/posts", false, second));
+        assertEquals(ex2.getMessage(), "Path parameter {userId} in users/{userId}/posts conflicts with {id}, registered in the same place");
+    }
+
+    /**
+     * Compares finding a partial-path handler in the tree with
+     * checking every registration in turn, as was done before.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void test_Performance() {
+        int registrations = 500;
+        int lookups = 2_000_000;
+        var router = new Router(false);
+        var map = new HashMap<WebFramework.MethodPath, ThrowingFunction<IRequest, IResponse>>();
+        for (int i = 0; i < registrations; i++) {
+            router.add(GET, "section" + i + "/items", true, first);
+            map.put(new WebFramework.MethodPath(GET, "section" + i + "/items"), first);
+        }
+        String requestedPath = "section" + (registrations - 1) + "/items/123";
+
+        StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            var entry = map.entrySet().stream()
+                    .filter(x -> requestedPath.startsWith(x.getKey().path()) && x.getKey().method().equals(GET))
+                    .findFirst().orElse(null);
+            if (entry != null) found++;
+        }
+        long scanMillis = stopwatchUtils.stopTimer();
+
+        stopwatchUtils = new StopwatchUtils().startTimer();
+        for (int i = 0; i < lookups; i++) {
+            if (router.find(GET, requestedPath) != null) found++;
+        }
+        long routerMillis = stopwatchUtils.stopTimer();
+
+        System.out.printf("%d lookups among %d partial paths. scanning: %d millis, radix tree: %d millis (%d found)%n",
+                lookups, registrations, scanMillis, routerMillis, found);
+    }
+}
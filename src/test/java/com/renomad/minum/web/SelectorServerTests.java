@@ -0,0 +1,343 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.state.Context;
+import com.renomad.minum.testing.StopwatchUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class SelectorServerTests {
+
+    private static final String GET_HELLO = "GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    private static SelectorServer startServer(Context context, WebFramework webFramework) throws IOException {
+        var serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(0));
+        var server = new SelectorServer(serverChannel, context, "selector server", webFramework, context.getExecutorService());
+        server.start();
+        return server;
+    }
+
+    private static WebFramework buildWebFramework(Context context) {
+        var webFramework = new WebFramework(context);
+        webFramework.registerPath(RequestLine.Method.GET, "hello", request -> Response.htmlOk("hello"));
+        webFramework.registerPath(RequestLine.Method.POST, "length", request -> Response.htmlOk(String.valueOf(request.getBody().asString().length())));
+        return webFramework;
+    }
+
+    /**
+     * Read from the stream until what has been read contains the
+     * expected text the given number of times
+     */
+    private static String readUntil(InputStream inputStream, String expected, int count) throws IOException {
+        var result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (true) {
+            String soFar = result.toString(StandardCharsets.UTF_8);
+            if (soFar.split(expected, -1).length - 1 >= count) return soFar;
+            int read = inputStream.read(buffer);
+            if (read == -1) return soFar;
+            result.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Requests are handled just as they are by the ordinary server, and
+     * the buffers used to read them go back to the pool afterwards.
+     */
+    @Test
+    public void test_SelectorServer_Requests() throws Exception {
+        // a context of its own, so the many log lines here do not crowd out those of other tests
+        var context = buildTestingContext("SelectorServerTests_test_SelectorServer_Requests");
+        var server = startServer(context, buildWebFramework(context));
+        var ft = new FunctionalTesting(context, "localhost", server.getPort());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ft.get("hello").body().asString(), "hello");
+        }
+        var postResponse = ft.send(RequestLine.Method.POST, "length", "abc".getBytes(StandardCharsets.US_ASCII), List.of("Content-Type: text/plain"));
+        assertEquals(postResponse.body().asString(), "3");
+        assertEquals(ft.get("does_not_exist").statusLine().status(), StatusLine.StatusCode.CODE_404_NOT_FOUND);
+        // the server gives the buffer back just after sending the response
+        for (int i = 0; i < 100 && server.getPooledBufferCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.getPooledBufferCount() >= 1);
+        assertEquals(server.getServerType(), HttpServerType.PLAIN_TEXT_HTTP);
+
+        server.close();
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * A request with a body bigger than the read buffer is handed over once
+     * the buffer is full, and the handler reads the rest.
+     */
+    @Test
+    public void test_SelectorServer_LargeRequest() throws Exception {
+        var context = buildTestingContext("SelectorServerTests_test_SelectorServer_LargeRequest");
+        var server = startServer(context, buildWebFramework(context));
+        var ft = new FunctionalTesting(context, "localhost", server.getPort());
+
+        String payload = "a".repeat(SelectorServer.REQUEST_BUFFER_SIZE * 5 + 7);
+        var response = ft.send(RequestLine.Method.POST, "length", payload.getBytes(StandardCharsets.US_ASCII), List.of("Content-Type: text/plain"));
+        assertEquals(response.body().asString(), String.valueOf(payload.length()));
+
+        server.close();
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * Headers bigger than the read buffer are read by scanning it, refilling
+     * it from the channel partway through a line.
+     */
+    @Test
+    public void test_SelectorServer_LargeHeaders() throws Exception {
+        var context = buildTestingContext("SelectorServerTests_test_SelectorServer_LargeHeaders");
+        var webFramework = buildWebFramework(context);
+        webFramework.registerPath(RequestLine.Method.GET, "last_header", request -> Response.htmlOk(request.getHeaders().valueByKey("X-Last").getFirst()));
+        var server = startServer(context, webFramework);
+
+        var request = new StringBuilder("GET /last_header HTTP/1.1\r\nHost: localhost\r\n");
+        for (int i = 0; i < 20; i++) {
+            request.append("X-Filler-").append(i).append(": ").append("a".repeat(900)).append("\r\n");
+        }
+        request.append("X-Last: found\r\nConnection: close\r\n\r\n");
+        assertTrue(request.length() > SelectorServer.REQUEST_BUFFER_SIZE * 2);
+
+        try (var socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            String response = readUntil(socket.getInputStream(), "found", 1);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.endsWith("found"));
+        }
+
+        server.close();
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * A kept-alive connection goes back to the selector between requests and
+     * is handed over again when the next arrives.  Requests sent together,
+     * without waiting for the responses, are all answered.
+     */
+    @Test
+    public void test_SelectorServer_KeepAliveAndPipelining() throws Exception {
+        var context = buildTestingContext("SelectorServerTests_test_SelectorServer_KeepAliveAndPipelining");
+        var server = startServer(context, buildWebFramework(context));
+
+        try (var socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            var outputStream = socket.getOutputStream();
+            var inputStream = socket.getInputStream();
+
+            outputStream.write((GET_HELLO + GET_HELLO).getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            String responses = readUntil(inputStream, "hello", 2);
+            assertEquals(responses.split("HTTP/1.1 200 OK", -1).length - 1, 2);
+
+            // a while later, on the same connection
+            Thread.sleep(50);
+            outputStream.write(GET_HELLO.getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            assertTrue(readUntil(inputStream, "hello", 1).startsWith("HTTP/1.1 200 OK"));
+
+            // a request arriving in pieces
+            outputStream.write("GET /hel".getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            Thread.sleep(50);
+            outputStream.write("lo HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            assertTrue(readUntil(inputStream, "hello", 1).startsWith("HTTP/1.1 200 OK"));
+        }
+
+        server.close();
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * A connection which sends nothing for longer than the socket timeout is closed.
+     */
+    @Test
+    public void test_SelectorServer_IdleTimeout() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("SOCKET_TIMEOUT_MILLIS", "200");
+        var context = buildTestingContext("SelectorServerTests_test_SelectorServer_IdleTimeout", properties);
+        var server = startServer(context, buildWebFramework(context));
+
+        try (var socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(socket.getInputStream().read(), -1);
+        }
+
+        server.close();
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * A failure with one connection - here, the executor refusing to take
+     * its request - closes just that connection.  The selector thread
+     * carries on serving the others.
+     */
+    @Test
+    public void test_SelectorServer_FailureWithOneConnection() throws Exception {
+        var context = buildTestingContext("SelectorServerTests_test_SelectorServer_FailureWithOneConnection");
+        ExecutorService realExecutor = context.getExecutorService();
+        // the first submit starts the selector loop, the second is refused
+        var submitCount = new AtomicInteger();
+        var refusingExecutor = (ExecutorService) Proxy.newProxyInstance(
+                ExecutorService.class.getClassLoader(),
+                new Class<?>[]{ExecutorService.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("submit") && submitCount.incrementAndGet() == 2) {
+                        throw new RejectedExecutionException("refused for this test");
+                    }
+                    try {
+                        return method.invoke(realExecutor, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+        var serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(0));
+        var server = new SelectorServer(serverChannel, context, "selector server", buildWebFramework(context), refusingExecutor);
+        server.start();
+
+        try (var socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(GET_HELLO.getBytes(StandardCharsets.US_ASCII));
+            assertEquals(socket.getInputStream().read(), -1);
+        }
+        var ft = new FunctionalTesting(context, "localhost", server.getPort());
+        assertEquals(ft.get("hello").body().asString(), "hello");
+
+        server.close();
+        shutdownTestingContext(context);
+    }
+
+    @Test
+    public void test_FindEndOfHeaders() {
+        byte[] bytes = "GET / HTTP/1.1\r\nHost: a\r\n\r\nbody".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(SelectorConnection.findEndOfHeaders(bytes, bytes.length), 27);
+        assertEquals(SelectorConnection.findEndOfHeaders(bytes, 26), -1);
+        byte[] bareNewlines = "GET / HTTP/1.1\nHost: a\n\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(SelectorConnection.findEndOfHeaders(bareNewlines, bareNewlines.length), bareNewlines.length);
+    }
+
+    @Test
+    public void test_FindContentLength() {
+        byte[] bytes = "POST / HTTP/1.1\r\nHost: a\r\nCONTENT-Length:  123\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(SelectorConnection.findContentLength(bytes, bytes.length), 123L);
+        byte[] none = "GET / HTTP/1.1\r\nHost: a\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(SelectorConnection.findContentLength(none, none.length), 0L);
+        byte[] tooBig = "POST / HTTP/1.1\r\ncontent-length: 99999999999\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(SelectorConnection.findContentLength(tooBig, tooBig.length), 0L);
+    }
+
+    @Test
+    public void test_ByteBufferPool() {
+        var pool = new ByteBufferPool(16, 1);
+        var first = pool.borrow();
+        var second = pool.borrow();
+        assertEquals(first.capacity(), 16);
+        first.put((byte) 1);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(pool.size(), 1);
+        var reused = pool.borrow();
+        assertTrue(reused == first);
+        assertEquals(reused.position(), 0);
+        assertEquals(pool.size(), 0);
+    }
+
+    /**
+     * Compares the selector server with the ordinary one: the heap used
+     * by many idle keep-alive connections, and the rate of requests
+     * from many clients on kept-alive connections.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void test_IdleConnectionsAndThroughput() throws Exception {
+        var context = buildTestingContext("SelectorServerTests_test_IdleConnectionsAndThroughput");
+        var webFramework = buildWebFramework(context);
+        int idleConnectionCount = 5_000;
+        int clientCount = 200;
+        int requestsPerClient = 500;
+        for (String engine : List.of("THREAD_PER_CONNECTION", "SELECTOR")) {
+            IServer server;
+            if (engine.equals("SELECTOR")) {
+                server = startServer(context, webFramework);
+            } else {
+                server = new Server(new ServerSocket(0), context, "thread per connection lab", webFramework, context.getExecutorService(), HttpServerType.PLAIN_TEXT_HTTP);
+                server.start();
+            }
+
+            // idle connections, each having made one request
+            long heapBefore = usedHeap();
+            List<Socket> idleSockets = new ArrayList<>();
+            for (int i = 0; i < idleConnectionCount; i++) {
+                var socket = new Socket("localhost", server.getPort());
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(GET_HELLO.getBytes(StandardCharsets.US_ASCII));
+                readUntil(socket.getInputStream(), "hello", 1);
+                idleSockets.add(socket);
+            }
+            long heapAfter = usedHeap();
+
+            // many clients, each sending requests on one kept-alive connection
+            var successes = new AtomicInteger();
+            StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+            List<Future<?>> clients = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                clients.add(context.getExecutorService().submit(() -> {
+                    try (var socket = new Socket("localhost", server.getPort())) {
+                        socket.setSoTimeout(5000);
+                        for (int j = 0; j < requestsPerClient; j++) {
+                            socket.getOutputStream().write(GET_HELLO.getBytes(StandardCharsets.US_ASCII));
+                            if (readUntil(socket.getInputStream(), "hello", 1).endsWith("hello")) successes.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> client : clients) client.get();
+            long millis = stopwatchUtils.stopTimer();
+
+            System.out.printf("%s: %d bytes of heap per idle connection. %d requests in %d millis, %.0f requests per second%n",
+                    engine, (heapAfter - heapBefore) / idleConnectionCount, successes.get(), millis, successes.get() / (millis / 1000.0));
+            for (Socket socket : idleSockets) socket.close();
+            server.close();
+        }
+        shutdownTestingContext(context);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
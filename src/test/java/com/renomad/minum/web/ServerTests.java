@@ -3,13 +3,19 @@ package com.renomad.minum.web;
 import com.renomad.minum.logging.TestLogger;
 import com.renomad.minum.logging.TestLoggerException;
 import com.renomad.minum.state.Context;
+import com.renomad.minum.testing.StopwatchUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.renomad.minum.testing.TestFramework.*;
 
@@ -56,4 +62,62 @@ public class ServerTests {
         }
     }
 
+    /**
+     * A server with several acceptors handles connections arriving on
+     * any of them, and closing it closes them all.
+     */
+    @Test
+    public void test_MultipleAcceptors() throws Exception {
+        // a context of its own, so the many log lines here do not crowd out those of other tests
+        var context = buildTestingContext("ServerTests_test_MultipleAcceptors");
+        var webFramework = new WebFramework(context);
+        webFramework.registerPath(RequestLine.Method.GET, "hello", request -> Response.htmlOk("hello"));
+        List<ServerSocket> serverSockets = WebEngine.bindServerSockets(0, 4, ServerSocket::new, context.getLogger());
+        var server = new Server(serverSockets, context, "multiple acceptors", webFramework, context.getExecutorService(), HttpServerType.PLAIN_TEXT_HTTP);
+        server.start();
+        var ft = new FunctionalTesting(context, "localhost", server.getPort());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(ft.get("hello").body().asString(), "hello");
+        }
+        server.close();
+        assertTrue(serverSockets.stream().allMatch(ServerSocket::isClosed));
+        shutdownTestingContext(context);
+    }
+
+    /**
+     * Measures how many new connections a second the server handles, with
+     * one acceptor and with several.  Each connection sends one request.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void test_AcceptRate() throws Exception {
+        // a context of its own, so the many log lines here do not crowd out those of other tests
+        var context = buildTestingContext("ServerTests_test_AcceptRate");
+        var webFramework = new WebFramework(context);
+        webFramework.registerPath(RequestLine.Method.GET, "hello", request -> Response.htmlOk("hello"));
+        for (int acceptorCount : List.of(1, 4)) {
+            List<ServerSocket> serverSockets = WebEngine.bindServerSockets(0, acceptorCount, ServerSocket::new, context.getLogger());
+            var server = new Server(serverSockets, context, "accept rate lab", webFramework, context.getExecutorService(), HttpServerType.PLAIN_TEXT_HTTP);
+            server.start();
+            var ft = new FunctionalTesting(context, "localhost", server.getPort());
+            int clientCount = 64;
+            int connectionsPerClient = 300;
+            var successes = new AtomicInteger();
+            StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+            List<Future<?>> clients = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                clients.add(context.getExecutorService().submit(() -> {
+                    for (int j = 0; j < connectionsPerClient; j++) {
+                        if (ft.get("hello").body().asString().equals("hello")) successes.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> client : clients) client.get();
+            long millis = stopwatchUtils.stopTimer();
+            System.out.printf("%d acceptors: %d connections in %d millis, %.0f connections per second%n",
+                    acceptorCount, successes.get(), millis, successes.get() / (millis / 1000.0));
+            server.close();
+        }
+        shutdownTestingContext(context);
+    }
 }
@@ -2,16 +2,27 @@ package com.renomad.minum.web;
 
 import com.renomad.minum.logging.TestLogger;
 import com.renomad.minum.state.Context;
+import com.renomad.minum.testing.StopwatchUtils;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
 
-import static com.renomad.minum.testing.TestFramework.assertEquals;
-import static com.renomad.minum.testing.TestFramework.buildTestingContext;
+import static com.renomad.minum.testing.TestFramework.*;
 
 public class SocketWrapperTests {
 
@@ -41,4 +52,111 @@ public class SocketWrapperTests {
         testSocketWrapper.send(123);
         testSocketWrapper.flush();
     }
+
+    /**
+     * Send the header and part of the file through a {@link SocketWrapper} on
+     * a socket accepted from the given server socket, returning what the client receives.
+     */
+    private byte[] sendFileThroughSocketWrapper(ServerSocket serverSocket, Path file, long position, long count) throws Exception {
+        try (serverSocket; var client = new Socket("localhost", serverSocket.getLocalPort())) {
+            var clientInput = client.getInputStream();
+            try (Socket accepted = serverSocket.accept();
+                 FileChannel fileChannel = FileChannel.open(file)) {
+                var socketWrapper = new SocketWrapper(accepted, null, logger, 0, "test host");
+                socketWrapper.send("header|");
+                socketWrapper.sendFile(fileChannel, position, count);
+                socketWrapper.flush();
+            }
+            return clientInput.readAllBytes();
+        }
+    }
+
+    private static Path buildRandomFile(int size) throws IOException {
+        byte[] contents = new byte[size];
+        new Random(1234).nextBytes(contents);
+        Path file = Files.createTempFile("socket_wrapper_tests", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, contents);
+        return file;
+    }
+
+    /**
+     * A plain-text socket opened from a channel sends files straight
+     * from the file to the socket, and one without a channel copies them
+     * through a buffer.  Either way, the client gets the same bytes, sent
+     * after whatever was already buffered.
+     */
+    @Test
+    public void test_SendFile() throws Exception {
+        Path file = buildRandomFile(100_000);
+        byte[] contents = Files.readAllBytes(file);
+
+        for (boolean hasChannel : new boolean[]{true, false}) {
+            ServerSocket serverSocket = hasChannel ? ServerSocketChannel.open().socket() : new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(0));
+
+            byte[] received = sendFileThroughSocketWrapper(serverSocket, file, 10, 50_000);
+
+            byte[] expected = concat("header|".getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(contents, 10, 50_010));
+            assertTrue(Arrays.equals(received, expected), "hasChannel: " + hasChannel);
+        }
+    }
+
+    /**
+     * Asking for more than the file has sends what there is
+     */
+    @Test
+    public void test_SendFile_PastTheEnd() throws Exception {
+        Path file = buildRandomFile(1000);
+        byte[] contents = Files.readAllBytes(file);
+
+        for (boolean hasChannel : new boolean[]{true, false}) {
+            ServerSocket serverSocket = hasChannel ? ServerSocketChannel.open().socket() : new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(0));
+
+            byte[] received = sendFileThroughSocketWrapper(serverSocket, file, 900, 500);
+
+            byte[] expected = concat("header|".getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(contents, 900, 1000));
+            assertTrue(Arrays.equals(received, expected), "hasChannel: " + hasChannel);
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        var result = new ByteArrayOutputStream();
+        result.writeBytes(first);
+        result.writeBytes(second);
+        return result.toByteArray();
+    }
+
+    /**
+     * Compares sending a large file straight from the file to the socket
+     * with copying it through a buffer.
+     */
+    @Ignore("This is a lab, not a test")
+    @Test
+    public void test_SendFile_Performance() throws Exception {
+        Path file = buildRandomFile(200 * 1024 * 1024);
+        for (boolean hasChannel : new boolean[]{false, true, false, true}) {
+            try (ServerSocket serverSocket = hasChannel ? ServerSocketChannel.open().socket() : new ServerSocket()) {
+                serverSocket.bind(new InetSocketAddress(0));
+                var client = new Socket("localhost", serverSocket.getLocalPort());
+                Thread reader = Thread.ofVirtual().start(() -> {
+                    try (client) {
+                        client.getInputStream().transferTo(OutputStream.nullOutputStream());
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                StopwatchUtils stopwatchUtils = new StopwatchUtils().startTimer();
+                try (Socket accepted = serverSocket.accept(); FileChannel fileChannel = FileChannel.open(file)) {
+                    var socketWrapper = new SocketWrapper(accepted, null, logger, 0, "test host");
+                    socketWrapper.sendFile(fileChannel, 0, fileChannel.size());
+                    socketWrapper.flush();
+                }
+                reader.join();
+                long millis = stopwatchUtils.stopTimer();
+                System.out.printf("%s: 200 MB sent in %d millis%n", hasChannel ? "transferTo" : "buffered copy", millis);
+            }
+        }
+    }
 }
@@ -8,8 +8,13 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 
 import static com.renomad.minum.testing.TestFramework.*;
@@ -50,6 +55,36 @@ public class WebEngineTests {
         assertTrue(adjustedMessage.contains("Exception during creation of SSL socket with port 1234, keystore URL of file:.does.not.exist.  Exception message:"));
     }
 
+    /**
+     * With several acceptors, each gets a socket on the same port if the
+     * operating system allows it.  Otherwise, they share one.
+     */
+    @Test
+    public void test_bindServerSockets() throws Exception {
+        List<ServerSocket> serverSockets = WebEngine.bindServerSockets(0, 3, ServerSocket::new, logger);
+        try {
+            assertEquals(serverSockets.size(), 3);
+            int port = serverSockets.getFirst().getLocalPort();
+            assertTrue(serverSockets.stream().allMatch(x -> x.getLocalPort() == port));
+            int distinctSockets = new HashSet<>(serverSockets).size();
+            if (new ServerSocket().supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                assertEquals(distinctSockets, 3);
+            } else {
+                assertEquals(distinctSockets, 1);
+            }
+            new Socket("localhost", port).close();
+        } finally {
+            for (ServerSocket serverSocket : serverSockets) serverSocket.close();
+        }
+
+        List<ServerSocket> single = WebEngine.bindServerSockets(0, 1, ServerSocket::new, logger);
+        assertEquals(single.size(), 1);
+        single.getFirst().close();
+
+        var ex = assertThrows(WebServerException.class, () -> WebEngine.bindServerSockets(0, 0, ServerSocket::new, logger));
+        assertEquals(ex.getMessage(), "The count of acceptor threads must be at least 1. Count: 0");
+    }
+
     @Test
     public void test_isProvidedKeystoreProperties() {
         assertTrue (WebEngine.isProvidedKeystoreProperties("abc", "def", logger));
@@ -11,13 +11,21 @@ import com.renomad.minum.utils.IFileReader;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.time.Month;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 
 import static com.renomad.minum.testing.TestFramework.*;
 import static com.renomad.minum.web.StatusLine.StatusCode.*;
@@ -51,6 +59,38 @@ public class WebFrameworkTests {
         assertEquals(response.getExtraHeaders().get("content-type"), "text/css");
     }
 
+    /**
+     * Cached static files, plain and gzipped, are read again once the
+     * file changes, so their contents always match their ETag.
+     */
+    @Test
+    public void test_readStaticFile_CacheFollowsChanges() throws IOException {
+        Path staticDirectory = Path.of("out/static_files_for_cache_tests");
+        Files.createDirectories(staticDirectory);
+        Path file = staticDirectory.resolve("changing.css");
+        Files.writeString(file, "a".repeat(5000));
+        var properties = new Properties();
+        properties.setProperty("STATIC_FILES_DIRECTORY", staticDirectory.toString());
+        properties.setProperty("USE_CACHE_FOR_STATIC_FILES", "true");
+        var customContext = buildTestingContext("test_readStaticFile_CacheFollowsChanges", properties);
+        var customWebFramework = new WebFramework(customContext, default_zdt);
+        var gzipHeaders = new Headers(List.of("Accept-Encoding: gzip"));
+
+        IResponse plain1 = customWebFramework.readStaticFile("changing.css", defaultHeaders);
+        IResponse gzipped1 = customWebFramework.readStaticFile("changing.css", gzipHeaders);
+        assertEquals(new String(plain1.getBody(), StandardCharsets.UTF_8), "a".repeat(5000));
+        assertEquals(new String(new GZIPInputStream(new ByteArrayInputStream(gzipped1.getBody())).readAllBytes(), StandardCharsets.UTF_8), "a".repeat(5000));
+
+        Files.writeString(file, "b".repeat(6000));
+        IResponse plain2 = customWebFramework.readStaticFile("changing.css", defaultHeaders);
+        IResponse gzipped2 = customWebFramework.readStaticFile("changing.css", gzipHeaders);
+        assertFalse(plain2.getExtraHeaders().get("etag").equals(plain1.getExtraHeaders().get("etag")));
+        assertEquals(new String(plain2.getBody(), StandardCharsets.UTF_8), "b".repeat(6000));
+        assertEquals(new String(new GZIPInputStream(new ByteArrayInputStream(gzipped2.getBody())).readAllBytes(), StandardCharsets.UTF_8), "b".repeat(6000));
+
+        shutdownTestingContext(customContext);
+    }
+
     @Test
     public void test_readStaticFile_JS() {
         IResponse response = webFramework.readStaticFile("index.js", defaultHeaders);
@@ -110,6 +150,30 @@ public class WebFrameworkTests {
         assertEquals(response.getStatusCode(), CODE_404_NOT_FOUND);
     }
 
+    /**
+     * A sidecar older than its file was not rebuilt after the file changed,
+     * so it is ignored, and the file is compressed here instead.
+     */
+    @Test
+    public void test_readStaticFile_GzipSidecar_Stale() throws IOException {
+        Path file = Path.of("src/test/webapp/static/stale_sidecar_test.js");
+        Path sidecar = Path.of("src/test/webapp/static/stale_sidecar_test.js.gz");
+        String contents = "console.log('the new version of this file');".repeat(100);
+        try {
+            Files.write(sidecar, Response.gzip("console.log('the old version');".getBytes(StandardCharsets.UTF_8)));
+            Files.writeString(file, contents);
+            Files.setLastModifiedTime(sidecar, FileTime.from(Instant.now().minusSeconds(60)));
+
+            IResponse response = webFramework.readStaticFile("stale_sidecar_test.js", new Headers(List.of("accept-encoding: gzip")));
+
+            assertEquals(response.getExtraHeaders().get("content-encoding"), "gzip");
+            assertEquals(new String(new GZIPInputStream(new ByteArrayInputStream(response.getBody())).readAllBytes(), StandardCharsets.UTF_8), contents);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(sidecar);
+        }
+    }
+
     /**
      * Edge case - current directory
      */
@@ -130,6 +194,200 @@ public class WebFrameworkTests {
         assertEquals(response.getStatusCode(), CODE_404_NOT_FOUND);
     }
 
+    /**
+     * If the client accepts gzip, a text file is sent compressed.  It is
+     * only compressed once - after that, the compressed bytes come from a cache.
+     */
+    @Test
+    public void test_readStaticFile_Gzip() throws IOException {
+        var gzipHeaders = new Headers(List.of("Accept-Encoding: gzip, deflate"));
+        IResponse response = webFramework.readStaticFile("main.css", gzipHeaders);
+
+        assertEquals(response.getStatusCode(), CODE_200_OK);
+        assertEquals(response.getExtraHeaders().get("content-encoding"), "gzip");
+        assertEquals(response.getExtraHeaders().get("vary"), "accept-encoding");
+        assertEquals(response.getExtraHeaders().get("content-type"), "text/css");
+        byte[] uncompressed = new GZIPInputStream(new ByteArrayInputStream(response.getBody())).readAllBytes();
+        assertEqualByteArray(uncompressed, Files.readAllBytes(Path.of("src/test/webapp/static/main.css")));
+        assertTrue(webFramework.readStaticFile("main.css", gzipHeaders).getBody() == response.getBody());
+
+        // not for clients which do not accept it
+        IResponse plainResponse = webFramework.readStaticFile("main.css", defaultHeaders);
+        assertTrue(plainResponse.getExtraHeaders().get("content-encoding") == null);
+    }
+
+    /**
+     * Static files carry an ETag and Last-Modified.  A client sending these
+     * back (in If-None-Match or If-Modified-Since) for an unchanged file
+     * gets a bodiless 304 instead of the file.
+     */
+    @Test
+    public void test_readStaticFile_NotModified() {
+        IResponse response = webFramework.readStaticFile("main.css", defaultHeaders);
+        String eTag = response.getExtraHeaders().get("etag");
+        String lastModified = response.getExtraHeaders().get("last-modified");
+        assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+        assertFalse(lastModified.isBlank());
+
+        IResponse notModified = webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: " + eTag)));
+        assertEquals(notModified.getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(notModified.getBodyLength(), 0L);
+        assertEquals(notModified.getExtraHeaders().get("etag"), eTag);
+        assertEquals(notModified.getExtraHeaders().get("last-modified"), lastModified);
+
+        // weak comparison, lists of tags, and the wildcard
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: W/" + eTag))).getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: \"abc\", " + eTag))).getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: *"))).getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: \"abc\""))).getStatusCode(), CODE_200_OK);
+
+        // by date
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-Modified-Since: " + lastModified))).getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-Modified-Since: Thu, 1 Jan 1970 00:00:00 GMT"))).getStatusCode(), CODE_200_OK);
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-Modified-Since: not a date"))).getStatusCode(), CODE_200_OK);
+
+        // If-None-Match takes precedence over If-Modified-Since
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: \"abc\"", "If-Modified-Since: " + lastModified))).getStatusCode(), CODE_200_OK);
+    }
+
+    /**
+     * The gzipped version of a static file has its own entity tag, which only
+     * matches for clients that accept gzip.
+     */
+    @Test
+    public void test_readStaticFile_NotModified_Gzip() {
+        var gzipHeaders = new Headers(List.of("Accept-Encoding: gzip"));
+        IResponse response = webFramework.readStaticFile("main.css", gzipHeaders);
+        String eTag = response.getExtraHeaders().get("etag");
+        assertTrue(eTag.endsWith("-gzip\""));
+        assertEquals(eTag, WebFramework.gzipETag(webFramework.readStaticFile("main.css", defaultHeaders).getExtraHeaders().get("etag")));
+
+        IResponse notModified = webFramework.readStaticFile("main.css", new Headers(List.of("Accept-Encoding: gzip", "If-None-Match: " + eTag)));
+        assertEquals(notModified.getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(notModified.getExtraHeaders().get("etag"), eTag);
+        assertEquals(notModified.getExtraHeaders().get("vary"), "accept-encoding");
+
+        assertEquals(webFramework.readStaticFile("main.css", new Headers(List.of("If-None-Match: " + eTag))).getStatusCode(), CODE_200_OK);
+    }
+
+    /**
+     * With USE_ETAGS_FOR_DYNAMIC_RESPONSES, a successful GET whose body is in
+     * memory gets an ETag from a hash of its body, unless the endpoint set its own.
+     */
+    @Test
+    public void test_FindOrBuildDynamicETag() {
+        var getLine = new RequestLine(RequestLine.Method.GET, PathDetails.empty, HttpVersion.ONE_DOT_ONE, "", logger);
+        var postLine = new RequestLine(RequestLine.Method.POST, PathDetails.empty, HttpVersion.ONE_DOT_ONE, "", logger);
+
+        String eTag = WebFramework.findOrBuildDynamicETag(getLine, Response.htmlOk("hello"));
+        assertEquals(eTag, WebFramework.buildETag("hello".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(eTag.equals(WebFramework.buildETag("hellp".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(WebFramework.findOrBuildDynamicETag(getLine, Response.htmlOk("hello", Map.of("ETag", "\"v1\""))), "\"v1\"");
+
+        assertTrue(WebFramework.findOrBuildDynamicETag(postLine, Response.htmlOk("hello")) == null);
+        assertTrue(WebFramework.findOrBuildDynamicETag(getLine, Response.buildResponse(CODE_404_NOT_FOUND, Map.of("Content-Type", "text/plain"), "hello")) == null);
+        assertTrue(WebFramework.findOrBuildDynamicETag(getLine, Response.buildStreamingResponse(CODE_200_OK, Map.of(), sw -> {})) == null);
+    }
+
+    /**
+     * A 304 for a dynamic response keeps its headers, other than those
+     * describing the body
+     */
+    @Test
+    public void test_CheckNotModified_Dynamic() {
+        IResponse response = Response.htmlOk("hello", Map.of("Cache-Control", "no-cache", "Set-Cookie", "a=b"));
+        String eTag = WebFramework.buildETag(response.getBody());
+
+        IResponse notModified = WebFramework.checkNotModified(new Headers(List.of("If-None-Match: " + eTag)), response, eTag);
+        assertEquals(notModified.getStatusCode(), CODE_304_NOT_MODIFIED);
+        assertEquals(notModified.getExtraHeaders().get("ETag"), eTag);
+        assertEquals(notModified.getExtraHeaders().get("Cache-Control"), "no-cache");
+        assertEquals(notModified.getExtraHeaders().get("Set-Cookie"), "a=b");
+        assertTrue(notModified.getExtraHeaders().get("Content-Type") == null);
+
+        // the client had the gzipped version
+        IResponse notModifiedGzip = WebFramework.checkNotModified(
+                new Headers(List.of("Accept-Encoding: gzip", "If-None-Match: " + WebFramework.gzipETag(eTag))), response, eTag);
+        assertEquals(notModifiedGzip.getExtraHeaders().get("ETag"), WebFramework.gzipETag(eTag));
+        assertEquals(notModifiedGzip.getExtraHeaders().get("Vary"), "accept-encoding");
+
+        assertTrue(WebFramework.checkNotModified(new Headers(List.of("If-None-Match: \"abc\"")), response, eTag) == null);
+        assertTrue(WebFramework.checkNotModified(defaultHeaders, response, eTag) == null);
+    }
+
+    @Test
+    public void test_GzipETag() {
+        assertEquals(WebFramework.gzipETag("\"abc\""), "\"abc-gzip\"");
+        assertEquals(WebFramework.gzipETag("\"abc-gzip\""), "\"abc-gzip\"");
+        assertEquals(WebFramework.gzipETag("W/\"abc\""), "W/\"abc\"");
+    }
+
+    /**
+     * Streaming and large-file bodies of text are gzipped as they are sent,
+     * when the client accepts it.
+     */
+    @Test
+    public void test_ShouldGzipWhileSending() {
+        var gzipHeaders = new Headers(List.of("Accept-Encoding: gzip"));
+        var textHeaders = Map.of("Content-Type", "text/csv");
+        IResponse streaming = Response.buildStreamingResponse(CODE_200_OK, textHeaders, sw -> {});
+        IResponse largeKnownLength = Response.buildStreamingResponse(CODE_200_OK, textHeaders, sw -> {}, 100_000);
+
+        assertTrue(WebFramework.shouldGzipWhileSending(gzipHeaders, streaming, HttpVersion.ONE_DOT_ONE));
+        assertTrue(WebFramework.shouldGzipWhileSending(gzipHeaders, streaming, HttpVersion.ONE_DOT_ZERO));
+        assertTrue(WebFramework.shouldGzipWhileSending(gzipHeaders, largeKnownLength, HttpVersion.ONE_DOT_ONE));
+
+        // a known length can only become unknown for HTTP/1.1, which has chunks
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, largeKnownLength, HttpVersion.ONE_DOT_ZERO));
+        // too small to be worth it
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, Response.buildStreamingResponse(CODE_200_OK, textHeaders, sw -> {}, 100), HttpVersion.ONE_DOT_ONE));
+        // the client does not accept gzip
+        assertFalse(WebFramework.shouldGzipWhileSending(defaultHeaders, streaming, HttpVersion.ONE_DOT_ONE));
+        // not text
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, Response.buildStreamingResponse(CODE_200_OK, Map.of("Content-Type", "video/mp4"), sw -> {}), HttpVersion.ONE_DOT_ONE));
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, Response.buildStreamingResponse(CODE_200_OK, Map.of(), sw -> {}), HttpVersion.ONE_DOT_ONE));
+        // already encoded, or just a part
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, Response.buildStreamingResponse(CODE_200_OK, Map.of("Content-Type", "text/csv", "Content-Encoding", "gzip"), sw -> {}), HttpVersion.ONE_DOT_ONE));
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, Response.buildStreamingResponse(CODE_200_OK, Map.of("Content-Type", "text/csv", "Content-Range", "bytes 0-99999/200000"), sw -> {}, 100_000), HttpVersion.ONE_DOT_ONE));
+        // bodies in memory are compressed beforehand instead
+        assertFalse(WebFramework.shouldGzipWhileSending(gzipHeaders, Response.htmlOk("a".repeat(10_000)), HttpVersion.ONE_DOT_ONE));
+    }
+
+    /**
+     * Images are already compressed, and small files are not worth it
+     */
+    @Test
+    public void test_readStaticFile_Gzip_NotCompressed() {
+        var gzipHeaders = new Headers(List.of("Accept-Encoding: gzip"));
+
+        assertTrue(webFramework.readStaticFile("moon.webp", gzipHeaders).getExtraHeaders().get("content-encoding") == null);
+        assertTrue(webFramework.readStaticFile("index.html", gzipHeaders).getExtraHeaders().get("content-encoding") == null);
+    }
+
+    /**
+     * If there is a file with the same name plus ".gz", it is sent
+     * as it is, however small, rather than compressing here.
+     */
+    @Test
+    public void test_readStaticFile_GzipSidecar() throws IOException {
+        Path file = Path.of("src/test/webapp/static/sidecar_test.js");
+        Path sidecar = Path.of("src/test/webapp/static/sidecar_test.js.gz");
+        byte[] sidecarBytes = Response.gzip("console.log('hello');".getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.writeString(file, "console.log('hello');");
+            Files.write(sidecar, sidecarBytes);
+
+            IResponse response = webFramework.readStaticFile("sidecar_test.js", new Headers(List.of("accept-encoding: gzip")));
+
+            assertEquals(response.getExtraHeaders().get("content-encoding"), "gzip");
+            assertEquals(response.getExtraHeaders().get("content-type"), "application/javascript");
+            assertEqualByteArray(response.getBody(), sidecarBytes);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(sidecar);
+        }
+    }
+
     /**
      * Edge case - current directory
      */
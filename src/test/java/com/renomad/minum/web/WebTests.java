@@ -25,6 +25,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import static com.renomad.minum.testing.TestFramework.*;
 import static com.renomad.minum.web.FunctionalTesting.extractStatusLine;
@@ -847,6 +848,381 @@ public class WebTests {
         MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
     }
 
+    /**
+     * The length is not known in advance, so an HTTP/1.1 client is sent the
+     * body in chunks, and the connection can be used again afterwards.  An
+     * HTTP/1.0 client is sent the body as it is, followed by the connection closing.
+     */
+    @Test
+    public void test_StreamingResponse_Chunked() throws Exception {
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> Response.buildChunkedResponse(
+                CODE_200_OK,
+                Map.of("Content-Type", "text/plain"),
+                outputStream -> {
+                    outputStream.write("hello ".getBytes(StandardCharsets.UTF_8));
+                    outputStream.flush();
+                    outputStream.write("world".getBytes(StandardCharsets.UTF_8));
+                });
+
+        var wf = new WebFramework(context, default_zdt);
+        var webEngine = new WebEngine(context, wf);
+
+        wf.registerPath(GET, "some_endpoint", testHandler);
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    for (int i = 0; i < 2; i++) {
+                        client.sendHttpLine("GET /some_endpoint HTTP/1.1");
+                        client.sendHttpLine("Host: localhost:8080");
+                        client.sendHttpLine("");
+                        client.flush();
+
+                        StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                        assertEquals(statusLine.status(), CODE_200_OK);
+                        Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                        assertEquals(headers.valueByKey("transfer-encoding"), List.of("chunked"));
+                        assertTrue(headers.valueByKey("content-length") == null);
+
+                        List<String> chunkLines = new ArrayList<>();
+                        for (int j = 0; j < 6; j++) {
+                            chunkLines.add(inputStreamUtils.readLine(is));
+                        }
+                        assertEquals(chunkLines, List.of("6", "hello ", "5", "world", "0", ""));
+                    }
+                }
+            }
+
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    client.sendHttpLine("GET /some_endpoint HTTP/1.0");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("Connection: keep-alive");
+                    client.sendHttpLine("");
+                    client.flush();
+
+                    StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                    assertEquals(statusLine.status(), CODE_200_OK);
+                    Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    assertTrue(headers.valueByKey("transfer-encoding") == null);
+                    assertTrue(headers.valueByKey("keep-alive") == null);
+                    assertEquals(new String(is.readAllBytes(), StandardCharsets.UTF_8), "hello world");
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+    }
+
+    /**
+     * A streaming text response, for a client which accepts gzip, is compressed
+     * as it is sent, in chunks, and the connection can be used again afterwards.
+     */
+    @Test
+    public void test_StreamingResponse_Gzip() throws Exception {
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> Response.buildChunkedResponse(
+                CODE_200_OK,
+                Map.of("Content-Type", "text/plain"),
+                outputStream -> {
+                    for (int i = 0; i < 1000; i++) {
+                        outputStream.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+
+        var wf = new WebFramework(context, default_zdt);
+        var webEngine = new WebEngine(context, wf);
+
+        wf.registerPath(GET, "some_endpoint", testHandler);
+        var expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) expected.append("line ").append(i).append("\n");
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    for (int i = 0; i < 2; i++) {
+                        client.sendHttpLine("GET /some_endpoint HTTP/1.1");
+                        client.sendHttpLine("Host: localhost:8080");
+                        client.sendHttpLine("Accept-Encoding: gzip");
+                        client.sendHttpLine("");
+                        client.flush();
+
+                        StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                        assertEquals(statusLine.status(), CODE_200_OK);
+                        Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                        assertEquals(headers.valueByKey("transfer-encoding"), List.of("chunked"));
+                        assertEquals(headers.valueByKey("content-encoding"), List.of("gzip"));
+                        var chunkedInputStream = new ChunkedInputStream(is, inputStreamUtils, 100_000);
+                        String body = new String(new GZIPInputStream(chunkedInputStream).readAllBytes(), StandardCharsets.UTF_8);
+                        assertEquals(body, expected.toString());
+                        // the rest of the chunked body, so the next response starts cleanly
+                        chunkedInputStream.readAllBytes();
+                    }
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+    }
+
+    /**
+     * A large uploaded file is written to a temporary file rather than held
+     * in memory, and that file is deleted once the response has been sent.
+     */
+    @Test
+    public void test_LargeMultipartPartition_TemporaryFile() throws Exception {
+        var partitionPath = new AtomicReference<Path>();
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> {
+            Partition partition = r.getBody().getPartitionByName("upload").getFirst();
+            partitionPath.set(partition.getPath());
+            assertTrue(Files.exists(partition.getPath()));
+            return Response.htmlOk(String.valueOf(partition.getSize()));
+        };
+        var properties = new Properties();
+        properties.setProperty("MULTIPART_MEMORY_THRESHOLD_BYTES", "100");
+        var customContext = buildTestingContext("test_LargeMultipartPartition_TemporaryFile", properties);
+        int uploadSize = 1000;
+        byte[] multipartBody = ("""
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="upload"; filename="upload.bin"\r
+                \r
+                %s\r
+                --i_am_a_boundary--\r
+                """.formatted("a".repeat(uploadSize))).stripLeading().getBytes(StandardCharsets.US_ASCII);
+
+        var wf = new WebFramework(customContext, default_zdt);
+        var webEngine = new WebEngine(customContext, wf);
+
+        wf.registerPath(POST, "some_endpoint", testHandler);
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, customContext.getConstants().socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    client.sendHttpLine("POST /some_endpoint HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("Content-Type: multipart/form-data; boundary=i_am_a_boundary");
+                    client.sendHttpLine("Content-Length: " + multipartBody.length);
+                    client.sendHttpLine("");
+                    client.send(multipartBody);
+                    client.flush();
+
+                    StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                    assertEquals(statusLine.status(), CODE_200_OK);
+                    Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    String body = new String(inputStreamUtils.read(headers.contentLength(), is), StandardCharsets.UTF_8);
+                    assertEquals(body, String.valueOf(uploadSize));
+                }
+            }
+        }
+        // the file is deleted just after the response is sent, so give that a moment
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+        assertFalse(Files.exists(partitionPath.get()));
+        shutdownTestingContext(customContext);
+    }
+
+    /**
+     * A conditional GET for an unchanged static file gets a 304 with no body
+     * and no Content-Length, and the connection carries on to the next request.
+     */
+    @Test
+    public void test_StaticFile_NotModified() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("STATIC_FILES_DIRECTORY", "src/test/webapp/static");
+        var customContext = buildTestingContext("test_StaticFile_NotModified", properties);
+        var wf = new WebFramework(customContext, default_zdt);
+        var webEngine = new WebEngine(customContext, wf);
+
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, customContext.getConstants().socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    client.sendHttpLine("GET /main.css HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("");
+                    client.flush();
+                    assertEquals(extractStatusLine(inputStreamUtils.readLine(is)).status(), CODE_200_OK);
+                    Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    byte[] body = inputStreamUtils.read(headers.contentLength(), is);
+                    String eTag = headers.valueByKey("etag").getFirst();
+
+                    for (int i = 0; i < 2; i++) {
+                        client.sendHttpLine("GET /main.css HTTP/1.1");
+                        client.sendHttpLine("Host: localhost:8080");
+                        client.sendHttpLine("If-None-Match: " + eTag);
+                        client.sendHttpLine("");
+                        client.flush();
+                        assertEquals(extractStatusLine(inputStreamUtils.readLine(is)).status(), CODE_304_NOT_MODIFIED);
+                        Headers notModifiedHeaders = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                        assertTrue(notModifiedHeaders.valueByKey("content-length") == null);
+                        assertEquals(notModifiedHeaders.valueByKey("etag"), List.of(eTag));
+                    }
+
+                    client.sendHttpLine("GET /main.css HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("");
+                    client.flush();
+                    assertEquals(extractStatusLine(inputStreamUtils.readLine(is)).status(), CODE_200_OK);
+                    Headers lastHeaders = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    assertEqualByteArray(inputStreamUtils.read(lastHeaders.contentLength(), is), body);
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+        shutdownTestingContext(customContext);
+    }
+
+    /**
+     * With USE_ETAGS_FOR_DYNAMIC_RESPONSES, an endpoint's page gets an ETag, and
+     * asking again with that ETag gets a 304 instead of the page.  A compressed
+     * page has the gzip version of the tag.
+     */
+    @Test
+    public void test_DynamicResponse_NotModified() throws Exception {
+        String page = "<p>hello</p>".repeat(500);
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> Response.htmlOk(page);
+        var properties = new Properties();
+        properties.setProperty("USE_ETAGS_FOR_DYNAMIC_RESPONSES", "true");
+        var customContext = buildTestingContext("test_DynamicResponse_NotModified", properties);
+        var wf = new WebFramework(customContext, default_zdt);
+        var webEngine = new WebEngine(customContext, wf);
+
+        wf.registerPath(GET, "some_endpoint", testHandler);
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, customContext.getConstants().socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    client.sendHttpLine("GET /some_endpoint HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("Accept-Encoding: gzip");
+                    client.sendHttpLine("");
+                    client.flush();
+                    assertEquals(extractStatusLine(inputStreamUtils.readLine(is)).status(), CODE_200_OK);
+                    Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    inputStreamUtils.read(headers.contentLength(), is);
+                    String eTag = headers.valueByKey("etag").getFirst();
+                    assertEquals(eTag, WebFramework.gzipETag(WebFramework.buildETag(page.getBytes(StandardCharsets.UTF_8))));
+
+                    client.sendHttpLine("GET /some_endpoint HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("Accept-Encoding: gzip");
+                    client.sendHttpLine("If-None-Match: " + eTag);
+                    client.sendHttpLine("");
+                    client.flush();
+                    assertEquals(extractStatusLine(inputStreamUtils.readLine(is)).status(), CODE_304_NOT_MODIFIED);
+                    Headers notModifiedHeaders = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    assertTrue(notModifiedHeaders.valueByKey("content-length") == null);
+                    assertEquals(notModifiedHeaders.valueByKey("etag"), List.of(eTag));
+
+                    // without gzip, the tag is of the page as it is
+                    client.sendHttpLine("GET /some_endpoint HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("");
+                    client.flush();
+                    assertEquals(extractStatusLine(inputStreamUtils.readLine(is)).status(), CODE_200_OK);
+                    Headers plainHeaders = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    assertEquals(new String(inputStreamUtils.read(plainHeaders.contentLength(), is), StandardCharsets.UTF_8), page);
+                    assertEquals(plainHeaders.valueByKey("etag"), List.of(WebFramework.buildETag(page.getBytes(StandardCharsets.UTF_8))));
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+        shutdownTestingContext(customContext);
+    }
+
+    /**
+     * A body sent in chunks is streamed through the multipart iterator, and
+     * is read to its end, so the connection can be used for another request.
+     */
+    @Test
+    public void test_ChunkedRequestBody() throws Exception {
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> {
+            var names = new ArrayList<String>();
+            for (StreamingMultipartPartition partition : r.getMultipartIterable()) {
+                names.add(partition.getContentDisposition().getName() + "=" + new String(partition.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return Response.htmlOk(String.join(",", names));
+        };
+        String multipartBody = """
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="text1"\r
+                \r
+                foo\r
+                --i_am_a_boundary\r
+                Content-Disposition: form-data; name="text2"\r
+                \r
+                bar\r
+                --i_am_a_boundary--\r
+                """.stripLeading();
+
+        var wf = new WebFramework(context, default_zdt);
+        var webEngine = new WebEngine(context, wf);
+
+        wf.registerPath(POST, "some_endpoint", testHandler);
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    for (int i = 0; i < 2; i++) {
+                        client.sendHttpLine("POST /some_endpoint HTTP/1.1");
+                        client.sendHttpLine("Host: localhost:8080");
+                        client.sendHttpLine("Content-Type: multipart/form-data; boundary=i_am_a_boundary");
+                        client.sendHttpLine("Transfer-Encoding: chunked");
+                        client.sendHttpLine("");
+                        client.send(BodyProcessorTests.chunked(multipartBody, 10));
+                        client.flush();
+
+                        StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                        assertEquals(statusLine.status(), CODE_200_OK);
+                        Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                        String body = new String(inputStreamUtils.read(headers.contentLength(), is), StandardCharsets.UTF_8);
+                        assertEquals(body, "text1=foo,text2=bar");
+                    }
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+    }
+
+    /**
+     * A Transfer-Encoding whose last coding is not chunked leaves us no
+     * safe way to find the end of the body, so it gets a 400 and the
+     * connection is closed.
+     */
+    @Test
+    public void test_TransferEncoding_NotChunked() throws Exception {
+        var wf = new WebFramework(context, default_zdt);
+        var webEngine = new WebEngine(context, wf);
+
+        wf.registerPath(POST, "some_endpoint", request -> Response.htmlOk("should not get here"));
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    client.sendHttpLine("POST /some_endpoint HTTP/1.1");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("Transfer-Encoding: chunked, gzip");
+                    client.sendHttpLine("Content-Length: 3");
+                    client.sendHttpLine("");
+                    client.send("abc");
+                    client.flush();
+
+                    StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                    assertEquals(statusLine.status(), CODE_400_BAD_REQUEST);
+                    Headers.getAllHeaders(is, inputStreamUtils);
+                    // and then the server closes the connection
+                    assertTrue(inputStreamUtils.readLine(is) == null);
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+    }
+
     @Test
     public void test_Headers_Multiple() {
         Headers headers = new Headers(List.of("foo: a", "foo: b"));
@@ -1068,6 +1444,25 @@ public class WebTests {
         assertEquals(webFramework.findHandlerByPartialMatch(startLine), helloHandler);
     }
 
+    /**
+     * The values of path parameters are given to the handler on the request,
+     * including when a pre-handler runs it.
+     */
+    @Test
+    public void test_PathParameters() throws Exception {
+        var webFramework = new WebFramework(context, default_zdt);
+        webFramework.registerPath(GET, "users/{id}/posts", request -> Response.htmlOk("user " + request.getPathParameters().get("id")));
+        webFramework.registerPreHandler(inputs -> inputs.endpoint().apply(inputs.clientRequest()));
+
+        var requestLine = new RequestLine(GET, new PathDetails("users/Alice/posts", "", Map.of()), ONE_DOT_ONE, "GET /users/Alice/posts HTTP/1.1", logger);
+        try (var sw = new FakeSocketWrapper()) {
+            var request = new Request(new Headers(List.of()), requestLine, "", sw, null);
+            IResponse response = webFramework.processRequest(request, sw, requestLine, new Headers(List.of()));
+            assertEquals(new String(response.getBody(), StandardCharsets.UTF_8), "user Alice");
+            assertEquals(request.getPathParameters(), Map.of("id", "Alice"));
+        }
+    }
+
     /**
      * if pathDetails is null, we'll get an empty hashmap
      */
@@ -1629,6 +2024,24 @@ public class WebTests {
         assertFalse(isKeepAlive);
     }
 
+    /**
+     * A request with both Transfer-Encoding and Content-Length could be read
+     * differently by a proxy in front of us, so the connection is not kept
+     * alive afterwards.  Likewise for a Transfer-Encoding not ending in chunked.
+     */
+    @Test
+    public void testDetermineIfKeepAlive_TransferEncodingAndContentLength() {
+        RequestLine requestLine = new RequestLine(POST, PathDetails.empty, ONE_DOT_ONE, "", logger);
+        IRequest chunkedRequest = getMyRequest(requestLine, new Headers(List.of("transfer-encoding: chunked")));
+        assertTrue(WebFramework.determineIfKeepAlive(chunkedRequest, logger, true));
+
+        IRequest bothRequest = getMyRequest(requestLine, new Headers(List.of("transfer-encoding: chunked", "content-length: 5")));
+        assertFalse(WebFramework.determineIfKeepAlive(bothRequest, logger, true));
+
+        IRequest notChunkedRequest = getMyRequest(requestLine, new Headers(List.of("transfer-encoding: gzip")));
+        assertFalse(WebFramework.determineIfKeepAlive(notChunkedRequest, logger, true));
+    }
+
     /**
      * Because the code is written to facilitate access for testing,
      * there have to be checks on whether the objects are non-null before